@@ -25,20 +25,38 @@ import com.android.tools.idea.concurrency.createChildScope
 import com.intellij.openapi.Disposable
 import com.intellij.openapi.util.Disposer
 import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.channels.Channel
 import kotlinx.coroutines.delay
 import kotlinx.coroutines.flow.collect
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.withTimeoutOrNull
 import java.util.concurrent.ConcurrentHashMap
-import java.util.concurrent.atomic.AtomicReference
 
 private const val MAX_PIDS = 1000
 
+/**
+ * Processes listed by `ps` include native processes and kernel threads, so their cache needs more room for terminated processes.
+ */
+private const val MAX_PS_PIDS = 2000
+
+/**
+ * The minimum interval between two runs of `ps`, however often unknown pids are looked up.
+ */
 private const val DEVICE_PROCESSES_UPDATE_INTERVAL_MS = 2000L
 
+/**
+ * The interval at which `ps` runs when no unknown pid is looked up, to notice terminated processes.
+ */
+private const val DEVICE_PROCESSES_RECONCILIATION_INTERVAL_MS = 30_000L
+
 /**
  * Monitors a device and keeps track of process names.
  *
- * Some process information is kept even after they terminate.
+ * The processes of clients are tracked as they are added and removed. Other processes are found by listing the processes of the device
+ * with `ps`, which only runs when looking up a pid that is not known yet, and otherwise at a slow interval to reconcile the processes
+ * that terminated.
+ *
+ * Some process information is kept even after they terminate, so that late lookups, like the last log lines of a process, still resolve.
  *
  * @param parentDisposable The parent [Disposable] that controls lifecycle of this instance
  * @param parentScope The parent coroutine scope used to launch coroutines in
@@ -55,9 +73,9 @@ internal class ProcessNameClientMonitor(
   private val maxPidsBeforeEviction: Int = MAX_PIDS,
 ) : Disposable {
   /**
-   * The map of pid -> [ProcessNames] for currently alive processes, plus recently terminated processes.
+   * The processes of clients, plus recently terminated ones.
    */
-  private val processes = ConcurrentHashMap<Int, ProcessNames>()
+  private val clientProcesses = ProcessTable("client", maxPidsBeforeEviction)
   private val deviceProcessUpdater = DeviceProcessUpdater()
   private val coroutineScope = parentScope.createChildScope(parentDisposable = this)
 
@@ -67,46 +85,45 @@ internal class ProcessNameClientMonitor(
 
   fun start() {
     coroutineScope.launch {
-      // Set of pids corresponding to processes that were (recently) terminated and
-      // are candidates to be removed from [processes] when the latter is full.
-      val evictionList = LinkedHashSet<Int>()
-
       flows.trackClients(device).collect { (addedProcesses, removedProcesses) ->
-        // All terminated processes immediately become candidates for eviction
-        evictionList.addAll(removedProcesses)
-
-        // New processes are stored in the map and removed from (dead processes) eviction list
-        addedProcesses.forEach { (pid, names) ->
-          LOGGER.debug("${device.serialNumber}: Adding client $pid -> $names")
-          processes[pid] = names
-          // Do not evict a pid that is being reused
-          evictionList.remove(pid)
-        }
-
-        // When we have more than maxPidsBeforeEviction entries in the cache, try to evict dead processes.
-        // Note that we can still end up with more than maxPidsBeforeEviction if they are all still active.
-        while (processes.size > maxPidsBeforeEviction && evictionList.isNotEmpty()) {
-          val pid = evictionList.first()
-          evictionList.remove(pid)
-          val evicted = processes.remove(pid)
-          LOGGER.debug("${device.serialNumber}: Evicting $pid -> $evicted")
-        }
+        clientProcesses.update(addedProcesses, removedProcesses)
       }
     }
     coroutineScope.launch {
       while (true) {
         deviceProcessUpdater.updateNow()
         delay(DEVICE_PROCESSES_UPDATE_INTERVAL_MS)
+        withTimeoutOrNull(DEVICE_PROCESSES_RECONCILIATION_INTERVAL_MS - DEVICE_PROCESSES_UPDATE_INTERVAL_MS) {
+          deviceProcessUpdater.updateRequests.receive()
+        }
       }
     }
   }
 
-  fun getProcessNames(pid: Int): ProcessNames? = processes[pid] ?: deviceProcessUpdater.getPidName(pid)
+  /**
+   * Returns the names of a process, preferring alive processes over terminated ones whose pid was reused.
+   */
+  fun getProcessNames(pid: Int): ProcessNames? {
+    val clientProcess = clientProcesses[pid]
+    if (clientProcess?.isAlive == true) {
+      return clientProcess.names
+    }
+    val deviceProcess = deviceProcessUpdater.getProcess(pid)
+    if (deviceProcess?.isAlive == true) {
+      return deviceProcess.names
+    }
+    return clientProcess?.names ?: deviceProcess?.names
+  }
 
   override fun dispose() {}
 
   private inner class DeviceProcessUpdater {
-    private val lastKnownPids = AtomicReference(mapOf<Int, ProcessNames>())
+    private val processes = ProcessTable("ps", MAX_PS_PIDS)
+
+    /**
+     * Requests to run `ps` as soon as allowed by [DEVICE_PROCESSES_UPDATE_INTERVAL_MS], sent when looking up an unknown pid.
+     */
+    val updateRequests = Channel<Unit>(Channel.CONFLATED)
 
     suspend fun updateNow() {
       try {
@@ -121,16 +138,89 @@ internal class ProcessNameClientMonitor(
             names[pid] = ProcessNames("", processName)
           }
         }
-        LOGGER.debug("${device.serialNumber}: Adding ${names.size} processes from ps command")
-        lastKnownPids.set(names)
+        LOGGER.debug("${device.serialNumber}: Reconciling ${names.size} processes from ps command")
+        processes.reconcile(names)
       }
       catch (e: Throwable) {
         LOGGER.warn("Error listing device processes", e)
         // We have no idea what error to expect here and how long this may last, so safer to discard old data.
-        lastKnownPids.set(mapOf())
+        processes.clear()
+      }
+    }
+
+    fun getProcess(pid: Int): ProcessEntry? {
+      val process = processes[pid]
+      if (process == null) {
+        updateRequests.trySend(Unit)
       }
+      return process
     }
+  }
+
+  private class ProcessEntry(val names: ProcessNames, val isAlive: Boolean)
+
+  /**
+   * A map of pid -> [ProcessNames] of alive processes, plus recently terminated processes.
+   *
+   * Lookups do not lock, updates are serialized.
+   */
+  private inner class ProcessTable(private val source: String, private val maxPids: Int) {
+    private val processes = ConcurrentHashMap<Int, ProcessEntry>()
+
+    /**
+     * Set of pids corresponding to processes that were (recently) terminated and are candidates to be removed from [processes] when the
+     * latter is full.
+     */
+    private val evictionList = LinkedHashSet<Int>()
+
+    operator fun get(pid: Int): ProcessEntry? = processes[pid]
+
+    @Synchronized
+    fun update(addedProcesses: Map<Int, ProcessNames>, removedProcesses: Collection<Int>) {
+      // All terminated processes immediately become candidates for eviction
+      removedProcesses.forEach { pid ->
+        val process = processes[pid] ?: return@forEach
+        processes[pid] = ProcessEntry(process.names, isAlive = false)
+        evictionList.add(pid)
+      }
 
-    fun getPidName(pid: Int): ProcessNames? = lastKnownPids.get()[pid]
+      // New processes are stored in the map and removed from (dead processes) eviction list
+      addedProcesses.forEach { (pid, names) ->
+        if (LOGGER.isDebugEnabled) {
+          LOGGER.debug("${device.serialNumber}: Adding $source $pid -> $names")
+        }
+        processes[pid] = ProcessEntry(names, isAlive = true)
+        // Do not evict a pid that is being reused
+        evictionList.remove(pid)
+      }
+
+      // When we have more than maxPids entries in the cache, try to evict dead processes.
+      // Note that we can still end up with more than maxPids if they are all still active.
+      while (processes.size > maxPids && evictionList.isNotEmpty()) {
+        val pid = evictionList.first()
+        evictionList.remove(pid)
+        val evicted = processes.remove(pid)
+        LOGGER.debug("${device.serialNumber}: Evicting $source $pid -> ${evicted?.names}")
+      }
+    }
+
+    /**
+     * Applies the difference between the alive processes and a full list of the processes of the device.
+     */
+    @Synchronized
+    fun reconcile(alivePids: Map<Int, ProcessNames>) {
+      val removedProcesses = processes.filter { (pid, process) -> process.isAlive && !alivePids.containsKey(pid) }.keys
+      val addedProcesses = alivePids.filter { (pid, names) ->
+        val process = processes[pid]
+        process == null || !process.isAlive || process.names != names
+      }
+      update(addedProcesses, removedProcesses)
+    }
+
+    @Synchronized
+    fun clear() {
+      processes.clear()
+      evictionList.clear()
+    }
   }
 }
@@ -184,7 +184,7 @@ class ProcessNameClientMonitorTest {
 
         flows.sendClientEvents(device.serialNumber, clientsAddedEvent(process1))
 
-        testScheduler.advanceTimeBy(2000)
+        testScheduler.advanceTimeBy(30_000)
         testScheduler.runCurrent()
         assertThat(monitor.getProcessNames(1)).isEqualTo(process1.names)
         assertThat(monitor.getProcessNames(2)).isEqualTo(ProcessNames("", "process2-from-ps"))
@@ -207,7 +207,7 @@ class ProcessNameClientMonitorTest {
 
         flows.sendClientEvents(device.serialNumber, clientsAddedEvent(process1))
 
-        testScheduler.advanceTimeBy(2000)
+        testScheduler.advanceTimeBy(30_000)
         testScheduler.runCurrent()
         assertThat(monitor.getProcessNames(1)).isEqualTo(process1.names)
       }
@@ -227,7 +227,7 @@ class ProcessNameClientMonitorTest {
           3 process3-from-ps
 
         """.trimIndent())
-        testScheduler.advanceTimeBy(2000)
+        testScheduler.advanceTimeBy(30_000)
         testScheduler.runCurrent()
 
         fakeAdbDeviceServices.configureShellCommand(
@@ -238,16 +238,62 @@ class ProcessNameClientMonitorTest {
           4 process4-from-ps
 
         """.trimIndent())
-        testScheduler.advanceTimeBy(2000)
+        testScheduler.advanceTimeBy(30_000)
         testScheduler.runCurrent()
 
-        assertThat(monitor.getProcessNames(2)).isNull()
+        // Terminated processes are still resolved.
+        assertThat(monitor.getProcessNames(2)).isEqualTo(ProcessNames("", "process2-from-ps"))
         assertThat(monitor.getProcessNames(3)).isEqualTo(ProcessNames("", "new-process3-from-ps"))
         assertThat(monitor.getProcessNames(4)).isEqualTo(ProcessNames("", "process4-from-ps"))
       }
     }
   }
 
+  @Test
+  fun processNamesFromPs_unknownPidTriggersUpdate() = runBlockingTest {
+    FakeProcessNameMonitorFlows().use { flows ->
+      processNameClientMonitor(flows = flows, device = device).use { monitor ->
+        fakeAdbDeviceServices.configureShellCommand(
+          DeviceSelector.fromSerialNumber(device.serialNumber),
+          PS_COMMAND,
+          """
+          2 process2-from-ps
+
+        """.trimIndent())
+
+        // ps does not run again before the reconciliation interval unless an unknown pid is looked up.
+        testScheduler.advanceTimeBy(2000)
+        testScheduler.runCurrent()
+        assertThat(monitor.getProcessNames(2)).isNull()
+
+        testScheduler.runCurrent()
+        assertThat(monitor.getProcessNames(2)).isEqualTo(ProcessNames("", "process2-from-ps"))
+      }
+    }
+  }
+
+  @Test
+  fun processNamesFromPs_preferAliveProcess() = runBlockingTest {
+    FakeProcessNameMonitorFlows().use { flows ->
+      processNameClientMonitor(flows = flows, device = device).use { monitor ->
+        fakeAdbDeviceServices.configureShellCommand(
+          DeviceSelector.fromSerialNumber(device.serialNumber),
+          PS_COMMAND,
+          """
+          1 process1-from-ps
+
+        """.trimIndent())
+
+        // The pid of a terminated client is reused by a native process.
+        flows.sendClientEvents(device.serialNumber, clientsAddedEvent(process1), clientsRemovedEvent(1))
+
+        testScheduler.advanceTimeBy(30_000)
+        testScheduler.runCurrent()
+        assertThat(monitor.getProcessNames(1)).isEqualTo(ProcessNames("", "process1-from-ps"))
+      }
+    }
+  }
+
   private fun TestCoroutineScope.processNameClientMonitor(
     device: IDevice = this@ProcessNameClientMonitorTest.device,
     flows: ProcessNameMonitorFlows = FakeProcessNameMonitorFlows(),
@@ -110,6 +110,17 @@ public final class StudioFlags {
     "Toggles usage of gRPC apis to fetch data from perfd and the datastore.",
     true);
 
+  public static final Flag<Boolean> TRANSPORT_EVENT_SUBSCRIPTION = Flag.create(
+    PROFILER, "transport.event.subscription", "Push transport events to subscribed pollers",
+    "Deliver the events inserted in the transport datastore to pollers as they arrive, instead of querying for them on every poll. " +
+    "The profilers and the transport pipeline demo dialog subscribe; App Inspection and Layout Inspector still poll.",
+    false);
+
+  public static final Flag<Boolean> NATIVE_SYMBOLIZER_BATCHING = Flag.create(
+    PROFILER, "native.symbolizer.batching", "Symbolize native frames in batches",
+    "Symbolize native frames with a pool of llvm-symbolizer processes and cache the results by build id across sessions.",
+    false);
+
   public static final Flag<Boolean> PROFILER_ENERGY_PROFILER_ENABLED = Flag.create(
     PROFILER, "energy", "Enable Energy profiling",
     "Enable the new energy profiler. It monitors battery usage of the selected app.", true);
@@ -378,6 +389,11 @@ public final class StudioFlags {
     "Enable binary cache of classes used in preview",
     true);
 
+  public static final Flag<Boolean> NELE_CLASS_PERSISTENT_CACHE = Flag.create(
+    NELE, "toggle.layout.editor.class.persistent.cache", "Enable persistent cache of transformed classes",
+    "Enable an on-disk cache of the transformed library classes used in preview, so they are not transformed again after a restart",
+    false);
+
   public static final Flag<Boolean> NELE_STATE_LIST_PICKER = Flag.create(
     NELE, "state.list.picker", "Enable State List Picker",
     "Enable state list picker for selector drawable.",
@@ -438,6 +454,15 @@ public final class StudioFlags {
     RESOURCE_REPOSITORY, "trace.size", "Maximum Size of Resource Repository Update Trace",
     "Size of the in-memory cyclic buffer used for tracing of resource repository updates",
     10000);
+  public static final Flag<Integer> RESOURCE_REPOSITORY_RETAINED_AAR_REPOSITORIES = Flag.create(
+    RESOURCE_REPOSITORY, "retained.aar.repositories", "Number of Retained AAR Resource Repositories",
+    "Number of most recently used AAR resource repositories that are kept in memory even under memory pressure",
+    5);
+  public static final Flag<Integer> RESOURCE_REPOSITORY_DISK_CACHE_SIZE_MB = Flag.create(
+    RESOURCE_REPOSITORY, "disk.cache.size.mb", "Maximum Size of Resource Repository Disk Cache",
+    "Maximum total size, in megabytes, of the persistent resource repository cache files shared by all projects. " +
+    "The least recently used files are deleted when the limit is exceeded.",
+    500);
   //endregion
 
   //region Run/Debug
@@ -546,6 +571,13 @@ public final class StudioFlags {
     "Eliminate the cost of opening a connection and spawning a process when using Apply Changes.",
     true);
 
+  public static final Flag<Boolean> DEPLOY_TO_DEVICES_CONCURRENTLY = Flag.create(
+    RUNDEBUG,
+    "deploy.devices.concurrently",
+    "Deploy to multiple devices concurrently",
+    "Run the launch tasks of each target device in parallel, analyzing each build output only once.",
+    false);
+
   public static final Flag<Boolean> SELECT_DEVICE_SNAPSHOT_COMBO_BOX_SNAPSHOTS_ENABLED = Flag.create(
     RUNDEBUG,
     "select.device.snapshot.combo.box.snapshots.enabled",
@@ -589,6 +621,13 @@ public final class StudioFlags {
     "Use adblib instead of ddmlib for Device Explorer",
     true);
 
+  public static final Flag<Boolean> DEVICE_EXPLORER_BULK_DIRECTORY_DOWNLOAD = Flag.create(
+    RUNDEBUG,
+    "device.explorer.bulk.directory.download",
+    "Download directories in a single transfer in Device Explorer",
+    "Download a directory and all its contents by streaming the output of \"tar\" on the device, instead of pulling each file.",
+    true);
+
   public static final Flag<Boolean> ADBLIB_MIGRATION_WIFI_PAIRING = Flag.create(
     RUNDEBUG,
     "adblib.migration.wifi.pairing",
@@ -743,6 +782,11 @@ public final class StudioFlags {
     "When enabled sync execution stats for models requested by Android Studio are printed to the build output tool window when" +
     "sync completes.", false);
 
+  public static final Flag<Boolean> GRADLE_SYNC_MODEL_SNAPSHOT = Flag.create(
+    GRADLE_IDE, "gradle.sync.model.snapshot", "Enables binary snapshots of synced models",
+    "Writes a binary snapshot of the IDE models after each successful sync and uses it to set up Android modules when the project " +
+    "is reopened and the models cached by the IDE are not available, before Gradle sync completes.", false);
+
   public static final Flag<Boolean> GRADLE_SYNC_ENABLE_CACHED_VARIANTS = Flag.create(
     GRADLE_IDE, "gradle.sync.enable.cached.variants", "Enables caching of build variants",
     "Enables caching of build variant data so that the IDE does not always run Gradle when switching between build variants. " +
@@ -778,6 +822,14 @@ public final class StudioFlags {
     "eg. SQLite files opened from the Device Explorer will open in the inspector.",
     false
   );
+  public static final Flag<Boolean> DATABASE_INSPECTOR_STREAMING_SQL_EXPORT_ENABLED = Flag.create(
+    DATABASE_INSPECTOR,
+    "streaming.sql.export.enabled",
+    "Stream SQL exports from the device",
+    "If enabled, exporting an on-device database or table to SQL streams the rows from the live connection " +
+    "instead of downloading the database file and running the sqlite3 tool on it.",
+    false
+  );
   //endregion
 
   //region Layout Inspector
@@ -820,6 +872,10 @@ public final class StudioFlags {
     EMBEDDED_EMULATOR, "screenshot.statistics.interval", "Aggregation Interval for Screenshot Statistics",
     "Aggregation interval in seconds for statistics of received Emulator screenshots",
     120);
+  public static final Flag<Boolean> EMBEDDED_EMULATOR_INCREMENTAL_SCREENSHOT_UPDATES = Flag.create(
+    EMBEDDED_EMULATOR, "incremental.screenshot.updates", "Enable Incremental Screenshot Updates",
+    "Converts and repaints only the changed parts of received Emulator screenshots and skips frames when the UI is falling behind",
+    false);
   public static final Flag<Boolean> EMBEDDED_EMULATOR_TRACE_GRPC_CALLS = Flag.create(
     EMBEDDED_EMULATOR, "trace.grpc.calls", "Enable Emulator gRPC Tracing",
     "Enables tracing of most Emulator gRPC calls",
@@ -1330,6 +1386,12 @@ public final class StudioFlags {
     "Enables interceptions on network requests and responses",
     false
   );
+  public static final Flag<Integer> NETWORK_INSPECTOR_PAYLOAD_MEMORY_LIMIT_MB = Flag.create(
+    NETWORK_INSPECTOR, "payload.memory.limit.mb", "Memory Limit of Network Inspector Payloads",
+    "Maximum memory, in megabytes, used by the request and response payloads of a Network Inspector session. " +
+    "Payloads past the limit are written to a temporary file, and read back when they are displayed.",
+    64
+  );
   // endregion
 
   // region BackgroundTask Inspector
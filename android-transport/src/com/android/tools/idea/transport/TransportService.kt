@@ -16,6 +16,7 @@
 package com.android.tools.idea.transport
 
 import com.android.tools.datastore.LogService
+import com.android.tools.idea.transport.poller.TransportEventSource
 import com.android.tools.profiler.proto.Common
 import com.intellij.openapi.Disposable
 import com.intellij.openapi.components.service
@@ -27,7 +28,7 @@ import org.jetbrains.annotations.TestOnly
  * The service is application-level because devices/processes are accessible through multiple projects, and we want the pipeline to work
  * across project where users can use different client features in multiple studio instances.
  */
-interface TransportService : Disposable {
+interface TransportService : Disposable, TransportEventSource {
   val logService: LogService
   val messageBus: MessageBus
 
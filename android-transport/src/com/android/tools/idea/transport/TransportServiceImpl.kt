@@ -16,6 +16,7 @@
 package com.android.tools.idea.transport
 
 import com.android.tools.datastore.DataStoreService
+import com.android.tools.datastore.database.UnifiedEventsTable
 import com.android.tools.idea.diagnostics.crash.exception.NoPiiException
 import com.android.tools.profiler.proto.Common
 import com.google.common.annotations.VisibleForTesting
@@ -56,6 +57,12 @@ class TransportServiceImpl @VisibleForTesting constructor() : TransportService {
     return stream
   }
 
+  override fun addEventInsertionListener(listener: UnifiedEventsTable.EventInsertionListener) =
+    dataStoreService.addEventInsertionListener(listener)
+
+  override fun removeEventInsertionListener(listener: UnifiedEventsTable.EventInsertionListener) =
+    dataStoreService.removeEventInsertionListener(listener)
+
   override fun unregisterStreamServer(streamId: Long) {
     streamIdToServerMap[streamId]?.let {
       it.stop()
@@ -20,6 +20,7 @@ import static com.android.tools.profiler.proto.Commands.Command.CommandType.ECHO
 import com.android.tools.adtui.TabularLayout;
 import com.android.tools.adtui.model.stdui.CommonAction;
 import com.android.tools.adtui.stdui.menu.CommonDropDownButton;
+import com.android.tools.idea.flags.StudioFlags;
 import com.android.tools.idea.transport.TransportClient;
 import com.android.tools.idea.transport.TransportFileManager;
 import com.android.tools.idea.transport.TransportService;
@@ -132,7 +133,11 @@ public class TransportPipelineDialog extends DialogWrapper {
     myStreamIdMap = new HashMap<>();
     myProcessIdMap = new HashMap<>();
 
-    myTransportEventPoller = TransportEventPoller.createStartedPoller(myClient.getTransportStub(), TimeUnit.MILLISECONDS.toNanos(250));
+    long pollPeriodNs = TimeUnit.MILLISECONDS.toNanos(250);
+    myTransportEventPoller = StudioFlags.TRANSPORT_EVENT_SUBSCRIPTION.get()
+                             ? TransportEventPoller.createStartedSubscriber(myClient.getTransportStub(), TransportService.getInstance(),
+                                                                            pollPeriodNs)
+                             : TransportEventPoller.createStartedPoller(myClient.getTransportStub(), pollPeriodNs);
 
     // Register the event listeners with myTransportEventPoller
     initializeEventListeners();
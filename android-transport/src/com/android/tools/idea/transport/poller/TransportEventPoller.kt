@@ -15,29 +15,59 @@
  */
 package com.android.tools.idea.transport.poller
 
+import com.android.tools.datastore.database.UnifiedEventsTable
 import com.android.tools.profiler.proto.Common
 import com.android.tools.profiler.proto.Transport
 import com.android.tools.profiler.proto.TransportServiceGrpc
+import com.google.common.annotations.VisibleForTesting
 import com.intellij.openapi.diagnostic.Logger
 import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentLinkedQueue
 import java.util.concurrent.CopyOnWriteArrayList
 import java.util.concurrent.Executors
 import java.util.concurrent.ScheduledExecutorService
 import java.util.concurrent.ScheduledFuture
 import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
 import kotlin.math.max
 
 /**
  * Encapsulates most of the polling functionality that Transport Pipeline subscribers would need to implement
  * to listen for updates and Events coming in from the pipeline
+ *
+ * Listeners that query the same events share a single GetEventGroups request on each poll. After [subscribe] is called, listeners
+ * receive the events pushed by a [TransportEventSource] as they are inserted in the datastore, and are only queried when they are
+ * registered and then every fallback period, in case some events were missed.
  */
-class TransportEventPoller(
+class TransportEventPoller @JvmOverloads constructor(
   private val transportClient: TransportServiceGrpc.TransportServiceBlockingStub,
-  private val sortOrder: Comparator<Common.Event> = Comparator.comparing(Common.Event::getTimestamp)
+  private val sortOrder: Comparator<Common.Event> = Comparator.comparing(Common.Event::getTimestamp),
+  private val nanoTimeSource: () -> Long = System::nanoTime
 ) {
   private val writeLock = Object()
+  private val pollLock = Object()
   private val eventListeners: MutableList<TransportEventListener> = CopyOnWriteArrayList() // Used to preserve insertion order
-  private val listenersToLastTimestamp = ConcurrentHashMap<TransportEventListener, Long>()
+  private val listenerStates = ConcurrentHashMap<TransportEventListener, ListenerState>()
+
+  // Subscription mode.
+  private val subscriptionLock = Object()
+  private var eventSource: TransportEventSource? = null
+  private var fallbackPollPeriodNs = 0L
+  private val subscribedKinds: MutableSet<Common.Event.Kind> = ConcurrentHashMap.newKeySet()
+  private val pushedEvents = ConcurrentLinkedQueue<PushedEvent>()
+  private val pushedEventCount = AtomicInteger()
+  @Volatile private var pushOverflowed = false
+  @Volatile private var onEventPushed: (() -> Unit)? = null
+  private val insertionListener = UnifiedEventsTable.EventInsertionListener { streamId, event -> eventInserted(streamId, event) }
+
+  // Metrics.
+  private val rpcCount = AtomicLong()
+  private val deliveredPushedEventCount = AtomicLong()
+  private var rateWindowStartNs = nanoTimeSource()
+  private var rateWindowStartRpcCount = 0L
+  @Volatile private var lastRpcsPerSecond = 0.0
 
   /**
    * Adds a listener to the list to poll for and be notified of changes. Listeners are polled in insertion order.
@@ -45,7 +75,8 @@ class TransportEventPoller(
   fun registerListener(listener: TransportEventListener) {
     synchronized(writeLock) {
       eventListeners.add(listener)
-      listenersToLastTimestamp[listener] = Long.MIN_VALUE
+      listenerStates[listener] = ListenerState()
+      subscribedKinds.add(listener.eventKind)
     }
   }
 
@@ -55,60 +86,247 @@ class TransportEventPoller(
   fun unregisterListener(listener: TransportEventListener) {
     synchronized(writeLock) {
       eventListeners.remove(listener)
-      listenersToLastTimestamp.remove(listener)
+      listenerStates.remove(listener)
+      subscribedKinds.retainAll(eventListeners.map { it.eventKind }.toSet())
+    }
+  }
+
+  /**
+   * Switches the poller to subscription mode, where [eventSource] pushes the events inserted in the datastore to the listeners on the
+   * next [poll]. Each listener is still queried when it is registered and then every [fallbackPollPeriodNs].
+   */
+  @JvmOverloads
+  fun subscribe(eventSource: TransportEventSource, fallbackPollPeriodNs: Long = DEFAULT_FALLBACK_POLL_PERIOD_NS) {
+    synchronized(subscriptionLock) {
+      unsubscribe()
+      this.eventSource = eventSource
+      this.fallbackPollPeriodNs = fallbackPollPeriodNs
+      eventSource.addEventInsertionListener(insertionListener)
     }
   }
 
+  /**
+   * Switches the poller back to querying for the events of every listener on each [poll].
+   */
+  fun unsubscribe() {
+    synchronized(subscriptionLock) {
+      eventSource?.removeEventInsertionListener(insertionListener)
+      eventSource = null
+      fallbackPollPeriodNs = 0L
+      pushedEvents.clear()
+      pushedEventCount.set(0)
+    }
+  }
+
+  val isSubscribed: Boolean
+    get() = eventSource != null
+
+  /**
+   * The number of GetEventGroups requests sent since the poller was created.
+   */
+  val rpcs: Long
+    get() = rpcCount.get()
+
+  /**
+   * The number of pushed events delivered to listeners without being queried, since the poller was created.
+   */
+  val deliveredPushedEvents: Long
+    get() = deliveredPushedEventCount.get()
+
+  /**
+   * The rate of GetEventGroups requests, measured over the last completed window of at least a second.
+   */
+  val rpcsPerSecond: Double
+    get() = lastRpcsPerSecond
+
   fun poll() {
+    synchronized(pollLock) {
+      pollLocked()
+    }
+  }
+
+  private fun pollLocked() {
+    val now = nanoTimeSource()
+    // Take the pushed events first: those for the listeners queried below are returned by the query too.
+    val pushed = drainPushedEvents()
+    val queryAll = !isSubscribed || pushOverflowed
+    pushOverflowed = false
+
     // Copy the list so we can remove listeners within the loop in-place.
     val listeners = mutableListOf<TransportEventListener>().apply { addAll(eventListeners) }
-    // Poll for each listener
+
+    // Listeners making the same request are queried together, starting from the earliest timestamp any of them needs.
+    val queries = LinkedHashMap<RequestKey, MutableList<Pair<TransportEventListener, Long>>>()
     for (eventListener in listeners) {
+      val state = listenerStates[eventListener] ?: continue
+      val lastPolledNs = state.lastPolledNs
+      if (!queryAll && lastPolledNs != null && now - lastPolledNs < fallbackPollPeriodNs) {
+        continue
+      }
       // Use start/end time if available
-      val startTimestamp = max(listenersToLastTimestamp[eventListener] ?: Long.MIN_VALUE,
-                               eventListener.startTime?.invoke() ?: Long.MIN_VALUE)
-      val endTimestamp = eventListener.endTime()
+      val startTimestamp = max(state.nextTimestamp, eventListener.startTime?.invoke() ?: Long.MIN_VALUE)
+      val key = RequestKey(eventListener.eventKind, eventListener.streamId?.invoke(), eventListener.processId?.invoke(),
+                           eventListener.groupId?.invoke(), eventListener.endTime())
+      queries.getOrPut(key) { mutableListOf() }.add(eventListener to startTimestamp)
+    }
 
+    for ((key, queryListeners) in queries) {
+      val fromTimestamp = queryListeners.minOf { it.second }
       val builder = Transport.GetEventGroupsRequest.newBuilder()
-        .setKind(eventListener.eventKind)
-        .setFromTimestamp(startTimestamp)
-        .setToTimestamp(endTimestamp)
-      eventListener.streamId?.invoke()?.let { builder.streamId = it }
-      eventListener.processId?.invoke()?.let { builder.pid = it }
-      eventListener.groupId?.invoke()?.let { builder.groupId = it }
-
-      val request = builder.build()
+        .setKind(key.kind)
+        .setFromTimestamp(fromTimestamp)
+        .setToTimestamp(key.endTimestamp)
+      key.streamId?.let { builder.streamId = it }
+      key.processId?.let { builder.pid = it }
+      key.groupId?.let { builder.groupId = it }
 
       // Order by timestamp
-      val response = transportClient.getEventGroups(request)
-      if (response != Transport.GetEventGroupsResponse.getDefaultInstance()) {
-        val filtered = response.groupsList
-          .flatMap { group -> group.eventsList }
-          .sortedWith(sortOrder)
-          .filter { event -> event.timestamp >= startTimestamp && eventListener.filter(event) }
-        filtered.forEach { event ->
-          eventListener.executor.execute {
-            if(eventListener.callback(event)) {
-              // Previous code collected the flag and unregistered once in the main thread,
-              // but there was a concurrency bug if the main thread finishes before the listeners.
-              // We unregister from here instead. Unregistering the same listener multiple times is harmless.
-              unregisterListener(eventListener)
-            }
-          }
+      val response = transportClient.getEventGroups(builder.build())
+      rpcCount.incrementAndGet()
+      val events = if (response != Transport.GetEventGroupsResponse.getDefaultInstance()) {
+        response.groupsList.flatMap { group -> group.eventsList }.sortedWith(sortOrder)
+      }
+      else {
+        null
+      }
+      for ((eventListener, startTimestamp) in queryListeners) {
+        listenerStates[eventListener]?.lastPolledNs = now
+        if (events != null) {
+          deliver(eventListener, events.filter { event -> event.timestamp >= startTimestamp && eventListener.filter(event) }, startTimestamp)
         }
-        val maxTimeEvent = filtered.maxByOrNull { it.timestamp }
-        // Update last timestamp per listener
-        synchronized(writeLock) {
-          // Make sure the listener is still registered before adding a new timestamp
-          if (maxTimeEvent != null && listenersToLastTimestamp.containsKey(eventListener)) {
-            listenersToLastTimestamp[eventListener] = max(startTimestamp, maxTimeEvent.timestamp + 1)
-          }
+      }
+    }
+
+    if (pushed.isNotEmpty()) {
+      deliverPushedEvents(listeners, pushed)
+    }
+    updateRpcRate(now)
+  }
+
+  private fun deliverPushedEvents(listeners: List<TransportEventListener>, pushed: List<PushedEvent>) {
+    for (eventListener in listeners) {
+      val state = listenerStates[eventListener] ?: continue
+      // Listeners that were never queried don't know which of the earlier events they have seen yet.
+      if (state.lastPolledNs == null) {
+        continue
+      }
+      val listenerStartTimestamp = eventListener.startTime?.invoke() ?: Long.MIN_VALUE
+      val startTimestamp = max(state.nextTimestamp, listenerStartTimestamp)
+      val streamId = eventListener.streamId?.invoke()
+      val processId = eventListener.processId?.invoke()
+      val groupId = eventListener.groupId?.invoke()
+      val endTimestamp = eventListener.endTime()
+      val matching = pushed
+        .filter { (eventStreamId, event) ->
+          event.kind == eventListener.eventKind &&
+          (streamId == null || streamId == 0L || streamId == eventStreamId) &&
+          (processId == null || processId == 0 || processId == event.pid) &&
+          (groupId == null || groupId == 0L || groupId == event.groupId) &&
+          event.timestamp <= endTimestamp &&
+          (event.timestamp >= startTimestamp ||
+           // Events at the timestamp of the last delivered ones may be inserted after the query.
+           (event.timestamp == state.nextTimestamp - 1 && event.timestamp >= listenerStartTimestamp && event !in state.lastEvents)) &&
+          eventListener.filter(event)
         }
+        .map { it.event }
+        .sortedWith(sortOrder)
+      if (matching.isNotEmpty()) {
+        deliveredPushedEventCount.addAndGet(matching.size.toLong())
+        deliver(eventListener, matching, startTimestamp)
       }
     }
   }
 
+  private fun deliver(eventListener: TransportEventListener, events: List<Common.Event>, startTimestamp: Long) {
+    events.forEach { event ->
+      eventListener.executor.execute {
+        if (eventListener.callback(event)) {
+          // Previous code collected the flag and unregistered once in the main thread,
+          // but there was a concurrency bug if the main thread finishes before the listeners.
+          // We unregister from here instead. Unregistering the same listener multiple times is harmless.
+          unregisterListener(eventListener)
+        }
+      }
+    }
+    val maxTimestamp = events.maxOfOrNull { it.timestamp } ?: return
+    // Update last timestamp per listener
+    synchronized(writeLock) {
+      // Make sure the listener is still registered before adding a new timestamp
+      val state = listenerStates[eventListener] ?: return
+      val nextTimestamp = max(startTimestamp, maxTimestamp + 1)
+      val lastEvents = events.filter { it.timestamp == nextTimestamp - 1 }.toSet()
+      if (nextTimestamp == state.nextTimestamp) {
+        state.lastEvents = state.lastEvents + lastEvents
+      }
+      else if (nextTimestamp > state.nextTimestamp) {
+        state.nextTimestamp = nextTimestamp
+        state.lastEvents = lastEvents
+      }
+    }
+  }
+
+  private fun eventInserted(streamId: Long, event: Common.Event) {
+    if (event.kind !in subscribedKinds) {
+      return
+    }
+    if (pushedEventCount.incrementAndGet() > MAX_PUSHED_EVENTS) {
+      // Nobody is polling. Drop the pushed events and query for them once polling resumes.
+      pushedEvents.clear()
+      pushedEventCount.set(0)
+      pushOverflowed = true
+      return
+    }
+    pushedEvents.add(PushedEvent(streamId, event))
+    onEventPushed?.invoke()
+  }
+
+  private fun drainPushedEvents(): List<PushedEvent> {
+    val events = mutableListOf<PushedEvent>()
+    while (true) {
+      events.add(pushedEvents.poll() ?: break)
+      pushedEventCount.decrementAndGet()
+    }
+    return events
+  }
+
+  private fun updateRpcRate(now: Long) {
+    val elapsedNs = now - rateWindowStartNs
+    if (elapsedNs >= TimeUnit.SECONDS.toNanos(1)) {
+      val count = rpcCount.get()
+      lastRpcsPerSecond = (count - rateWindowStartRpcCount) * TimeUnit.SECONDS.toNanos(1).toDouble() / elapsedNs
+      if (LOG.isDebugEnabled) {
+        LOG.debug("Transport event poller: ${"%.1f".format(lastRpcsPerSecond)} GetEventGroups RPCs per second, " +
+                  "${eventListeners.size} listeners, ${deliveredPushedEventCount.get()} pushed events delivered")
+      }
+      rateWindowStartNs = now
+      rateWindowStartRpcCount = count
+    }
+  }
+
+  private class ListenerState {
+    /** The timestamp to query the events of the listener from. */
+    var nextTimestamp = Long.MIN_VALUE
+    /** The events already delivered at `nextTimestamp - 1`, which may be pushed again. */
+    var lastEvents: Set<Common.Event> = emptySet()
+    /** The time the listener was last queried for, or null if it was never queried. */
+    var lastPolledNs: Long? = null
+  }
+
+  private data class RequestKey(val kind: Common.Event.Kind,
+                                val streamId: Long?,
+                                val processId: Int?,
+                                val groupId: Long?,
+                                val endTimestamp: Long)
+
+  private data class PushedEvent(val streamId: Long, val event: Common.Event)
+
   companion object {
+    private val LOG = Logger.getInstance(TransportEventPoller::class.java)
+
+    @VisibleForTesting
+    val DEFAULT_FALLBACK_POLL_PERIOD_NS = TimeUnit.SECONDS.toNanos(2)
+    private const val MAX_PUSHED_EVENTS = 10_000
+
     private val myExecutorService: ScheduledExecutorService = Executors.newScheduledThreadPool(1)
     private val myScheduledFutures = mutableMapOf<TransportEventPoller, ScheduledFuture<*>>()
 
@@ -124,26 +342,56 @@ class TransportEventPoller(
       return poller
     }
 
+    /**
+     * Creates a poller in subscription mode, which polls immediately after events are pushed by [eventSource] and otherwise every
+     * [pollPeriodNs].
+     */
+    @JvmOverloads
+    @JvmStatic
+    fun createStartedSubscriber(
+      transportClient: TransportServiceGrpc.TransportServiceBlockingStub,
+      eventSource: TransportEventSource,
+      pollPeriodNs: Long,
+      sortOrder: java.util.Comparator<Common.Event> = Comparator.comparing(Common.Event::getTimestamp),
+      executorServiceForTest: ScheduledExecutorService? = null): TransportEventPoller {
+      val poller = TransportEventPoller(transportClient, sortOrder)
+      poller.subscribe(eventSource, max(pollPeriodNs, DEFAULT_FALLBACK_POLL_PERIOD_NS))
+      startPoller(poller, pollPeriodNs, executorServiceForTest)
+      return poller
+    }
+
     @JvmStatic
     fun startPoller(
       poller: TransportEventPoller,
       pollPeriodNs: Long,
       executorServiceForTest: ScheduledExecutorService? = null) {
-      val scheduledFuture = (executorServiceForTest ?: myExecutorService).scheduleWithFixedDelay(
-        {
-          try {
-            poller.poll()
-          }
-          catch (t: Throwable) {
-            Logger.getInstance(TransportEventPoller::class.java).warn(t.toString())
-          }
-        },
-        0, pollPeriodNs, TimeUnit.NANOSECONDS)
+      val executorService = executorServiceForTest ?: myExecutorService
+      val pollTask = {
+        try {
+          poller.poll()
+        }
+        catch (t: Throwable) {
+          Logger.getInstance(TransportEventPoller::class.java).warn(t.toString())
+        }
+      }
+      val scheduledFuture = executorService.scheduleWithFixedDelay(pollTask, 0, pollPeriodNs, TimeUnit.NANOSECONDS)
       myScheduledFutures[poller] = scheduledFuture
+      // Deliver pushed events right away rather than on the next scheduled poll, coalescing the events pushed in the meantime.
+      val pollPending = AtomicBoolean()
+      poller.onEventPushed = {
+        if (pollPending.compareAndSet(false, true)) {
+          executorService.execute {
+            pollPending.set(false)
+            pollTask()
+          }
+        }
+      }
     }
 
     @JvmStatic
     fun stopPoller(poller: TransportEventPoller) {
+      poller.onEventPushed = null
+      poller.unsubscribe()
       myScheduledFutures.remove(poller)?.cancel(false)
     }
 
@@ -0,0 +1,31 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.transport.poller
+
+import com.android.tools.datastore.database.UnifiedEventsTable
+
+/**
+ * A source of the events inserted into the transport datastore, which a [TransportEventPoller] can subscribe to instead of querying
+ * for new events on every poll.
+ */
+interface TransportEventSource {
+  /**
+   * Adds a listener notified of every event inserted into the datastore. It is called on the inserting thread, so should return quickly.
+   */
+  fun addEventInsertionListener(listener: UnifiedEventsTable.EventInsertionListener)
+
+  fun removeEventInsertionListener(listener: UnifiedEventsTable.EventInsertionListener)
+}
@@ -16,6 +16,7 @@
 package com.android.tools.idea.transport.faketransport
 
 import com.android.tools.datastore.FakeLogService
+import com.android.tools.datastore.database.UnifiedEventsTable
 import com.android.tools.idea.transport.EventStreamServer
 import com.android.tools.idea.transport.TransportService
 import com.android.tools.profiler.proto.Common
@@ -57,6 +58,11 @@ class TransportServiceTestImpl(private val transportRpcService: FakeTransportSer
     }
   }
 
+  // The fake transport has no datastore, so no events are ever inserted.
+  override fun addEventInsertionListener(listener: UnifiedEventsTable.EventInsertionListener) {}
+
+  override fun removeEventInsertionListener(listener: UnifiedEventsTable.EventInsertionListener) {}
+
   override fun dispose() {
     streamServerMap.keys.forEach(this::unregisterStreamServer)
   }
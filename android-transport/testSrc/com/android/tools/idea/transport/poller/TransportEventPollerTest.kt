@@ -16,6 +16,7 @@
 package com.android.tools.idea.transport.poller
 
 import com.android.tools.adtui.model.FakeTimer
+import com.android.tools.datastore.database.UnifiedEventsTable
 import com.android.tools.idea.transport.TransportClient
 import com.android.tools.idea.transport.faketransport.FakeGrpcServer
 import com.android.tools.idea.transport.faketransport.FakeTransportService
@@ -27,6 +28,7 @@ import org.junit.After
 import org.junit.Before
 import org.junit.Rule
 import org.junit.Test
+import java.util.concurrent.TimeUnit
 
 class TransportEventPollerTest {
 
@@ -52,6 +54,26 @@ class TransportEventPollerTest {
     transportClient = null
   }
 
+  private class FakeEventSource : TransportEventSource {
+    val listeners = mutableListOf<UnifiedEventsTable.EventInsertionListener>()
+
+    override fun addEventInsertionListener(listener: UnifiedEventsTable.EventInsertionListener) {
+      listeners.add(listener)
+    }
+
+    override fun removeEventInsertionListener(listener: UnifiedEventsTable.EventInsertionListener) {
+      listeners.remove(listener)
+    }
+  }
+
+  /**
+   * Adds the event to the fake transport and pushes it to the subscribed pollers, like the datastore does when inserting events.
+   */
+  private fun insertEvent(eventSource: FakeEventSource, event: Common.Event) {
+    transportService.addEventToStream(FakeTransportService.FAKE_DEVICE_ID, event)
+    eventSource.listeners.forEach { it.onEventInserted(FakeTransportService.FAKE_DEVICE_ID, event) }
+  }
+
   private fun generateEchoEvent(ts: Long) = Common.Event.newBuilder()
     .setTimestamp(ts)
     .setKind(Common.Event.Kind.ECHO)
@@ -456,4 +478,80 @@ class TransportEventPollerTest {
     assertThat(events[0]).isEqualTo(event2)
     assertThat(events[1]).isEqualTo(event1)
   }
+
+  @Test
+  fun listenersWithSameRequestShareQuery() {
+    val echoEvents1 = mutableListOf<Common.Event>()
+    val echoEvents2 = mutableListOf<Common.Event>()
+    transportEventPoller!!.registerListener(TransportEventListener(
+      eventKind = Common.Event.Kind.ECHO, executor = MoreExecutors.directExecutor()) { echoEvents1.add(it); false })
+    transportEventPoller!!.registerListener(TransportEventListener(
+      eventKind = Common.Event.Kind.ECHO, startTime = { 5L }, executor = MoreExecutors.directExecutor()) { echoEvents2.add(it); false })
+    transportEventPoller!!.registerListener(TransportEventListener(
+      eventKind = Common.Event.Kind.PROCESS, executor = MoreExecutors.directExecutor()) { false })
+
+    transportService.addEventToStream(FakeTransportService.FAKE_DEVICE_ID, generateEchoEvent(2))
+    transportService.addEventToStream(FakeTransportService.FAKE_DEVICE_ID, generateEchoEvent(10))
+    transportEventPoller!!.poll()
+
+    // One query for both ECHO listeners, and one for the PROCESS listener.
+    assertThat(transportEventPoller!!.rpcs).isEqualTo(2)
+    assertThat(echoEvents1.map { it.timestamp }).containsExactly(2L, 10L).inOrder()
+    assertThat(echoEvents2.map { it.timestamp }).containsExactly(10L)
+  }
+
+  @Test
+  fun subscribedListenersReceivePushedEvents() {
+    var timeNs = 0L
+    val poller = TransportEventPoller(transportClient!!.transportStub, nanoTimeSource = { timeNs })
+    val eventSource = FakeEventSource()
+    poller.subscribe(eventSource, fallbackPollPeriodNs = 1000)
+    assertThat(eventSource.listeners).hasSize(1)
+
+    val events = mutableListOf<Common.Event>()
+    poller.registerListener(TransportEventListener(
+      eventKind = Common.Event.Kind.ECHO, executor = MoreExecutors.directExecutor()) { events.add(it); false })
+
+    // The event is both pushed and returned by the initial query of the listener, but only delivered once.
+    insertEvent(eventSource, generateEchoEvent(1))
+    poller.poll()
+    assertThat(events.map { it.timestamp }).containsExactly(1L)
+    assertThat(poller.rpcs).isEqualTo(1)
+
+    // Pushed events are delivered without querying.
+    insertEvent(eventSource, generateEchoEvent(2))
+    insertEvent(eventSource, Common.Event.newBuilder().setTimestamp(3).setKind(Common.Event.Kind.PROCESS).build())
+    poller.poll()
+    poller.poll()
+    assertThat(events.map { it.timestamp }).containsExactly(1L, 2L).inOrder()
+    assertThat(poller.rpcs).isEqualTo(1)
+    assertThat(poller.deliveredPushedEvents).isEqualTo(1)
+
+    // Events that were not pushed are found by the fallback query.
+    transportService.addEventToStream(FakeTransportService.FAKE_DEVICE_ID, generateEchoEvent(4))
+    poller.poll()
+    assertThat(events).hasSize(2)
+    timeNs += 1000
+    poller.poll()
+    assertThat(events.map { it.timestamp }).containsExactly(1L, 2L, 4L).inOrder()
+    assertThat(poller.rpcs).isEqualTo(2)
+
+    poller.unsubscribe()
+    assertThat(eventSource.listeners).isEmpty()
+    poller.poll()
+    assertThat(poller.rpcs).isEqualTo(3)
+  }
+
+  @Test
+  fun rpcRateIsMeasuredPerSecond() {
+    var timeNs = 0L
+    val poller = TransportEventPoller(transportClient!!.transportStub, nanoTimeSource = { timeNs })
+    poller.registerListener(TransportEventListener(eventKind = Common.Event.Kind.ECHO, executor = MoreExecutors.directExecutor()) { false })
+    repeat(3) { poller.poll() }
+    assertThat(poller.rpcsPerSecond).isEqualTo(0.0)
+
+    timeNs = TimeUnit.SECONDS.toNanos(2)
+    poller.poll()
+    assertThat(poller.rpcsPerSecond).isWithin(1e-9).of(2.0)
+  }
 }
@@ -16,11 +16,14 @@
 package com.android.tools.idea.instrumentation.threading
 
 import com.android.tools.instrumentation.threading.agent.callback.ThreadingCheckerTrampoline
+import com.intellij.openapi.util.ShutDownTracker
 
 object ThreadingChecker {
   /** Start receiving notifications from the threading agent. */
   @JvmStatic
   fun initialize() {
-    ThreadingCheckerTrampoline.installHook(ThreadingCheckerHookImpl())
+    val hook = ThreadingCheckerHookImpl()
+    ThreadingCheckerTrampoline.installHook(hook)
+    ShutDownTracker.getInstance().registerShutdownTask(hook::logSummaryReport)
   }
 }
\ No newline at end of file
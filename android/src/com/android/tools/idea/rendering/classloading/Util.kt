@@ -67,6 +67,22 @@ class ClassTransform(private val transforms: List<java.util.function.Function<Cl
     Hashing.goodFastHash(64).hashString(debugId, Charsets.UTF_8).toString()
   }
 
+  /**
+   * An id that, unlike [id], is stable across IDE sessions, or null if any of the transformations does not implement
+   * [ClassVisitorUniqueIdProvider]. Only the output of transforms with a persistent id can be cached on disk.
+   */
+  val persistentId: String? by lazy {
+    var visitor: ClassVisitor = EmptyClassVisitor
+    for (transform in transforms) {
+      val newVisitor = transform.apply(visitor)
+      if (newVisitor != visitor && newVisitor !is ClassVisitorUniqueIdProvider) {
+        return@lazy null
+      }
+      visitor = newVisitor
+    }
+    Hashing.sha256().hashString(debugId, Charsets.UTF_8).toString()
+  }
+
   operator fun invoke(visitor: ClassVisitor): ClassVisitor =
     java.util.function.Function<ClassVisitor, ClassVisitor> { transforms.fold(it) { acc, visitor -> visitor.apply(acc) } }.apply(visitor)
   operator fun plus(f2: ClassTransform) = ClassTransform(transforms + f2.transforms)
@@ -18,6 +18,8 @@ package com.android.tools.idea.rendering.classloading.loaders
 import com.android.tools.idea.rendering.classloading.ClassConverter
 import com.android.tools.idea.rendering.classloading.ClassTransform
 import com.android.tools.idea.rendering.classloading.PseudoClassLocator
+import com.google.common.hash.Hashing
+import org.jetbrains.android.uipreview.TransformedClassCache
 import org.jetbrains.org.objectweb.asm.ClassWriter
 
 /**
@@ -28,21 +30,40 @@ import org.jetbrains.org.objectweb.asm.ClassWriter
  * [asmFlags] includes the flags needed to apply the transformation. See [ClassWriter].
  *
  * [onRewrite] will be called after a class has been successfully transformed.
+ *
+ * If the [transform] has a [ClassTransform.persistentId], the transformed classes are looked up in and stored into
+ * [transformedClassCache], keyed by the hash of the untransformed class. The cache is not used when [asmFlags] includes
+ * [ClassWriter.COMPUTE_FRAMES] since the computed frames depend on other classes, found via [pseudoClassLocator].
  */
 class AsmTransformingLoader @JvmOverloads constructor(
   private val transform: ClassTransform,
   private val delegate: DelegatingClassLoader.Loader,
   private val pseudoClassLocator: PseudoClassLocator,
   private val asmFlags: Int = ClassWriter.COMPUTE_FRAMES,
-  private val onRewrite: (fqcn: String, durationMs: Long, size: Int) -> Unit = { _, _, _ -> }) : DelegatingClassLoader.Loader {
+  private val onRewrite: (fqcn: String, durationMs: Long, size: Int) -> Unit = { _, _, _ -> },
+  private val transformedClassCache: TransformedClassCache = TransformedClassCache.NO_CACHE) : DelegatingClassLoader.Loader {
 
   val transformId: String get() = transform.id
 
+  /** The id used for [transformedClassCache] entries or null if the transformed classes can not be cached. */
+  private val cacheTransformId: String? by lazy {
+    if (transformedClassCache === TransformedClassCache.NO_CACHE || asmFlags and ClassWriter.COMPUTE_FRAMES != 0) null
+    else transform.persistentId?.let { "${it}_$asmFlags" }
+  }
+
   override fun loadClass(fqcn: String): ByteArray? {
     val bytes = delegate.loadClass(fqcn) ?: return null
+    val cacheTransformId = cacheTransformId
+    val inputHash = if (cacheTransformId != null) Hashing.sha256().hashBytes(bytes).toString() else null
+    if (inputHash != null) {
+      transformedClassCache.get(inputHash, cacheTransformId!!)?.let { return it }
+    }
     val startTime = System.currentTimeMillis()
     val rewrittenBytes = ClassConverter.rewriteClass(bytes, transform, asmFlags, pseudoClassLocator)
     onRewrite(fqcn, System.currentTimeMillis() - startTime, rewrittenBytes.size)
+    if (inputHash != null) {
+      transformedClassCache.put(inputHash, cacheTransformId!!, rewrittenBytes)
+    }
     return rewrittenBytes
   }
 }
\ No newline at end of file
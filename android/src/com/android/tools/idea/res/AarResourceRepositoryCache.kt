@@ -23,27 +23,50 @@ import com.android.resources.aar.AarSourceResourceRepository
 import com.android.resources.aar.CachingData
 import com.android.resources.aar.RESOURCE_CACHE_DIRECTORY
 import com.android.tools.idea.concurrency.AndroidIoManager
+import com.android.tools.idea.flags.StudioFlags
 import com.android.utils.concurrency.getAndUnwrap
 import com.google.common.cache.Cache
 import com.google.common.cache.CacheBuilder
 import com.google.common.hash.Hashing
 import com.intellij.openapi.application.ApplicationManager
 import com.intellij.openapi.application.PathManager
+import com.intellij.openapi.diagnostic.Logger
 import com.intellij.openapi.diagnostic.thisLogger
+import org.jetbrains.annotations.VisibleForTesting
 import org.jetbrains.kotlin.utils.ThreadSafe
+import java.io.IOException
 import java.nio.file.Files
 import java.nio.file.NoSuchFileException
 import java.nio.file.Path
 import java.nio.file.Paths
+import java.nio.file.attribute.FileTime
 import java.util.concurrent.Executor
+import java.util.concurrent.atomic.AtomicBoolean
 
 /**
  * Cache of AAR resource repositories.
+ *
+ * Repositories are held by soft references, except for the few most recently used ones, which are kept strongly
+ * reachable so that they don't have to be reloaded after a garbage collection under memory pressure. Source
+ * repositories are backed by persistent cache files shared by all projects. The total size of these files is
+ * capped by evicting the least recently used ones when the cache starts and after cache files are written.
  */
 @ThreadSafe
 class AarResourceRepositoryCache private constructor() {
   private val myProtoRepositories = CacheBuilder.newBuilder().softValues().build<Path, AarProtoResourceRepository>()
   private val mySourceRepositories = CacheBuilder.newBuilder().softValues().build<ResourceFolder, AarSourceResourceRepository>()
+  /** Strong references to the most recently used repositories keyed by the keys of [myProtoRepositories] and [mySourceRepositories]. */
+  private val myRecentlyUsedRepositories = CacheBuilder.newBuilder()
+    .maximumSize(StudioFlags.RESOURCE_REPOSITORY_RETAINED_AAR_REPOSITORIES.get().toLong())
+    .build<Any, AarResourceRepository>()
+  /** Whether a [trimDiskCache] is already queued, so that bursts of cache file writes trigger a single trim. */
+  private val myTrimScheduled = AtomicBoolean()
+
+  init {
+    if (!ApplicationManager.getApplication().isUnitTestMode) {
+      scheduleDiskCacheTrim()
+    }
+  }
 
   /**
    * Returns a cached or a newly created source resource repository.
@@ -81,15 +104,24 @@ class AarResourceRepositoryCache private constructor() {
 
   fun removeProtoRepository(resApkFile: Path) {
     myProtoRepositories.invalidate(resApkFile)
+    myRecentlyUsedRepositories.invalidate(resApkFile)
   }
 
   fun removeSourceRepository(resourceFolder: ResourceFolder) {
     mySourceRepositories.invalidate(resourceFolder)
+    myRecentlyUsedRepositories.invalidate(resourceFolder)
   }
 
   fun clear() {
     myProtoRepositories.invalidateAll()
     mySourceRepositories.invalidateAll()
+    myRecentlyUsedRepositories.invalidateAll()
+  }
+
+  private fun <K : Any, T : AarResourceRepository> getRepository(key: K, cache: Cache<K, T>, factory: () -> T): T {
+    val repository = cache.getAndUnwrap(key) { factory() }
+    myRecentlyUsedRepositories.put(key, repository)
+    return repository
   }
 
   private fun createCachingData(library: ExternalAndroidLibrary): CachingData? {
@@ -125,11 +157,32 @@ class AarResourceRepositoryCache private constructor() {
     val filename = String.format("%s_%s.dat", library.location?.fileName ?: "", pathHash)
     val cacheFile = Paths.get(PathManager.getSystemPath(), RESOURCE_CACHE_DIRECTORY, filename)
     // Don't create a persistent cache in tests to avoid unnecessary overhead.
-    val executor = if (ApplicationManager.getApplication().isUnitTestMode) Executor {}
-                   else AndroidIoManager.getInstance().getBackgroundDiskIoExecutor()
+    if (ApplicationManager.getApplication().isUnitTestMode) {
+      return CachingData(cacheFile, contentVersion, codeVersion, Executor {})
+    }
+    val ioExecutor = AndroidIoManager.getInstance().getBackgroundDiskIoExecutor()
+    // Record the use of the cache file for the least recently used eviction in trimDiskCache.
+    ioExecutor.execute { markUsed(cacheFile) }
+    // The executor is used to write the cache file, which may make the cache exceed its size limit.
+    val executor = Executor { task ->
+      ioExecutor.execute {
+        task.run()
+        scheduleDiskCacheTrim()
+      }
+    }
     return CachingData(cacheFile, contentVersion, codeVersion, executor)
   }
 
+  private fun scheduleDiskCacheTrim() {
+    if (myTrimScheduled.compareAndSet(false, true)) {
+      AndroidIoManager.getInstance().getBackgroundDiskIoExecutor().execute {
+        myTrimScheduled.set(false)
+        trimDiskCache(Paths.get(PathManager.getSystemPath(), RESOURCE_CACHE_DIRECTORY),
+                      StudioFlags.RESOURCE_REPOSITORY_DISK_CACHE_SIZE_MB.get() * 1024L * 1024L)
+      }
+    }
+  }
+
   companion object {
     /**
      * Returns the cache.
@@ -138,8 +191,58 @@ class AarResourceRepositoryCache private constructor() {
     val instance: AarResourceRepositoryCache
         get() = ApplicationManager.getApplication().getService(AarResourceRepositoryCache::class.java)
 
-    private fun <K, T : AarResourceRepository> getRepository(key: K, cache: Cache<K, T>, factory: () -> T): T {
-      return cache.getAndUnwrap(key) { factory() }
+    private val LOG = Logger.getInstance(AarResourceRepositoryCache::class.java)
+
+    /**
+     * Deletes the least recently used files in the [cacheDirectory] until the total size of the remaining files
+     * doesn't exceed [maxSize]. The modification time of a file is used as its last use time.
+     */
+    @VisibleForTesting
+    internal fun trimDiskCache(cacheDirectory: Path, maxSize: Long) {
+      val files = try {
+        Files.newDirectoryStream(cacheDirectory).use { paths ->
+          paths.mapNotNull { path ->
+            try {
+              if (Files.isRegularFile(path)) CacheFile(path, Files.getLastModifiedTime(path), Files.size(path)) else null
+            }
+            catch (e: IOException) {
+              null // The file was deleted concurrently.
+            }
+          }
+        }
+      }
+      catch (e: NoSuchFileException) {
+        return
+      }
+      catch (e: IOException) {
+        LOG.warn("Unable to list $cacheDirectory", e)
+        return
+      }
+
+      var totalSize = files.sumOf { it.size }
+      for (file in files.sortedBy { it.lastUsed }) {
+        if (totalSize <= maxSize) {
+          break
+        }
+        try {
+          Files.deleteIfExists(file.path)
+          totalSize -= file.size
+        }
+        catch (e: IOException) {
+          LOG.warn("Unable to delete ${file.path}", e)
+        }
+      }
     }
+
+    private fun markUsed(cacheFile: Path) {
+      try {
+        Files.setLastModifiedTime(cacheFile, FileTime.fromMillis(System.currentTimeMillis()))
+      }
+      catch (ignore: IOException) {
+        // The cache file doesn't exist yet.
+      }
+    }
+
+    private class CacheFile(val path: Path, val lastUsed: FileTime, val size: Long)
   }
 }
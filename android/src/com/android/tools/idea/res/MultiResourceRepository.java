@@ -30,6 +30,7 @@ import com.google.common.base.Stopwatch;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Maps;
@@ -50,6 +51,7 @@ import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -72,27 +74,33 @@ import org.jetbrains.annotations.VisibleForTesting;
  * replace/hide any subsequent definitions of the same resource.
  *
  * <p>In the resource repository hierarchy, MultiResourceRepository is an internal node, never a leaf.
+ *
+ * <p>Merged resources are published in an immutable snapshot that is read without taking {@code ITEM_MAP_LOCK}.
+ * The lock is only needed to merge a resource type that is missing from the snapshot, and to invalidate it.
  */
 @SuppressWarnings("InstanceGuardedByStatic") // TODO: The whole locking scheme for resource repositories needs to be reworked.
 public abstract class MultiResourceRepository extends LocalResourceRepository implements Disposable {
   private static final Logger LOG = Logger.getInstance(MultiResourceRepository.class);
 
-  @GuardedBy("ITEM_MAP_LOCK")
-  @NotNull private ImmutableList<LocalResourceRepository> myLocalResources = ImmutableList.of();
-  @GuardedBy("ITEM_MAP_LOCK")
-  @NotNull private ImmutableList<AarResourceRepository> myLibraryResources = ImmutableList.of();
+  // The immutable fields describing the structure of the repository are modified only while holding ITEM_MAP_LOCK,
+  // but are volatile so that they can be read without locking.
+  @NotNull private volatile ImmutableList<LocalResourceRepository> myLocalResources = ImmutableList.of();
+  @NotNull private volatile ImmutableList<AarResourceRepository> myLibraryResources = ImmutableList.of();
   /** A concatenation of {@link #myLocalResources} and {@link #myLibraryResources}. */
-  @GuardedBy("ITEM_MAP_LOCK")
-  @NotNull private ImmutableList<ResourceRepository> myChildren = ImmutableList.of();
+  @NotNull private volatile ImmutableList<ResourceRepository> myChildren = ImmutableList.of();
   /** Leaf resource repositories keyed by namespace. */
-  @GuardedBy("ITEM_MAP_LOCK")
-  @NotNull private ImmutableListMultimap<ResourceNamespace, SingleNamespaceResourceRepository> myLeafsByNamespace =
+  @NotNull private volatile ImmutableListMultimap<ResourceNamespace, SingleNamespaceResourceRepository> myLeafsByNamespace =
       ImmutableListMultimap.of();
   /** Contained single-namespace resource repositories keyed by namespace. */
-  @GuardedBy("ITEM_MAP_LOCK")
-  @NotNull private ImmutableListMultimap<ResourceNamespace, SingleNamespaceResourceRepository> myRepositoriesByNamespace =
+  @NotNull private volatile ImmutableListMultimap<ResourceNamespace, SingleNamespaceResourceRepository> myRepositoriesByNamespace =
       ImmutableListMultimap.of();
 
+  /**
+   * Immutable copies of the merged resource maps that are read without holding {@code ITEM_MAP_LOCK}.
+   * The snapshot is replaced, never modified, and only while holding the lock.
+   */
+  @NotNull private volatile ResourceSnapshot mySnapshot = ResourceSnapshot.EMPTY;
+
   @GuardedBy("ITEM_MAP_LOCK")
   @NotNull private ResourceItemComparator myResourceComparator =
       new ResourceItemComparator(new ResourcePriorityComparator(ImmutableList.of()));
@@ -159,11 +167,24 @@ public abstract class MultiResourceRepository extends LocalResourceRepository im
         myModificationCounts[i++] = child.getModificationCount();
       }
       myCachedMaps.clear();
+      mySnapshot = mySnapshot.reset(getSingleLeafNamespaces(myLeafsByNamespace));
 
       invalidateParentCaches();
     }
   }
 
+  @NotNull
+  private static ImmutableSet<ResourceNamespace> getSingleLeafNamespaces(
+      @NotNull ImmutableListMultimap<ResourceNamespace, SingleNamespaceResourceRepository> leafsByNamespace) {
+    ImmutableSet.Builder<ResourceNamespace> result = ImmutableSet.builder();
+    for (Map.Entry<ResourceNamespace, Collection<SingleNamespaceResourceRepository>> entry : leafsByNamespace.asMap().entrySet()) {
+      if (entry.getValue().size() == 1) {
+        result.add(entry.getKey());
+      }
+    }
+    return result.build();
+  }
+
   @GuardedBy("ITEM_MAP_LOCK")
   private static void computeLeafs(@NotNull ResourceRepository repository,
                                    @NotNull ImmutableListMultimap.Builder<ResourceNamespace, SingleNamespaceResourceRepository> result) {
@@ -195,22 +216,16 @@ public abstract class MultiResourceRepository extends LocalResourceRepository im
   }
 
   public ImmutableList<LocalResourceRepository> getLocalResources() {
-    synchronized (ITEM_MAP_LOCK) {
-      return myLocalResources;
-    }
+    return myLocalResources;
   }
 
   public ImmutableList<AarResourceRepository> getLibraryResources() {
-    synchronized (ITEM_MAP_LOCK) {
-      return myLibraryResources;
-    }
+    return myLibraryResources;
   }
 
   @NotNull
   public final List<ResourceRepository> getChildren() {
-    synchronized (ITEM_MAP_LOCK) {
-      return myChildren;
-    }
+    return myChildren;
   }
 
   /**
@@ -223,9 +238,7 @@ public abstract class MultiResourceRepository extends LocalResourceRepository im
    */
   @NotNull
   public final List<SingleNamespaceResourceRepository> getRepositoriesForNamespace(@NotNull ResourceNamespace namespace) {
-    synchronized (ITEM_MAP_LOCK) {
-      return myRepositoriesByNamespace.get(namespace);
-    }
+    return myRepositoriesByNamespace.get(namespace);
   }
 
   @Override
@@ -257,9 +270,7 @@ public abstract class MultiResourceRepository extends LocalResourceRepository im
   @Override
   @NotNull
   public Set<ResourceNamespace> getNamespaces() {
-    synchronized (ITEM_MAP_LOCK) {
-      return myRepositoriesByNamespace.keySet();
-    }
+    return myRepositoriesByNamespace.keySet();
   }
 
   @Override
@@ -287,6 +298,108 @@ public abstract class MultiResourceRepository extends LocalResourceRepository im
     return ResourceVisitor.VisitResult.CONTINUE;
   }
 
+  @Override
+  @NotNull
+  public ListMultimap<String, ResourceItem> getResources(@NotNull ResourceNamespace namespace, @NotNull ResourceType resourceType) {
+    ImmutableListMultimap<String, ResourceItem> map = getMergedResources(namespace, resourceType);
+    return map == null ? super.getResources(namespace, resourceType) : map;
+  }
+
+  @Override
+  @NotNull
+  public List<ResourceItem> getResources(@NotNull ResourceNamespace namespace,
+                                         @NotNull ResourceType resourceType,
+                                         @NotNull String resourceName) {
+    ImmutableListMultimap<String, ResourceItem> map = getMergedResources(namespace, resourceType);
+    return map == null ? super.getResources(namespace, resourceType, resourceName) : map.get(resourceName);
+  }
+
+  @Override
+  @NotNull
+  public List<ResourceItem> getResources(@NotNull ResourceNamespace namespace,
+                                         @NotNull ResourceType resourceType,
+                                         @NotNull Predicate<ResourceItem> filter) {
+    ImmutableListMultimap<String, ResourceItem> map = getMergedResources(namespace, resourceType);
+    if (map == null) {
+      return super.getResources(namespace, resourceType, filter);
+    }
+    List<ResourceItem> result = new ArrayList<>();
+    for (ResourceItem item : map.values()) {
+      if (filter.test(item)) {
+        result.add(item);
+      }
+    }
+    return result;
+  }
+
+  @Override
+  @NotNull
+  public Set<String> getResourceNames(@NotNull ResourceNamespace namespace, @NotNull ResourceType resourceType) {
+    ImmutableListMultimap<String, ResourceItem> map = getMergedResources(namespace, resourceType);
+    return map == null ? super.getResourceNames(namespace, resourceType) : map.keySet();
+  }
+
+  @Override
+  public boolean hasResources(@NotNull ResourceNamespace namespace, @NotNull ResourceType resourceType, @NotNull String resourceName) {
+    ImmutableListMultimap<String, ResourceItem> map = getMergedResources(namespace, resourceType);
+    return map == null ? super.hasResources(namespace, resourceType, resourceName) : map.containsKey(resourceName);
+  }
+
+  @Override
+  public boolean hasResources(@NotNull ResourceNamespace namespace, @NotNull ResourceType resourceType) {
+    ImmutableListMultimap<String, ResourceItem> map = getMergedResources(namespace, resourceType);
+    return map == null ? super.hasResources(namespace, resourceType) : !map.isEmpty();
+  }
+
+  /**
+   * Returns an immutable copy of the merged resources of the given namespace and type, or null if the namespace
+   * is backed by a single leaf repository and the resources should be obtained from that repository under
+   * {@code ITEM_MAP_LOCK}. The lock is taken only when the resources are not present in {@link #mySnapshot}.
+   */
+  @Nullable
+  private ImmutableListMultimap<String, ResourceItem> getMergedResources(@NotNull ResourceNamespace namespace,
+                                                                         @NotNull ResourceType type) {
+    ResourceSnapshot snapshot = mySnapshot;
+    if (snapshot.isSingleLeaf(namespace)) {
+      return null;
+    }
+    ImmutableListMultimap<String, ResourceItem> map = snapshot.get(namespace, type);
+    if (map != null) {
+      return map;
+    }
+
+    synchronized (ITEM_MAP_LOCK) {
+      snapshot = mySnapshot;
+      if (snapshot.isSingleLeaf(namespace)) {
+        return null;
+      }
+      map = snapshot.get(namespace, type);
+      if (map == null) {
+        map = immutableCopy(getMap(namespace, type));
+        mySnapshot = snapshot.with(namespace, type, map);
+      }
+      return map;
+    }
+  }
+
+  @NotNull
+  private static ImmutableListMultimap<String, ResourceItem> immutableCopy(@Nullable ListMultimap<String, ResourceItem> map) {
+    if (map == null || map.isEmpty()) {
+      return ImmutableListMultimap.of();
+    }
+    // PerConfigResourceMap doesn't support entries(), so the map is copied key by key.
+    ImmutableListMultimap.Builder<String, ResourceItem> builder = ImmutableListMultimap.builder();
+    for (String name : map.keySet()) {
+      builder.putAll(name, map.get(name));
+    }
+    return builder.build();
+  }
+
+  @VisibleForTesting
+  long getSnapshotVersion() {
+    return mySnapshot.version;
+  }
+
   @GuardedBy("ITEM_MAP_LOCK")
   @Override
   @Nullable
@@ -415,6 +528,7 @@ public abstract class MultiResourceRepository extends LocalResourceRepository im
     myCachedMaps.clear();
     myResourceNames.clear();
     myUnreconciledResources.clear();
+    mySnapshot = mySnapshot.reset(mySnapshot.singleLeafNamespaces);
   }
 
   private void onLowMemory() {
@@ -449,6 +563,7 @@ public abstract class MultiResourceRepository extends LocalResourceRepository im
             repositories.add(repository);
           }
         }
+        mySnapshot = mySnapshot.without(namespace, types);
 
         setModificationCount(ourModificationCounter.incrementAndGet());
       }
@@ -485,9 +600,7 @@ public abstract class MultiResourceRepository extends LocalResourceRepository im
   @Override
   @NotNull
   public Collection<SingleNamespaceResourceRepository> getLeafResourceRepositories() {
-    synchronized (ITEM_MAP_LOCK) {
-      return myLeafsByNamespace.values();
-    }
+    return myLeafsByNamespace.values();
   }
 
   @VisibleForTesting
@@ -502,6 +615,87 @@ public abstract class MultiResourceRepository extends LocalResourceRepository im
     }
   }
 
+  /**
+   * An immutable, versioned set of merged resource maps. A new snapshot is derived from the previous one
+   * by replacing or dropping the maps for individual resource types, so that a change in one type doesn't
+   * discard the merged maps of other types.
+   *
+   * <p>Namespaces backed by a single leaf repository are not included. Their resources are read from that
+   * repository directly, which avoids copying them.
+   */
+  private static final class ResourceSnapshot {
+    static final ResourceSnapshot EMPTY = new ResourceSnapshot(0, ImmutableSet.of(), ImmutableMap.of());
+
+    final long version;
+    @NotNull final ImmutableSet<ResourceNamespace> singleLeafNamespaces;
+    @NotNull final ImmutableMap<ResourceNamespace, ImmutableMap<ResourceType, ImmutableListMultimap<String, ResourceItem>>> maps;
+
+    private ResourceSnapshot(long version,
+                             @NotNull ImmutableSet<ResourceNamespace> singleLeafNamespaces,
+                             @NotNull ImmutableMap<ResourceNamespace, ImmutableMap<ResourceType, ImmutableListMultimap<String, ResourceItem>>> maps) {
+      this.version = version;
+      this.singleLeafNamespaces = singleLeafNamespaces;
+      this.maps = maps;
+    }
+
+    boolean isSingleLeaf(@NotNull ResourceNamespace namespace) {
+      return singleLeafNamespaces.contains(namespace);
+    }
+
+    @Nullable
+    ImmutableListMultimap<String, ResourceItem> get(@NotNull ResourceNamespace namespace, @NotNull ResourceType type) {
+      ImmutableMap<ResourceType, ImmutableListMultimap<String, ResourceItem>> typeMap = maps.get(namespace);
+      return typeMap == null ? null : typeMap.get(type);
+    }
+
+    @NotNull
+    ResourceSnapshot with(@NotNull ResourceNamespace namespace, @NotNull ResourceType type,
+                          @NotNull ImmutableListMultimap<String, ResourceItem> map) {
+      Map<ResourceType, ImmutableListMultimap<String, ResourceItem>> typeMap = new EnumMap<>(ResourceType.class);
+      ImmutableMap<ResourceType, ImmutableListMultimap<String, ResourceItem>> oldTypeMap = maps.get(namespace);
+      if (oldTypeMap != null) {
+        typeMap.putAll(oldTypeMap);
+      }
+      typeMap.put(type, map);
+      return replace(namespace, Maps.immutableEnumMap(typeMap));
+    }
+
+    @NotNull
+    ResourceSnapshot without(@NotNull ResourceNamespace namespace, @NotNull ResourceType... types) {
+      ImmutableMap<ResourceType, ImmutableListMultimap<String, ResourceItem>> oldTypeMap = maps.get(namespace);
+      if (oldTypeMap == null) {
+        return this;
+      }
+      Map<ResourceType, ImmutableListMultimap<String, ResourceItem>> typeMap = new EnumMap<>(ResourceType.class);
+      typeMap.putAll(oldTypeMap);
+      for (ResourceType type : types) {
+        typeMap.remove(type);
+      }
+      return typeMap.size() == oldTypeMap.size() ? this : replace(namespace, Maps.immutableEnumMap(typeMap));
+    }
+
+    @NotNull
+    ResourceSnapshot reset(@NotNull ImmutableSet<ResourceNamespace> singleLeafNamespaces) {
+      return new ResourceSnapshot(version + 1, singleLeafNamespaces, ImmutableMap.of());
+    }
+
+    @NotNull
+    private ResourceSnapshot replace(@NotNull ResourceNamespace namespace,
+                                     @NotNull ImmutableMap<ResourceType, ImmutableListMultimap<String, ResourceItem>> typeMap) {
+      ImmutableMap.Builder<ResourceNamespace, ImmutableMap<ResourceType, ImmutableListMultimap<String, ResourceItem>>> builder =
+          ImmutableMap.builderWithExpectedSize(maps.size() + 1);
+      for (Map.Entry<ResourceNamespace, ImmutableMap<ResourceType, ImmutableListMultimap<String, ResourceItem>>> entry : maps.entrySet()) {
+        if (!entry.getKey().equals(namespace)) {
+          builder.put(entry);
+        }
+      }
+      if (!typeMap.isEmpty()) {
+        builder.put(namespace, typeMap);
+      }
+      return new ResourceSnapshot(version + 1, singleLeafNamespaces, builder.build());
+    }
+  }
+
   private static class ResourcePriorityComparator implements Comparator<ResourceItem> {
     private final Object2IntMap<SingleNamespaceResourceRepository> repositoryOrdering;
 
@@ -127,6 +127,7 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Deque;
 import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -134,6 +135,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executor;
@@ -187,6 +190,14 @@ public final class ResourceFolderRepository extends LocalResourceRepository impl
   private static final double CACHE_STALENESS_THRESHOLD = 0.05;
   private static final Comparator<ResourceItemSource<?>> SOURCE_COMPARATOR =
       Comparator.comparing(ResourceItemSource::getFolderConfiguration);
+  /**
+   * Minimum number of files in the resource folders of types other than "values" for the initial scan to be
+   * split between multiple threads. Below this threshold the overhead of parallel loading is not worth it.
+   */
+  private static final int PARALLEL_SCAN_THRESHOLD = 500;
+  /** Executor used for scanning resource folders in parallel during the initial load. */
+  private static final ExecutorService SCAN_EXECUTOR =
+      AppExecutorUtil.createBoundedApplicationPoolExecutor("ResourceFolderRepository Loader", Runtime.getRuntime().availableProcessors());
   private static final Logger LOG = Logger.getInstance(ResourceFolderRepository.class);
 
   @NotNull private final AndroidFacet myFacet;
@@ -832,10 +843,7 @@ public final class ResourceFolderRepository extends LocalResourceRepository impl
 
       // First delete out the previous items.
       ResourceItemSource<?> source = mySources.remove(file.getVirtualFile());
-      boolean removed = false;
-      if (source != null) {
-        removed = removeItemsFromSource(source);
-      }
+      Set<ResourceType> changedTypes = source == null ? EnumSet.noneOf(ResourceType.class) : removeItemsFromSource(source);
 
       file = ensureValid(file);
       boolean added = false;
@@ -853,11 +861,12 @@ public final class ResourceFolderRepository extends LocalResourceRepository impl
         }
       }
 
-      if (added || removed) {
+      if (added || !changedTypes.isEmpty()) {
         // TODO: Consider doing a deeper diff of the changes to the resource items
         //       to determine if the removed and added items actually differ.
         setModificationCount(ourModificationCounter.incrementAndGet());
-        invalidateParentCaches(this, ResourceType.values());
+        changedTypes.addAll(result.keySet());
+        invalidateParentCaches(changedTypes);
       }
     } else if (checkResourceFilename(file, folderType)) {
       ResourceItemSource<?> source = mySources.get(file.getVirtualFile());
@@ -928,9 +937,7 @@ public final class ResourceFolderRepository extends LocalResourceRepository impl
       } else {
         // Either we're switching to PSI or the file is not XML (image or font), which is not incremental.
         // Remove old items first, rescan below to add back, but with a possibly different multimap list order.
-        if (source != null) {
-          removeItemsFromSource(source);
-        }
+        Set<ResourceType> changedTypes = source == null ? EnumSet.noneOf(ResourceType.class) : removeItemsFromSource(source);
         // For unit test tracking purposes only.
         fileRescans++;
 
@@ -955,7 +962,8 @@ public final class ResourceFolderRepository extends LocalResourceRepository impl
             }
           }
           setModificationCount(ourModificationCounter.incrementAndGet());
-          invalidateParentCaches(this, ResourceType.values());
+          changedTypes.addAll(result.keySet());
+          invalidateParentCaches(changedTypes);
         }
       }
     }
@@ -1031,10 +1039,10 @@ public final class ResourceFolderRepository extends LocalResourceRepository impl
   /**
    * Removes all resource items associated the given source file.
    *
-   * @return true if any resource items were removed from the repository
+   * @return the types of the resource items that were removed from the repository
    */
-  private boolean removeItemsFromSource(@NotNull ResourceItemSource<?> source) {
-    boolean changed = false;
+  private @NotNull Set<ResourceType> removeItemsFromSource(@NotNull ResourceItemSource<?> source) {
+    Set<ResourceType> changedTypes = EnumSet.noneOf(ResourceType.class);
 
     synchronized (ITEM_MAP_LOCK) {
       for (ResourceItem item : source) {
@@ -1044,7 +1052,7 @@ public final class ResourceFolderRepository extends LocalResourceRepository impl
           ResourceItem candidate = iter.next();
           if (candidate == item) {
             iter.remove();
-            changed = true;
+            changedTypes.add(item.getType());
             break;
           }
         }
@@ -1053,7 +1061,17 @@ public final class ResourceFolderRepository extends LocalResourceRepository impl
         }
       }
     }
-    return changed;
+    return changedTypes;
+  }
+
+  /**
+   * Invalidates caches of the parent repositories for the given resource types only, so that
+   * the parents don't have to rebuild the data for the types that were not affected by a change.
+   */
+  private void invalidateParentCaches(@NotNull Set<ResourceType> changedTypes) {
+    if (!changedTypes.isEmpty()) {
+      invalidateParentCaches(this, changedTypes.toArray(new ResourceType[0]));
+    }
   }
 
   /**
@@ -1981,10 +1999,10 @@ public final class ResourceFolderRepository extends LocalResourceRepository impl
   private void removeSource(@NotNull VirtualFile file, @NotNull ResourceItemSource<?> source) {
     ResourceUpdateTracer.log(() -> getSimpleId(this) + ".onSourceRemoved " + pathForLogging(file));
 
-    boolean removed = removeItemsFromSource(source);
-    if (removed) {
+    Set<ResourceType> changedTypes = removeItemsFromSource(source);
+    if (!changedTypes.isEmpty()) {
       setModificationCount(ourModificationCounter.incrementAndGet());
-      invalidateParentCaches(this, ResourceType.values());
+      invalidateParentCaches(changedTypes);
     }
 
     ResourceFolderType folderType = IdeResourcesUtil.getFolderType(file);
@@ -2244,13 +2262,32 @@ public final class ResourceFolderRepository extends LocalResourceRepository impl
 
     @NotNull Set<VirtualFile> myFilesToReparseAsPsi = new HashSet<>();
     private final FileDocumentManager myFileDocumentManager;
+    /** The loader that created this worker loader, or null if this loader is not a worker. */
+    @Nullable private final Loader myParent;
+    // Statistics of the initial repository loading, transferred to the repository by populateRepository.
+    private int myNumXmlFilesLoaded;
+    private int myNumXmlFilesLoadedFromSources;
 
     Loader(@NotNull ResourceFolderRepository repository, @Nullable ResourceFolderRepositoryCachingData cachingData) {
+      this(repository, cachingData, null);
+    }
+
+    /**
+     * Creates a worker loader that scans some of the resource folders on behalf of the {@code parent} loader.
+     * The worker has its own parsers and result maps, so that multiple workers can run concurrently.
+     */
+    private Loader(@NotNull Loader parent) {
+      this(parent.myRepository, null, parent);
+    }
+
+    private Loader(@NotNull ResourceFolderRepository repository, @Nullable ResourceFolderRepositoryCachingData cachingData,
+                   @Nullable Loader parent) {
       super(VfsUtilCore.virtualToIoFile(repository.myResourceDir).toPath(), null, repository.getNamespace());
       myRepository = repository;
       myResourceDir = repository.myResourceDir;
       myPsiManager = repository.myPsiManager;
       myCachingData = cachingData;
+      myParent = parent;
       // TODO: Add visibility support.
       myDefaultVisibility = ResourceVisibility.UNDEFINED;
       myFileDocumentManager = FileDocumentManager.getInstance();
@@ -2329,48 +2366,51 @@ public final class ResourceFolderRepository extends LocalResourceRepository impl
 
     private void scanResFolder() {
       try {
+        // Group resource folders by folder type. The "values" folders are scanned by this loader. The other folder types
+        // are scanned by separate worker loaders running in parallel if the resource directory is large enough.
+        Map<ResourceFolderType, List<FolderToScan>> foldersByType = new EnumMap<>(ResourceFolderType.class);
+        int numFilesInNonValueFolders = 0;
         for (VirtualFile subDir : myResourceDir.getChildren()) {
           if (subDir.isValid() && subDir.isDirectory()) {
             String folderName = subDir.getName();
             FolderInfo folderInfo = FolderInfo.create(folderName, myFolderConfigCache);
             if (folderInfo != null) {
               RepositoryConfiguration configuration = getConfiguration(myRepository, folderInfo.configuration);
-              for (VirtualFile file : subDir.getChildren()) {
-                if (file.getName().startsWith(".")) {
-                  continue; // Skip file with the name starting with a dot.
-                }
-                // If there is an unsaved Document for this file, data read from persistent cache may be stale and data read using
-                // loadResourceFile below will be stale as it reads straight from disk. Schedule a PSI-based parse.
-                if (myFileDocumentManager.isFileModified(file)) {
-                  myFilesToReparseAsPsi.add(file);
-                  continue;
-                }
-
-                if (folderInfo.folderType == VALUES ? mySources.containsKey(file) : myFileResources.containsKey(file)) {
-                  if (isParsableFile(file, folderInfo)) {
-                    countCacheHit();
-                  }
-                  continue;
-                }
-
-                PathString pathString = FileExtensions.toPathString(file);
-                myLastVirtualFile = file;
-                myLastPathString = pathString;
-                try {
-                  loadResourceFile(pathString, folderInfo, configuration);
-                  if (isParsableFile(file, folderInfo)) {
-                    countCacheMiss();
-                  }
-                }
-                catch (ParsingException e) {
-                  // Reparse the file as PSI. The PSI parser is more forgiving than KXmlParser because
-                  // it is designed to work with potentially malformed files in the middle of editing.
-                  myFilesToReparseAsPsi.add(file);
-                }
+              VirtualFile[] files = subDir.getChildren();
+              foldersByType.computeIfAbsent(folderInfo.folderType, type -> new ArrayList<>())
+                  .add(new FolderToScan(folderInfo, configuration, files));
+              if (folderInfo.folderType != VALUES) {
+                numFilesInNonValueFolders += files.length;
               }
             }
           }
         }
+
+        if (numFilesInNonValueFolders < PARALLEL_SCAN_THRESHOLD || foldersByType.size() < 2) {
+          for (List<FolderToScan> folders : foldersByType.values()) {
+            scanFolders(folders);
+          }
+        }
+        else {
+          List<CompletableFuture<Loader>> workers = new ArrayList<>();
+          for (Map.Entry<ResourceFolderType, List<FolderToScan>> entry : foldersByType.entrySet()) {
+            if (entry.getKey() != VALUES) {
+              List<FolderToScan> folders = entry.getValue();
+              workers.add(CompletableFuture.supplyAsync(() -> {
+                Loader worker = new Loader(this);
+                worker.scanFolders(folders);
+                return worker;
+              }, SCAN_EXECUTOR));
+            }
+          }
+          List<FolderToScan> valueFolders = foldersByType.get(VALUES);
+          if (valueFolders != null) {
+            scanFolders(valueFolders);
+          }
+          for (CompletableFuture<Loader> worker : workers) {
+            mergeWorkerResults(joinWorker(worker));
+          }
+        }
       }
       catch (ProcessCanceledException e) {
         throw e;
@@ -2401,6 +2441,85 @@ public final class ResourceFolderRepository extends LocalResourceRepository impl
       }
     }
 
+    /**
+     * Scans the files in the given resource folders. May be called on a worker loader concurrently with other loaders.
+     */
+    private void scanFolders(@NotNull List<FolderToScan> folders) {
+      for (FolderToScan folder : folders) {
+        FolderInfo folderInfo = folder.folderInfo;
+        for (VirtualFile file : folder.files) {
+          if (file.getName().startsWith(".")) {
+            continue; // Skip file with the name starting with a dot.
+          }
+          // If there is an unsaved Document for this file, data read from persistent cache may be stale and data read using
+          // loadResourceFile below will be stale as it reads straight from disk. Schedule a PSI-based parse.
+          if (myFileDocumentManager.isFileModified(file)) {
+            myFilesToReparseAsPsi.add(file);
+            continue;
+          }
+
+          if (isLoadedFromCache(file, folderInfo)) {
+            if (isParsableFile(file, folderInfo)) {
+              myNumXmlFilesLoaded++;
+            }
+            continue;
+          }
+
+          PathString pathString = FileExtensions.toPathString(file);
+          myLastVirtualFile = file;
+          myLastPathString = pathString;
+          try {
+            loadResourceFile(pathString, folderInfo, folder.configuration);
+            if (isParsableFile(file, folderInfo)) {
+              myNumXmlFilesLoaded++;
+              myNumXmlFilesLoadedFromSources++;
+            }
+          }
+          catch (ParsingException e) {
+            // Reparse the file as PSI. The PSI parser is more forgiving than KXmlParser because
+            // it is designed to work with potentially malformed files in the middle of editing.
+            myFilesToReparseAsPsi.add(file);
+          }
+        }
+      }
+    }
+
+    /**
+     * Checks if resources of the given file were already loaded from the persistent cache. Safe to call from worker
+     * loaders since the data loaded from cache is not modified while the resource folders are being scanned.
+     */
+    private boolean isLoadedFromCache(@NotNull VirtualFile file, @NotNull FolderInfo folderInfo) {
+      Loader loader = myParent == null ? this : myParent;
+      return folderInfo.folderType == VALUES ? loader.mySources.containsKey(file) : loader.myFileResources.containsKey(file);
+    }
+
+    private static @NotNull Loader joinWorker(@NotNull CompletableFuture<Loader> worker) {
+      try {
+        return worker.join();
+      }
+      catch (CompletionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) {
+          throw (RuntimeException)cause;
+        }
+        if (cause instanceof Error) {
+          throw (Error)cause;
+        }
+        throw e;
+      }
+    }
+
+    /**
+     * Merges resources loaded by a worker loader into this loader.
+     */
+    private void mergeWorkerResults(@NotNull Loader worker) {
+      mySources.putAll(worker.mySources);
+      myFileResources.putAll(worker.myFileResources);
+      myFilesToReparseAsPsi.addAll(worker.myFilesToReparseAsPsi);
+      myNumXmlFilesLoaded += worker.myNumXmlFilesLoaded;
+      myNumXmlFilesLoadedFromSources += worker.myNumXmlFilesLoadedFromSources;
+    }
+
     private void loadResourceFile(
         @NotNull PathString file, @NotNull FolderInfo folderInfo, @NotNull RepositoryConfiguration configuration) {
       if (folderInfo.resourceType == null) {
@@ -2423,6 +2542,8 @@ public final class ResourceFolderRepository extends LocalResourceRepository impl
     }
 
     private void populateRepository() {
+      myRepository.myNumXmlFilesLoadedInitially += myNumXmlFilesLoaded;
+      myRepository.myNumXmlFilesLoadedInitiallyFromSources += myNumXmlFilesLoadedFromSources;
       myRepository.mySources.putAll(mySources);
       myRepository.commitToRepositoryWithoutLock(myResources);
     }
@@ -2545,13 +2666,19 @@ public final class ResourceFolderRepository extends LocalResourceRepository impl
       }
     }
 
-    private void countCacheHit() {
-      ++myRepository.myNumXmlFilesLoadedInitially;
-    }
+    /**
+     * A resource folder together with its files to be scanned.
+     */
+    private static final class FolderToScan {
+      @NotNull final FolderInfo folderInfo;
+      @NotNull final RepositoryConfiguration configuration;
+      @NotNull final VirtualFile[] files;
 
-    private void countCacheMiss() {
-      ++myRepository.myNumXmlFilesLoadedInitially;
-      ++myRepository.myNumXmlFilesLoadedInitiallyFromSources;
+      FolderToScan(@NotNull FolderInfo folderInfo, @NotNull RepositoryConfiguration configuration, @NotNull VirtualFile[] files) {
+        this.folderInfo = folderInfo;
+        this.configuration = configuration;
+        this.files = files;
+      }
     }
   }
 
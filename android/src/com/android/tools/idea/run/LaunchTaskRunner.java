@@ -17,6 +17,7 @@ package com.android.tools.idea.run;
 
 import com.android.ddmlib.IDevice;
 import com.android.sdklib.AndroidVersion;
+import com.android.tools.idea.flags.StudioFlags;
 import com.android.tools.idea.run.tasks.ConnectDebuggerTask;
 import com.android.tools.idea.run.tasks.LaunchContext;
 import com.android.tools.idea.run.tasks.LaunchResult;
@@ -29,8 +30,10 @@ import com.android.tools.idea.run.util.SwapInfo;
 import com.android.tools.idea.stats.RunStats;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.google.wireless.android.sdk.stats.LaunchTaskDetail;
+import com.intellij.concurrency.SensitiveProgressWrapper;
 import com.intellij.execution.filters.HyperlinkInfo;
 import com.intellij.execution.process.ProcessHandler;
 import com.intellij.execution.ui.RunContentManager;
@@ -39,7 +42,9 @@ import com.intellij.notification.NotificationListener;
 import com.intellij.notification.NotificationType;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.progress.Task;
 import com.intellij.openapi.progress.util.ProgressIndicatorUtils;
 import com.intellij.openapi.project.Project;
@@ -50,15 +55,19 @@ import com.intellij.util.containers.ContainerUtil;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 import org.jetbrains.android.util.AndroidBundle;
@@ -66,6 +75,10 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 public class LaunchTaskRunner extends Task.Backgroundable {
+  private static final int MAX_CONCURRENT_DEVICES = 8;
+  private static final ExecutorService ourDeviceExecutor =
+    AppExecutorUtil.createBoundedApplicationPoolExecutor("LaunchTaskRunner", MAX_CONCURRENT_DEVICES);
+
   @NotNull private final String myConfigName;
   @NotNull private final String myApplicationId;
   @Nullable private final String myExecutionTargetName; // Change to NotNull once everything is moved over to DeviceAndSnapshot
@@ -77,8 +90,8 @@ public class LaunchTaskRunner extends Task.Backgroundable {
   @NotNull private final BiConsumer<String, HyperlinkInfo> myConsoleConsumer;
   @NotNull private final List<Runnable> myOnFinished;
 
-  @Nullable private String myError;
-  @Nullable private NotificationListener myErrorNotificationListener;
+  @Nullable private volatile String myError;
+  @Nullable private volatile NotificationListener myErrorNotificationListener;
 
   public LaunchTaskRunner(@NotNull Project project,
                           @NotNull String configName,
@@ -101,7 +114,7 @@ public class LaunchTaskRunner extends Task.Backgroundable {
     myLaunchTasksProvider = launchTasksProvider;
     myStats = stats;
     myConsoleConsumer = consoleConsumer;
-    myOnFinished = new ArrayList<>();
+    myOnFinished = Collections.synchronizedList(new ArrayList<>());
   }
 
   @Override
@@ -189,26 +202,41 @@ public class LaunchTaskRunner extends Task.Backgroundable {
         }
       }
 
-      Ref<Integer> completedStepsCount = new Ref<>(0);
+      AtomicInteger completedStepsCount = new AtomicInteger();
       final int totalScheduledStepsCount = launchTaskMap
         .values()
         .stream()
         .mapToInt(launchTasks -> getTotalDuration(launchTasks, debugSessionTask))
         .sum();
 
+      // The devices on which the launch tasks succeeded.
+      Map<IDevice, Boolean> succeededDevices;
+      if (StudioFlags.DEPLOY_TO_DEVICES_CONCURRENTLY.get() && launchTaskMap.size() > 1) {
+        succeededDevices = runLaunchTasksConcurrently(
+          launchTaskMap, launchStatus, consolePrinter, indicator, destroyProcessOnCancellation, completedStepsCount, totalScheduledStepsCount);
+      }
+      else {
+        succeededDevices = new HashMap<>(launchTaskMap.size());
+        for (Map.Entry<IDevice, List<LaunchTask>> entry : launchTaskMap.entrySet()) {
+          IDevice device = entry.getKey();
+          boolean isSucceeded = runLaunchTasks(
+            entry.getValue(),
+            new LaunchContext(myProject, myLaunchInfo.executor, device, launchStatus, consolePrinter, myProcessHandler, indicator),
+            indicator,
+            destroyProcessOnCancellation,
+            completedStepsCount,
+            totalScheduledStepsCount
+          );
+          succeededDevices.put(device, isSucceeded);
+        }
+      }
+
       // A list of devices that we have launched application successfully.
       List<IDevice> launchedDevices = new ArrayList<>();
 
-      for (Map.Entry<IDevice, List<LaunchTask>> entry : launchTaskMap.entrySet()) {
+      for (Map.Entry<IDevice, Boolean> entry : succeededDevices.entrySet()) {
         IDevice device = entry.getKey();
-        boolean isSucceeded = runLaunchTasks(
-          entry.getValue(),
-          new LaunchContext(myProject, myLaunchInfo.executor, device, launchStatus, consolePrinter, myProcessHandler, indicator),
-          destroyProcessOnCancellation,
-          completedStepsCount,
-          totalScheduledStepsCount
-        );
-        if (isSucceeded) {
+        if (entry.getValue()) {
           launchedDevices.add(device);
         } else {
           // Manually detach a device here because devices may not be detached automatically when
@@ -231,8 +259,7 @@ public class LaunchTaskRunner extends Task.Backgroundable {
           indicator.setText(debugSessionTask.getDescription());
           debugSessionTask.perform(myLaunchInfo, device, launchStatus, consolePrinter);
           // Update the indicator progress bar.
-          completedStepsCount.set(completedStepsCount.get() + debugSessionTask.getDuration());
-          indicator.setFraction(completedStepsCount.get().floatValue() / totalScheduledStepsCount);
+          indicator.setFraction((float)completedStepsCount.addAndGet(debugSessionTask.getDuration()) / totalScheduledStepsCount);
         }
       }
     } finally {
@@ -240,35 +267,114 @@ public class LaunchTaskRunner extends Task.Backgroundable {
     }
   }
 
+  /**
+   * Runs the launch tasks of each device concurrently, each device with its own progress indicator so that its tasks are cancelled if it
+   * goes offline without affecting the other devices. Returns whether the launch tasks succeeded, by device.
+   */
+  @NotNull
+  private Map<IDevice, Boolean> runLaunchTasksConcurrently(@NotNull Map<IDevice, List<LaunchTask>> launchTaskMap,
+                                                           @NotNull LaunchStatus launchStatus,
+                                                           @NotNull ConsolePrinter consolePrinter,
+                                                           @NotNull ProgressIndicator indicator,
+                                                           boolean destroyProcessOnCancellation,
+                                                           @NotNull AtomicInteger completedStepsCount,
+                                                           int totalScheduledStepsCount) {
+    indicator.setText(String.format("%s %d devices", getLaunchVerb(), launchTaskMap.size()));
+    ListeningExecutorService executor = MoreExecutors.listeningDecorator(ourDeviceExecutor);
+    Map<IDevice, ListenableFuture<Boolean>> futures = new LinkedHashMap<>(launchTaskMap.size());
+    for (Map.Entry<IDevice, List<LaunchTask>> entry : launchTaskMap.entrySet()) {
+      IDevice device = entry.getKey();
+      ProgressIndicator deviceIndicator = new DeviceProgressIndicator(indicator, device);
+      LaunchContext launchContext =
+        new LaunchContext(myProject, myLaunchInfo.executor, device, launchStatus, consolePrinter, myProcessHandler, deviceIndicator);
+      futures.put(device, executor.submit(() -> {
+        Ref<Boolean> isSucceeded = new Ref<>(false);
+        // Run under the device indicator, so that the tasks see it as the global progress indicator.
+        ProgressManager.getInstance().runProcess(
+          () -> isSucceeded.set(runLaunchTasks(entry.getValue(), launchContext, indicator, destroyProcessOnCancellation,
+                                               completedStepsCount, totalScheduledStepsCount)),
+          deviceIndicator);
+        return isSucceeded.get();
+      }));
+    }
+
+    try {
+      ProgressIndicatorUtils.awaitWithCheckCanceled(Futures.successfulAsList(futures.values()), indicator);
+    }
+    catch (ProcessCanceledException e) {
+      // The tasks still running stop at their next check of the cancelled device indicators, but run() won't get to handle the devices:
+      // terminate the launch and detach the devices that weren't launched here instead.
+      checkIfLaunchIsAliveAndTerminateIfCancelIsRequested(indicator, launchStatus, destroyProcessOnCancellation);
+      for (Map.Entry<IDevice, ListenableFuture<Boolean>> entry : futures.entrySet()) {
+        if (!entry.getValue().isDone() || !isSucceeded(entry.getKey(), entry.getValue())) {
+          detachDevice(entry.getKey());
+        }
+      }
+      throw e;
+    }
+
+    Map<IDevice, Boolean> succeededDevices = new LinkedHashMap<>(futures.size());
+    for (Map.Entry<IDevice, ListenableFuture<Boolean>> entry : futures.entrySet()) {
+      succeededDevices.put(entry.getKey(), isSucceeded(entry.getKey(), entry.getValue()));
+    }
+    return succeededDevices;
+  }
+
+  /**
+   * Returns whether the completed launch tasks of {@code device} succeeded.
+   */
+  private static boolean isSucceeded(@NotNull IDevice device, @NotNull ListenableFuture<Boolean> future) {
+    if (future.isCancelled()) {
+      return false;
+    }
+    return Futures.getUnchecked(Futures.catching(future, Throwable.class, t -> {
+      Logger.getInstance(LaunchTaskRunner.class).warn("Launch tasks failed on " + device, t);
+      return false;
+    }, MoreExecutors.directExecutor()));
+  }
+
+  /**
+   * Runs the launch tasks of one device.
+   *
+   * @param launchContext     the context of the device, whose progress indicator is {@code indicator} unless the tasks of several devices
+   *                          run concurrently
+   * @param indicator         the progress indicator of the whole launch
+   */
   private boolean runLaunchTasks(@NotNull List<LaunchTask> launchTasks,
                                  @NotNull LaunchContext launchContext,
+                                 @NotNull ProgressIndicator indicator,
                                  boolean destroyProcessOnCancellation,
-                                 @NotNull Ref<Integer> completedStepsCount,
+                                 @NotNull AtomicInteger completedStepsCount,
                                  int totalScheduledStepsCount) {
     // Update the indicator progress.
-    ProgressIndicator indicator = launchContext.getProgressIndicator();
-    indicator.setFraction(completedStepsCount.get().floatValue() / totalScheduledStepsCount);
+    indicator.setFraction((float)completedStepsCount.get() / totalScheduledStepsCount);
+    ProgressIndicator deviceIndicator = launchContext.getProgressIndicator();
     IDevice device = launchContext.getDevice();
     LaunchStatus launchStatus = launchContext.getLaunchStatus();
 
-    String groupId = "LaunchTaskRunner for " + launchContext.getExecutor().getId();
-    NotificationGroup notificationGroup = NotificationGroup.findRegisteredGroup(groupId);
-    if (notificationGroup == null) {
-      notificationGroup = NotificationGroup.toolWindowGroup(groupId, launchContext.getExecutor().getId());
-    }
+    NotificationGroup notificationGroup = getNotificationGroup(launchContext.getExecutor().getId());
     int numWarnings = 0;
     for (LaunchTask task : launchTasks) {
+      if (deviceIndicator != indicator && deviceIndicator.isCanceled() && !indicator.isCanceled()) {
+        // Only the launch on this device was cancelled.
+        return false;
+      }
       if (!checkIfLaunchIsAliveAndTerminateIfCancelIsRequested(indicator, launchStatus, destroyProcessOnCancellation)) {
         return false;
       }
 
       if (task.shouldRun(launchContext)) {
-        LaunchTaskDetail.Builder details = myStats.beginLaunchTask(task);
-        indicator.setText(task.getDescription());
+        LaunchTaskDetail.Builder details;
+        synchronized (myStats) {
+          details = myStats.beginLaunchTask(task);
+        }
+        deviceIndicator.setText(task.getDescription());
         LaunchResult launchResult = task.run(launchContext);
         myOnFinished.addAll(launchResult.onFinishedCallbacks());
         Result result = launchResult.getResult();
-        myStats.endLaunchTask(task, details, result != Result.ERROR);
+        synchronized (myStats) {
+          myStats.endLaunchTask(task, details, result != Result.ERROR);
+        }
         if (result != Result.SUCCESS) {
           myErrorNotificationListener = launchResult.getNotificationListener();
           myError = launchResult.getMessage();
@@ -297,7 +403,9 @@ public class LaunchTaskRunner extends Task.Backgroundable {
                                                               myLaunchInfo.executor, myProcessHandler));
 
           if (result == Result.ERROR) {
-            myStats.setErrorId(launchResult.getErrorId());
+            synchronized (myStats) {
+              myStats.setErrorId(launchResult.getErrorId());
+            }
             return false;
           }
           else {
@@ -310,8 +418,7 @@ public class LaunchTaskRunner extends Task.Backgroundable {
       }
 
       // Update the indicator progress.
-      completedStepsCount.set(completedStepsCount.get() + task.getDuration());
-      indicator.setFraction(completedStepsCount.get().floatValue() / totalScheduledStepsCount);
+      indicator.setFraction((float)completedStepsCount.addAndGet(task.getDuration()) / totalScheduledStepsCount);
     }
 
     String launchType = myLaunchTasksProvider.getLaunchTypeDisplayName();
@@ -330,6 +437,16 @@ public class LaunchTaskRunner extends Task.Backgroundable {
     return true;
   }
 
+  @NotNull
+  private static synchronized NotificationGroup getNotificationGroup(@NotNull String executorId) {
+    String groupId = "LaunchTaskRunner for " + executorId;
+    NotificationGroup notificationGroup = NotificationGroup.findRegisteredGroup(groupId);
+    if (notificationGroup == null) {
+      notificationGroup = NotificationGroup.toolWindowGroup(groupId, executorId);
+    }
+    return notificationGroup;
+  }
+
   private void detachDevice(IDevice device) {
     if (!isSwap() && myProcessHandler instanceof AndroidProcessHandler) {
       AndroidProcessHandler androidProcessHandler = (AndroidProcessHandler) myProcessHandler;
@@ -453,4 +570,33 @@ public class LaunchTaskRunner extends Task.Backgroundable {
     }
     return "Launching";
   }
+
+  /**
+   * The progress indicator of the launch tasks of one device when the tasks of several devices run concurrently. It shows the progress
+   * of the device as the details of the launch indicator, and is cancelled when the launch is cancelled or when the device goes offline.
+   */
+  private static class DeviceProgressIndicator extends SensitiveProgressWrapper {
+    @NotNull private final ProgressIndicator myLaunchIndicator;
+    @NotNull private final IDevice myDevice;
+
+    private DeviceProgressIndicator(@NotNull ProgressIndicator launchIndicator, @NotNull IDevice device) {
+      super(launchIndicator);
+      myLaunchIndicator = launchIndicator;
+      myDevice = device;
+    }
+
+    @Override
+    public void setText(String text) {
+      super.setText(text);
+      myLaunchIndicator.setText2(myDevice.getName() + ": " + text);
+    }
+
+    @Override
+    public boolean isCanceled() {
+      if (!super.isCanceled() && !myDevice.isOnline()) {
+        cancel();
+      }
+      return super.isCanceled();
+    }
+  }
 }
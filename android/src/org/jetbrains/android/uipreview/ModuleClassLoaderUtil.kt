@@ -251,7 +251,8 @@ internal class ModuleClassLoaderImpl(module: Module,
               jarLoader
             ),
             ClassWriter.COMPUTE_MAXS,
-            onClassRewrite),
+            onClassRewrite,
+            if (StudioFlags.NELE_CLASS_PERSISTENT_CACHE.get()) TransformedClassDiskCache.getInstance() else TransformedClassCache.NO_CACHE),
           onAfterLoad = { fqcn, bytes ->
             onClassLoaded(fqcn)
             // Map the fqcn to the library path and insert the class into the class binary cache
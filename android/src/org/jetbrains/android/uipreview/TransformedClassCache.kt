@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.android.uipreview
+
+/**
+ * Interface to record and retrieve the result of applying a class transformation. Entries are keyed by the hash of the
+ * input class contents, so an entry can be reused by any class loader that loads the same class.
+ */
+interface TransformedClassCache {
+  /**
+   * Return the transformed class binary data or null if unknown.
+   *
+   * @param inputHash hash of the class binary data before the transformation
+   * @param transformationId it represents the transformations applied to the class. It must be stable across IDE sessions.
+   */
+  fun get(inputHash: String, transformationId: String): ByteArray?
+
+  /**
+   * Record the transformed class binary [data] for the input class with the given [inputHash].
+   */
+  fun put(inputHash: String, transformationId: String, data: ByteArray)
+
+  companion object {
+    @JvmField
+    val NO_CACHE = object : TransformedClassCache {
+      override fun get(inputHash: String, transformationId: String): ByteArray? = null
+      override fun put(inputHash: String, transformationId: String, data: ByteArray) { }
+    }
+  }
+}
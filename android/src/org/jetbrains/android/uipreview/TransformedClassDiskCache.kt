@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.android.uipreview
+
+import com.android.tools.idea.flags.StudioFlags
+import com.google.common.hash.Hashing
+import com.intellij.openapi.application.ApplicationInfo
+import com.intellij.openapi.application.PathManager
+import com.intellij.openapi.diagnostic.Logger
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.startup.ProjectActivity
+import com.intellij.util.concurrency.AppExecutorUtil
+import org.jetbrains.annotations.VisibleForTesting
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.NoSuchFileException
+import java.nio.file.Path
+import java.nio.file.Paths
+import java.nio.file.StandardCopyOption
+import java.nio.file.attribute.FileTime
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executor
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
+
+private const val MAX_SIZE_BYTES = 500_000_000L // We will store no more than 500Mb of transformed classes on disk
+private const val CACHE_DIRECTORY = "preview-transformed-classes"
+private const val ENTRY_SUFFIX = ".class"
+private const val TEMP_SUFFIX = ".tmp"
+
+/**
+ * Version of the transformed class format. Increment it when the output of the transformations changes without a change of their ids,
+ * for example after a fix in one of the class visitors, so that classes transformed by older code are not loaded.
+ */
+private const val TRANSFORMS_VERSION = 1
+
+/**
+ * A [TransformedClassCache] that stores the transformed classes in the IDE system directory so that they survive IDE restarts.
+ *
+ * Each entry is a file named after the input class hash, the transformation id and the [version] of the code that produced it, which
+ * changes with every IDE build. Entries of other versions are never read, and are deleted by [warmUp]. Entries are written asynchronously
+ * on the given [executor]. Reading an entry updates its modification time, and when the total size of the entries exceeds [maxSizeBytes],
+ * the least recently used ones are deleted.
+ */
+class TransformedClassDiskCache @VisibleForTesting constructor(
+  private val cacheDirectory: Path,
+  private val maxSizeBytes: Long,
+  private val version: String,
+  private val executor: Executor) : TransformedClassCache {
+
+  /** Suffix of the names of the entries written by this version. */
+  private val entrySuffix = "_$version$ENTRY_SUFFIX"
+
+  /** Sizes of the entries known to exist on disk, keyed by file name. */
+  private val entries = ConcurrentHashMap<String, Long>()
+  private val totalSize = AtomicLong()
+  private val warmUpStarted = AtomicBoolean()
+  /** True when [entries] contains all the entries on disk, so a missing key means a cache miss without checking the disk. */
+  @Volatile
+  private var isIndexLoaded = false
+
+  override fun get(inputHash: String, transformationId: String): ByteArray? {
+    val name = getEntryName(inputHash, transformationId)
+    if (isIndexLoaded && !entries.containsKey(name)) {
+      return null
+    }
+    val file = cacheDirectory.resolve(name)
+    return try {
+      val bytes = Files.readAllBytes(file)
+      executor.execute { markUsed(file) }
+      bytes
+    }
+    catch (e: IOException) {
+      null
+    }
+  }
+
+  override fun put(inputHash: String, transformationId: String, data: ByteArray) {
+    val name = getEntryName(inputHash, transformationId)
+    if (entries.containsKey(name)) {
+      return
+    }
+    executor.execute { write(name, data) }
+  }
+
+  /**
+   * Asynchronously loads the list of the entries on disk, deletes the entries of other versions, and deletes the least recently used
+   * ones if the cache is over its size limit.
+   * Until this completes, every [get] has to check the disk.
+   */
+  fun warmUp() {
+    if (!warmUpStarted.compareAndSet(false, true)) {
+      return
+    }
+    executor.execute {
+      try {
+        Files.newDirectoryStream(cacheDirectory).use { paths ->
+          for (path in paths) {
+            val name = path.fileName.toString()
+            try {
+              when {
+                name.endsWith(TEMP_SUFFIX) -> Files.deleteIfExists(path) // Left over from an interrupted write.
+                name.endsWith(entrySuffix) -> addEntry(name, Files.size(path))
+                name.endsWith(ENTRY_SUFFIX) -> Files.deleteIfExists(path) // Written by another version of the IDE.
+              }
+            }
+            catch (e: IOException) {
+              LOG.debug("Unable to access $path", e)
+            }
+          }
+        }
+      }
+      catch (ignore: NoSuchFileException) {
+      }
+      catch (e: IOException) {
+        LOG.warn("Unable to list $cacheDirectory", e)
+        return@execute
+      }
+      isIndexLoaded = true
+      trim()
+    }
+  }
+
+  private fun write(name: String, data: ByteArray) {
+    try {
+      Files.createDirectories(cacheDirectory)
+      // Write to a temporary file first so that readers never see a partially written entry.
+      val tempFile = Files.createTempFile(cacheDirectory, null, TEMP_SUFFIX)
+      Files.write(tempFile, data)
+      Files.move(tempFile, cacheDirectory.resolve(name), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+      addEntry(name, data.size.toLong())
+    }
+    catch (e: IOException) {
+      LOG.debug("Unable to write $name", e)
+    }
+    trim()
+  }
+
+  private fun addEntry(name: String, size: Long) {
+    val oldSize = entries.put(name, size)
+    totalSize.addAndGet(size - (oldSize ?: 0))
+  }
+
+  @Synchronized
+  private fun trim() {
+    if (totalSize.get() <= maxSizeBytes) {
+      return
+    }
+    // Trim below the limit to avoid trimming again after every write.
+    val targetSize = maxSizeBytes * 9 / 10
+    val entriesByLastUse = entries.keys.mapNotNull { name ->
+      try {
+        name to Files.getLastModifiedTime(cacheDirectory.resolve(name))
+      }
+      catch (e: IOException) {
+        entries.remove(name)?.let { totalSize.addAndGet(-it) }
+        null
+      }
+    }.sortedBy { it.second }
+
+    for ((name, _) in entriesByLastUse) {
+      if (totalSize.get() <= targetSize) {
+        break
+      }
+      try {
+        Files.deleteIfExists(cacheDirectory.resolve(name))
+        entries.remove(name)?.let { totalSize.addAndGet(-it) }
+      }
+      catch (e: IOException) {
+        LOG.debug("Unable to delete $name", e)
+      }
+    }
+  }
+
+  @VisibleForTesting
+  fun getTotalSize(): Long = totalSize.get()
+
+  private fun markUsed(file: Path) {
+    try {
+      Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()))
+    }
+    catch (ignore: IOException) {
+      // The entry has been deleted.
+    }
+  }
+
+  private fun getEntryName(inputHash: String, transformationId: String) = "${inputHash}_$transformationId$entrySuffix"
+
+  /**
+   * Starts loading the cache index when a project is opened, so that it is ready by the time the first preview is rendered.
+   */
+  internal class WarmUpActivity : ProjectActivity {
+    override suspend fun execute(project: Project) {
+      if (StudioFlags.NELE_CLASS_PERSISTENT_CACHE.get()) {
+        getInstance().warmUp()
+      }
+    }
+  }
+
+  companion object {
+    private val LOG = Logger.getInstance(TransformedClassDiskCache::class.java)
+
+    private val instance by lazy {
+      TransformedClassDiskCache(Paths.get(PathManager.getSystemPath(), CACHE_DIRECTORY),
+                                MAX_SIZE_BYTES,
+                                getCurrentVersion(),
+                                AppExecutorUtil.createBoundedApplicationPoolExecutor("TransformedClassDiskCache", 1))
+    }
+
+    @JvmStatic
+    fun getInstance(): TransformedClassDiskCache = instance
+
+    /** Returns a version that changes with the IDE build and with [TRANSFORMS_VERSION]. */
+    private fun getCurrentVersion(): String =
+      Hashing.farmHashFingerprint64()
+        .hashString("${ApplicationInfo.getInstance().build.asString()}/$TRANSFORMS_VERSION", Charsets.UTF_8)
+        .toString()
+  }
+}
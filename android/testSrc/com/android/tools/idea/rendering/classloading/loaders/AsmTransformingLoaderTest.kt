@@ -16,12 +16,16 @@
 package com.android.tools.idea.rendering.classloading.loaders
 
 import com.android.tools.idea.rendering.classloading.ClassTransform
+import com.android.tools.idea.rendering.classloading.ClassVisitorUniqueIdProvider
 import com.android.tools.idea.rendering.classloading.NopClassLocator
 import com.android.tools.idea.rendering.classloading.loadClassBytes
 import com.android.tools.idea.rendering.classloading.textifyClass
+import org.jetbrains.android.uipreview.TransformedClassCache
 import org.jetbrains.org.objectweb.asm.ClassVisitor
+import org.jetbrains.org.objectweb.asm.ClassWriter
 import org.jetbrains.org.objectweb.asm.commons.ClassRemapper
 import org.jetbrains.org.objectweb.asm.commons.SimpleRemapper
+import org.junit.Assert.assertArrayEquals
 import org.junit.Assert.assertNull
 import org.junit.Test
 import java.util.function.Function
@@ -78,4 +82,43 @@ class AsmTransformingLoaderTest {
       NopClassLocator)
     assertNull(transformLoader.loadClass(TransformableClass::class.java.name))
   }
-}
\ No newline at end of file
+
+  @Test
+  fun `check transformed classes are cached`() {
+    val backedMap = mutableMapOf<String, ByteArray>()
+    val cache = object : TransformedClassCache {
+      override fun get(inputHash: String, transformationId: String): ByteArray? = backedMap["$transformationId:$inputHash"]
+
+      override fun put(inputHash: String, transformationId: String, data: ByteArray) {
+        backedMap["$transformationId:$inputHash"] = data
+      }
+    }
+    val staticLoader = StaticLoader(
+      TransformableClass::class.java.name to loadClassBytes(TransformableClass::class.java)
+    )
+    var rewrites = 0
+    fun createLoader(visitorId: String) = AsmTransformingLoader(
+      ClassTransform(listOf(Function<ClassVisitor, ClassVisitor> { visitor -> RemapperWithId(visitor, visitorId) })),
+      staticLoader,
+      NopClassLocator,
+      ClassWriter.COMPUTE_MAXS,
+      { _, _, _ -> rewrites++ },
+      cache)
+
+    val transformedClass = createLoader("id1").loadClass(TransformableClass::class.java.name)
+    assertEquals(1, rewrites)
+    assertEquals(1, backedMap.size)
+
+    // A new loader applying the same transformation reuses the cached class.
+    assertArrayEquals(transformedClass, createLoader("id1").loadClass(TransformableClass::class.java.name))
+    assertEquals(1, rewrites)
+
+    // A different transformation does not.
+    createLoader("id2").loadClass(TransformableClass::class.java.name)
+    assertEquals(2, rewrites)
+    assertEquals(2, backedMap.size)
+  }
+
+  private class RemapperWithId(visitor: ClassVisitor, override val uniqueId: String) :
+    ClassRemapper(visitor, SimpleRemapper(emptyMap())), ClassVisitorUniqueIdProvider
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.res
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.attribute.FileTime
+
+/**
+ * Tests for [AarResourceRepositoryCache].
+ */
+class AarResourceRepositoryCacheTest {
+  @get:Rule
+  val tempFolder = TemporaryFolder()
+
+  @Test
+  fun testTrimDiskCache() {
+    val cacheDir = tempFolder.newFolder("resource-cache").toPath()
+    val oldest = createCacheFile(cacheDir, "oldest.dat", size = 400, lastUsed = 1000)
+    val old = createCacheFile(cacheDir, "old.dat", size = 300, lastUsed = 2000)
+    val recent = createCacheFile(cacheDir, "recent.dat", size = 300, lastUsed = 3000)
+    val mostRecent = createCacheFile(cacheDir, "most_recent.dat", size = 200, lastUsed = 4000)
+
+    AarResourceRepositoryCache.trimDiskCache(cacheDir, 1200)
+    assertThat(listOf(oldest, old, recent, mostRecent).filter(Files::exists)).containsExactly(oldest, old, recent, mostRecent)
+
+    AarResourceRepositoryCache.trimDiskCache(cacheDir, 600)
+    assertThat(listOf(oldest, old, recent, mostRecent).filter(Files::exists)).containsExactly(recent, mostRecent)
+  }
+
+  @Test
+  fun testTrimDiskCacheMissingDirectory() {
+    // Should not throw.
+    AarResourceRepositoryCache.trimDiskCache(tempFolder.root.toPath().resolve("nonexistent"), 0)
+  }
+
+  private fun createCacheFile(dir: Path, name: String, size: Int, lastUsed: Long): Path {
+    val file = dir.resolve(name)
+    Files.write(file, ByteArray(size))
+    Files.setLastModifiedTime(file, FileTime.fromMillis(lastUsed))
+    return file
+  }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.res;
+
+import static com.android.ide.common.rendering.api.ResourceNamespace.RES_AUTO;
+import static com.android.tools.idea.res.AbstractResourceRepositoryWithLocking.ITEM_MAP_LOCK;
+import static com.google.common.truth.Truth.assertThat;
+
+import com.android.ide.common.resources.ResourceItem;
+import com.android.ide.common.resources.ResourceMergerItem;
+import com.android.resources.ResourceType;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ListMultimap;
+import com.intellij.openapi.util.Disposer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.jetbrains.annotations.NotNull;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Tests for {@link MultiResourceRepository}. */
+public class MultiResourceRepositoryTest {
+  private static final int READER_THREADS = 4;
+  private static final int INVALIDATIONS = 200;
+
+  private TestLocalResourceRepository myLeaf1;
+  private TestLocalResourceRepository myLeaf2;
+  private TestMultiResourceRepository myRepository;
+
+  @Before
+  public void setUp() {
+    myLeaf1 = new TestLocalResourceRepository(RES_AUTO);
+    myLeaf1.addResources(RES_AUTO, ResourceType.ID, createItems(ResourceType.ID, "id", 1000));
+    myLeaf1.addResources(RES_AUTO, ResourceType.STYLEABLE, createItems(ResourceType.STYLEABLE, "styleable", 1000));
+    myLeaf2 = new TestLocalResourceRepository(RES_AUTO);
+    myRepository = new TestMultiResourceRepository(ImmutableList.of(myLeaf1, myLeaf2));
+  }
+
+  @After
+  public void tearDown() {
+    Disposer.dispose(myRepository);
+  }
+
+  @Test
+  public void testSnapshotIsReusedUntilInvalidated() {
+    ListMultimap<String, ResourceItem> ids = myRepository.getResources(RES_AUTO, ResourceType.ID);
+    assertThat(ids.keySet()).hasSize(1000);
+    assertThat(myRepository.getResources(RES_AUTO, ResourceType.ID)).isSameAs(ids);
+    ListMultimap<String, ResourceItem> styleables = myRepository.getResources(RES_AUTO, ResourceType.STYLEABLE);
+    long version = myRepository.getSnapshotVersion();
+
+    // Invalidation of one resource type doesn't affect the merged map of another type.
+    synchronized (ITEM_MAP_LOCK) {
+      myRepository.invalidateCache(myLeaf2, ResourceType.ID);
+    }
+    assertThat(myRepository.getSnapshotVersion()).isGreaterThan(version);
+    assertThat(myRepository.getResources(RES_AUTO, ResourceType.STYLEABLE)).isSameAs(styleables);
+    assertThat(myRepository.getResources(RES_AUTO, ResourceType.ID)).isNotSameAs(ids);
+    assertThat(myRepository.getResources(RES_AUTO, ResourceType.ID).keySet()).hasSize(1000);
+
+    // New resources become visible after the child repository notifies its parents.
+    myLeaf2.addResources(RES_AUTO, ResourceType.ID, createItems(ResourceType.ID, "new_id", 1));
+    synchronized (ITEM_MAP_LOCK) {
+      myLeaf2.invalidateParentCaches();
+    }
+    assertThat(myRepository.hasResources(RES_AUTO, ResourceType.ID, "new_id0")).isTrue();
+    assertThat(myRepository.getResources(RES_AUTO, ResourceType.ID, "new_id0")).hasSize(1);
+    assertThat(myRepository.getResourceNames(RES_AUTO, ResourceType.ID)).hasSize(1001);
+  }
+
+  @Test
+  public void testSnapshotReadsDoNotWaitForLock() throws Exception {
+    myRepository.getResources(RES_AUTO, ResourceType.STYLEABLE);
+    AtomicLong reads = new AtomicLong();
+    Thread reader = new Thread(() -> {
+      for (int i = 0; i < 1000; i++) {
+        if (myRepository.hasResources(RES_AUTO, ResourceType.STYLEABLE, "styleable" + i)) {
+          reads.incrementAndGet();
+        }
+      }
+    });
+
+    // The reader completes while the lock is held by another thread, since the merged styleables are already in the snapshot.
+    synchronized (ITEM_MAP_LOCK) {
+      reader.start();
+      reader.join(TimeUnit.SECONDS.toMillis(10));
+      assertThat(reader.isAlive()).isFalse();
+    }
+    assertThat(reads.get()).isEqualTo(1000);
+  }
+
+  @Test
+  public void testConcurrentReadsDuringInvalidation() throws Exception {
+    AtomicBoolean stop = new AtomicBoolean();
+    AtomicLong reads = new AtomicLong();
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+    List<Thread> readers = new ArrayList<>();
+
+    for (int i = 0; i < READER_THREADS; i++) {
+      int threadIndex = i;
+      readers.add(new Thread(() -> {
+        try {
+          long count = 0;
+          do {
+            ResourceType type = (count + threadIndex) % 2 == 0 ? ResourceType.ID : ResourceType.STYLEABLE;
+            String name = (type == ResourceType.ID ? "id" : "styleable") + count % 1000;
+            assertThat(myRepository.getResources(RES_AUTO, type, name)).hasSize(1);
+            count++;
+          } while (!stop.get());
+          reads.addAndGet(count);
+        }
+        catch (Throwable t) {
+          failure.compareAndSet(null, t);
+        }
+      }));
+    }
+
+    readers.forEach(Thread::start);
+    for (int i = 0; i < INVALIDATIONS; i++) {
+      synchronized (ITEM_MAP_LOCK) {
+        myRepository.invalidateCache(myLeaf2, ResourceType.ID);
+      }
+      Thread.yield();
+    }
+    stop.set(true);
+    for (Thread reader : readers) {
+      reader.join(TimeUnit.SECONDS.toMillis(10));
+      assertThat(reader.isAlive()).isFalse();
+    }
+
+    assertThat(failure.get()).isNull();
+    assertThat(reads.get()).isGreaterThan(0L);
+  }
+
+  @NotNull
+  private static ListMultimap<String, ResourceItem> createItems(@NotNull ResourceType type, @NotNull String prefix, int count) {
+    ListMultimap<String, ResourceItem> result = ArrayListMultimap.create();
+    for (int i = 0; i < count; i++) {
+      String name = prefix + i;
+      result.put(name, new ResourceMergerItem(name, null, type, null, null, null));
+    }
+    return result;
+  }
+
+  private static class TestMultiResourceRepository extends MultiResourceRepository {
+    TestMultiResourceRepository(@NotNull List<? extends LocalResourceRepository> children) {
+      super("unit test");
+      setChildren(children, ImmutableList.of(), ImmutableList.of());
+    }
+  }
+}
@@ -333,6 +333,27 @@ public class ResourceFolderRepositoryTest extends AndroidTestCase {
     assertNotNull(repository.getResources(RES_AUTO, ResourceType.LAYOUT, "layout2"));
   }
 
+  public void testInitialCreateOfLargeRepository() {
+    // Enough files for the initial scan to be split between multiple threads.
+    int numFilesPerType = 300;
+    for (int i = 0; i < numFilesPerType; i++) {
+      myFixture.copyFileToProject(LAYOUT1, "res/layout/layout" + i + ".xml");
+      myFixture.copyFileToProject(DRAWABLE, "res/drawable/drawable" + i + ".png");
+    }
+    myFixture.copyFileToProject(VALUES1, "res/values/myvalues.xml");
+
+    ResourceFolderRepository repository = createRepository(false);
+
+    assertEquals(numFilesPerType, repository.getResources(RES_AUTO, ResourceType.LAYOUT).keySet().size());
+    assertEquals(numFilesPerType, repository.getResources(RES_AUTO, ResourceType.DRAWABLE).keySet().size());
+    assertTrue(repository.hasResources(RES_AUTO, ResourceType.LAYOUT, "layout" + (numFilesPerType - 1)));
+    assertTrue(repository.hasResources(RES_AUTO, ResourceType.DRAWABLE, "drawable0"));
+    assertTrue(repository.hasResources(RES_AUTO, ResourceType.STRING, "ellipsis"));
+    assertTrue(repository.hasResources(RES_AUTO, ResourceType.ID, "action_next"));
+    assertEquals(numFilesPerType + 1, repository.getNumXmlFilesLoadedInitially());
+    assertEquals(numFilesPerType + 1, repository.getNumXmlFilesLoadedInitiallyFromSources());
+  }
+
   public void testArrayWithNoName() throws Exception {
     VirtualFile virtualFile = myFixture.copyFileToProject(VALUES_WITH_INCORRECT_ARRAY, "res/values/array_without_name.xml");
 
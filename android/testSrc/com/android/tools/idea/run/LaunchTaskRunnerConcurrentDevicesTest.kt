@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.run
+
+import com.android.ddmlib.IDevice
+import com.android.sdklib.AndroidVersion
+import com.android.sdklib.AndroidVersion.MIN_RECOMMENDED_API
+import com.android.testutils.MockitoKt.any
+import com.android.testutils.MockitoKt.eq
+import com.android.testutils.MockitoKt.mock
+import com.android.testutils.MockitoKt.whenever
+import com.android.tools.idea.flags.StudioFlags.DEPLOY_TO_DEVICES_CONCURRENTLY
+import com.android.tools.idea.run.tasks.LaunchResult
+import com.android.tools.idea.run.tasks.LaunchTask
+import com.android.tools.idea.run.tasks.LaunchTasksProvider
+import com.android.tools.idea.stats.RunStats
+import com.android.tools.idea.testing.AndroidProjectRule
+import com.google.common.truth.Truth.assertThat
+import com.google.common.util.concurrent.Futures
+import com.intellij.execution.Executor
+import com.intellij.execution.filters.HyperlinkInfo
+import com.intellij.execution.runners.ExecutionEnvironment
+import com.intellij.execution.runners.ProgramRunner
+import com.intellij.openapi.progress.ProcessCanceledException
+import com.intellij.openapi.progress.util.ProgressIndicatorBase
+import org.junit.After
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.mockito.Mock
+import org.mockito.Mockito.never
+import org.mockito.Mockito.verify
+import org.mockito.junit.MockitoJUnit
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.function.BiConsumer
+
+/**
+ * Tests of [LaunchTaskRunner] running the launch tasks of several devices concurrently.
+ */
+class LaunchTaskRunnerConcurrentDevicesTest {
+  @get:Rule
+  var mockitoJunit = MockitoJUnit.rule()
+  @get:Rule
+  val projectRule = AndroidProjectRule.inMemory()
+
+  @Mock
+  lateinit var mockProcessHandler: AndroidProcessHandler
+  @Mock
+  lateinit var mockLaunchTasksProvider: LaunchTasksProvider
+  @Mock
+  lateinit var mockRunStats: RunStats
+  @Mock
+  lateinit var mockConsoleConsumer: BiConsumer<String, HyperlinkInfo>
+  @Mock
+  lateinit var mockExecutor: Executor
+  @Mock
+  lateinit var mockProgramRunner: ProgramRunner<*>
+  @Mock
+  lateinit var mockExecutionEnvironment: ExecutionEnvironment
+  @Mock
+  lateinit var mockConsoleProvider: ConsoleProvider
+
+  private val runnerExecutor = Executors.newSingleThreadExecutor()
+
+  @Before
+  fun setUp() {
+    DEPLOY_TO_DEVICES_CONCURRENTLY.override(true)
+    whenever(mockExecutor.toolWindowId).thenReturn("toolWindowId")
+    whenever(mockExecutor.id).thenReturn("executorId")
+  }
+
+  @After
+  fun tearDown() {
+    DEPLOY_TO_DEVICES_CONCURRENTLY.clearOverride()
+    runnerExecutor.shutdownNow()
+  }
+
+  private fun createDeviceFutures(numDevices: Int): DeviceFutures {
+    val devices = (1..numDevices).map { index ->
+      val device = mock<AndroidDevice>()
+      val iDevice = mock<IDevice>()
+      whenever(iDevice.isOnline).thenReturn(true)
+      whenever(iDevice.name).thenReturn("device $index")
+      whenever(iDevice.version).thenReturn(AndroidVersion(MIN_RECOMMENDED_API, null))
+      whenever(device.launchedDevice).thenReturn(Futures.immediateFuture(iDevice))
+      device
+    }
+    return DeviceFutures(devices)
+  }
+
+  private fun setLaunchTask(targetDevice: IDevice? = null, run: () -> LaunchResult) {
+    val task = mock<LaunchTask>()
+    whenever(task.shouldRun(any())).thenReturn(true)
+    whenever(task.description).thenReturn("task")
+    whenever(task.run(any())).thenAnswer { run() }
+    whenever(mockLaunchTasksProvider.getTasks(
+      targetDevice?.let { eq(targetDevice) } ?: any(),
+      any(),
+      any())).thenReturn(listOf(task))
+  }
+
+  private fun createLaunchTaskRunner(deviceFutures: DeviceFutures): LaunchTaskRunner {
+    return LaunchTaskRunner(
+      projectRule.project,
+      "configName",
+      "applicationId",
+      "executionTargetName",
+      LaunchInfo(mockExecutor, mockProgramRunner, mockExecutionEnvironment, mockConsoleProvider),
+      mockProcessHandler,
+      deviceFutures,
+      mockLaunchTasksProvider,
+      mockRunStats,
+      mockConsoleConsumer
+    )
+  }
+
+  @Test
+  fun launchTasksOfAllDevicesRunConcurrently() {
+    val deviceFutures = createDeviceFutures(numDevices = 3)
+    val allStarted = CountDownLatch(3)
+    setLaunchTask {
+      allStarted.countDown()
+      // Each task only finishes once the tasks of all the devices are running.
+      check(allStarted.await(10, TimeUnit.SECONDS)) { "Launch tasks did not run concurrently" }
+      LaunchResult.success()
+    }
+
+    createLaunchTaskRunner(deviceFutures).run(ProgressIndicatorBase())
+
+    for (device in deviceFutures.get().map { it.get() }) {
+      verify(mockProcessHandler).addTargetDevice(eq(device))
+      verify(mockProcessHandler, never()).detachDevice(eq(device))
+    }
+    verify(mockProcessHandler, never()).destroyProcess()
+    verify(mockRunStats).endLaunchTasks()
+  }
+
+  @Test
+  fun failureOnOneDeviceOnlyDetachesThatDevice() {
+    val deviceFutures = createDeviceFutures(numDevices = 2)
+    val device1 = deviceFutures.get()[0].get()
+    val device2 = deviceFutures.get()[1].get()
+    setLaunchTask { LaunchResult.success() }
+    setLaunchTask(device1) { LaunchResult.error("", "") }
+
+    createLaunchTaskRunner(deviceFutures).run(ProgressIndicatorBase())
+
+    verify(mockProcessHandler).detachDevice(eq(device1))
+    verify(mockProcessHandler, never()).detachDevice(eq(device2))
+    verify(mockProcessHandler, never()).destroyProcess()
+    verify(mockRunStats).endLaunchTasks()
+  }
+
+  @Test
+  fun cancellingTheLaunchDetachesTheDevicesAndTerminatesTheLaunch() {
+    val deviceFutures = createDeviceFutures(numDevices = 2)
+    val indicator = ProgressIndicatorBase()
+    val allStarted = CountDownLatch(2)
+    val cancelled = CountDownLatch(1)
+    setLaunchTask {
+      allStarted.countDown()
+      cancelled.await(10, TimeUnit.SECONDS)
+      LaunchResult.success()
+    }
+
+    val run = runnerExecutor.submit { createLaunchTaskRunner(deviceFutures).run(indicator) }
+    assertThat(allStarted.await(10, TimeUnit.SECONDS)).isTrue()
+    indicator.cancel()
+    val failure = try {
+      run.get(10, TimeUnit.SECONDS)
+      null
+    }
+    catch (e: ExecutionException) {
+      e.cause
+    }
+    finally {
+      cancelled.countDown()
+    }
+
+    assertThat(failure).isInstanceOf(ProcessCanceledException::class.java)
+    for (device in deviceFutures.get().map { it.get() }) {
+      verify(mockProcessHandler).detachDevice(eq(device))
+    }
+    verify(mockProcessHandler).destroyProcess()
+    verify(mockRunStats).endLaunchTasks()
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.android.uipreview
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.nio.file.Files
+import java.nio.file.attribute.FileTime
+import java.util.concurrent.Executor
+import kotlin.test.assertEquals
+import kotlin.test.assertNull
+
+class TransformedClassDiskCacheTest {
+  @get:Rule
+  val tempFolder = TemporaryFolder()
+
+  private val directExecutor = Executor { it.run() }
+
+  @Test
+  fun `check entries survive a restart`() {
+    val cacheDir = tempFolder.root.toPath().resolve("cache")
+    val cache = TransformedClassDiskCache(cacheDir, 1000, "1", directExecutor)
+    assertNull(cache.get("hash1", "transform1"))
+    cache.put("hash1", "transform1", ByteArray(10) { 1 })
+    cache.put("hash2", "transform1", ByteArray(20) { 2 })
+    assertArrayEquals(ByteArray(10) { 1 }, cache.get("hash1", "transform1"))
+    assertNull(cache.get("hash1", "transform2"))
+
+    // A new instance simulates an IDE restart.
+    val newCache = TransformedClassDiskCache(cacheDir, 1000, "1", directExecutor)
+    newCache.warmUp()
+    assertEquals(30, newCache.getTotalSize())
+    assertArrayEquals(ByteArray(20) { 2 }, newCache.get("hash2", "transform1"))
+    assertNull(newCache.get("hash3", "transform1"))
+  }
+
+  @Test
+  fun `check least recently used entries are evicted`() {
+    val cacheDir = tempFolder.root.toPath().resolve("cache")
+    val cache = TransformedClassDiskCache(cacheDir, 100, "1", directExecutor)
+    cache.warmUp()
+    for (i in 1..4) {
+      cache.put("hash$i", "transform", ByteArray(30))
+      // Make the entries look used in the order they were added.
+      Files.list(cacheDir).use { files ->
+        files.filter { it.fileName.toString().startsWith("hash${i}_") }
+          .forEach { Files.setLastModifiedTime(it, FileTime.fromMillis(i * 1000L)) }
+      }
+    }
+
+    // The limit was exceeded by the 4th entry, so the oldest one was deleted to bring the size down to 90% of the limit.
+    assertEquals(90, cache.getTotalSize())
+    assertNull(cache.get("hash1", "transform"))
+    assertEquals(30, cache.get("hash2", "transform")?.size)
+    assertEquals(30, cache.get("hash3", "transform")?.size)
+    assertEquals(30, cache.get("hash4", "transform")?.size)
+  }
+
+  @Test
+  fun `check entries of another version are not used`() {
+    val cacheDir = tempFolder.root.toPath().resolve("cache")
+    val cache = TransformedClassDiskCache(cacheDir, 1000, "1", directExecutor)
+    cache.put("hash1", "transform1", ByteArray(10) { 1 })
+    assertArrayEquals(ByteArray(10) { 1 }, cache.get("hash1", "transform1"))
+
+    // A new IDE build or transforms version must not load classes transformed by the previous one.
+    val newVersionCache = TransformedClassDiskCache(cacheDir, 1000, "2", directExecutor)
+    assertNull(newVersionCache.get("hash1", "transform1"))
+    newVersionCache.warmUp()
+    assertEquals(0, newVersionCache.getTotalSize())
+    assertNull(newVersionCache.get("hash1", "transform1"))
+    // The entries of the old version have been deleted.
+    assertEquals(0, Files.list(cacheDir).use { it.count() })
+  }
+}
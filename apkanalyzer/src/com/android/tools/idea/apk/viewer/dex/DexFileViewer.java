@@ -70,6 +70,7 @@ import com.intellij.ui.SimpleTextAttributes;
 import com.intellij.ui.TreeSpeedSearch;
 import com.intellij.ui.components.JBLoadingPanel;
 import com.intellij.ui.treeStructure.Tree;
+import com.intellij.util.concurrency.AppExecutorUtil;
 import com.intellij.util.concurrency.EdtExecutorService;
 import com.intellij.util.ui.EmptyIcon;
 import com.intellij.util.ui.tree.TreeModelAdapter;
@@ -98,10 +99,12 @@ import javax.swing.tree.TreeModel;
 import javax.swing.tree.TreePath;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
-import org.jetbrains.ide.PooledThreadExecutor;
 import org.jf.dexlib2.dexbacked.DexBackedDexFile;
 
 public class DexFileViewer extends UserDataHolderBase implements ApkFileEditorComponent, FileEditor {
+  private static final ListeningExecutorService ourExecutorService = MoreExecutors.listeningDecorator(
+    AppExecutorUtil.createBoundedApplicationPoolExecutor("DexFileViewer", Runtime.getRuntime().availableProcessors()));
+
   private final Disposable myDisposable;
   private final JBLoadingPanel myLoadingPanel;
 
@@ -117,6 +120,12 @@ public class DexFileViewer extends UserDataHolderBase implements ApkFileEditorCo
   @Nullable private ProguardMappings myProguardMappings;
   private boolean myDeobfuscateNames;
   private ListenableFuture<DexReferences> myDexReferences;
+  /**
+   * The dex files being parsed for the tree, so that {@link #getDexReferences()} can reuse them while they are being loaded. Cleared once
+   * the tree is built, so that the parsed files, which include the whole content of the dex files, are not kept for the lifetime of the
+   * editor.
+   */
+  @Nullable private ListenableFuture<Map<Path, DexBackedDexFile>> myDexFileFuture;
 
   @NotNull public static final NotificationGroup LOGGING_NOTIFICATION =
     NotificationGroup.logOnlyGroup("APK Analyzer (Info)", PluginId.getId("org.jetbrains.android"));
@@ -316,14 +325,10 @@ public class DexFileViewer extends UserDataHolderBase implements ApkFileEditorCo
   }
 
   public void initDex() {
-    ListeningExecutorService pooledThreadExecutor = MoreExecutors.listeningDecorator(PooledThreadExecutor.INSTANCE);
-    ListenableFuture<Map<Path, DexBackedDexFile>> dexFileFuture = pooledThreadExecutor.submit(() -> {
-      Map<Path, DexBackedDexFile> dexFiles = Maps.newHashMapWithExpectedSize(myDexFiles.length);
-      for (int i = 0; i < myDexFiles.length; i++) {
-        dexFiles.put(myDexFiles[i], DexFiles.getDexFile(myDexFiles[i]));
-      }
-      return dexFiles;
-    });
+    if (myDexFileFuture == null) {
+      myDexFileFuture = loadDexFiles();
+    }
+    ListenableFuture<Map<Path, DexBackedDexFile>> dexFileFuture = myDexFileFuture;
 
     ListenableFuture<DexPackageNode> treeNodeFuture =
       Futures.transform(dexFileFuture, new Function<Map<Path, DexBackedDexFile>, DexPackageNode>() {
@@ -334,11 +339,12 @@ public class DexFileViewer extends UserDataHolderBase implements ApkFileEditorCo
           PackageTreeCreator treeCreator = new PackageTreeCreator(myProguardMappings, myDeobfuscateNames);
           return treeCreator.constructPackageTree(input);
         }
-      }, pooledThreadExecutor);
+      }, ourExecutorService);
 
     Futures.addCallback(treeNodeFuture, new FutureCallback<DexPackageNode>() {
       @Override
       public void onSuccess(DexPackageNode result) {
+        releaseDexFiles(dexFileFuture);
         myLoadingPanel.stopLoading();
         myTree.setRootVisible(false);
         TreeModel treeModel = new FilteredTreeModel<>(result, myDexFilters);
@@ -366,20 +372,11 @@ public class DexFileViewer extends UserDataHolderBase implements ApkFileEditorCo
 
       @Override
       public void onFailure(@NotNull Throwable t) {
+        releaseDexFiles(dexFileFuture);
         myLoadingPanel.stopLoading();
       }
     }, EdtExecutorService.getInstance());
 
-    ListenableFuture<DexFileStats> dexStatsFuture =
-      Futures.transform(dexFileFuture, new Function<Map<Path, DexBackedDexFile>, DexFileStats>() {
-        @NotNull
-        @Override
-        public DexFileStats apply(@Nullable Map<Path, DexBackedDexFile> input) {
-          assert input != null;
-          return DexFileStats.create(input.values());
-        }
-      }, pooledThreadExecutor);
-
     //this will never change for a given dex file, regardless of proguard mappings
     //so it doesn't make sense to recompute every time
     if (((BorderLayout)myTopPanel.getLayout()).getLayoutComponent(BorderLayout.EAST) == null) {
@@ -388,9 +385,20 @@ public class DexFileViewer extends UserDataHolderBase implements ApkFileEditorCo
       titleComponent.append("Loading dex stats");
       myTopPanel.add(titleComponent, BorderLayout.EAST);
 
-      Futures.addCallback(dexStatsFuture, new FutureCallback<DexFileStats>() {
+      // The stats of an APK opened before are read from the index without waiting for the dex files to be parsed.
+      ListenableFuture<DexStatsIndex.Stats> dexStatsFuture = Futures.transformAsync(
+        ourExecutorService.submit(() -> DexStatsIndex.getInstance().get(myDexFiles)),
+        indexedStats -> indexedStats != null
+                        ? Futures.immediateFuture(indexedStats)
+                        : Futures.transform(dexFileFuture, input -> {
+                          assert input != null;
+                          return DexStatsIndex.getInstance().put(myDexFiles, DexStatsIndex.Stats.of(DexFileStats.create(input.values())));
+                        }, ourExecutorService),
+        MoreExecutors.directExecutor());
+
+      Futures.addCallback(dexStatsFuture, new FutureCallback<DexStatsIndex.Stats>() {
         @Override
-        public void onSuccess(DexFileStats result) {
+        public void onSuccess(DexStatsIndex.Stats result) {
           titleComponent.clear();
           titleComponent.setIcon(AllIcons.General.Information);
           titleComponent.append(myDexFiles.length == 1 ? "This dex file defines " : "These dex files define ");
@@ -412,6 +420,32 @@ public class DexFileViewer extends UserDataHolderBase implements ApkFileEditorCo
     }
   }
 
+  private void releaseDexFiles(@NotNull ListenableFuture<Map<Path, DexBackedDexFile>> dexFileFuture) {
+    // The dex stats and references computations that are still pending keep their own reference to the future.
+    if (myDexFileFuture == dexFileFuture) {
+      myDexFileFuture = null;
+    }
+  }
+
+  /**
+   * Parses each of the dex files in its own task, since multidex apps may have dozens of them.
+   */
+  @NotNull
+  private ListenableFuture<Map<Path, DexBackedDexFile>> loadDexFiles() {
+    List<ListenableFuture<DexBackedDexFile>> dexFileFutures = new ArrayList<>(myDexFiles.length);
+    for (Path dexFile : myDexFiles) {
+      dexFileFutures.add(ourExecutorService.submit(() -> DexFiles.getDexFile(dexFile)));
+    }
+    return Futures.transform(Futures.allAsList(dexFileFutures), dexFiles -> {
+      assert dexFiles != null;
+      Map<Path, DexBackedDexFile> result = Maps.newLinkedHashMapWithExpectedSize(myDexFiles.length);
+      for (int i = 0; i < myDexFiles.length; i++) {
+        result.put(myDexFiles[i], dexFiles.get(i));
+      }
+      return result;
+    }, MoreExecutors.directExecutor());
+  }
+
   @NotNull
   @Override
   public JComponent getComponent() {
@@ -477,21 +511,17 @@ public class DexFileViewer extends UserDataHolderBase implements ApkFileEditorCo
   @Nullable
   ListenableFuture<DexReferences> getDexReferences() {
     if (myDexReferences == null) {
-      ListeningExecutorService pooledThreadExecutor = MoreExecutors.listeningDecorator(PooledThreadExecutor.INSTANCE);
-      ListenableFuture<DexBackedDexFile[]> dexFileFuture = pooledThreadExecutor.submit(() -> {
-        DexBackedDexFile[] files = new DexBackedDexFile[myDexFiles.length];
-        for (int i = 0; i < files.length; i++) {
-          files[i] = DexFiles.getDexFile(myDexFiles[i]);
-        }
-        return files;
-      });
-      myDexReferences = Futures.transform(dexFileFuture, new Function<DexBackedDexFile[], DexReferences>() {
+      // Reuse the dex files parsed for the tree rather than parsing them again.
+      if (myDexFileFuture == null) {
+        myDexFileFuture = loadDexFiles();
+      }
+      myDexReferences = Futures.transform(myDexFileFuture, new Function<Map<Path, DexBackedDexFile>, DexReferences>() {
         @Override
-        public DexReferences apply(@Nullable DexBackedDexFile[] inputs) {
+        public DexReferences apply(@Nullable Map<Path, DexBackedDexFile> inputs) {
           assert inputs != null;
-          return new DexReferences(inputs);
+          return new DexReferences(inputs.values().toArray(new DexBackedDexFile[0]));
         }
-      }, pooledThreadExecutor);
+      }, ourExecutorService);
     }
 
     return myDexReferences;
@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.apk.viewer.dex;
+
+import com.android.tools.apk.analyzer.dex.DexFileStats;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.MoreFiles;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A persistent index of the class and method counts of sets of dex files, so that reopening an APK shows them without parsing its dex
+ * files again.
+ *
+ * <p>Entries are keyed by a hash of the contents of the dex files. Dex files carry a SHA-1 signature of their contents in their header,
+ * so only the headers are read to compute the key. Each entry is a small file in {@code <system>/apk-analyzer/dex-stats}, and the least
+ * recently written entries are deleted once there are more than {@link #MAX_ENTRIES}.
+ */
+public final class DexStatsIndex {
+  private static final Logger LOG = Logger.getInstance(DexStatsIndex.class);
+
+  private static final int MAGIC = 0x44535458; // "DSTX"
+  private static final int FORMAT_VERSION = 1;
+  private static final int MAX_ENTRIES = 1000;
+  private static final String ENTRY_EXTENSION = ".stats";
+
+  /** The offset and size of the SHA-1 signature in the dex file header. */
+  private static final int SIGNATURE_OFFSET = 12;
+  private static final int SIGNATURE_SIZE = 20;
+  private static final byte[] DEX_MAGIC_PREFIX = "dex\n".getBytes(StandardCharsets.US_ASCII);
+
+  private static final DexStatsIndex ourInstance = new DexStatsIndex(getDefaultDirectory());
+
+  public static final class Stats {
+    public final int classCount;
+    public final int definedMethodCount;
+    public final int referencedMethodCount;
+
+    public Stats(int classCount, int definedMethodCount, int referencedMethodCount) {
+      this.classCount = classCount;
+      this.definedMethodCount = definedMethodCount;
+      this.referencedMethodCount = referencedMethodCount;
+    }
+
+    @NotNull
+    public static Stats of(@NotNull DexFileStats stats) {
+      return new Stats(stats.classCount, stats.definedMethodCount, stats.referencedMethodCount);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof Stats)) return false;
+      Stats stats = (Stats)o;
+      return classCount == stats.classCount &&
+             definedMethodCount == stats.definedMethodCount &&
+             referencedMethodCount == stats.referencedMethodCount;
+    }
+
+    @Override
+    public int hashCode() {
+      return Arrays.hashCode(new int[]{classCount, definedMethodCount, referencedMethodCount});
+    }
+  }
+
+  @Nullable private final Path myDirectory;
+  @NotNull private final Map<String, Stats> myLoadedStats = new ConcurrentHashMap<>();
+
+  /**
+   * @param directory the directory to keep the index in, or null to only keep it in memory
+   */
+  @VisibleForTesting
+  DexStatsIndex(@Nullable Path directory) {
+    myDirectory = directory;
+  }
+
+  @NotNull
+  public static DexStatsIndex getInstance() {
+    return ourInstance;
+  }
+
+  /**
+   * Returns the stats of the given dex files recorded by {@link #put}, or null if there are none. Reads the headers of the dex files, so
+   * shouldn't be called on the UI thread.
+   */
+  @Nullable
+  public Stats get(@NotNull Path[] dexFiles) {
+    String key = computeKey(dexFiles);
+    if (key == null) {
+      return null;
+    }
+    Stats stats = myLoadedStats.get(key);
+    if (stats == null && myDirectory != null) {
+      stats = read(myDirectory.resolve(key + ENTRY_EXTENSION));
+      if (stats != null) {
+        myLoadedStats.put(key, stats);
+      }
+    }
+    return stats;
+  }
+
+  /**
+   * Records the stats of the given dex files and returns them.
+   */
+  @NotNull
+  public Stats put(@NotNull Path[] dexFiles, @NotNull Stats stats) {
+    String key = computeKey(dexFiles);
+    if (key == null) {
+      return stats;
+    }
+    myLoadedStats.put(key, stats);
+    if (myDirectory != null) {
+      try {
+        write(myDirectory.resolve(key + ENTRY_EXTENSION), stats);
+        evictOldEntries(myDirectory);
+      }
+      catch (IOException e) {
+        LOG.warn("Unable to write dex stats to " + myDirectory, e);
+      }
+    }
+    return stats;
+  }
+
+  @Nullable
+  private static String computeKey(@NotNull Path[] dexFiles) {
+    List<Path> sortedFiles = Arrays.stream(dexFiles).sorted(Comparator.comparing(Path::toString)).collect(Collectors.toList());
+    Hasher hasher = Hashing.sha256().newHasher();
+    try {
+      for (Path file : sortedFiles) {
+        hasher.putBytes(getContentHash(file));
+      }
+    }
+    catch (IOException e) {
+      LOG.warn("Unable to compute the hash of dex files", e);
+      return null;
+    }
+    return hasher.hash().toString();
+  }
+
+  /**
+   * Returns the signature from the header of a dex file, or the hash of its whole contents if it doesn't look like a dex file.
+   */
+  @NotNull
+  private static byte[] getContentHash(@NotNull Path file) throws IOException {
+    byte[] header = new byte[SIGNATURE_OFFSET + SIGNATURE_SIZE];
+    try (InputStream input = Files.newInputStream(file)) {
+      int read = ByteStreams.read(input, header, 0, header.length);
+      if (read == header.length && Arrays.equals(Arrays.copyOf(header, DEX_MAGIC_PREFIX.length), DEX_MAGIC_PREFIX)) {
+        return Arrays.copyOfRange(header, SIGNATURE_OFFSET, header.length);
+      }
+    }
+    return MoreFiles.asByteSource(file).hash(Hashing.sha256()).asBytes();
+  }
+
+  @Nullable
+  private static Stats read(@NotNull Path file) {
+    try (DataInputStream input = new DataInputStream(Files.newInputStream(file))) {
+      if (input.readInt() != MAGIC || input.readInt() != FORMAT_VERSION) {
+        return null;
+      }
+      return new Stats(input.readInt(), input.readInt(), input.readInt());
+    }
+    catch (NoSuchFileException e) {
+      return null;
+    }
+    catch (IOException e) {
+      LOG.warn("Unable to read dex stats from " + file, e);
+      return null;
+    }
+  }
+
+  private static void write(@NotNull Path file, @NotNull Stats stats) throws IOException {
+    Files.createDirectories(file.getParent());
+    Path tempFile = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+    try {
+      try (DataOutputStream output = new DataOutputStream(Files.newOutputStream(tempFile))) {
+        output.writeInt(MAGIC);
+        output.writeInt(FORMAT_VERSION);
+        output.writeInt(stats.classCount);
+        output.writeInt(stats.definedMethodCount);
+        output.writeInt(stats.referencedMethodCount);
+      }
+      Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    finally {
+      Files.deleteIfExists(tempFile);
+    }
+  }
+
+  private static void evictOldEntries(@NotNull Path directory) throws IOException {
+    List<Path> entries;
+    try (Stream<Path> files = Files.list(directory)) {
+      entries = files.filter(file -> file.getFileName().toString().endsWith(ENTRY_EXTENSION)).collect(Collectors.toList());
+    }
+    if (entries.size() <= MAX_ENTRIES) {
+      return;
+    }
+    entries.sort(Comparator.comparingLong(DexStatsIndex::getLastModifiedTime));
+    for (Path entry : entries.subList(0, entries.size() - MAX_ENTRIES)) {
+      Files.deleteIfExists(entry);
+    }
+  }
+
+  private static long getLastModifiedTime(@NotNull Path file) {
+    try {
+      return Files.getLastModifiedTime(file).toMillis();
+    }
+    catch (IOException e) {
+      return 0;
+    }
+  }
+
+  @Nullable
+  private static Path getDefaultDirectory() {
+    if (ApplicationManager.getApplication() == null || ApplicationManager.getApplication().isUnitTestMode()) {
+      return null;
+    }
+    return Paths.get(PathManager.getSystemPath(), "apk-analyzer", "dex-stats");
+  }
+}
@@ -21,10 +21,11 @@ import com.android.tools.adtui.util.HumanReadableUtil;
 import com.android.tools.apk.analyzer.ArchiveContext;
 import com.android.tools.apk.analyzer.Archives;
 import com.android.tools.apk.analyzer.internal.ApkDiffEntry;
-import com.android.tools.apk.analyzer.internal.ApkDiffParser;
 import com.android.tools.apk.analyzer.internal.ApkEntry;
 import com.android.tools.apk.analyzer.internal.ApkFileByFileDiffParser;
 import com.android.tools.idea.apk.viewer.ApkViewPanel.FutureCallBackAdapter;
+import com.android.tools.idea.apk.viewer.diff.ArchiveDiff.ClassDiff;
+import com.android.tools.idea.apk.viewer.diff.ArchiveDiffTree.EntryNode;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
@@ -33,9 +34,11 @@ import com.intellij.openapi.vfs.VfsUtilCore;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.ui.ColoredTreeCellRenderer;
 import com.intellij.ui.LoadingNode;
+import com.intellij.ui.SimpleTextAttributes;
 import com.intellij.ui.TreeSpeedSearch;
 import com.intellij.ui.treeStructure.Tree;
 import com.intellij.util.Function;
+import com.intellij.util.concurrency.AppExecutorUtil;
 import com.intellij.util.concurrency.EdtExecutorService;
 import com.intellij.util.containers.Convertor;
 import java.awt.event.ItemEvent;
@@ -54,6 +57,8 @@ import org.jetbrains.ide.PooledThreadExecutor;
 public class ApkDiffPanel {
 
   private static final ListeningExecutorService ourExecutorService = MoreExecutors.listeningDecorator(PooledThreadExecutor.INSTANCE);
+  private static final ArchiveDiffEngine ourDiffEngine = new ArchiveDiffEngine(
+    AppExecutorUtil.createBoundedApplicationPoolExecutor("ApkDiffPanel", Runtime.getRuntime().availableProcessors()));
   private ListenableFuture<DefaultMutableTreeNode> myFbfTreeStructureFuture;
 
   private JPanel myContainer;
@@ -107,13 +112,14 @@ public class ApkDiffPanel {
   }
 
   private void constructDiffTree(){
-    // construct the main tree
-    ListenableFuture<DefaultMutableTreeNode> treeStructureFuture = ourExecutorService.submit(() -> {
-      try (ArchiveContext archiveContext1 = Archives.open(VfsUtilCore.virtualToIoFile(myOldApk).toPath());
-           ArchiveContext archiveContext2 = Archives.open(VfsUtilCore.virtualToIoFile(myNewApk).toPath())) {
-        return ApkDiffParser.createTreeNode(archiveContext1, archiveContext2);
-      }
-    });
+    // construct the main tree from the zip central directories, without extracting the archives
+    ListenableFuture<DefaultMutableTreeNode> treeStructureFuture = Futures.transform(
+      ourDiffEngine.diff(VfsUtilCore.virtualToIoFile(myOldApk).toPath(), VfsUtilCore.virtualToIoFile(myNewApk).toPath()),
+      diff -> {
+        assert diff != null;
+        return ArchiveDiffTree.createTreeNode(myNewApk.getName(), diff);
+      },
+      ourExecutorService);
     FutureCallBackAdapter<DefaultMutableTreeNode> setRootNode = new FutureCallBackAdapter<DefaultMutableTreeNode>() {
       @Override
       public void onSuccess(DefaultMutableTreeNode result) {
@@ -134,6 +140,11 @@ public class ApkDiffPanel {
     Convertor<TreePath, String> convertor = new Convertor<TreePath, String>() {
       @Override
       public String convert(TreePath path) {
+        EntryNode entryNode = EntryNode.fromNode(path.getLastPathComponent());
+        if (entryNode != null) {
+          return entryNode.getPath();
+        }
+
         ApkEntry e = ApkEntry.fromNode(path.getLastPathComponent());
         if (e == null) {
           return null;
@@ -155,17 +166,17 @@ public class ApkDiffPanel {
                    .setName("Old Size")
                    .setPreferredWidth(150)
                    .setHeaderAlignment(SwingConstants.TRAILING)
-                   .setRenderer(new SizeRenderer(ApkDiffEntry::getOldSize)))
+                   .setRenderer(new SizeRenderer(ApkDiffEntry::getOldSize, EntryNode::getOldSize)))
       .addColumn(new ColumnTreeBuilder.ColumnBuilder()
                    .setName("New Size")
                    .setPreferredWidth(150)
                    .setHeaderAlignment(SwingConstants.TRAILING)
-                   .setRenderer(new SizeRenderer(ApkDiffEntry::getNewSize)))
+                   .setRenderer(new SizeRenderer(ApkDiffEntry::getNewSize, EntryNode::getNewSize)))
       .addColumn(new ColumnTreeBuilder.ColumnBuilder()
                    .setName("Diff Size")
                    .setPreferredWidth(150)
                    .setHeaderAlignment(SwingConstants.TRAILING)
-                   .setRenderer(new SizeRenderer(ApkEntry::getSize)));
+                   .setRenderer(new SizeRenderer(ApkEntry::getSize, entry -> entry.getNewSize() - entry.getOldSize())));
     myColumnTreePane = builder.build();
   }
 
@@ -182,9 +193,6 @@ public class ApkDiffPanel {
   private void setRootNode(@NotNull DefaultMutableTreeNode root) {
     myTreeModel = new DefaultTreeModel(root);
 
-    ApkEntry entry = ApkEntry.fromNode(root);
-    assert entry != null;
-
     myTree.setPaintBusy(false);
     myTree.setRootVisible(true);
     myTree.expandPath(new TreePath(root));
@@ -194,9 +202,11 @@ public class ApkDiffPanel {
   // Duplicated from ApkViewPanel.SizeRenderer until the diff entries are unified into the ArchiveEntry data class.
   public static class SizeRenderer extends ColoredTreeCellRenderer {
     private Function<ApkEntry, Long> mySizeMapper;
+    private Function<EntryNode, Long> myEntryNodeSizeMapper;
 
-    public SizeRenderer(Function<ApkEntry, Long> sizeMapper) {
+    public SizeRenderer(Function<ApkEntry, Long> sizeMapper, Function<EntryNode, Long> entryNodeSizeMapper) {
       mySizeMapper = sizeMapper;
+      myEntryNodeSizeMapper = entryNodeSizeMapper;
       setTextAlign(SwingConstants.RIGHT);
     }
 
@@ -208,6 +218,14 @@ public class ApkDiffPanel {
                                       boolean leaf,
                                       int row,
                                       boolean hasFocus) {
+      EntryNode entryNode = EntryNode.fromNode(value);
+      if (entryNode != null) {
+        if (entryNode.myClassDiff == null) {
+          append(HumanReadableUtil.getHumanizedSize(myEntryNodeSizeMapper.fun(entryNode)));
+        }
+        return;
+      }
+
       ApkEntry entry = ApkEntry.fromNode(value);
       ApkEntry root = ApkEntry.fromNode(tree.getModel().getRoot());
 
@@ -231,6 +249,16 @@ public class ApkDiffPanel {
                                       boolean leaf,
                                       int row,
                                       boolean hasFocus) {
+      EntryNode entryNode = EntryNode.fromNode(value);
+      if (entryNode != null) {
+        append(entryNode.getName());
+        ClassDiff classDiff = entryNode.getClassDiff();
+        if (classDiff != null) {
+          append(" " + getDescription(classDiff), SimpleTextAttributes.GRAYED_ATTRIBUTES);
+        }
+        return;
+      }
+
       ApkEntry entry = ApkEntry.fromNode(value);
       ApkEntry root = ApkEntry.fromNode(tree.getModel().getRoot());
 
@@ -240,5 +268,17 @@ public class ApkDiffPanel {
 
       append(entry.getName());
     }
+
+    @NotNull
+    private static String getDescription(@NotNull ClassDiff classDiff) {
+      switch (classDiff.status) {
+        case ADDED:
+          return "(class added)";
+        case REMOVED:
+          return "(class removed)";
+        default:
+          return "(" + classDiff.addedMethods.size() + " methods added, " + classDiff.removedMethods.size() + " methods removed)";
+      }
+    }
   }
 }
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.apk.viewer.diff;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * The differences between two APKs or app bundles, as computed by {@link ArchiveDiffEngine}.
+ */
+public final class ArchiveDiff {
+  public enum Status {
+    ADDED,
+    REMOVED,
+    MODIFIED,
+    UNCHANGED
+  }
+
+  /**
+   * An entry of either archive. Sizes are uncompressed sizes, or -1 for an entry missing from one of the archives.
+   */
+  public static final class EntryDiff {
+    @NotNull public final String path;
+    @NotNull public final Status status;
+    public final long oldSize;
+    public final long newSize;
+
+    public EntryDiff(@NotNull String path, @NotNull Status status, long oldSize, long newSize) {
+      this.path = path;
+      this.status = status;
+      this.oldSize = oldSize;
+      this.newSize = newSize;
+    }
+
+    @Override
+    public String toString() {
+      return status + " " + path + " (" + oldSize + " -> " + newSize + ")";
+    }
+  }
+
+  /**
+   * A class that was added, removed, or whose methods were added or removed. Methods are identified by their name and descriptor, such
+   * as {@code foo(ILjava/lang/String;)V}.
+   */
+  public static final class ClassDiff {
+    @NotNull public final String className;
+    @NotNull public final Status status;
+    @NotNull public final List<String> addedMethods;
+    @NotNull public final List<String> removedMethods;
+
+    public ClassDiff(@NotNull String className,
+                     @NotNull Status status,
+                     @NotNull List<String> addedMethods,
+                     @NotNull List<String> removedMethods) {
+      this.className = className;
+      this.status = status;
+      this.addedMethods = addedMethods;
+      this.removedMethods = removedMethods;
+    }
+
+    @Override
+    public String toString() {
+      return status + " " + className + " +" + addedMethods + " -" + removedMethods;
+    }
+  }
+
+  /**
+   * The changed classes of the dex files in one directory of the archives, for example the root of an APK or {@code base/dex/} in an app
+   * bundle. Classes are compared across all the dex files of the directory, so a class moving to another dex file is not a change.
+   */
+  public static final class DexDiff {
+    @NotNull public final String directory;
+    @NotNull public final List<ClassDiff> changedClasses;
+
+    public DexDiff(@NotNull String directory, @NotNull List<ClassDiff> changedClasses) {
+      this.directory = directory;
+      this.changedClasses = changedClasses;
+    }
+  }
+
+  @NotNull private final List<EntryDiff> myEntries;
+  @NotNull private final List<DexDiff> myDexDiffs;
+
+  public ArchiveDiff(@NotNull List<EntryDiff> entries, @NotNull List<DexDiff> dexDiffs) {
+    myEntries = Collections.unmodifiableList(entries);
+    myDexDiffs = Collections.unmodifiableList(dexDiffs);
+  }
+
+  /**
+   * Returns all the entries of both archives, sorted by path.
+   */
+  @NotNull
+  public List<EntryDiff> getEntries() {
+    return myEntries;
+  }
+
+  @NotNull
+  public List<EntryDiff> getChangedEntries() {
+    return myEntries.stream().filter(entry -> entry.status != Status.UNCHANGED).collect(Collectors.toList());
+  }
+
+  /**
+   * Returns the dex level differences of the directories with changed dex files.
+   */
+  @NotNull
+  public List<DexDiff> getDexDiffs() {
+    return myDexDiffs;
+  }
+}
@@ -0,0 +1,324 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.apk.viewer.diff;
+
+import com.android.SdkConstants;
+import com.android.tools.apk.analyzer.dex.DexFiles;
+import com.android.tools.idea.apk.viewer.diff.ArchiveDiff.ClassDiff;
+import com.android.tools.idea.apk.viewer.diff.ArchiveDiff.DexDiff;
+import com.android.tools.idea.apk.viewer.diff.ArchiveDiff.EntryDiff;
+import com.android.tools.idea.apk.viewer.diff.ArchiveDiff.Status;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jf.dexlib2.dexbacked.DexBackedClassDef;
+import org.jf.dexlib2.dexbacked.DexBackedDexFile;
+import org.jf.dexlib2.dexbacked.DexBackedMethod;
+
+/**
+ * Compares two APKs or app bundles without extracting them or building their archive trees.
+ *
+ * <p>Only the zip central directories are read to find added, removed and changed entries: entries with different sizes or CRCs have
+ * changed, entries with the same size and CRC have not. Then the dex files of each directory with changed dex files are parsed, in
+ * parallel on the given executor, to find the classes whose methods were added or removed.
+ */
+public final class ArchiveDiffEngine {
+  @NotNull private final ListeningExecutorService myExecutor;
+
+  public ArchiveDiffEngine(@NotNull ExecutorService executor) {
+    myExecutor = MoreExecutors.listeningDecorator(executor);
+  }
+
+  /**
+   * Compares the archives at the given paths.
+   */
+  @NotNull
+  public ListenableFuture<ArchiveDiff> diff(@NotNull Path oldArchive, @NotNull Path newArchive) {
+    ListenableFuture<ZipFile> oldZipFuture = myExecutor.submit(() -> new ZipFile(oldArchive.toFile()));
+    ListenableFuture<ZipFile> newZipFuture = myExecutor.submit(() -> new ZipFile(newArchive.toFile()));
+    ListenableFuture<OpenArchives> archivesFuture =
+      Futures.whenAllSucceed(oldZipFuture, newZipFuture)
+        .call(() -> new OpenArchives(Futures.getDone(oldZipFuture), Futures.getDone(newZipFuture)), MoreExecutors.directExecutor());
+    ListenableFuture<ArchiveDiff> result = Futures.transformAsync(archivesFuture, this::diff, MoreExecutors.directExecutor());
+    Futures.whenAllComplete(result, archivesFuture, oldZipFuture, newZipFuture).run(() -> {
+      OpenArchives archives = getDoneOrNull(archivesFuture);
+      if (archives != null) {
+        // The dex files may still be read after a cancellation, so the archives are only closed once that is done.
+        archives.release();
+      }
+      else {
+        closeQuietly(getDoneOrNull(oldZipFuture));
+        closeQuietly(getDoneOrNull(newZipFuture));
+      }
+    }, MoreExecutors.directExecutor());
+    return result;
+  }
+
+  @NotNull
+  private ListenableFuture<ArchiveDiff> diff(@NotNull OpenArchives archives) {
+    ZipFile oldZip = archives.myOldZip;
+    ZipFile newZip = archives.myNewZip;
+    Map<String, ZipEntry> oldEntries = getFileEntries(oldZip);
+    Map<String, ZipEntry> newEntries = getFileEntries(newZip);
+    Set<String> paths = new TreeSet<>(oldEntries.keySet());
+    paths.addAll(newEntries.keySet());
+
+    List<EntryDiff> entries = new ArrayList<>(paths.size());
+    for (String path : paths) {
+      ZipEntry oldEntry = oldEntries.get(path);
+      ZipEntry newEntry = newEntries.get(path);
+      if (oldEntry == null) {
+        entries.add(new EntryDiff(path, Status.ADDED, -1, newEntry.getSize()));
+      }
+      else if (newEntry == null) {
+        entries.add(new EntryDiff(path, Status.REMOVED, oldEntry.getSize(), -1));
+      }
+      else {
+        // The central directory records the CRC and size of every entry, so no entry needs to be read to tell whether it changed.
+        boolean changed = oldEntry.getSize() != newEntry.getSize() || oldEntry.getCrc() != newEntry.getCrc();
+        entries.add(new EntryDiff(path, changed ? Status.MODIFIED : Status.UNCHANGED, oldEntry.getSize(), newEntry.getSize()));
+      }
+    }
+
+    // Group the dex files by directory, and only compare the classes of the directories with changed dex files.
+    Map<String, List<EntryDiff>> dexEntriesByDirectory = new TreeMap<>();
+    for (EntryDiff entry : entries) {
+      if (entry.path.endsWith(SdkConstants.DOT_DEX)) {
+        dexEntriesByDirectory.computeIfAbsent(getDirectory(entry.path), directory -> new ArrayList<>()).add(entry);
+      }
+    }
+    List<ListenableFuture<DexDiff>> dexDiffFutures = new ArrayList<>();
+    for (Map.Entry<String, List<EntryDiff>> group : dexEntriesByDirectory.entrySet()) {
+      if (group.getValue().stream().anyMatch(entry -> entry.status != Status.UNCHANGED)) {
+        dexDiffFutures.add(diffDex(group.getKey(), group.getValue(), archives));
+      }
+    }
+    return Futures.transform(Futures.allAsList(dexDiffFutures), dexDiffs -> {
+      assert dexDiffs != null;
+      return new ArchiveDiff(entries, dexDiffs);
+    }, MoreExecutors.directExecutor());
+  }
+
+  @NotNull
+  private ListenableFuture<DexDiff> diffDex(@NotNull String directory,
+                                            @NotNull List<EntryDiff> dexEntries,
+                                            @NotNull OpenArchives archives) {
+    List<ListenableFuture<Map<String, Set<String>>>> oldClassFutures = new ArrayList<>();
+    List<ListenableFuture<Map<String, Set<String>>>> newClassFutures = new ArrayList<>();
+    for (EntryDiff entry : dexEntries) {
+      if (entry.status != Status.ADDED) {
+        oldClassFutures.add(myExecutor.submit(() -> archives.read(() -> readMethodsByClass(archives.myOldZip, entry.path))));
+      }
+      if (entry.status != Status.REMOVED) {
+        newClassFutures.add(myExecutor.submit(() -> archives.read(() -> readMethodsByClass(archives.myNewZip, entry.path))));
+      }
+    }
+    ListenableFuture<List<Map<String, Set<String>>>> oldClasses = Futures.allAsList(oldClassFutures);
+    ListenableFuture<List<Map<String, Set<String>>>> newClasses = Futures.allAsList(newClassFutures);
+    return Futures.whenAllSucceed(oldClasses, newClasses).call(
+      () -> new DexDiff(directory, diffClasses(merge(Futures.getDone(oldClasses)), merge(Futures.getDone(newClasses)))),
+      myExecutor);
+  }
+
+  /**
+   * Returns the method descriptors of the classes defined in the dex file at {@code path}, keyed by class name.
+   */
+  @NotNull
+  private static Map<String, Set<String>> readMethodsByClass(@NotNull ZipFile zip, @NotNull String path) throws IOException {
+    ZipEntry entry = zip.getEntry(path);
+    DexBackedDexFile dexFile;
+    try (InputStream input = zip.getInputStream(entry)) {
+      dexFile = DexFiles.getDexFile(ByteStreams.toByteArray(input));
+    }
+    Map<String, Set<String>> methodsByClass = new HashMap<>();
+    for (DexBackedClassDef classDef : dexFile.getClasses()) {
+      Set<String> methods = new HashSet<>();
+      for (DexBackedMethod method : classDef.getMethods()) {
+        StringBuilder descriptor = new StringBuilder(method.getName()).append('(');
+        for (CharSequence parameterType : method.getParameterTypes()) {
+          descriptor.append(parameterType);
+        }
+        methods.add(descriptor.append(')').append(method.getReturnType()).toString());
+      }
+      methodsByClass.put(classDef.getType(), methods);
+    }
+    return methodsByClass;
+  }
+
+  @NotNull
+  private static Map<String, Set<String>> merge(@NotNull List<Map<String, Set<String>>> maps) {
+    Map<String, Set<String>> result = new HashMap<>();
+    for (Map<String, Set<String>> map : maps) {
+      result.putAll(map);
+    }
+    return result;
+  }
+
+  @NotNull
+  private static List<ClassDiff> diffClasses(@NotNull Map<String, Set<String>> oldClasses, @NotNull Map<String, Set<String>> newClasses) {
+    Set<String> classNames = new TreeSet<>(oldClasses.keySet());
+    classNames.addAll(newClasses.keySet());
+    List<ClassDiff> result = new ArrayList<>();
+    for (String className : classNames) {
+      Set<String> oldMethods = oldClasses.getOrDefault(className, Collections.emptySet());
+      Set<String> newMethods = newClasses.getOrDefault(className, Collections.emptySet());
+      List<String> addedMethods = difference(newMethods, oldMethods);
+      List<String> removedMethods = difference(oldMethods, newMethods);
+      Status status = !oldClasses.containsKey(className) ? Status.ADDED
+                      : !newClasses.containsKey(className) ? Status.REMOVED
+                      : addedMethods.isEmpty() && removedMethods.isEmpty() ? Status.UNCHANGED
+                      : Status.MODIFIED;
+      if (status != Status.UNCHANGED) {
+        result.add(new ClassDiff(className, status, addedMethods, removedMethods));
+      }
+    }
+    return result;
+  }
+
+  @NotNull
+  private static List<String> difference(@NotNull Set<String> set, @NotNull Set<String> other) {
+    List<String> result = new ArrayList<>();
+    for (String element : set) {
+      if (!other.contains(element)) {
+        result.add(element);
+      }
+    }
+    Collections.sort(result);
+    return result;
+  }
+
+  @NotNull
+  private static Map<String, ZipEntry> getFileEntries(@NotNull ZipFile zip) {
+    Map<String, ZipEntry> entries = new HashMap<>();
+    Enumeration<? extends ZipEntry> enumeration = zip.entries();
+    while (enumeration.hasMoreElements()) {
+      ZipEntry entry = enumeration.nextElement();
+      if (!entry.isDirectory()) {
+        entries.put(entry.getName(), entry);
+      }
+    }
+    return entries;
+  }
+
+  @NotNull
+  private static String getDirectory(@NotNull String path) {
+    int index = path.lastIndexOf('/');
+    return index < 0 ? "" : path.substring(0, index + 1);
+  }
+
+  @Nullable
+  private static <T> T getDoneOrNull(@NotNull ListenableFuture<T> future) {
+    try {
+      return Futures.getDone(future);
+    }
+    catch (ExecutionException | CancellationException e) {
+      return null;
+    }
+  }
+
+  private static void closeQuietly(@Nullable ZipFile zip) {
+    if (zip == null) {
+      return;
+    }
+    try {
+      zip.close();
+    }
+    catch (IOException ignored) {
+      // There is nothing to do about a failure to close the archive.
+    }
+  }
+
+  /**
+   * The two archives being compared, which are closed once the diff is complete and none of its tasks is reading them anymore.
+   */
+  private static final class OpenArchives {
+    @NotNull private final ZipFile myOldZip;
+    @NotNull private final ZipFile myNewZip;
+    private int myReaderCount;
+    private boolean myReleased;
+
+    private OpenArchives(@NotNull ZipFile oldZip, @NotNull ZipFile newZip) {
+      myOldZip = oldZip;
+      myNewZip = newZip;
+    }
+
+    /**
+     * Runs {@code reader}, unless the diff is already complete, in which case the archives may be closed.
+     */
+    private <T> T read(@NotNull Callable<T> reader) throws Exception {
+      synchronized (this) {
+        if (myReleased) {
+          throw new CancellationException("The archives were closed");
+        }
+        myReaderCount++;
+      }
+      try {
+        return reader.call();
+      }
+      finally {
+        boolean close;
+        synchronized (this) {
+          close = --myReaderCount == 0 && myReleased;
+        }
+        if (close) {
+          close();
+        }
+      }
+    }
+
+    /**
+     * Closes the archives now, or once the last running reader is done.
+     */
+    private void release() {
+      boolean close;
+      synchronized (this) {
+        myReleased = true;
+        close = myReaderCount == 0;
+      }
+      if (close) {
+        close();
+      }
+    }
+
+    private void close() {
+      closeQuietly(myOldZip);
+      closeQuietly(myNewZip);
+    }
+  }
+}
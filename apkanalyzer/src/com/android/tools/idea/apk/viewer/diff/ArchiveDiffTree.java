@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.apk.viewer.diff;
+
+import com.android.tools.idea.apk.viewer.diff.ArchiveDiff.ClassDiff;
+import com.android.tools.idea.apk.viewer.diff.ArchiveDiff.DexDiff;
+import com.android.tools.idea.apk.viewer.diff.ArchiveDiff.EntryDiff;
+import java.util.HashMap;
+import java.util.Map;
+import javax.swing.tree.DefaultMutableTreeNode;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Builds the tree shown by {@link ApkDiffPanel} from an {@link ArchiveDiff}.
+ */
+final class ArchiveDiffTree {
+  private ArchiveDiffTree() {
+  }
+
+  /**
+   * Creates a tree of the entries of both archives, by directory. The classes that changed in the dex files of a directory are listed
+   * under it.
+   */
+  @NotNull
+  static DefaultMutableTreeNode createTreeNode(@NotNull String rootName, @NotNull ArchiveDiff diff) {
+    DefaultMutableTreeNode root = new DefaultMutableTreeNode(new EntryNode(rootName, "/", 0, 0));
+    Map<String, DefaultMutableTreeNode> directories = new HashMap<>();
+    directories.put("", root);
+    for (EntryDiff entry : diff.getEntries()) {
+      long oldSize = Math.max(entry.oldSize, 0);
+      long newSize = Math.max(entry.newSize, 0);
+      int nameIndex = entry.path.lastIndexOf('/') + 1;
+      DefaultMutableTreeNode parent = getDirectoryNode(entry.path.substring(0, nameIndex), directories);
+      parent.add(new DefaultMutableTreeNode(new EntryNode(entry.path.substring(nameIndex), entry.path, oldSize, newSize)));
+      for (DefaultMutableTreeNode node = parent; node != null; node = (DefaultMutableTreeNode)node.getParent()) {
+        ((EntryNode)node.getUserObject()).addSizes(oldSize, newSize);
+      }
+    }
+    for (DexDiff dexDiff : diff.getDexDiffs()) {
+      DefaultMutableTreeNode parent = getDirectoryNode(dexDiff.directory, directories);
+      for (ClassDiff classDiff : dexDiff.changedClasses) {
+        parent.add(new DefaultMutableTreeNode(new EntryNode(classDiff)));
+      }
+    }
+    return root;
+  }
+
+  @NotNull
+  private static DefaultMutableTreeNode getDirectoryNode(@NotNull String directory, @NotNull Map<String, DefaultMutableTreeNode> directories) {
+    DefaultMutableTreeNode node = directories.get(directory);
+    if (node == null) {
+      // The directory paths end with a separator, so the name and the parent of "a/b/" are "b" and "a/".
+      int nameIndex = directory.lastIndexOf('/', directory.length() - 2) + 1;
+      node = new DefaultMutableTreeNode(new EntryNode(directory.substring(nameIndex, directory.length() - 1), directory, 0, 0));
+      getDirectoryNode(directory.substring(0, nameIndex), directories).add(node);
+      directories.put(directory, node);
+    }
+    return node;
+  }
+
+  /**
+   * A node of the tree built from an {@link ArchiveDiff}: an entry or directory of the archives, or a class that changed in their dex
+   * files.
+   */
+  static final class EntryNode {
+    @NotNull private final String myName;
+    @NotNull private final String myPath;
+    @Nullable private final ClassDiff myClassDiff;
+    private long myOldSize;
+    private long myNewSize;
+
+    private EntryNode(@NotNull String name, @NotNull String path, long oldSize, long newSize) {
+      myName = name;
+      myPath = path;
+      myClassDiff = null;
+      myOldSize = oldSize;
+      myNewSize = newSize;
+    }
+
+    private EntryNode(@NotNull ClassDiff classDiff) {
+      // Class names are type descriptors, such as Lcom/example/Foo;
+      String className = classDiff.className;
+      if (className.startsWith("L") && className.endsWith(";")) {
+        className = className.substring(1, className.length() - 1).replace('/', '.');
+      }
+      myName = className;
+      myPath = className;
+      myClassDiff = classDiff;
+    }
+
+    private void addSizes(long oldSize, long newSize) {
+      myOldSize += oldSize;
+      myNewSize += newSize;
+    }
+
+    @NotNull
+    String getName() {
+      return myName;
+    }
+
+    @NotNull
+    String getPath() {
+      return myPath;
+    }
+
+    /**
+     * Returns the changes of the class of this node, or null if this node is an entry or a directory.
+     */
+    @Nullable
+    ClassDiff getClassDiff() {
+      return myClassDiff;
+    }
+
+    /**
+     * Returns the uncompressed size of the entry in the old archive, or the total size of the entries of a directory.
+     */
+    long getOldSize() {
+      return myOldSize;
+    }
+
+    long getNewSize() {
+      return myNewSize;
+    }
+
+    @Nullable
+    static EntryNode fromNode(@Nullable Object node) {
+      if (node instanceof DefaultMutableTreeNode && ((DefaultMutableTreeNode)node).getUserObject() instanceof EntryNode) {
+        return (EntryNode)((DefaultMutableTreeNode)node).getUserObject();
+      }
+      return null;
+    }
+  }
+}
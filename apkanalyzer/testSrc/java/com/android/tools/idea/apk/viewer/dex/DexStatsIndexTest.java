@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.apk.viewer.dex;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DexStatsIndexTest {
+  @Rule public TemporaryFolder myTempFolder = new TemporaryFolder();
+
+  @Test
+  public void statsSurviveRestart() throws IOException {
+    Path directory = myTempFolder.getRoot().toPath().resolve("index");
+    Path[] dexFiles = {createDexFile("classes.dex", (byte)1), createDexFile("classes2.dex", (byte)2)};
+    DexStatsIndex index = new DexStatsIndex(directory);
+    assertNull(index.get(dexFiles));
+
+    DexStatsIndex.Stats stats = new DexStatsIndex.Stats(10, 100, 1000);
+    index.put(dexFiles, stats);
+    assertEquals(stats, index.get(dexFiles));
+
+    DexStatsIndex newIndex = new DexStatsIndex(directory);
+    assertEquals(stats, newIndex.get(dexFiles));
+    // The order of the dex files doesn't matter.
+    assertEquals(stats, newIndex.get(new Path[]{dexFiles[1], dexFiles[0]}));
+  }
+
+  @Test
+  public void statsAreKeyedByContents() throws IOException {
+    DexStatsIndex index = new DexStatsIndex(null);
+    Path dexFile = createDexFile("classes.dex", (byte)1);
+    index.put(new Path[]{dexFile}, new DexStatsIndex.Stats(1, 2, 3));
+
+    // The same dex file at a different location, as when an APK is extracted again.
+    Path copy = Files.copy(dexFile, myTempFolder.newFolder("copy").toPath().resolve("classes.dex"));
+    assertEquals(new DexStatsIndex.Stats(1, 2, 3), index.get(new Path[]{copy}));
+
+    Path changedDexFile = createDexFile("changed.dex", (byte)2);
+    assertNull(index.get(new Path[]{changedDexFile}));
+
+    // Files without a dex header are hashed as a whole.
+    Path notDex = myTempFolder.newFile("other.bin").toPath();
+    Files.write(notDex, "not a dex file".getBytes(StandardCharsets.UTF_8));
+    index.put(new Path[]{notDex}, new DexStatsIndex.Stats(4, 5, 6));
+    assertEquals(new DexStatsIndex.Stats(4, 5, 6), index.get(new Path[]{notDex}));
+    Files.write(notDex, "changed".getBytes(StandardCharsets.UTF_8));
+    assertNull(index.get(new Path[]{notDex}));
+  }
+
+  /**
+   * Creates a file with a dex header whose signature is filled with {@code signatureByte}.
+   */
+  @NotNull
+  private Path createDexFile(@NotNull String name, byte signatureByte) throws IOException {
+    byte[] content = new byte[112];
+    System.arraycopy("dex\n035\0".getBytes(StandardCharsets.US_ASCII), 0, content, 0, 8);
+    Arrays.fill(content, 12, 32, signatureByte);
+    Path file = myTempFolder.getRoot().toPath().resolve(name);
+    Files.write(file, content);
+    return file;
+  }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.apk.viewer.diff;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.android.tools.idea.apk.viewer.diff.ArchiveDiff.DexDiff;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.jetbrains.annotations.NotNull;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jf.dexlib2.AccessFlags;
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.immutable.ImmutableClassDef;
+import org.jf.dexlib2.immutable.ImmutableMethod;
+import org.jf.dexlib2.immutable.ImmutableMethodParameter;
+import org.jf.dexlib2.writer.io.FileDataStore;
+import org.jf.dexlib2.writer.pool.DexPool;
+
+public class ArchiveDiffEngineTest {
+  @Rule public TemporaryFolder myTempFolder = new TemporaryFolder();
+
+  private final ExecutorService myExecutor = Executors.newFixedThreadPool(4);
+
+  @After
+  public void tearDown() {
+    myExecutor.shutdownNow();
+  }
+
+  @Test
+  public void entriesAreComparedByCrcAndSize() throws Exception {
+    byte[] dex = createDex(ImmutableMap.of("Lcom/example/Foo;", ImmutableList.of("foo()V")));
+    Path oldApk = createZip("old.apk", ImmutableMap.of(
+      "AndroidManifest.xml", bytes("manifest"),
+      "classes.dex", dex,
+      "res/layout/main.xml", bytes("layout"),
+      "res/raw/data.bin", bytes("abcd"),
+      "lib/x86/libfoo.so", bytes("foo")));
+    Path newApk = createZip("new.apk", ImmutableMap.of(
+      "AndroidManifest.xml", bytes("manifest"),
+      "classes.dex", dex,
+      "res/layout/main.xml", bytes("layout with more views"),
+      "res/raw/data.bin", bytes("abce"),
+      "assets/new.txt", bytes("new")));
+
+    ArchiveDiff diff = new ArchiveDiffEngine(myExecutor).diff(oldApk, newApk).get(30, TimeUnit.SECONDS);
+
+    assertEquals(
+      ImmutableList.of("UNCHANGED AndroidManifest.xml (8 -> 8)",
+              "ADDED assets/new.txt (-1 -> 3)",
+              "UNCHANGED classes.dex (" + dex.length + " -> " + dex.length + ")",
+              "REMOVED lib/x86/libfoo.so (3 -> -1)",
+              "MODIFIED res/layout/main.xml (6 -> 22)",
+              // Same size, different CRC.
+              "MODIFIED res/raw/data.bin (4 -> 4)"),
+      diff.getEntries().stream().map(Object::toString).collect(Collectors.toList()));
+    assertEquals(4, diff.getChangedEntries().size());
+    // The dex files of directories without changed dex files are not compared.
+    assertTrue(diff.getDexDiffs().isEmpty());
+  }
+
+  @Test
+  public void classesAreComparedAcrossTheDexFilesOfEachDirectory() throws Exception {
+    byte[] unchangedDex = createDex(ImmutableMap.of("Lcom/example/feature/Feature;", ImmutableList.of("run()V")));
+    Path oldBundle = createZip("old.aab", ImmutableMap.of(
+      "base/dex/classes.dex", createDex(ImmutableMap.of(
+        "Lcom/example/Foo;", ImmutableList.of("a()V", "b(I)V", "d([Ljava/lang/String;J)[I"),
+        "Lcom/example/Removed;", ImmutableList.of("x()V"))),
+      "base/dex/classes2.dex", createDex(ImmutableMap.of(
+        "Lcom/example/Moved;", ImmutableList.of("m(Lcom/example/Foo;)Lcom/example/Foo;"))),
+      "feature/dex/classes.dex", unchangedDex));
+    Path newBundle = createZip("new.aab", ImmutableMap.of(
+      // classes2.dex is removed, and its class moved to classes.dex.
+      "base/dex/classes.dex", createDex(ImmutableMap.of(
+        "Lcom/example/Foo;", ImmutableList.of("a()V", "c(Ljava/lang/String;)Z", "d([Ljava/lang/String;J)[I"),
+        "Lcom/example/Moved;", ImmutableList.of("m(Lcom/example/Foo;)Lcom/example/Foo;"),
+        "Lcom/example/Added;", ImmutableList.of("y()V"))),
+      "feature/dex/classes.dex", unchangedDex,
+      "feature2/dex/classes.dex", createDex(ImmutableMap.of("Lcom/example/feature2/New;", ImmutableList.of("z(D)V")))));
+
+    ArchiveDiff diff = new ArchiveDiffEngine(myExecutor).diff(oldBundle, newBundle).get(30, TimeUnit.SECONDS);
+
+    assertEquals(ImmutableList.of("MODIFIED base/dex/classes.dex", "REMOVED base/dex/classes2.dex", "UNCHANGED feature/dex/classes.dex",
+                                  "ADDED feature2/dex/classes.dex"),
+                 diff.getEntries().stream().map(entry -> entry.status + " " + entry.path).collect(Collectors.toList()));
+    List<DexDiff> dexDiffs = diff.getDexDiffs();
+    assertEquals(ImmutableList.of("base/dex/", "feature2/dex/"),
+                 dexDiffs.stream().map(dexDiff -> dexDiff.directory).collect(Collectors.toList()));
+    assertEquals(
+      ImmutableList.of("ADDED Lcom/example/Added; +[y()V] -[]",
+                       "MODIFIED Lcom/example/Foo; +[c(Ljava/lang/String;)Z] -[b(I)V]",
+                       "REMOVED Lcom/example/Removed; +[] -[x()V]"),
+      dexDiffs.get(0).changedClasses.stream().map(Object::toString).collect(Collectors.toList()));
+    assertEquals(ImmutableList.of("ADDED Lcom/example/feature2/New; +[z(D)V] -[]"),
+                 dexDiffs.get(1).changedClasses.stream().map(Object::toString).collect(Collectors.toList()));
+  }
+
+  @Test
+  public void changedDexFilesWithTheSameClassesHaveNoClassChanges() throws Exception {
+    Map<String, List<String>> classes = ImmutableMap.of("Lcom/example/Foo;", ImmutableList.of("a()V"));
+    Path oldApk = createZip("old.apk", ImmutableMap.of("classes.dex", createDex(classes)));
+    // An interface that is referenced but not defined makes a different dex file that defines the same methods.
+    Path newApk = createZip("new.apk", ImmutableMap.of("classes.dex", createDex(classes, "Lcom/example/Unused;")));
+
+    ArchiveDiff diff = new ArchiveDiffEngine(myExecutor).diff(oldApk, newApk).get(30, TimeUnit.SECONDS);
+
+    assertEquals(1, diff.getChangedEntries().size());
+    assertEquals(1, diff.getDexDiffs().size());
+    assertEquals("", diff.getDexDiffs().get(0).directory);
+    assertTrue(diff.getDexDiffs().get(0).changedClasses.isEmpty());
+  }
+
+  @Test
+  public void identicalArchivesHaveNoChanges() throws Exception {
+    Map<String, byte[]> entries =
+      ImmutableMap.of("base/manifest/AndroidManifest.xml", bytes("manifest"), "base/res/raw/data.bin", bytes("data"));
+    Path oldBundle = createZip("old.aab", entries);
+    Path newBundle = createZip("new.aab", entries);
+
+    ArchiveDiff diff = new ArchiveDiffEngine(myExecutor).diff(oldBundle, newBundle).get(30, TimeUnit.SECONDS);
+
+    assertEquals(2, diff.getEntries().size());
+    assertTrue(diff.getChangedEntries().isEmpty());
+  }
+
+  @NotNull
+  private Path createZip(@NotNull String name, @NotNull Map<String, byte[]> entries) throws IOException {
+    Path file = myTempFolder.getRoot().toPath().resolve(name);
+    try (ZipOutputStream output = new ZipOutputStream(Files.newOutputStream(file))) {
+      for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+        output.putNextEntry(new ZipEntry(entry.getKey()));
+        output.write(entry.getValue());
+        output.closeEntry();
+      }
+    }
+    return file;
+  }
+
+  @NotNull
+  private static byte[] bytes(@NotNull String content) {
+    return content.getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Returns a dex file defining the given classes, with the given methods written as {@code name(parameterTypes)returnType}, such as
+   * {@code foo(ILjava/lang/String;)V}. The classes of {@code referencedTypes} are referenced as interfaces of the first class.
+   */
+  @NotNull
+  private byte[] createDex(@NotNull Map<String, List<String>> methodsByClass, @NotNull String... referencedTypes) throws IOException {
+    DexPool dexPool = new DexPool(Opcodes.getDefault());
+    boolean first = true;
+    for (Map.Entry<String, List<String>> entry : methodsByClass.entrySet()) {
+      String className = entry.getKey();
+      List<ImmutableMethod> methods = new ArrayList<>();
+      for (String method : entry.getValue()) {
+        int parametersStart = method.indexOf('(');
+        int parametersEnd = method.indexOf(')');
+        List<ImmutableMethodParameter> parameters = new ArrayList<>();
+        for (String parameterType : splitTypes(method.substring(parametersStart + 1, parametersEnd))) {
+          parameters.add(new ImmutableMethodParameter(parameterType, null, null));
+        }
+        // Abstract methods have no code, which is all that the diff needs.
+        methods.add(new ImmutableMethod(className, method.substring(0, parametersStart), parameters, method.substring(parametersEnd + 1),
+                                        AccessFlags.PUBLIC.getValue() | AccessFlags.ABSTRACT.getValue(), null, null, null));
+      }
+      List<String> interfaces = first ? ImmutableList.copyOf(referencedTypes) : ImmutableList.of();
+      first = false;
+      dexPool.internClass(new ImmutableClassDef(className, AccessFlags.PUBLIC.getValue() | AccessFlags.ABSTRACT.getValue(),
+                                                "Ljava/lang/Object;", interfaces, null, null, null, methods));
+    }
+    File file = myTempFolder.newFile();
+    dexPool.writeTo(new FileDataStore(file));
+    return Files.readAllBytes(file.toPath());
+  }
+
+  /**
+   * Splits a sequence of type descriptors, such as {@code I[JLjava/lang/String;}.
+   */
+  @NotNull
+  private static List<String> splitTypes(@NotNull String descriptors) {
+    List<String> types = new ArrayList<>();
+    int start = 0;
+    for (int i = 0; i < descriptors.length(); i++) {
+      char c = descriptors.charAt(i);
+      if (c == '[') {
+        continue;
+      }
+      if (c == 'L') {
+        i = descriptors.indexOf(';', i);
+      }
+      types.add(descriptors.substring(start, i + 1));
+      start = i + 1;
+    }
+    return types;
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.apk.viewer.diff;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import com.android.tools.idea.apk.viewer.diff.ArchiveDiff.ClassDiff;
+import com.android.tools.idea.apk.viewer.diff.ArchiveDiff.DexDiff;
+import com.android.tools.idea.apk.viewer.diff.ArchiveDiff.EntryDiff;
+import com.android.tools.idea.apk.viewer.diff.ArchiveDiff.Status;
+import com.android.tools.idea.apk.viewer.diff.ArchiveDiffTree.EntryNode;
+import com.google.common.collect.ImmutableList;
+import javax.swing.tree.DefaultMutableTreeNode;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+
+public class ArchiveDiffTreeTest {
+  @Test
+  public void entriesAreGroupedByDirectoryWithTheirSizes() {
+    ClassDiff classDiff = new ClassDiff("Lcom/example/Foo;", Status.MODIFIED, ImmutableList.of("c()V"), ImmutableList.of("b(I)V"));
+    ArchiveDiff diff = new ArchiveDiff(
+      ImmutableList.of(new EntryDiff("AndroidManifest.xml", Status.UNCHANGED, 8, 8),
+                       new EntryDiff("classes.dex", Status.MODIFIED, 100, 120),
+                       new EntryDiff("res/layout/main.xml", Status.MODIFIED, 6, 22),
+                       new EntryDiff("res/raw/new.bin", Status.ADDED, -1, 3),
+                       new EntryDiff("res/raw/old.bin", Status.REMOVED, 4, -1)),
+      ImmutableList.of(new DexDiff("", ImmutableList.of(classDiff))));
+
+    DefaultMutableTreeNode root = ArchiveDiffTree.createTreeNode("new.apk", diff);
+
+    assertEquals("new.apk (118 -> 153)\n" +
+                 "  AndroidManifest.xml (8 -> 8)\n" +
+                 "  classes.dex (100 -> 120)\n" +
+                 "  res (10 -> 25)\n" +
+                 "    layout (6 -> 22)\n" +
+                 "      main.xml (6 -> 22)\n" +
+                 "    raw (4 -> 3)\n" +
+                 "      new.bin (0 -> 3)\n" +
+                 "      old.bin (4 -> 0)\n" +
+                 "  com.example.Foo MODIFIED\n",
+                 toString(root));
+    DefaultMutableTreeNode res = (DefaultMutableTreeNode)root.getChildAt(2);
+    assertEquals("res/raw/", getEntryNode(res.getChildAt(1)).getPath());
+    assertEquals("res/layout/main.xml", getEntryNode(res.getChildAt(0).getChildAt(0)).getPath());
+    EntryNode classNode = getEntryNode(root.getChildAt(3));
+    assertEquals("com.example.Foo", classNode.getPath());
+    assertSame(classDiff, classNode.getClassDiff());
+    assertNull(getEntryNode(root.getChildAt(0)).getClassDiff());
+  }
+
+  @Test
+  public void changedClassesAreListedUnderTheDirectoryOfTheirDexFiles() {
+    ArchiveDiff diff = new ArchiveDiff(
+      ImmutableList.of(new EntryDiff("base/dex/classes.dex", Status.MODIFIED, 10, 20),
+                       new EntryDiff("base/manifest/AndroidManifest.xml", Status.UNCHANGED, 8, 8),
+                       new EntryDiff("feature/dex/classes.dex", Status.ADDED, -1, 5)),
+      ImmutableList.of(
+        new DexDiff("base/dex/", ImmutableList.of(new ClassDiff("La/B;", Status.REMOVED, ImmutableList.of(), ImmutableList.of("f()V")))),
+        new DexDiff("feature/dex/", ImmutableList.of(new ClassDiff("Lc/D;", Status.ADDED, ImmutableList.of("g()V"), ImmutableList.of())))));
+
+    DefaultMutableTreeNode root = ArchiveDiffTree.createTreeNode("new.aab", diff);
+
+    assertEquals("new.aab (18 -> 33)\n" +
+                 "  base (18 -> 28)\n" +
+                 "    dex (10 -> 20)\n" +
+                 "      classes.dex (10 -> 20)\n" +
+                 "      a.B REMOVED\n" +
+                 "    manifest (8 -> 8)\n" +
+                 "      AndroidManifest.xml (8 -> 8)\n" +
+                 "  feature (0 -> 5)\n" +
+                 "    dex (0 -> 5)\n" +
+                 "      classes.dex (0 -> 5)\n" +
+                 "      c.D ADDED\n",
+                 toString(root));
+  }
+
+  @NotNull
+  private static EntryNode getEntryNode(@NotNull Object node) {
+    EntryNode entryNode = EntryNode.fromNode(node);
+    assert entryNode != null;
+    return entryNode;
+  }
+
+  /**
+   * Returns one line for each node of the tree, with the sizes of entries and directories and the status of classes.
+   */
+  @NotNull
+  private static String toString(@NotNull DefaultMutableTreeNode root) {
+    StringBuilder builder = new StringBuilder();
+    appendNode(builder, root, "");
+    return builder.toString();
+  }
+
+  private static void appendNode(@NotNull StringBuilder builder, @NotNull DefaultMutableTreeNode node, @NotNull String indent) {
+    EntryNode entryNode = getEntryNode(node);
+    builder.append(indent).append(entryNode.getName());
+    ClassDiff classDiff = entryNode.getClassDiff();
+    if (classDiff != null) {
+      builder.append(' ').append(classDiff.status);
+    }
+    else {
+      builder.append(" (").append(entryNode.getOldSize()).append(" -> ").append(entryNode.getNewSize()).append(')');
+    }
+    builder.append('\n');
+    for (int i = 0; i < node.getChildCount(); i++) {
+      appendNode(builder, (DefaultMutableTreeNode)node.getChildAt(i), indent + "  ");
+    }
+  }
+}
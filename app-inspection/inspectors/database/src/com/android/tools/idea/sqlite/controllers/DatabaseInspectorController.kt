@@ -580,7 +580,9 @@ class DatabaseInspectorControllerImpl(
       releaseDatabaseLock = { databaseInspectorClientCommandsChannel?.releaseDatabaseLock(it)?.await() },
       taskExecutor = taskExecutor,
       edtExecutor = edtExecutor,
-      notifyExportInProgress = { job -> viewFactory.createExportInProgressView(project, job, taskExecutor.asCoroutineDispatcher()).show() },
+      notifyExportInProgress = { job, progress ->
+        viewFactory.createExportInProgressView(project, job, progress, taskExecutor.asCoroutineDispatcher()).show()
+      },
       notifyExportComplete = { request ->
         appInspectionIdeServices?.showNotification( // TODO(161081452):  replace with a Toast
           title = DatabaseInspectorBundle.message("export.notification.success.title"),
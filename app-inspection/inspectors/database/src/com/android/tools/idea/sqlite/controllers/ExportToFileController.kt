@@ -16,6 +16,8 @@
 package com.android.tools.idea.sqlite.controllers
 
 import com.android.annotations.concurrency.UiThread
+import com.android.tools.idea.flags.StudioFlags
+import com.android.tools.idea.lang.androidSql.parser.AndroidSqlLexer
 import com.android.tools.idea.sqlite.DatabaseInspectorAnalyticsTracker
 import com.android.tools.idea.sqlite.OfflineModeManager.DownloadProgress
 import com.android.tools.idea.sqlite.OfflineModeManager.DownloadState.COMPLETED
@@ -25,13 +27,14 @@ import com.android.tools.idea.sqlite.cli.SqliteCliClientImpl
 import com.android.tools.idea.sqlite.cli.SqliteCliProvider.Companion.SQLITE3_PATH_ENV
 import com.android.tools.idea.sqlite.cli.SqliteCliProvider.Companion.SQLITE3_PATH_PROPERTY
 import com.android.tools.idea.sqlite.cli.SqliteCliProviderImpl
-import com.android.tools.idea.sqlite.cli.SqliteQueries
+import com.android.tools.idea.sqlite.databaseConnection.SqliteRowPager
 import com.android.tools.idea.sqlite.databaseConnection.live.LiveSqliteResultSet
 import com.android.tools.idea.sqlite.model.DatabaseFileData
 import com.android.tools.idea.sqlite.model.Delimiter
 import com.android.tools.idea.sqlite.model.ExportFormat.CSV
 import com.android.tools.idea.sqlite.model.ExportFormat.DB
 import com.android.tools.idea.sqlite.model.ExportFormat.SQL
+import com.android.tools.idea.sqlite.model.ExportProgress
 import com.android.tools.idea.sqlite.model.ExportRequest
 import com.android.tools.idea.sqlite.model.ExportRequest.ExportDatabaseRequest
 import com.android.tools.idea.sqlite.model.ExportRequest.ExportQueryResultsRequest
@@ -41,6 +44,7 @@ import com.android.tools.idea.sqlite.model.SqliteDatabaseId.FileSqliteDatabaseId
 import com.android.tools.idea.sqlite.model.SqliteDatabaseId.LiveSqliteDatabaseId
 import com.android.tools.idea.sqlite.model.SqliteRow
 import com.android.tools.idea.sqlite.model.SqliteStatement
+import com.android.tools.idea.sqlite.model.SqliteTable
 import com.android.tools.idea.sqlite.model.SqliteValue
 import com.android.tools.idea.sqlite.model.createSqliteStatement
 import com.android.tools.idea.sqlite.model.isInMemoryDatabase
@@ -56,6 +60,7 @@ import com.google.wireless.android.sdk.stats.AppInspectionEvent.DatabaseInspecto
 import com.google.wireless.android.sdk.stats.AppInspectionEvent.DatabaseInspectorEvent.ExportOperationCompletedEvent.SourceFormat
 import com.intellij.openapi.Disposable
 import com.intellij.openapi.project.Project
+import com.intellij.openapi.util.Disposer
 import com.intellij.openapi.util.io.FileUtil
 import com.intellij.util.io.copy
 import com.intellij.util.io.delete
@@ -65,7 +70,9 @@ import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Job
 import kotlinx.coroutines.asCoroutineDispatcher
+import kotlinx.coroutines.coroutineScope
 import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.collect
 import kotlinx.coroutines.flow.collectIndexed
 import kotlinx.coroutines.flow.filter
 import kotlinx.coroutines.flow.flow
@@ -73,6 +80,8 @@ import kotlinx.coroutines.flow.map
 import kotlinx.coroutines.flow.toList
 import kotlinx.coroutines.guava.await
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
 import kotlinx.coroutines.withContext
 import org.jetbrains.annotations.VisibleForTesting
 import java.io.Closeable
@@ -94,6 +103,14 @@ import kotlin.io.path.exists
  * snapshot of the data (e.g. when exporting a large table, we are fetching the data from the device by chunks, and locking guarantees that
  * the table won't change while we are in the process of fetching the data).
  * @param releaseDatabaseLock takes a lockId acquired through [acquireDatabaseLock]
+ * @param notifyExportInProgress called when an export starts, with the [Job] of the export and the [ExportProgress] it updates as rows
+ * are written
+ *
+ * Rows are read from the database in batches and written to the output as they arrive, so the memory used by an export does not depend
+ * on the size of the database. Batches read from a live database are limited by [responseSizeByteLimitHint], other batches hold at most
+ * [exportRowBatchSize] rows. Rows of tables with a rowid are read in rowid order, each batch seeking past the rowid of the previous one
+ * (see [SqliteRowPager]), rather than with `LIMIT offset, size`, which steps through all the rows before the offset. Exports spanning
+ * multiple tables export up to [maxConcurrentTableExports] tables at a time.
  */
 @UiThread
 class ExportToFileController(
@@ -107,7 +124,7 @@ class ExportToFileController(
   private val releaseDatabaseLock: suspend (Int) -> Unit,
   taskExecutor: Executor,
   edtExecutor: Executor,
-  private val notifyExportInProgress: (Job) -> Unit,
+  private val notifyExportInProgress: (Job, ExportProgress) -> Unit,
   private val notifyExportComplete: (ExportRequest) -> Unit,
   private val notifyExportError: (ExportRequest, Throwable?) -> Unit
 ) : Disposable {
@@ -116,18 +133,29 @@ class ExportToFileController(
   private val analyticsTracker = DatabaseInspectorAnalyticsTracker.getInstance(project)
   private val listener = object : ExportToFileDialogView.Listener {
     override fun exportRequestSubmitted(params: ExportRequest) {
-      val job = projectScope.launch { export(params) }
+      val progress = ExportProgress()
+      val job = projectScope.launch { export(params, progress) }
       lastExportJob = job
-      notifyExportInProgress(job)
+      lastExportProgress = progress
+      notifyExportInProgress(job, progress)
     }
   }
 
   @VisibleForTesting
   var lastExportJob : Job? = null
 
+  @VisibleForTesting
+  var lastExportProgress : ExportProgress? = null
+
   @VisibleForTesting
   var responseSizeByteLimitHint = 8L * 1024 * 1024 // 8 MB
 
+  @VisibleForTesting
+  var exportRowBatchSize = 1000
+
+  @VisibleForTesting
+  var maxConcurrentTableExports = 4
+
   fun setUp() {
     view.addListener(listener)
   }
@@ -140,10 +168,10 @@ class ExportToFileController(
     view.show()
   }
 
-  private suspend fun export(params: ExportRequest) = withContext(edtDispatcher) {
+  private suspend fun export(params: ExportRequest, progress: ExportProgress) = withContext(edtDispatcher) {
     val stopwatch = Stopwatch.createStarted()
     try {
-      doExport(params)
+      doExport(params, progress)
       stopwatch.stop()
 
       trackExportCompleted(params, stopwatch.elapsed(MILLISECONDS), Outcome.SUCCESS_OUTCOME)
@@ -190,12 +218,12 @@ class ExportToFileController(
     analyticsTracker.trackExportCompleted(source, sourceFormat, destination, exportDurationMs.toInt(), outcome, connectivityState)
   }
 
-  private suspend fun doExport(params: ExportRequest): Unit = withContext(taskDispatcher) {
+  private suspend fun doExport(params: ExportRequest, progress: ExportProgress): Unit = withContext(taskDispatcher) {
     when (params) {
       is ExportDatabaseRequest -> {
         when (params.format) {
-          is CSV -> exportDatabaseToCsv(params.srcDatabase, params.format as CSV, params.dstPath)
-          is SQL -> exportDatabaseToSql(params.srcDatabase, params.dstPath)
+          is CSV -> exportDatabaseToCsv(params.srcDatabase, params.format as CSV, params.dstPath, progress)
+          is SQL -> exportDatabaseToSql(params.srcDatabase, params.dstPath, progress)
           is DB -> {
             if (params.srcDatabase.isInMemoryDatabase()) throwNotSupportedParams(params)
             else exportDatabaseToSqliteBinary(params.srcDatabase, params.dstPath)
@@ -204,8 +232,8 @@ class ExportToFileController(
       }
       is ExportTableRequest -> {
         when (params.format) {
-          is CSV -> exportTableToCsv(params.srcDatabase, params.srcTable, params.format as CSV, params.dstPath)
-          is SQL -> exportTableToSql(params.srcDatabase, params.srcTable, params.dstPath)
+          is CSV -> exportTableToCsv(params.srcDatabase, params.srcTable, params.format as CSV, params.dstPath, progress)
+          is SQL -> exportTableToSql(params.srcDatabase, params.srcTable, params.dstPath, progress)
           else -> throwNotSupportedParams(params)
         }
       }
@@ -213,7 +241,7 @@ class ExportToFileController(
         if (!params.srcQuery.isQueryStatement) throwNotSupportedParams(params)
 
         when (params.format) {
-          is CSV -> exportQueryToCsv(params.srcDatabase, params.srcQuery, params.format as CSV, params.dstPath)
+          is CSV -> exportQueryToCsv(params.srcDatabase, params.srcQuery, params.format as CSV, params.dstPath, progress)
           else -> throwNotSupportedParams(params)
         }
       }
@@ -221,24 +249,33 @@ class ExportToFileController(
   }
 
   @Suppress("BlockingMethodInNonBlockingContext") // IO on taskDispatcher
-  private suspend fun exportDatabaseToCsv(database: SqliteDatabaseId, format: CSV, dstPath: Path) = withContext(taskDispatcher) {
-    withDatabaseLock(database) {
-      // TODO(161081452): expose an option to let the user decide if to export views; defaulting now to not exporting views
-      val tableNames: List<String> = databaseRepository.fetchSchema(database).tables.filter { !it.isView }.map { it.name }
+  private suspend fun exportDatabaseToCsv(database: SqliteDatabaseId, format: CSV, dstPath: Path, progress: ExportProgress) =
+    withContext(taskDispatcher) {
+      withDatabaseLock(database) {
+        // TODO(161081452): expose an option to let the user decide if to export views; defaulting now to not exporting views
+        val tables: List<SqliteTable> = databaseRepository.fetchSchema(database).tables.filter { !it.isView }
+
+        // Tables are exported concurrently, so each one goes to its own temporary file before being added to the zip file
+        val dstDir = findOrCreateDir(dstPath.parent)
+        val tmpDir = Files.createTempDirectory(dstDir, ".tmp")
+        Closeable { FileUtil.delete(tmpDir) }.use {
+          val tmpFileToEntryName: List<TempExportedData> = tables.mapIndexed { ix, table ->
+            // using indexes for file names to avoid file naming issues
+            TempExportedData(tmpDir.toAbsolutePath().resolve(".$ix.tmp"), "${table.name}.csv")
+          }
+          forEachConcurrently(tables.zip(tmpFileToEntryName)) { (table, tmpFile) ->
+            writeRowsToCsvFile(selectTableRows(database, table, progress), format.delimiter, tmpFile.tempFile)
+          }
 
-      // TODO(161081452): skip temporary files (write directly to zip stream)
-      val dstDir = findOrCreateDir(dstPath.parent)
-      val tmpDir = Files.createTempDirectory(dstDir, ".tmp")
-      Closeable { FileUtil.delete(tmpDir) }.use {
-        val tmpFileToEntryName: List<TempExportedData> = tableNames.mapIndexed { ix, name ->
-          val path = tmpDir.toAbsolutePath().resolve(".$ix.tmp") // using indexes for file names to avoid file naming issues
-          doExport(ExportTableRequest(database, name, format, path))
-          TempExportedData(path, "$name.csv")
+          createZipFile(dstPath, tmpFileToEntryName) // TODO(161081452): write directly to zip file or move outside of database lock
         }
-
-        createZipFile(dstPath, tmpFileToEntryName) // TODO(161081452): write directly to zip file or move outside of database lock
       }
     }
+
+  /** Runs [action] on each of the [items], running up to [maxConcurrentTableExports] actions at a time. */
+  private suspend fun <T> forEachConcurrently(items: List<T>, action: suspend (T) -> Unit) = coroutineScope {
+    val semaphore = Semaphore(maxConcurrentTableExports)
+    items.forEach { item -> launch(taskDispatcher) { semaphore.withPermit { action(item) } } }
   }
 
   /**
@@ -347,24 +384,102 @@ class ExportToFileController(
     dir
   }
 
-  private suspend fun exportTableToCsv(database: SqliteDatabaseId, srcTable: String, format: CSV, dstPath: Path) =
+  private suspend fun exportTableToCsv(database: SqliteDatabaseId, srcTable: String, format: CSV, dstPath: Path, progress: ExportProgress) =
     withContext(taskDispatcher) {
-      val query = createSqliteStatement(SqliteQueries.selectTableContents(srcTable))
-      exportQueryToCsv(database, query, format, dstPath)
+      withDatabaseLock(database) {
+        val table = databaseRepository.fetchSchema(database).tables.firstOrNull { it.name == srcTable }
+                    ?: SqliteTable(srcTable, emptyList(), rowIdName = null, isView = false)
+        writeRowsToCsvFile(selectTableRows(database, table, progress), format.delimiter, dstPath)
+      }
     }
 
+  private suspend fun exportTableToSql(database: SqliteDatabaseId, srcTable: String, dstPath: Path, progress: ExportProgress) =
+    withContext(taskDispatcher) {
+      if (isStreamingSqlExport(database)) {
+        findOrCreateDir(dstPath.parent)
+        withDatabaseLock(database) { streamSqlDump(database, dstPath, progress) { tableName -> tableName == srcTable } }
+      }
+      else {
+        executeTaskOnLocalDatabaseCopy(database) { srcPath ->
+          findOrCreateDir(dstPath.parent)
+          exportTableToSql(srcPath, srcTable, dstPath)
+        }
+      }
+    }
 
-  private suspend fun exportTableToSql(database: SqliteDatabaseId, srcTable: String, dstPath: Path) = withContext(taskDispatcher) {
-    executeTaskOnLocalDatabaseCopy(database) { srcPath ->
-      findOrCreateDir(dstPath.parent)
-      exportTableToSql(srcPath, srcTable, dstPath)
+  private suspend fun exportDatabaseToSql(database: SqliteDatabaseId, dstPath: Path, progress: ExportProgress) =
+    withContext(taskDispatcher) {
+      if (isStreamingSqlExport(database)) {
+        findOrCreateDir(dstPath.parent)
+        withDatabaseLock(database) { streamSqlDump(database, dstPath, progress) { true } }
+      }
+      else {
+        executeTaskOnLocalDatabaseCopy(database) { srcPath ->
+          findOrCreateDir(dstPath.parent)
+          exportDatabaseToSql(srcPath, dstPath)
+        }
+      }
     }
-  }
 
-  private suspend fun exportDatabaseToSql(database: SqliteDatabaseId, dstPath: Path) = withContext(taskDispatcher) {
-    executeTaskOnLocalDatabaseCopy(database) { srcPath ->
-      findOrCreateDir(dstPath.parent)
-      exportDatabaseToSql(srcPath, dstPath)
+  /** Offline databases are already on disk, so only live databases benefit from streaming the rows rather than downloading the file. */
+  private fun isStreamingSqlExport(database: SqliteDatabaseId) =
+    database is LiveSqliteDatabaseId && StudioFlags.DATABASE_INSPECTOR_STREAMING_SQL_EXPORT_ENABLED.get()
+
+  /**
+   * Writes the schema and the rows of the tables matching [tableFilter] to [dstPath], in the format of the sqlite3 `.dump` command.
+   * Indexes, triggers and views are written if they belong to one of the tables. Values are formatted on the device using the `quote`
+   * SQL function, so that their types survive the round trip through the inspector.
+   *
+   * Must be called while holding the database lock, so that all the tables are read from the same snapshot.
+   */
+  @Suppress("BlockingMethodInNonBlockingContext") // IO on taskDispatcher
+  private suspend fun streamSqlDump(database: SqliteDatabaseId, dstPath: Path, progress: ExportProgress, tableFilter: (String) -> Boolean) =
+    withContext(taskDispatcher) {
+      val schemaQuery = createSqliteStatement("SELECT type, name, tbl_name, sql FROM sqlite_master WHERE sql IS NOT NULL ORDER BY rowid")
+      val schemaEntries = executeQuery(database, schemaQuery, ExportProgress()).toList().map { row ->
+        row.values.map { it.value.asString }.let { (type, name, tableName, sql) -> SchemaEntry(type, name, tableName, sql) }
+      }.filter { tableFilter(it.tableName) }
+
+      val (tables, otherEntries) = schemaEntries.partition { it.type == "table" }
+      val dumpedTables = tables.filter { !it.name.startsWith("sqlite_") || it.name == "sqlite_sequence" }
+      val schemaTables = databaseRepository.fetchSchema(database).tables.associateBy { it.name }
+
+      val tmpDir = Files.createTempDirectory(findOrCreateDir(dstPath.parent), ".tmp")
+      Closeable { FileUtil.delete(tmpDir) }.use {
+        val tmpFiles = dumpedTables.indices.map { ix -> tmpDir.toAbsolutePath().resolve(".$ix.tmp") }
+        forEachConcurrently(dumpedTables.zip(tmpFiles)) { (table, tmpFile) ->
+          writeTableToSqlFile(database, table, schemaTables[table.name], tmpFile, progress)
+        }
+
+        dstPath.toFile().bufferedWriter().use { writer ->
+          writer.append("PRAGMA foreign_keys=OFF;").appendLine()
+          writer.append("BEGIN TRANSACTION;").appendLine()
+          tmpFiles.forEach { tmpFile -> tmpFile.toFile().bufferedReader().use { it.copyTo(writer) } }
+          otherEntries.filter { !it.name.startsWith("sqlite_") }.forEach { writer.append("${it.sql};").appendLine() }
+          writer.append("COMMIT;").appendLine()
+        }
+      }
+    }
+
+  @Suppress("BlockingMethodInNonBlockingContext") // IO on taskDispatcher
+  private suspend fun writeTableToSqlFile(
+    database: SqliteDatabaseId,
+    table: SchemaEntry,
+    schemaTable: SqliteTable?,
+    dstPath: Path,
+    progress: ExportProgress
+  ) = withContext(taskDispatcher) {
+    val tableName = AndroidSqlLexer.getValidName(table.name)
+    dstPath.toFile().bufferedWriter().use { writer ->
+      // sqlite_sequence is created by sqlite itself, along with the first AUTOINCREMENT table
+      if (table.name == "sqlite_sequence") writer.append("DELETE FROM sqlite_sequence;").appendLine()
+      else writer.append("${table.sql};").appendLine()
+      if (schemaTable == null || schemaTable.columns.isEmpty()) return@use
+
+      val columns = schemaTable.columns.joinToString(", ") { "quote(${AndroidSqlLexer.getValidName(it.name)})" }
+      selectTableRows(database, schemaTable, progress, columns).collect { row ->
+        writer.append("INSERT INTO $tableName VALUES(${row.values.joinToString(",") { it.value.asString }});").appendLine()
+      }
     }
   }
 
@@ -390,35 +505,62 @@ class ExportToFileController(
     )
   }
 
-  private suspend fun exportQueryToCsv(database: SqliteDatabaseId, query: SqliteStatement, format: CSV, dstPath: Path) =
-    withContext(taskDispatcher) {
-      writeRowsToCsvFile(
-        executeQuery(database, query), // TODO(161081452): lock and download in chunks
-        format.delimiter,
-        dstPath
-      )
+  private suspend fun exportQueryToCsv(
+    database: SqliteDatabaseId,
+    query: SqliteStatement,
+    format: CSV,
+    dstPath: Path,
+    progress: ExportProgress
+  ) = withContext(taskDispatcher) {
+    withDatabaseLock(database) {
+      writeRowsToCsvFile(executeQuery(database, query, progress), format.delimiter, dstPath)
     }
+  }
 
   private suspend fun createSqliteStatement(statementText: String): SqliteStatement = withContext(edtDispatcher) {
     createSqliteStatement(project, statementText)
   }
 
-  private suspend fun executeQuery(srcDatabase: SqliteDatabaseId, srcQuery: SqliteStatement): Flow<SqliteRow> =
-    flow {
-      withDatabaseLock(srcDatabase) {
-        val resultSet = databaseRepository.runQuery(srcDatabase, srcQuery).await()
+  /**
+   * Returns the [columns] of the rows of [table]. When the table has a rowid, it is selected as well, so that [SqliteRowPager] fetches
+   * each batch by seeking past the rowid of the previous one, and then dropped from the rows.
+   * The caller is responsible for holding the database lock while collecting the flow.
+   */
+  private fun selectTableRows(database: SqliteDatabaseId, table: SqliteTable, progress: ExportProgress, columns: String = "*")
+    : Flow<SqliteRow> = flow {
+    val rowIdName = table.rowIdName?.stringName
+    val rowIdColumn = rowIdName?.let { ", $it as $it" } ?: ""
+    val query = createSqliteStatement("SELECT $columns$rowIdColumn FROM ${AndroidSqlLexer.getValidName(table.name)}")
+    executeQuery(database, query, progress).collect { row -> emit(if (rowIdName == null) row else SqliteRow(row.values.dropLast(1))) }
+  }
 
+  /**
+   * Returns the rows of [srcQuery], fetched in batches as the flow is collected. Batches read from a live database are only limited by
+   * [responseSizeByteLimitHint], as fewer round trips to the device make the export faster. Other batches hold at most
+   * [exportRowBatchSize] rows.
+   * The caller is responsible for holding the database lock while collecting the flow.
+   */
+  private fun executeQuery(srcDatabase: SqliteDatabaseId, srcQuery: SqliteStatement, progress: ExportProgress): Flow<SqliteRow> =
+    flow {
+      val resultSet = databaseRepository.runQuery(srcDatabase, srcQuery).await()
+      try {
         val totalRowCount = resultSet.totalRowCount.await()
+        progress.addRowsToExport(totalRowCount.toLong())
         var rowOffset = 0
         while (rowOffset < totalRowCount) {
           val batch = when (resultSet) {
             is LiveSqliteResultSet -> resultSet.getRowBatch(rowOffset, rowBatchSize = Integer.MAX_VALUE, responseSizeByteLimitHint)
-            else -> resultSet.getRowBatch(rowOffset, rowBatchSize = Integer.MAX_VALUE)
+            else -> resultSet.getRowBatch(rowOffset, exportRowBatchSize)
           }.await()
+          if (batch.isEmpty()) break // rows were deleted after being counted
           batch.forEach { emit(it) }
           rowOffset += batch.size
+          progress.addExportedRows(batch.size.toLong())
         }
       }
+      finally {
+        Disposer.dispose(resultSet)
+      }
     }
 
   // TODO(161081452): move out to an IO class
@@ -470,4 +612,7 @@ class ExportToFileController(
   }
 
   private data class TempExportedData(val tempFile: Path, val finalFileName: String)
+
+  /** A row of the `sqlite_master` table. */
+  private data class SchemaEntry(val type: String, val name: String, val tableName: String, val sql: String)
 }
\ No newline at end of file
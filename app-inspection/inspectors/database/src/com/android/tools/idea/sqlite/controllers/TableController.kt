@@ -120,12 +120,16 @@ class TableController(
 
   override fun refreshData(): ListenableFuture<Unit> {
     if (!refreshDataFuture.isDone) return refreshDataFuture
+    resultSet.invalidateCachedRows()
     view.startTableLoading()
     refreshDataFuture = fetchAndDisplayTableData()
     return refreshDataFuture
   }
 
   override fun notifyDataMightBeStale() {
+    if (::resultSet.isInitialized) {
+      resultSet.invalidateCachedRows()
+    }
     // refresh the table, without showing a loading screen.
     if (liveUpdatesEnabled && refreshDataFuture.isDone) {
       refreshDataFuture = fetchAndDisplayTableData()
@@ -234,6 +238,8 @@ class TableController(
    * A command is added to the list if [oldRow] and [newRow] have different values in the same position.
    */
   private fun performRowsDiff(oldRow: SqliteRow, newRow: SqliteRow, rowIndex: Int): List<RowDiffOperation.UpdateCell> {
+    // Rows of cached pages are often the same instances, and unchanged rows are the common case with live updates.
+    if (oldRow === newRow || oldRow == newRow) return emptyList()
     val cellUpdates = mutableListOf<RowDiffOperation.UpdateCell>()
 
     for (colIndex in oldRow.values.indices) {
@@ -52,6 +52,12 @@ interface SqliteResultSet : Disposable {
    * @param rowBatchSize The maximum amount of rows returned. Must be > 0
    */
   fun getRowBatch(rowOffset: Int, rowBatchSize: Int): ListenableFuture<List<SqliteRow>>
+
+  /**
+   * Discards the rows cached by this result set, if any, so that the next batches reflect the current content of the database.
+   * Must be called when the database might have changed.
+   */
+  fun invalidateCachedRows() { }
 }
 
 /**
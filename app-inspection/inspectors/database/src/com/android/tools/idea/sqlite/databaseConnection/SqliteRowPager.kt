@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.sqlite.databaseConnection
+
+import com.android.tools.idea.concurrency.addCallback
+import com.android.tools.idea.sqlite.model.RowIdName
+import com.android.tools.idea.sqlite.model.SqliteRow
+import com.android.tools.idea.sqlite.model.SqliteStatement
+import com.android.tools.idea.sqlite.model.SqliteStatementType
+import com.android.tools.idea.sqlite.model.SqliteValue
+import com.android.tools.idea.sqlite.model.transform
+import com.google.common.util.concurrent.Futures
+import com.google.common.util.concurrent.ListenableFuture
+import com.google.common.util.concurrent.MoreExecutors.directExecutor
+
+/**
+ * Fetches pages of the rows of [sqliteStatement] for a paged [SqliteResultSet].
+ *
+ * `LIMIT offset, size` makes SQLite step through all the rows before the offset, which is slow for the last pages of large tables.
+ * When [sqliteStatement] selects all the rows of a table along with their rowid (see [getRowIdPagingColumn]), the rows are instead
+ * ordered by rowid, and pages next to an already fetched page are fetched by seeking to the rowid of its first or last row. Pages
+ * closer to the end of the table than to its start are fetched from the end.
+ *
+ * The most recently used pages are cached, and the pages before and after each requested page are prefetched, so that navigating
+ * the table doesn't wait for the device. [invalidate] must be called when the content of the database might have changed. Requesting
+ * the same page again, as when the table is refreshed after every change of a live database, doesn't prefetch its neighbors, so that
+ * each refresh only runs one statement.
+ *
+ * @param fetchRows runs a statement returning rows, with an optional response size limit hint in bytes.
+ */
+internal class SqliteRowPager(
+  private val sqliteStatement: SqliteStatement,
+  private val fetchRows: (SqliteStatement, Long?) -> ListenableFuture<List<SqliteRow>>,
+  private val maxCachedRows: Int = 2_000
+) {
+  private data class PageKey(val rowOffset: Int, val rowBatchSize: Int)
+
+  private val lock = Any()
+
+  /** The name of the rowid column used to seek to pages, or null to page with `LIMIT offset, size`. */
+  private val keyColumn = getRowIdPagingColumn(sqliteStatement)
+
+  // The fields below are guarded by [lock]
+  private val cachedPages = LinkedHashMap<PageKey, ListenableFuture<List<SqliteRow>>>(16, 0.75f, true)
+  private var cachedRows = 0
+  /** The rowids of the first and last rows of fetched pages, by offset. */
+  private val rowIds = HashMap<Int, Long>()
+  private var knownRowCount: Int? = null
+  /** Incremented by [invalidate], so that pages fetched before it are not cached. */
+  private var generation = 0
+  /** The page last requested through the cache, whose neighbors have already been prefetched. */
+  private var lastRequestedPage: PageKey? = null
+
+  /**
+   * Returns the rows in the page starting at [rowOffset].
+   */
+  fun getRowBatch(rowOffset: Int, rowBatchSize: Int, responseSizeByteLimitHint: Long? = null): ListenableFuture<List<SqliteRow>> {
+    checkOffsetAndSize(rowOffset, rowBatchSize)
+    // Responses limited in size may not contain the whole page, and very large batches are not worth keeping in memory.
+    if (responseSizeByteLimitHint != null || rowBatchSize > maxCachedRows / 4) {
+      return fetchPage(rowOffset, rowBatchSize, responseSizeByteLimitHint, synchronized(lock) { generation })
+    }
+
+    val key = PageKey(rowOffset, rowBatchSize)
+    val page = getOrFetchPage(key)
+    val navigated = synchronized(lock) { (lastRequestedPage != key).also { lastRequestedPage = key } }
+    if (!navigated) {
+      return Futures.nonCancellationPropagating(page)
+    }
+    page.addCallback(directExecutor(), success = { rows ->
+      if (rows != null && rows.size == rowBatchSize) {
+        prefetch(PageKey(rowOffset + rowBatchSize, rowBatchSize))
+      }
+      if (rowOffset > 0) {
+        prefetch(PageKey(maxOf(0, rowOffset - rowBatchSize), rowBatchSize))
+      }
+    }, failure = {})
+    // The page may be shared with other callers, which must not be able to cancel it.
+    return Futures.nonCancellationPropagating(page)
+  }
+
+  /**
+   * Records the total number of rows, used to decide whether a page is closer to the end of the table.
+   */
+  fun onRowCount(rowCount: Int) {
+    synchronized(lock) { knownRowCount = rowCount }
+  }
+
+  /**
+   * Discards the cached pages and rowids.
+   */
+  fun invalidate() {
+    synchronized(lock) {
+      generation++
+      cachedPages.clear()
+      cachedRows = 0
+      rowIds.clear()
+      knownRowCount = null
+    }
+  }
+
+  private fun prefetch(key: PageKey) {
+    if (key.rowOffset < 0 || key.rowOffset.toLong() + key.rowBatchSize > Int.MAX_VALUE) {
+      return
+    }
+    synchronized(lock) {
+      val rowCount = knownRowCount
+      if (cachedPages.containsKey(key) || (rowCount != null && key.rowOffset >= rowCount)) {
+        return
+      }
+    }
+    getOrFetchPage(key)
+  }
+
+  private fun getOrFetchPage(key: PageKey): ListenableFuture<List<SqliteRow>> {
+    val page = synchronized(lock) {
+      cachedPages[key]?.let { return it }
+      val page = fetchPage(key.rowOffset, key.rowBatchSize, null, generation)
+      cachedPages[key] = page
+      cachedRows += key.rowBatchSize
+      val iterator = cachedPages.entries.iterator()
+      while (cachedRows > maxCachedRows && iterator.hasNext()) {
+        cachedRows -= iterator.next().key.rowBatchSize
+        iterator.remove()
+      }
+      page
+    }
+    page.addCallback(directExecutor(), success = {}, failure = {
+      synchronized(lock) {
+        if (cachedPages[key] === page) {
+          cachedPages.remove(key)
+          cachedRows -= key.rowBatchSize
+        }
+      }
+    })
+    return page
+  }
+
+  private fun fetchPage(rowOffset: Int, rowBatchSize: Int, responseSizeByteLimitHint: Long?, fetchGeneration: Int)
+    : ListenableFuture<List<SqliteRow>> {
+    val keyColumn = keyColumn ?: return fetchRows(sqliteStatement.toSelectLimitOffset(rowOffset, rowBatchSize), responseSizeByteLimitHint)
+
+    val statement = synchronized(lock) {
+      val previousRowId = rowIds[rowOffset - 1]
+      val nextRowId = rowIds[rowOffset + rowBatchSize]
+      val rowCount = knownRowCount
+      when {
+        rowOffset == 0 -> sqliteStatement.transform(SqliteStatementType.SELECT) {
+          "SELECT * FROM ($it) ORDER BY $keyColumn LIMIT $rowBatchSize"
+        }
+        previousRowId != null -> sqliteStatement.transform(SqliteStatementType.SELECT) {
+          "SELECT * FROM ($it) WHERE $keyColumn > $previousRowId ORDER BY $keyColumn LIMIT $rowBatchSize"
+        }
+        nextRowId != null -> sqliteStatement.transform(SqliteStatementType.SELECT) {
+          "SELECT * FROM (SELECT * FROM ($it) WHERE $keyColumn < $nextRowId ORDER BY $keyColumn DESC LIMIT $rowBatchSize) " +
+          "ORDER BY $keyColumn"
+        }
+        rowCount != null && rowOffset > rowCount / 2 -> {
+          val pageEnd = minOf(rowOffset.toLong() + rowBatchSize, rowCount.toLong())
+          val skip = rowCount - pageEnd
+          val take = maxOf(0L, pageEnd - rowOffset)
+          sqliteStatement.transform(SqliteStatementType.SELECT) {
+            "SELECT * FROM (SELECT * FROM ($it) ORDER BY $keyColumn DESC LIMIT $skip, $take) ORDER BY $keyColumn"
+          }
+        }
+        else -> sqliteStatement.transform(SqliteStatementType.SELECT) {
+          "SELECT * FROM ($it) ORDER BY $keyColumn LIMIT $rowOffset, $rowBatchSize"
+        }
+      }
+    }
+
+    val page = fetchRows(statement, responseSizeByteLimitHint)
+    page.addCallback(directExecutor(), success = { rows ->
+      if (rows.isNullOrEmpty()) return@addCallback
+      val firstRowId = rows.first().getRowId(keyColumn) ?: return@addCallback
+      val lastRowId = rows.last().getRowId(keyColumn) ?: return@addCallback
+      synchronized(lock) {
+        if (generation != fetchGeneration) return@addCallback
+        if (rowIds.size > MAX_ROW_IDS) {
+          rowIds.clear()
+        }
+        rowIds[rowOffset] = firstRowId
+        rowIds[rowOffset + rows.size - 1] = lastRowId
+      }
+    }, failure = {})
+    return page
+  }
+
+  private fun SqliteStatement.toSelectLimitOffset(rowOffset: Int, rowBatchSize: Int) = transform(SqliteStatementType.SELECT) {
+    "SELECT * FROM ($it) LIMIT $rowOffset, $rowBatchSize"
+  }
+
+  private fun SqliteRow.getRowId(keyColumn: String) =
+    (values.firstOrNull { it.columnName == keyColumn }?.value as? SqliteValue.StringValue)?.value?.toLongOrNull()
+
+  companion object {
+    private const val MAX_ROW_IDS = 10_000
+
+    private val selectAllAndRowIdPattern = Regex("SELECT (.+), (${RowIdName.values().joinToString("|") { it.stringName }}) as \\2 " +
+                                                 "FROM (\\w+|`(?:[^`]|``)+`)")
+
+    /**
+     * Returns the name of the rowid column of [sqliteStatement] if it selects all the rows of a table followed by their rowid, as
+     * built by [com.android.tools.idea.sqlite.databaseConnection.jdbc.selectAllAndRowIdFromTable] or by the exports of
+     * [com.android.tools.idea.sqlite.controllers.ExportToFileController], or null otherwise. Other statements may order their rows
+     * differently, or return the same rowid for several rows.
+     */
+    fun getRowIdPagingColumn(sqliteStatement: SqliteStatement): String? {
+      if (sqliteStatement.parametersValues.isNotEmpty()) return null
+      return selectAllAndRowIdPattern.matchEntire(sqliteStatement.sqliteStatementText.trim())?.groupValues?.get(2)
+    }
+  }
+}
@@ -15,7 +15,7 @@
  */
 package com.android.tools.idea.sqlite.databaseConnection.jdbc
 
-import com.android.tools.idea.sqlite.databaseConnection.checkOffsetAndSize
+import com.android.tools.idea.sqlite.databaseConnection.SqliteRowPager
 import com.android.tools.idea.sqlite.model.SqliteRow
 import com.android.tools.idea.sqlite.model.SqliteStatement
 import com.google.common.util.concurrent.ListenableFuture
@@ -27,16 +27,23 @@ class PagedJdbcSqliteResultSet(
   connection: Connection,
   private val sqliteStatement: SqliteStatement
 ) : JdbcSqliteResultSet(taskExecutor, connection, sqliteStatement) {
+  private val pager = SqliteRowPager(sqliteStatement, { statement, _ -> fetchRows(statement) })
+
   override val totalRowCount: ListenableFuture<Int>
     get() = getRowCount(sqliteStatement.toRowCountStatement()) {
       it.next()
       val count = it.getInt(1)
+      pager.onRowCount(count)
       count
     }
 
-  override fun getRowBatch(rowOffset: Int, rowBatchSize: Int): ListenableFuture<List<SqliteRow>> {
-    checkOffsetAndSize(rowOffset, rowBatchSize)
-    return getRowBatch(sqliteStatement.toSelectLimitOffset(rowOffset, rowBatchSize)) { resultSet, columns ->
+  override fun getRowBatch(rowOffset: Int, rowBatchSize: Int): ListenableFuture<List<SqliteRow>> =
+    pager.getRowBatch(rowOffset, rowBatchSize)
+
+  override fun invalidateCachedRows() = pager.invalidate()
+
+  private fun fetchRows(statement: SqliteStatement): ListenableFuture<List<SqliteRow>> {
+    return getRowBatch(statement) { resultSet, columns ->
       val rows = ArrayList<SqliteRow>()
       while (resultSet.next()) {
         rows.add(createCurrentRow(resultSet, columns))
@@ -44,4 +51,4 @@ class PagedJdbcSqliteResultSet(
       rows
     }
   }
-}
\ No newline at end of file
+}
@@ -17,7 +17,7 @@ package com.android.tools.idea.sqlite.databaseConnection.live
 
 import com.android.tools.idea.concurrency.transform
 import com.android.tools.idea.sqlite.DatabaseInspectorMessenger
-import com.android.tools.idea.sqlite.databaseConnection.checkOffsetAndSize
+import com.android.tools.idea.sqlite.databaseConnection.SqliteRowPager
 import com.android.tools.idea.sqlite.model.ResultSetSqliteColumn
 import com.android.tools.idea.sqlite.model.SqliteRow
 import com.android.tools.idea.sqlite.model.SqliteStatement
@@ -30,6 +30,7 @@ class PagedLiveSqliteResultSet(
   connectionId: Int,
   private val taskExecutor: Executor
 ) : LiveSqliteResultSet(sqliteStatement, messenger, connectionId, taskExecutor) {
+  private val pager = SqliteRowPager(sqliteStatement, ::fetchRows)
 
   override val columns: ListenableFuture<List<ResultSetSqliteColumn>> get() =
     sendQueryCommand(sqliteStatement.toSelectLimitOffset(0, 1)).mapToColumns(taskExecutor)
@@ -37,12 +38,18 @@ class PagedLiveSqliteResultSet(
   override val totalRowCount: ListenableFuture<Int>
     get() = sendQueryCommand(sqliteStatement.toRowCountStatement()).transform(taskExecutor) { response ->
       // TODO(b/157652844): remove the cast to Int since it's possible to go over the 2^31 limit
-      response.query.rowsList.firstOrNull()?.valuesList?.firstOrNull()?.longValue?.toInt() ?: 0
+      val rowCount = response.query.rowsList.firstOrNull()?.valuesList?.firstOrNull()?.longValue?.toInt() ?: 0
+      pager.onRowCount(rowCount)
+      rowCount
     }
 
-  override fun getRowBatch(rowOffset: Int, rowBatchSize: Int, responseSizeByteLimitHint: Long?): ListenableFuture<List<SqliteRow>> {
-    checkOffsetAndSize(rowOffset, rowBatchSize)
-    return sendQueryCommand(sqliteStatement.toSelectLimitOffset(rowOffset, rowBatchSize), responseSizeByteLimitHint)
+  override fun getRowBatch(rowOffset: Int, rowBatchSize: Int, responseSizeByteLimitHint: Long?): ListenableFuture<List<SqliteRow>> =
+    pager.getRowBatch(rowOffset, rowBatchSize, responseSizeByteLimitHint)
+
+  override fun invalidateCachedRows() = pager.invalidate()
+
+  private fun fetchRows(statement: SqliteStatement, responseSizeByteLimitHint: Long?): ListenableFuture<List<SqliteRow>> =
+    sendQueryCommand(statement, responseSizeByteLimitHint)
       .transform(taskExecutor) { response ->
         val columnNames = response.query.columnNamesList
         response.query.rowsList.map {
@@ -50,5 +57,4 @@ class PagedLiveSqliteResultSet(
           SqliteRow(sqliteColumnValues)
         }
       }
-  }
 }
@@ -18,6 +18,7 @@ package com.android.tools.idea.sqlite.model
 
 import com.google.wireless.android.sdk.stats.AppInspectionEvent.DatabaseInspectorEvent.ExportDialogOpenedEvent.Origin
 import java.nio.file.Path
+import java.util.concurrent.atomic.AtomicLong
 
 sealed class ExportFormat {
   object DB : ExportFormat()
@@ -59,6 +60,30 @@ sealed class ExportRequest(
     : ExportRequest(srcDatabase, format, dstPath)
 }
 
+/**
+ * Tracks the rows written by an export operation. Rows are added to [totalRowCount] as the queries of the export start, so the total
+ * of an export spanning multiple tables grows while the export is in progress. Safe to update from any thread.
+ */
+class ExportProgress {
+  private val exportedRows = AtomicLong()
+  private val totalRows = AtomicLong()
+
+  val exportedRowCount: Long get() = exportedRows.get()
+  val totalRowCount: Long get() = totalRows.get()
+
+  /** Fraction of the known rows that were exported, or null if no rows are known yet. */
+  val fraction: Double?
+    get() = totalRowCount.let { total -> if (total == 0L) null else exportedRowCount.coerceAtMost(total).toDouble() / total }
+
+  fun addRowsToExport(count: Long) {
+    totalRows.addAndGet(count)
+  }
+
+  fun addExportedRows(count: Long) {
+    exportedRows.addAndGet(count)
+  }
+}
+
 /**
  * All the information needed to show a dialog asking a user to specify an [ExportRequest].
  * @param actionOrigin Represents the UI area where the export dialog was launched from. Captured for analytics purposes.
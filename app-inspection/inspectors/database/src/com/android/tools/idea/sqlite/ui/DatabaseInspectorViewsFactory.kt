@@ -18,6 +18,7 @@ package com.android.tools.idea.sqlite.ui
 import com.android.tools.idea.sqlite.DatabaseInspectorAnalyticsTracker
 import com.android.tools.idea.sqlite.SchemaProvider
 import com.android.tools.idea.sqlite.model.ExportDialogParams
+import com.android.tools.idea.sqlite.model.ExportProgress
 import com.android.tools.idea.sqlite.ui.exportToFile.ExportInProgressView
 import com.android.tools.idea.sqlite.ui.exportToFile.ExportToFileDialogView
 import com.android.tools.idea.sqlite.ui.mainView.DatabaseInspectorView
@@ -41,7 +42,7 @@ interface DatabaseInspectorViewsFactory {
     analyticsTracker: DatabaseInspectorAnalyticsTracker
   ): ExportToFileDialogView
 
-  fun createExportInProgressView(project: Project, job: Job, taskDispatcher: CoroutineDispatcher): ExportInProgressView
+  fun createExportInProgressView(project: Project, job: Job, progress: ExportProgress, taskDispatcher: CoroutineDispatcher): ExportInProgressView
 
   fun createDatabaseInspectorView(project: Project): DatabaseInspectorView
 }
\ No newline at end of file
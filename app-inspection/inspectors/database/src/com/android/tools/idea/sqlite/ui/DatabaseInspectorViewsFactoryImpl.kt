@@ -18,6 +18,7 @@ package com.android.tools.idea.sqlite.ui
 import com.android.tools.idea.sqlite.DatabaseInspectorAnalyticsTracker
 import com.android.tools.idea.sqlite.SchemaProvider
 import com.android.tools.idea.sqlite.model.ExportDialogParams
+import com.android.tools.idea.sqlite.model.ExportProgress
 import com.android.tools.idea.sqlite.ui.exportToFile.ExportInProgressView
 import com.android.tools.idea.sqlite.ui.exportToFile.ExportInProgressViewImpl
 import com.android.tools.idea.sqlite.ui.exportToFile.ExportToFileDialogView
@@ -54,8 +55,12 @@ class DatabaseInspectorViewsFactoryImpl : DatabaseInspectorViewsFactory {
     analyticsTracker: DatabaseInspectorAnalyticsTracker
   ): ExportToFileDialogView = ExportToFileDialogViewImpl(project, params)
 
-  override fun createExportInProgressView(project: Project, job: Job, taskDispatcher: CoroutineDispatcher): ExportInProgressView =
-    ExportInProgressViewImpl(project, job, taskDispatcher)
+  override fun createExportInProgressView(
+    project: Project,
+    job: Job,
+    progress: ExportProgress,
+    taskDispatcher: CoroutineDispatcher
+  ): ExportInProgressView = ExportInProgressViewImpl(project, job, progress, taskDispatcher)
 
   override fun createDatabaseInspectorView(project: Project) = DatabaseInspectorViewImpl(project, project)
 }
\ No newline at end of file
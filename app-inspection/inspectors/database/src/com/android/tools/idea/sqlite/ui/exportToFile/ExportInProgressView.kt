@@ -17,6 +17,7 @@ package com.android.tools.idea.sqlite.ui.exportToFile
 
 import com.android.tools.idea.concurrency.coroutineScope
 import com.android.tools.idea.sqlite.localization.DatabaseInspectorBundle
+import com.android.tools.idea.sqlite.model.ExportProgress
 import com.intellij.openapi.progress.ProgressIndicator
 import com.intellij.openapi.progress.util.AbstractProgressIndicatorExBase
 import com.intellij.openapi.progress.util.ProgressWindow
@@ -25,6 +26,8 @@ import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.CoroutineDispatcher
 import kotlinx.coroutines.Job
 import kotlinx.coroutines.NonCancellable
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.isActive
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
 import org.jetbrains.annotations.VisibleForTesting
@@ -33,10 +36,16 @@ interface ExportInProgressView {
   fun show()
 }
 
-/** Modal dialog showing an export operation is in progress and allowing for the operation to be cancelled. */
+private const val PROGRESS_UPDATE_INTERVAL_MS = 200L
+
+/**
+ * Modal dialog showing an export operation is in progress and allowing for the operation to be cancelled. Shows the fraction of rows
+ * exported so far once [progress] knows how many rows are exported.
+ */
 class ExportInProgressViewImpl(
   private val project: Project,
   private val job: Job,
+  private val progress: ExportProgress,
   private val taskDispatcher: CoroutineDispatcher
 ) : ExportInProgressView {
   @VisibleForTesting var onShownListener: (ProgressIndicator) -> Unit = {}
@@ -59,7 +68,14 @@ class ExportInProgressViewImpl(
         progressWindow.start()
         progressWindow.text = DatabaseInspectorBundle.message("export.progress.dialog.caption") // must be called after `start`
         onShownListener(progressWindow)
+        val progressUpdates = launch {
+          while (isActive) {
+            updateProgress(progressWindow)
+            delay(PROGRESS_UPDATE_INTERVAL_MS)
+          }
+        }
         job.join()
+        progressUpdates.cancel()
       }
       finally {
         withContext(NonCancellable) {
@@ -70,5 +86,12 @@ class ExportInProgressViewImpl(
     }
   }
 
+  private fun updateProgress(progressWindow: ProgressWindow) {
+    val fraction = progress.fraction ?: return
+    progressWindow.isIndeterminate = false
+    progressWindow.fraction = fraction
+    progressWindow.text2 = DatabaseInspectorBundle.message("export.progress.dialog.rows", progress.exportedRowCount, progress.totalRowCount)
+  }
+
   class UserCancellationException : CancellationException()
 }
\ No newline at end of file
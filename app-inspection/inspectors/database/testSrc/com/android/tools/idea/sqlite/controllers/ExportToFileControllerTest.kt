@@ -20,6 +20,7 @@ import com.android.testutils.MockitoKt.mock
 import com.android.testutils.MockitoKt.whenever
 import com.android.tools.idea.concurrency.AndroidCoroutineScope
 import com.android.tools.idea.concurrency.FutureCallbackExecutor
+import com.android.tools.idea.flags.StudioFlags
 import com.android.tools.idea.sqlite.DatabaseInspectorAnalyticsTracker
 import com.android.tools.idea.sqlite.OfflineModeManager.DownloadProgress
 import com.android.tools.idea.sqlite.OfflineModeManager.DownloadState.COMPLETED
@@ -48,6 +49,7 @@ import com.android.tools.idea.sqlite.model.Delimiter.VERTICAL_BAR
 import com.android.tools.idea.sqlite.model.ExportFormat.CSV
 import com.android.tools.idea.sqlite.model.ExportFormat.DB
 import com.android.tools.idea.sqlite.model.ExportFormat.SQL
+import com.android.tools.idea.sqlite.model.ExportProgress
 import com.android.tools.idea.sqlite.model.ExportRequest
 import com.android.tools.idea.sqlite.model.ExportRequest.ExportDatabaseRequest
 import com.android.tools.idea.sqlite.model.ExportRequest.ExportQueryResultsRequest
@@ -171,7 +173,7 @@ class ExportToFileControllerTest(private val testConfig: TestConfig) {
   /** Keeps connection ids unique */
   private val nextConnectionId: () -> Int = run { var next = 1; { next++ } }
 
-  private lateinit var exportInProgressListener: (Job) -> Unit
+  private lateinit var exportInProgressListener: (Job, ExportProgress) -> Unit
   private lateinit var exportProcessedListener: ExportProcessedListener
 
   private lateinit var tempDirTestFixture: TempDirTestFixture
@@ -324,6 +326,38 @@ class ExportToFileControllerTest(private val testConfig: TestConfig) {
     testExport(exportRequest, expectedOutput)
   }
 
+  @Test fun testStreamedExportDatabaseToSql() {
+    StudioFlags.DATABASE_INSPECTOR_STREAMING_SQL_EXPORT_ENABLED.override(true)
+    try {
+      // given: a database with a number of tables, read in multiple batches per table
+      val database = createEmptyDatabase(testConfig.databaseType)
+      val tables = populateDatabase(database, listOf(table1, table2, table3), listOf(view1, view2))
+      controller.exportRowBatchSize = 5
+      val expectedDump = runSqlite3Command(SqliteCliArgs.builder().database(database.backingFile).dump().build()).checkSuccess().stdOutput
+
+      // when: the database is exported
+      val dstPath = tempDirTestFixture.toNioPath().resolve("$outputFileName.sql")
+      requireEmptyFileAtDestination(dstPath, testConfig.targetFileAlreadyExists)
+      submitExportRequest(ExportDatabaseRequest(database, SQL, dstPath))
+      awaitExportComplete(15_000L)
+      assertThat(exportProcessedListener.scenario).isEqualTo(SUCCESS)
+
+      // then: running the exported statements recreates the same database
+      val importedDatabase = tempDirTestFixture.toNioPath().resolve("imported.db")
+      runSqlite3Command(SqliteCliArgs.builder().database(importedDatabase).raw(".read '$dstPath'").build()).checkSuccess()
+      assertThat(runSqlite3Command(SqliteCliArgs.builder().database(importedDatabase).dump().build()).stdOutput).isEqualTo(expectedDump)
+
+      if (database is LiveSqliteDatabaseId) {
+        val progress = controller.lastExportProgress!!
+        assertThat(progress.exportedRowCount).isEqualTo(tables.sumOf { it.content.size }.toLong())
+        assertThat(progress.fraction).isEqualTo(1.0)
+      }
+    }
+    finally {
+      StudioFlags.DATABASE_INSPECTOR_STREAMING_SQL_EXPORT_ENABLED.clearOverride()
+    }
+  }
+
   /** Overload suitable for single file output (e.g. exporting a query or a single table). */
   private fun testExport(exportRequest: ExportRequest, expectedValues: List<String>) =
     testExport(
@@ -347,7 +381,7 @@ class ExportToFileControllerTest(private val testConfig: TestConfig) {
     val stopwatch = Stopwatch.createStarted()
     requireEmptyFileAtDestination(exportRequest.dstPath, testConfig.targetFileAlreadyExists)
     submitExportRequest(exportRequest)
-    verify(exportInProgressListener).invoke(controller.lastExportJob!!)
+    verify(exportInProgressListener).invoke(controller.lastExportJob!!, controller.lastExportProgress!!)
     awaitExportComplete(15_000L)
     stopwatch.stop()
 
@@ -468,7 +502,7 @@ class ExportToFileControllerTest(private val testConfig: TestConfig) {
     // verify that in-progress-listener (responsible for the progress bar) got called
     runDispatching { assertThat(queryIssuedLatch.await(5, SECONDS)).isTrue() }
     val job = controller.lastExportJob!!
-    verify(exportInProgressListener).invoke(job)
+    verify(exportInProgressListener).invoke(job, controller.lastExportProgress!!)
     assertThat(job.isActive).isTrue()
 
     // cancel the job simulating the cancel button invoked by the user
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.sqlite.databaseConnection
+
+import com.android.tools.idea.sqlite.databaseConnection.jdbc.selectAllAndRowIdFromTable
+import com.android.tools.idea.sqlite.model.RowIdName
+import com.android.tools.idea.sqlite.model.SqliteColumnValue
+import com.android.tools.idea.sqlite.model.SqliteRow
+import com.android.tools.idea.sqlite.model.SqliteStatement
+import com.android.tools.idea.sqlite.model.SqliteStatementType
+import com.android.tools.idea.sqlite.model.SqliteTable
+import com.android.tools.idea.sqlite.model.SqliteValue
+import com.google.common.util.concurrent.Futures
+import junit.framework.TestCase
+
+class SqliteRowPagerTest : TestCase() {
+  private val statements = mutableListOf<String>()
+  private var nextRowId = 1L
+
+  /** Returns pages of 10 rows with increasing rowids, whatever the statement. */
+  private fun fetchRows(statement: SqliteStatement, responseSizeByteLimitHint: Long?) = Futures.immediateFuture(
+    List(10) { SqliteRow(listOf(SqliteColumnValue("rowid", SqliteValue.fromAny(nextRowId++)))) }
+  ).also { statements.add(statement.sqliteStatementText) }
+
+  fun testGetRowIdPagingColumn() {
+    val table = SqliteTable("my table", emptyList(), RowIdName._ROWID_, false)
+    assertEquals("_rowid_", SqliteRowPager.getRowIdPagingColumn(SqliteStatement(SqliteStatementType.SELECT,
+                                                                                  selectAllAndRowIdFromTable(table))))
+    assertNull(SqliteRowPager.getRowIdPagingColumn(SqliteStatement(SqliteStatementType.SELECT,
+                                                                   selectAllAndRowIdFromTable(table.copy(rowIdName = null)))))
+    assertEquals("rowid", SqliteRowPager.getRowIdPagingColumn(SqliteStatement(SqliteStatementType.SELECT,
+                                                                               "SELECT quote(c1), quote(`c 2`), rowid as rowid FROM t1")))
+    assertNull(SqliteRowPager.getRowIdPagingColumn(SqliteStatement(SqliteStatementType.SELECT,
+                                                                   "SELECT *, rowid as rowid FROM t1 ORDER BY c1")))
+    assertNull(SqliteRowPager.getRowIdPagingColumn(SqliteStatement(SqliteStatementType.SELECT,
+                                                                   "SELECT *, rowid as rowid FROM t1, t2")))
+  }
+
+  fun testPagesNextToFetchedPagesSeekToRowId() {
+    val pager = SqliteRowPager(SqliteStatement(SqliteStatementType.SELECT, "SELECT *, rowid as rowid FROM t1"), ::fetchRows)
+
+    pager.getRowBatch(0, 10).get()
+    pager.getRowBatch(10, 10).get()
+
+    assertEquals(listOf(
+      "SELECT * FROM (SELECT *, rowid as rowid FROM t1) ORDER BY rowid LIMIT 10",
+      // Prefetched after the first page
+      "SELECT * FROM (SELECT *, rowid as rowid FROM t1) WHERE rowid > 10 ORDER BY rowid LIMIT 10",
+      // Prefetched after the second page, which was served from the cache
+      "SELECT * FROM (SELECT *, rowid as rowid FROM t1) WHERE rowid > 20 ORDER BY rowid LIMIT 10"
+    ), statements)
+  }
+
+  fun testLastPagesAreFetchedFromTheEnd() {
+    val pager = SqliteRowPager(SqliteStatement(SqliteStatementType.SELECT, "SELECT *, rowid as rowid FROM t1"), ::fetchRows)
+    pager.onRowCount(1005)
+
+    pager.getRowBatch(1000, 10).get()
+
+    assertEquals(
+      "SELECT * FROM (SELECT * FROM (SELECT *, rowid as rowid FROM t1) ORDER BY rowid DESC LIMIT 0, 5) ORDER BY rowid",
+      statements.first()
+    )
+    // The page before is prefetched by seeking before the first row of the last page.
+    assertEquals(
+      "SELECT * FROM (SELECT * FROM (SELECT *, rowid as rowid FROM t1) WHERE rowid < 1 ORDER BY rowid DESC LIMIT 10) ORDER BY rowid",
+      statements[1]
+    )
+  }
+
+  fun testInvalidateDiscardsCachedPages() {
+    val pager = SqliteRowPager(SqliteStatement(SqliteStatementType.SELECT, "SELECT * FROM t1"), ::fetchRows)
+    val rows = pager.getRowBatch(0, 10).get()
+    assertSame(rows, pager.getRowBatch(0, 10).get())
+
+    pager.invalidate()
+    statements.clear()
+
+    assertNotSame(rows, pager.getRowBatch(0, 10).get())
+    assertEquals("SELECT * FROM (SELECT * FROM t1) LIMIT 0, 10", statements.first())
+  }
+
+  fun testRefreshingTheSamePageDoesNotPrefetch() {
+    val pager = SqliteRowPager(SqliteStatement(SqliteStatementType.SELECT, "SELECT *, rowid as rowid FROM t1"), ::fetchRows)
+    pager.getRowBatch(10, 10).get()
+    assertEquals(3, statements.size)
+
+    // As when a live database changes, and the table shows the same page again.
+    pager.invalidate()
+    statements.clear()
+    pager.getRowBatch(10, 10).get()
+    assertEquals(1, statements.size)
+
+    // Navigating to another page prefetches again.
+    statements.clear()
+    pager.getRowBatch(20, 10).get()
+    assertEquals(2, statements.size)
+  }
+
+  fun testBatchesLimitedInSizeSeekToTheRowIdOfThePreviousBatch() {
+    val pager = SqliteRowPager(SqliteStatement(SqliteStatementType.SELECT, "SELECT *, rowid as rowid FROM t1"), ::fetchRows)
+
+    // As when exporting a table, each response holds fewer rows than requested.
+    assertEquals(10, pager.getRowBatch(0, Integer.MAX_VALUE, 1024).get().size)
+    assertEquals(10, pager.getRowBatch(10, Integer.MAX_VALUE, 1024).get().size)
+
+    assertEquals(listOf(
+      "SELECT * FROM (SELECT *, rowid as rowid FROM t1) ORDER BY rowid LIMIT ${Integer.MAX_VALUE}",
+      "SELECT * FROM (SELECT *, rowid as rowid FROM t1) WHERE rowid > 10 ORDER BY rowid LIMIT ${Integer.MAX_VALUE}"
+    ), statements)
+  }
+
+  fun testLargeBatchesAreNotCached() {
+    val pager = SqliteRowPager(SqliteStatement(SqliteStatementType.SELECT, "SELECT * FROM t1"), ::fetchRows)
+    pager.getRowBatch(0, Integer.MAX_VALUE).get()
+    pager.getRowBatch(0, Integer.MAX_VALUE).get()
+
+    assertEquals(2, statements.size)
+  }
+}
@@ -22,6 +22,7 @@ import com.android.tools.idea.sqlite.databaseConnection.DatabaseConnection
 import com.android.tools.idea.sqlite.fileType.SqliteTestUtil
 import com.android.tools.idea.sqlite.model.SqliteStatement
 import com.android.tools.idea.sqlite.model.SqliteStatementType
+import com.android.tools.idea.sqlite.model.SqliteValue
 import com.android.tools.idea.sqlite.utils.getJdbcDatabaseConnection
 import com.intellij.openapi.util.Disposer
 import com.intellij.testFramework.LightPlatformTestCase
@@ -132,6 +133,36 @@ class JdbcSqliteResultSetTest : LightPlatformTestCase() {
     assertEquals(10, rowCountAfter)
   }
 
+  fun `test PagedResultSet OnTableWithRowId ReturnsSamePagesInAnyOrder`() {
+    // Prepare
+    val customSqliteFile = sqliteUtil.createAdHocSqliteDatabase(
+      createStatement = "CREATE TABLE t1 (c1 INT)",
+      insertStatement = "INSERT INTO t1 (c1) WITH RECURSIVE cnt(x) AS (SELECT 1 UNION ALL SELECT x + 1 FROM cnt LIMIT 95) SELECT x FROM cnt"
+    )
+    customConnection = pumpEventsAndWaitForFuture(
+      getJdbcDatabaseConnection(testRootDisposable, customSqliteFile, FutureCallbackExecutor.wrap(EdtExecutorService.getInstance()))
+    )
+    val resultSet = pumpEventsAndWaitForFuture(
+      customConnection!!.query(SqliteStatement(SqliteStatementType.SELECT, "SELECT *, rowid as rowid FROM t1"))
+    )
+    fun getPage(rowOffset: Int) = pumpEventsAndWaitForFuture(resultSet.getRowBatch(rowOffset, 10)).map {
+      it.values.first { value -> value.columnName == "c1" }.value
+    }
+    fun expectedPage(rowOffset: Int) = (rowOffset + 1..minOf(rowOffset + 10, 95)).map { SqliteValue.fromAny(it) }
+
+    // Act / Assert
+    assertEquals(95, pumpEventsAndWaitForFuture(resultSet.totalRowCount))
+    for (rowOffset in listOf(90, 80, 70, 0, 10, 20, 50, 40)) {
+      assertEquals(expectedPage(rowOffset), getPage(rowOffset))
+    }
+
+    pumpEventsAndWaitForFuture(
+      customConnection!!.execute(SqliteStatement(SqliteStatementType.DELETE, "DELETE FROM t1 WHERE c1 <= 10"))
+    )
+    resultSet.invalidateCachedRows()
+    assertEquals((11..20).map { SqliteValue.fromAny(it) }, getPage(0))
+  }
+
   fun testDisposeCancelsGetColumns() {
     // Prepare
     val customSqliteFile = sqliteUtil.createAdHocSqliteDatabase(
@@ -20,6 +20,7 @@ import com.android.testutils.MockitoKt.whenever
 import com.android.tools.idea.sqlite.DatabaseInspectorAnalyticsTracker
 import com.android.tools.idea.sqlite.SchemaProvider
 import com.android.tools.idea.sqlite.model.ExportDialogParams
+import com.android.tools.idea.sqlite.model.ExportProgress
 import com.android.tools.idea.sqlite.ui.DatabaseInspectorViewsFactory
 import com.android.tools.idea.sqlite.ui.exportToFile.ExportInProgressView
 import com.android.tools.idea.sqlite.ui.exportToFile.ExportToFileDialogView
@@ -62,5 +63,6 @@ open class FakeDatabaseInspectorViewsFactory : DatabaseInspectorViewsFactory {
     analyticsTracker: DatabaseInspectorAnalyticsTracker
   ): ExportToFileDialogView = exportToFileDialogView
 
-  override fun createExportInProgressView(project: Project, job: Job, taskDispatcher: CoroutineDispatcher) = exportInProgressView
+  override fun createExportInProgressView(project: Project, job: Job, progress: ExportProgress, taskDispatcher: CoroutineDispatcher) =
+    exportInProgressView
 }
\ No newline at end of file
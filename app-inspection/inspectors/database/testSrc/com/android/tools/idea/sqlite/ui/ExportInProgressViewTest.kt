@@ -16,6 +16,7 @@
 package com.android.tools.idea.sqlite.ui
 
 import com.android.tools.idea.concurrency.coroutineScope
+import com.android.tools.idea.sqlite.model.ExportProgress
 import com.android.tools.idea.sqlite.ui.exportToFile.ExportInProgressViewImpl
 import com.android.tools.idea.sqlite.ui.exportToFile.ExportInProgressViewImpl.UserCancellationException
 import com.google.common.truth.Truth.assertThat
@@ -37,7 +38,7 @@ class ExportInProgressViewTest : LightPlatformTestCase() {
     // Set up a job that finishes when jobDone=true
     val jobDone = AtomicBoolean(false)
     val job: Job = project.coroutineScope.launch { while (!jobDone.get()) delay(50) }
-    val dialog = ExportInProgressViewImpl(project, job, taskDispatcher)
+    val dialog = ExportInProgressViewImpl(project, job, ExportProgress(), taskDispatcher)
 
     // Set up a callback called when the dialog disappears
     val dialogClosedLatch = CountDownLatch(1)
@@ -56,7 +57,7 @@ class ExportInProgressViewTest : LightPlatformTestCase() {
     val job: Job = project.coroutineScope.launch { while (true) delay(50) }
     var cancellationException: Throwable? = null
     job.invokeOnCompletion { t: Throwable? -> cancellationException = t }
-    val dialog = ExportInProgressViewImpl(project, job, taskDispatcher)
+    val dialog = ExportInProgressViewImpl(project, job, ExportProgress(), taskDispatcher)
 
     // Set up a callback called when the dialog is shown
     val dialogShownLatch = CountDownLatch(1)
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.appinspection.inspectors.network.model
+
+/**
+ * The time intervals of connections, indexed by the order in which the connections were added, which can be searched for the
+ * intervals intersecting a time range.
+ *
+ * This is a segment tree over the connection indices, where each node keeps the earliest start and the latest end of the intervals
+ * below it. Unlike a tree sorted by start time, it supports extending the end of an interval as more events of a connection arrive,
+ * and finding the k intervals intersecting a range takes O(k log n), instead of checking every connection.
+ */
+internal class IntervalTree {
+  private var capacity = 16
+  private var starts = newStarts(capacity)
+  private var ends = newEnds(capacity)
+
+  var size = 0
+    private set
+
+  /**
+   * Adds the interval [[start], [end]], and returns its index.
+   */
+  fun add(start: Long, end: Long): Int {
+    if (size == capacity) {
+      grow()
+    }
+    val index = size++
+    update(index, start, end)
+    return index
+  }
+
+  /**
+   * Extends the interval at [index] to contain [timestamp].
+   */
+  fun extend(index: Int, timestamp: Long) {
+    val leaf = capacity + index
+    update(index, minOf(starts[leaf], timestamp), maxOf(ends[leaf], timestamp))
+  }
+
+  /**
+   * Calls [consumer] with the index of each interval intersecting [[min], [max]], in increasing order.
+   */
+  fun forEachIntersecting(min: Long, max: Long, consumer: (Int) -> Unit) {
+    if (size > 0) {
+      visit(1, min, max, consumer)
+    }
+  }
+
+  private fun visit(node: Int, min: Long, max: Long, consumer: (Int) -> Unit) {
+    if (starts[node] > max || ends[node] < min) {
+      return
+    }
+    if (node >= capacity) {
+      consumer(node - capacity)
+      return
+    }
+    visit(2 * node, min, max, consumer)
+    visit(2 * node + 1, min, max, consumer)
+  }
+
+  private fun update(index: Int, start: Long, end: Long) {
+    var node = capacity + index
+    starts[node] = start
+    ends[node] = end
+    node /= 2
+    while (node >= 1) {
+      starts[node] = minOf(starts[2 * node], starts[2 * node + 1])
+      ends[node] = maxOf(ends[2 * node], ends[2 * node + 1])
+      node /= 2
+    }
+  }
+
+  private fun grow() {
+    val oldCapacity = capacity
+    val oldStarts = starts
+    val oldEnds = ends
+    capacity *= 2
+    starts = newStarts(capacity)
+    ends = newEnds(capacity)
+    System.arraycopy(oldStarts, oldCapacity, starts, capacity, oldCapacity)
+    System.arraycopy(oldEnds, oldCapacity, ends, capacity, oldCapacity)
+    for (node in capacity - 1 downTo 1) {
+      starts[node] = minOf(starts[2 * node], starts[2 * node + 1])
+      ends[node] = maxOf(ends[2 * node], ends[2 * node + 1])
+    }
+  }
+
+  // Empty leaves never intersect a range.
+  private fun newStarts(capacity: Int) = LongArray(2 * capacity) { Long.MAX_VALUE }
+
+  private fun newEnds(capacity: Int) = LongArray(2 * capacity) { Long.MIN_VALUE }
+}
@@ -17,7 +17,10 @@ package com.android.tools.idea.appinspection.inspectors.network.model
 
 import com.android.tools.adtui.model.Range
 import com.android.tools.idea.appinspection.inspector.api.AppInspectorMessenger
+import com.android.tools.idea.appinspection.inspectors.network.model.httpdata.Payload
+import com.android.tools.idea.appinspection.inspectors.network.model.httpdata.PayloadStore
 import com.android.tools.idea.concurrency.createChildScope
+import com.android.tools.idea.flags.StudioFlags
 import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.CompletableDeferred
 import kotlinx.coroutines.CoroutineScope
@@ -34,6 +37,7 @@ import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
 import studio.network.inspection.NetworkInspectorProtocol.Event
 import studio.network.inspection.NetworkInspectorProtocol.HttpConnectionEvent
+import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.TimeUnit
 
 
@@ -120,7 +124,10 @@ private sealed class Intention {
  */
 private fun CoroutineScope.processEvents(commandChannel: ReceiveChannel<Intention>) = launch {
   val speedData = mutableListOf<Event>()
-  val httpMap = mutableMapOf<Long, MutableList<Event>>()
+  // The events of each connection, in the order the connections started, and the time span of each connection.
+  val connections = mutableListOf<MutableList<Event>>()
+  val connectionIndices = mutableMapOf<Long, Int>()
+  val connectionIntervals = IntervalTree()
 
   for (command in commandChannel) {
     if (command is Intention.InsertData) {
@@ -128,7 +135,16 @@ private fun CoroutineScope.processEvents(commandChannel: ReceiveChannel<Intentio
         speedData.add(command.event)
       }
       else if (command.event.hasHttpConnectionEvent()) {
-        httpMap.getOrPut(command.event.httpConnectionEvent.connectionId) { mutableListOf() }.add(command.event)
+        val timestamp = command.event.timestamp
+        val index = connectionIndices[command.event.httpConnectionEvent.connectionId]
+        if (index == null) {
+          connectionIndices[command.event.httpConnectionEvent.connectionId] = connectionIntervals.add(timestamp, timestamp)
+          connections.add(mutableListOf(command.event))
+        }
+        else {
+          connectionIntervals.extend(index, timestamp)
+          connections[index].add(command.event)
+        }
       }
     }
     else if (command is Intention.QueryForSpeedData) {
@@ -137,23 +153,14 @@ private fun CoroutineScope.processEvents(commandChannel: ReceiveChannel<Intentio
     else if (command is Intention.QueryForHttpData) {
       val min = TimeUnit.MICROSECONDS.toNanos(command.range.min.toLong())
       val max = TimeUnit.MICROSECONDS.toNanos(command.range.max.toLong())
-      val results = httpMap.values.filter { data -> intersectsRange(min, max, data) }
-        .flatten()
-        .sortedBy { event -> event.timestamp }
+      val results = mutableListOf<Event>()
+      connectionIntervals.forEachIntersecting(min, max) { index -> results.addAll(connections[index]) }
+      results.sortBy { event -> event.timestamp }
       command.deferred.complete(results)
     }
   }
 }
 
-private fun intersectsRange(min: Long, max: Long, data: List<Event>): Boolean {
-  val firstEventTimestamp = data.firstOrNull()?.timestamp ?: return false
-  val lastEventTimestamp = data.last().timestamp
-  if (firstEventTimestamp in min..max || lastEventTimestamp in min..max || (firstEventTimestamp < min && lastEventTimestamp > max)) {
-    return true
-  }
-  return false
-}
-
 /**
  * The data backend of network inspector.
  *
@@ -164,20 +171,41 @@ interface NetworkInspectorDataSource {
   val connectionEventFlow: Flow<HttpConnectionEvent>
   suspend fun queryForHttpData(range: Range): List<Event>
   suspend fun queryForSpeedData(range: Range): List<Event>
+
+  /**
+   * Returns the payload of a request or response payload [event] returned by [queryForHttpData].
+   */
+  fun getPayload(event: Event): Payload {
+    val connectionEvent = event.httpConnectionEvent
+    return when {
+      connectionEvent.hasRequestPayload() -> Payload.of(connectionEvent.requestPayload.payload)
+      connectionEvent.hasResponsePayload() -> Payload.of(connectionEvent.responsePayload.payload)
+      else -> Payload.EMPTY
+    }
+  }
 }
 
+/**
+ * Payloads are moved out of the events as they arrive, into [payloadStore], so that the events kept for the whole session don't
+ * hold the payloads in memory.
+ */
 class NetworkInspectorDataSourceImpl(
   messenger: AppInspectorMessenger,
   parentScope: CoroutineScope,
-  replayCacheSize: Int = 1
+  replayCacheSize: Int = 1,
+  private val payloadStore: PayloadStore =
+    PayloadStore(StudioFlags.NETWORK_INSPECTOR_PAYLOAD_MEMORY_LIMIT_MB.get() * 1024L * 1024L)
 ) : NetworkInspectorDataSource {
   val scope = parentScope.createChildScope()
   private val channel = Channel<Intention>()
+  private val requestPayloads = ConcurrentHashMap<Long, Payload>()
+  private val responsePayloads = ConcurrentHashMap<Long, Payload>()
   override val connectionEventFlow: Flow<HttpConnectionEvent>
 
   init {
     scope.coroutineContext[Job]!!.invokeOnCompletion { e ->
       channel.close(e)
+      payloadStore.close()
     }
     scope.launch {
       try {
@@ -188,12 +216,40 @@ class NetworkInspectorDataSourceImpl(
       }
     }
     connectionEventFlow = messenger.eventFlow
-      .map { data -> Event.parseFrom(data) }
+      .map { data -> storePayload(Event.parseFrom(data)) }
       .onEach { data -> channel.send(Intention.InsertData(data)) }
       .mapNotNull { if (it.hasHttpConnectionEvent()) it.httpConnectionEvent else null }
       .shareIn(scope, SharingStarted.Eagerly, replayCacheSize)
   }
 
+  override fun getPayload(event: Event): Payload {
+    val connectionEvent = event.httpConnectionEvent
+    val payloads = when {
+      connectionEvent.hasRequestPayload() -> requestPayloads
+      connectionEvent.hasResponsePayload() -> responsePayloads
+      else -> return Payload.EMPTY
+    }
+    return payloads[connectionEvent.connectionId] ?: super.getPayload(event)
+  }
+
+  /**
+   * Stores the payload of a payload event, and returns the event without its payload.
+   */
+  private fun storePayload(event: Event): Event {
+    val connectionEvent = event.httpConnectionEvent
+    return when {
+      connectionEvent.hasRequestPayload() -> {
+        requestPayloads[connectionEvent.connectionId] = payloadStore.store(connectionEvent.requestPayload.payload)
+        event.toBuilder().apply { httpConnectionEventBuilder.requestPayloadBuilder.clearPayload() }.build()
+      }
+      connectionEvent.hasResponsePayload() -> {
+        responsePayloads[connectionEvent.connectionId] = payloadStore.store(connectionEvent.responsePayload.payload)
+        event.toBuilder().apply { httpConnectionEventBuilder.responsePayloadBuilder.clearPayload() }.build()
+      }
+      else -> event
+    }
+  }
+
   override suspend fun queryForHttpData(range: Range) = withContext(scope.coroutineContext) {
     val deferred = CompletableDeferred<List<Event>>()
     channel.send(Intention.QueryForHttpData(range, deferred))
@@ -18,7 +18,6 @@ package com.android.tools.idea.appinspection.inspectors.network.model.httpdata
 import com.android.tools.idea.protobuf.ByteString
 import com.intellij.openapi.vfs.CharsetToolkit
 import com.intellij.util.io.URLUtil
-import java.io.ByteArrayInputStream
 import java.io.IOException
 import java.io.UnsupportedEncodingException
 import java.net.URI
@@ -45,9 +44,9 @@ data class HttpData(
   val method: String,
   val trace: String,
   val requestFields: String,
-  val requestPayload: ByteString,
+  private val rawRequestPayload: Payload,
   val responseFields: String,
-  private val rawResponsePayload: ByteString
+  private val rawResponsePayload: Payload
 ) {
 
   /**
@@ -57,6 +56,9 @@ data class HttpData(
   val requestHeader = RequestHeader(requestFields)
   val responseHeader = ResponseHeader(responseFields)
 
+  val requestPayload: ByteString
+    get() = rawRequestPayload.bytes()
+
   // The unzipped version of the response payload. Note not all response payloads are zipped,
   // so this could be the same as the rawResponsePayload.
   private lateinit var unzippedResponsePayload: ByteString
@@ -66,25 +68,62 @@ data class HttpData(
         return unzippedResponsePayload
       }
       else {
-        if (responseHeader.getField("content-encoding").lowercase().contains("gzip")) {
+        val rawBytes = rawResponsePayload.bytes()
+        if (isResponseGzipped) {
           try {
-            GZIPInputStream(ByteArrayInputStream(rawResponsePayload.toByteArray())).use { inputStream ->
+            GZIPInputStream(rawBytes.newInput()).use { inputStream ->
               unzippedResponsePayload = ByteString.copyFrom(inputStream.readBytes())
             }
           }
           catch (ignored: IOException) {
             // If we got here, it means we failed to unzip data that was supposedly zipped. Just
             // fallback and return the content directly.
-            unzippedResponsePayload = rawResponsePayload
+            unzippedResponsePayload = rawBytes
           }
         }
         else {
-          unzippedResponsePayload = rawResponsePayload
+          unzippedResponsePayload = rawBytes
         }
+        rawResponsePayload.unzippedSize = unzippedResponsePayload.size()
         return unzippedResponsePayload
       }
     }
 
+  /**
+   * The size of [responsePayload]. Unlike [responsePayload], this doesn't keep the unzipped payload in memory, so that listing
+   * connections doesn't hold the bodies of all the responses.
+   */
+  val responsePayloadSize: Int
+    get() {
+      if (this::unzippedResponsePayload.isInitialized) {
+        return unzippedResponsePayload.size()
+      }
+      if (!isResponseGzipped) {
+        return rawResponsePayload.size
+      }
+      if (rawResponsePayload.unzippedSize < 0) {
+        rawResponsePayload.unzippedSize = try {
+          GZIPInputStream(rawResponsePayload.bytes().newInput()).use { inputStream ->
+            var size = 0
+            val buffer = ByteArray(8192)
+            while (true) {
+              val count = inputStream.read(buffer)
+              if (count < 0) break
+              size += count
+            }
+            size
+          }
+        }
+        catch (ignored: IOException) {
+          rawResponsePayload.size
+        }
+      }
+      return rawResponsePayload.unzippedSize
+    }
+
+  private val isResponseGzipped
+    get() = responseHeader.getField("content-encoding").lowercase().contains("gzip")
+
   class ContentType(private val contentType: String) {
     val isEmpty = contentType.isEmpty()
 
@@ -117,9 +156,9 @@ data class HttpData(
       method: String = "",
       trace: String = "",
       requestFields: String = "",
-      requestPayload: ByteString = ByteString.EMPTY,
+      requestPayload: Payload = Payload.EMPTY,
       responseFields: String = "",
-      responsePayload: ByteString = ByteString.EMPTY
+      responsePayload: Payload = Payload.EMPTY
     ): HttpData {
       assert(threads.isNotEmpty()) { "HttpData must be initialized with at least one thread" }
       return HttpData(id, requestStartTimeUs, requestCompleteTimeUs, responseStartTimeUs, responseCompleteTimeUs, connectionEndTimeUs,
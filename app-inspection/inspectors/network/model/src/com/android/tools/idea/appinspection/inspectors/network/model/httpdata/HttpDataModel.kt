@@ -109,9 +109,9 @@ class HttpDataModelImpl(
           requestStartData.method,
           requestStartData.trace,
           requestStartData.fields,
-          requestPayloadEvent.httpConnectionEvent.requestPayload.payload,
+          dataSource.getPayload(requestPayloadEvent),
           responseStartEvent.httpConnectionEvent.httpResponseStarted.fields,
-          responsePayloadEvent.httpConnectionEvent.responsePayload.payload
+          dataSource.getPayload(responsePayloadEvent)
         )
       }
   }
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.appinspection.inspectors.network.model.httpdata
+
+import com.android.tools.idea.protobuf.ByteString
+
+/**
+ * The body of a request or a response. The bytes of large payloads may only be kept on disk by a [PayloadStore], in which case
+ * [bytes] reads them back.
+ */
+abstract class Payload internal constructor() {
+  /**
+   * The size of the payload, in bytes.
+   */
+  abstract val size: Int
+
+  /**
+   * Returns the bytes of the payload.
+   */
+  abstract fun bytes(): ByteString
+
+  /**
+   * The size of the payload once decompressed, or -1 if not computed yet. Cached here rather than in [HttpData], which is
+   * recreated each time the connections are queried, because computing it may read the payload from disk.
+   */
+  @Volatile
+  internal var unzippedSize = -1
+
+  private data class InMemoryPayload(val bytes: ByteString) : Payload() {
+    override val size get() = bytes.size()
+
+    override fun bytes() = bytes
+  }
+
+  companion object {
+    @JvmField
+    val EMPTY: Payload = InMemoryPayload(ByteString.EMPTY)
+
+    /**
+     * Returns a payload kept in memory.
+     */
+    @JvmStatic
+    fun of(bytes: ByteString): Payload = if (bytes.isEmpty) EMPTY else InMemoryPayload(bytes)
+  }
+}
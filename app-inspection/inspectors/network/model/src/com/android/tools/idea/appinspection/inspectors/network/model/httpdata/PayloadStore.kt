@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.appinspection.inspectors.network.model.httpdata
+
+import com.android.tools.idea.protobuf.ByteString
+import com.intellij.openapi.diagnostic.thisLogger
+import java.io.Closeable
+import java.io.IOException
+import java.io.OutputStream
+import java.io.RandomAccessFile
+import java.nio.file.Files
+import java.nio.file.Path
+
+/**
+ * Keeps the payloads of a Network Inspector session within [memoryLimitBytes] of memory.
+ *
+ * Payloads smaller than [SPILL_THRESHOLD_BYTES] are kept in memory as long as they use less than half of the limit. Other payloads
+ * are appended to a temporary file in [directory] (or the default temporary directory), and read back when needed through a cache
+ * of the most recently read payloads, which uses the other half.
+ */
+class PayloadStore(private val memoryLimitBytes: Long, private val directory: Path? = null) : Closeable {
+  private val lock = Any()
+
+  // The fields below are guarded by [lock]
+  private var inMemoryBytes = 0L
+  private var file: Path? = null
+  private var randomAccessFile: RandomAccessFile? = null
+  private var fileSize = 0L
+  private var isClosed = false
+  private var cachedBytes = 0L
+  private val cache = LinkedHashMap<SpilledPayload, ByteString>(16, 0.75f, true)
+
+  /**
+   * Stores the payload [bytes], writing them to disk if needed.
+   */
+  fun store(bytes: ByteString): Payload {
+    if (bytes.isEmpty) {
+      return Payload.EMPTY
+    }
+    synchronized(lock) {
+      if (bytes.size() < SPILL_THRESHOLD_BYTES && inMemoryBytes + bytes.size() <= memoryLimitBytes / 2) {
+        inMemoryBytes += bytes.size()
+        return Payload.of(bytes)
+      }
+      try {
+        val output = openFile() ?: return Payload.of(bytes)
+        val position = fileSize
+        output.seek(position)
+        bytes.writeTo(RandomAccessFileOutputStream(output))
+        fileSize += bytes.size()
+        return SpilledPayload(position, bytes.size())
+      }
+      catch (e: IOException) {
+        // Keep the payload in memory rather than losing it
+        thisLogger().warn("Unable to write network payload to $file", e)
+        return Payload.of(bytes)
+      }
+    }
+  }
+
+  override fun close() {
+    synchronized(lock) {
+      isClosed = true
+      cache.clear()
+      cachedBytes = 0
+      try {
+        randomAccessFile?.close()
+        file?.let { Files.deleteIfExists(it) }
+      }
+      catch (e: IOException) {
+        thisLogger().warn("Unable to delete network payloads file $file", e)
+      }
+      randomAccessFile = null
+    }
+  }
+
+  private fun openFile(): RandomAccessFile? {
+    randomAccessFile?.let { return it }
+    if (isClosed) {
+      return null
+    }
+    val newFile = if (directory != null) Files.createTempFile(directory, FILE_PREFIX, ".tmp") else Files.createTempFile(FILE_PREFIX, ".tmp")
+    newFile.toFile().deleteOnExit()
+    file = newFile
+    return RandomAccessFile(newFile.toFile(), "rw").also { randomAccessFile = it }
+  }
+
+  /**
+   * Reads a payload from disk, or from the cache of recently read payloads.
+   *
+   * Note: Reads use a [RandomAccessFile] rather than a [java.nio.channels.FileChannel], which would be closed for all readers if
+   * any of the threads reading it was interrupted.
+   */
+  private fun read(payload: SpilledPayload): ByteString {
+    synchronized(lock) {
+      cache[payload]?.let { return it }
+      val input = randomAccessFile ?: return ByteString.EMPTY
+      val bytes = try {
+        val buffer = ByteArray(payload.size)
+        input.seek(payload.position)
+        input.readFully(buffer)
+        ByteString.copyFrom(buffer)
+      }
+      catch (e: IOException) {
+        thisLogger().warn("Unable to read network payload from $file", e)
+        return ByteString.EMPTY
+      }
+      val cacheLimitBytes = memoryLimitBytes / 2
+      if (bytes.size() <= cacheLimitBytes) {
+        cache[payload] = bytes
+        cachedBytes += bytes.size()
+        val iterator = cache.values.iterator()
+        while (cachedBytes > cacheLimitBytes) {
+          cachedBytes -= iterator.next().size()
+          iterator.remove()
+        }
+      }
+      return bytes
+    }
+  }
+
+  private inner class SpilledPayload(val position: Long, override val size: Int) : Payload() {
+    override fun bytes() = read(this)
+  }
+
+  private class RandomAccessFileOutputStream(private val file: RandomAccessFile) : OutputStream() {
+    override fun write(b: Int) = file.write(b)
+
+    override fun write(b: ByteArray, off: Int, len: Int) = file.write(b, off, len)
+  }
+
+  companion object {
+    /**
+     * Payloads of at least this size are always written to disk. Most API responses are smaller, while images are larger.
+     */
+    const val SPILL_THRESHOLD_BYTES = 64 * 1024
+
+    private const val FILE_PREFIX = "network-inspector-payloads"
+  }
+}
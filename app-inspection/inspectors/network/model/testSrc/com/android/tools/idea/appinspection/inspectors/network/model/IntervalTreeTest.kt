@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.appinspection.inspectors.network.model
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+
+class IntervalTreeTest {
+  @Test
+  fun findsIntersectingIntervals() {
+    val tree = IntervalTree()
+    tree.add(10, 20)
+    tree.add(0, 5)
+    tree.add(15, 100)
+    tree.add(30, 40)
+
+    assertThat(tree.intersecting(18, 35)).containsExactly(0, 2, 3).inOrder()
+    assertThat(tree.intersecting(5, 5)).containsExactly(1)
+    assertThat(tree.intersecting(101, 200)).isEmpty()
+  }
+
+  @Test
+  fun extendedIntervalsAreFound() {
+    val tree = IntervalTree()
+    val index = tree.add(10, 10)
+    assertThat(tree.intersecting(50, 60)).isEmpty()
+
+    tree.extend(index, 55)
+    assertThat(tree.intersecting(50, 60)).containsExactly(index)
+  }
+
+  @Test
+  fun treeGrows() {
+    val tree = IntervalTree()
+    for (i in 0 until 1000) {
+      assertThat(tree.add(i * 10L, i * 10L + 5)).isEqualTo(i)
+    }
+    assertThat(tree.size).isEqualTo(1000)
+    assertThat(tree.intersecting(5003, 5012)).containsExactly(500, 501).inOrder()
+    assertThat(tree.intersecting(0, 10000)).hasSize(1000)
+  }
+
+  private fun IntervalTree.intersecting(min: Long, max: Long): List<Int> {
+    val result = mutableListOf<Int>()
+    forEachIntersecting(min, max) { result.add(it) }
+    return result
+  }
+}
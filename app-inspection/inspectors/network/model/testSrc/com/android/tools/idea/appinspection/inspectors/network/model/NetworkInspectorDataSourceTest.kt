@@ -17,6 +17,8 @@ package com.android.tools.idea.appinspection.inspectors.network.model
 
 import com.android.tools.adtui.model.Range
 import com.android.tools.idea.appinspection.inspector.api.AppInspectorMessenger
+import com.android.tools.idea.appinspection.inspectors.network.model.httpdata.PayloadStore
+import com.android.tools.idea.protobuf.ByteString
 import com.google.common.truth.Truth.assertThat
 import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.CompletableDeferred
@@ -171,6 +173,30 @@ class NetworkInspectorDataSourceTest {
     assertThat(httpEvents).containsNoneOf(httpEvent7, httpEvent8)
   }
 
+  @Test
+  fun payloadsAreMovedToPayloadStore(): Unit = runBlocking {
+    val largePayload = ByteString.copyFrom(ByteArray(PayloadStore.SPILL_THRESHOLD_BYTES) { it.toByte() })
+    val requestPayloadEvent = Event.newBuilder().setTimestamp(1002).setHttpConnectionEvent(
+      HttpConnectionEvent.newBuilder().setConnectionId(1).setRequestPayload(
+        HttpConnectionEvent.Payload.newBuilder().setPayload(ByteString.copyFromUtf8("request")))).build()
+    val responsePayloadEvent = Event.newBuilder().setTimestamp(1003).setHttpConnectionEvent(
+      HttpConnectionEvent.newBuilder().setConnectionId(1).setResponsePayload(
+        HttpConnectionEvent.Payload.newBuilder().setPayload(largePayload))).build()
+
+    val testMessenger = TestMessenger(scope, flowOf(requestPayloadEvent.toByteArray(), responsePayloadEvent.toByteArray()))
+    val dataSource = NetworkInspectorDataSourceImpl(testMessenger, scope, payloadStore = PayloadStore(1024 * 1024))
+    testMessenger.await()
+
+    val httpEvents = dataSource.queryForHttpData(Range(1.0, 2.0))
+    assertThat(httpEvents).hasSize(2)
+    assertThat(httpEvents.map { it.httpConnectionEvent.unionCase }).containsExactly(
+      HttpConnectionEvent.UnionCase.REQUEST_PAYLOAD, HttpConnectionEvent.UnionCase.RESPONSE_PAYLOAD).inOrder()
+    assertThat(httpEvents[0].httpConnectionEvent.requestPayload.payload).isEqualTo(ByteString.EMPTY)
+    assertThat(httpEvents[1].httpConnectionEvent.responsePayload.payload).isEqualTo(ByteString.EMPTY)
+    assertThat(dataSource.getPayload(httpEvents[0]).bytes()).isEqualTo(ByteString.copyFromUtf8("request"))
+    assertThat(dataSource.getPayload(httpEvents[1]).bytes()).isEqualTo(largePayload)
+  }
+
   @Test
   fun cleanUpChannelOnDispose() = runBlocking {
     val testMessenger = TestMessenger(scope, flow { throw ArithmeticException("Something went wrong!") })
@@ -215,4 +215,18 @@ class HttpDataTest {
                                   responsePayload = ByteString.copyFrom(malformedBytes))
     assertThat(data.responsePayload.toByteArray()).isEqualTo(malformedBytes)
   }
-}
\ No newline at end of file
+
+  @Test
+  fun responsePayloadSizeIsUnzippedSize() {
+    val byteOutput = ByteArrayOutputStream()
+    GZIPOutputStream(byteOutput).use { stream ->
+      stream.write(ByteArray(5000))
+    }
+    val data = createFakeHttpData(1,
+                                  responseFields = "content-length = 10000 \n  response-status-code = 200 \n content-encoding = gzip",
+                                  responsePayload = ByteString.copyFrom(byteOutput.toByteArray()))
+    assertThat(data.responsePayloadSize).isEqualTo(5000)
+    assertThat(data.responsePayload.size()).isEqualTo(5000)
+    assertThat(createFakeHttpData(1, responsePayload = ByteString.copyFromUtf8("test")).responsePayloadSize).isEqualTo(4)
+  }
+}
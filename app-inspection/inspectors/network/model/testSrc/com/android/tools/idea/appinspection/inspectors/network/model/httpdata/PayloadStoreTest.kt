@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.appinspection.inspectors.network.model.httpdata
+
+import com.android.tools.idea.protobuf.ByteString
+import com.google.common.truth.Truth.assertThat
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+class PayloadStoreTest {
+  @get:Rule
+  val tempFolder = TemporaryFolder()
+
+  @Test
+  fun smallPayloadsAreKeptInMemory() {
+    val directory = tempFolder.newFolder().toPath()
+    PayloadStore(1024 * 1024, directory).use { store ->
+      val payload = store.store(ByteString.copyFromUtf8("small"))
+      assertThat(payload).isEqualTo(Payload.of(ByteString.copyFromUtf8("small")))
+      assertThat(directory.toFile().list()).isEmpty()
+      assertThat(store.store(ByteString.EMPTY)).isSameAs(Payload.EMPTY)
+    }
+  }
+
+  @Test
+  fun largePayloadsAreWrittenToDisk() {
+    val directory = tempFolder.newFolder().toPath()
+    val store = PayloadStore(1024 * 1024, directory)
+    val bytes1 = payloadBytes(PayloadStore.SPILL_THRESHOLD_BYTES, 1)
+    val bytes2 = payloadBytes(PayloadStore.SPILL_THRESHOLD_BYTES * 2, 2)
+
+    val payload1 = store.store(bytes1)
+    val payload2 = store.store(bytes2)
+    assertThat(directory.toFile().list()).hasLength(1)
+    assertThat(payload1.size).isEqualTo(bytes1.size())
+    assertThat(payload2.bytes()).isEqualTo(bytes2)
+    assertThat(payload1.bytes()).isEqualTo(bytes1)
+
+    store.close()
+    assertThat(directory.toFile().list()).isEmpty()
+    assertThat(payload1.bytes()).isEqualTo(ByteString.EMPTY)
+  }
+
+  @Test
+  fun smallPayloadsAreWrittenToDiskPastTheMemoryLimit() {
+    val directory = tempFolder.newFolder().toPath()
+    PayloadStore(200, directory).use { store ->
+      val payloads = List(5) { store.store(payloadBytes(40, it)) }
+      assertThat(directory.toFile().list()).hasLength(1)
+      payloads.forEachIndexed { index, payload -> assertThat(payload.bytes()).isEqualTo(payloadBytes(40, index)) }
+    }
+  }
+
+  private fun payloadBytes(size: Int, seed: Int) = ByteString.copyFrom(ByteArray(size) { (it * 31 + seed).toByte() })
+}
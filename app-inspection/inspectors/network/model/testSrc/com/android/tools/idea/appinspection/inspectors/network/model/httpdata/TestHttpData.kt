@@ -66,7 +66,7 @@ fun createFakeHttpData(
   responsePayload: ByteString = FAKE_RESPONSE
 ) = HttpData.createHttpData(
   id, requestStartTimeUs, requestCompleteTimeUs, responseStartTimeUs, responseCompleteTimeUs, connectionEndTimeUs, threads,
-  url, method, trace, requestFields, requestPayload, responseFields, responsePayload
+  url, method, trace, requestFields, Payload.of(requestPayload), responseFields, Payload.of(responsePayload)
 )
 
 fun createFakeHttpData(
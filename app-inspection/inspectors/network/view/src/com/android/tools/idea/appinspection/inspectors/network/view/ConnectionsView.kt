@@ -70,7 +70,7 @@ class ConnectionsView(private val model: NetworkInspectorModel, private val pare
     },
     SIZE(0.25 / 4, Int::class.java) {
       override fun getValueFrom(data: HttpData): Any {
-        return data.responsePayload.size()
+        return data.responsePayloadSize
       }
     },
     TYPE(0.25 / 4, String::class.java) {
@@ -33,12 +33,12 @@ import com.android.tools.idea.appinspection.inspectors.network.model.httpdata.FA
 import com.android.tools.idea.appinspection.inspectors.network.model.httpdata.HttpData
 import com.android.tools.idea.appinspection.inspectors.network.model.httpdata.HttpDataModel
 import com.android.tools.idea.appinspection.inspectors.network.model.httpdata.JavaThread
+import com.android.tools.idea.appinspection.inspectors.network.model.httpdata.Payload
 import com.android.tools.idea.appinspection.inspectors.network.model.httpdata.createFakeHttpData
 import com.android.tools.idea.appinspection.inspectors.network.view.FakeUiComponentsProvider
 import com.android.tools.idea.appinspection.inspectors.network.view.NetworkInspectorView
 import com.android.tools.idea.appinspection.inspectors.network.view.TestNetworkInspectorUsageTracker
 import com.android.tools.idea.flags.StudioFlags
-import com.android.tools.idea.protobuf.ByteString
 import com.android.tools.idea.testing.AndroidProjectRule
 import com.android.tools.idea.testing.onEdt
 import com.android.tools.inspectors.common.api.stacktrace.StackTraceModel
@@ -151,7 +151,7 @@ class ConnectionDetailsViewTest {
 
   @Test
   fun viewerForRequestPayloadIsAbsentWhenRequestPayloadIsNull() {
-    val data = DEFAULT_DATA.copy(requestPayload = ByteString.EMPTY)
+    val data = DEFAULT_DATA.copy(rawRequestPayload = Payload.EMPTY)
     detailsView.setHttpData(data)
     assertThat(HttpDataComponentFactory.findPayloadViewer(detailsView.findTab(RequestTabContent::class.java)!!.findPayloadBody())).isNull()
   }
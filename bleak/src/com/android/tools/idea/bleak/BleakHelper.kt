@@ -23,6 +23,14 @@ interface BleakHelper {
   fun resumeThreads()
 }
 
+// JVMTI object tags let HeapGraph map objects to node ids without an on-heap map. Only used when canTagObjects returns true, as the
+// agent may lack the capability.
+interface ObjectTagger {
+  fun canTagObjects(): Boolean
+  fun getObjectTag(obj: Any): Long
+  fun setObjectTag(obj: Any, tag: Long)
+}
+
 // non-JNI-based implementation so that at least something can be done without an agent or native code
 class JavaBleakHelper: BleakHelper {
   override fun pauseThreads() {}
@@ -18,13 +18,16 @@ package com.android.tools.idea.bleak
 import com.android.tools.idea.bleak.expander.BootstrapClassloaderPlaceholder
 import com.android.tools.idea.bleak.expander.Expander
 import com.android.tools.idea.bleak.expander.ExpanderChooser
-import com.android.tools.idea.bleak.expander.Node
+import it.unimi.dsi.fastutil.ints.IntArrayList
 import java.lang.ref.Reference
 import java.lang.ref.SoftReference
 import java.lang.ref.WeakReference
 import java.lang.reflect.Modifier
 import java.util.ArrayDeque
-import java.util.IdentityHashMap
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
 import kotlin.system.measureTimeMillis
 
 // marker interface for BLeak internals, so we can avoid tracking our own objects (this would lead
@@ -36,34 +39,69 @@ typealias Node = HeapGraph.Node
 /** [HeapGraph] represents a slightly-abstracted snapshot of the Java object reference graph.
  * Each node corresponds to a single object, and edges represent references, either real, or
  * abstracted. [Expander]s are responsible for defining the nature of this abstraction.
+ *
+ * To keep the memory used by BLeak small compared to the heap it measures, nodes and edges are
+ * identified by ints and their data is kept in primitive arrays indexed by id. [Node] and [Edge]
+ * are lightweight views on these arrays, which compare equal when they have the same id. Objects
+ * are mapped to node ids with JVMTI object tags when the BLeak agent is available.
  */
 class HeapGraph(private val expanderChooser: ExpanderChooser, private val forbiddenObjects: List<Any> = listOf()): DoNotTrace {
+  // Guards the creation of nodes and edges, which may happen on multiple threads during expandWholeGraph
+  private val lock = Any()
+  private val objectIndex: ObjectIndex = jniHelper.let {
+    if (it is ObjectTagger && it.canTagObjects()) TagObjectIndex(it, graphCount.getAndIncrement() % 2) else IdentityObjectIndex()
+  }
 
-  private val objToNode: MutableMap<Any, Node> = IdentityHashMap()
-  private val rootNodes: List<Node> = mutableListOf(Node(jniHelper, true))
-  private val nodes: MutableCollection<Node>
-    get() = objToNode.values
+  // node data, indexed by node id
+  private var nodeCount = 0
+  private val nodeObjects = ObjectChunks<Any>()
+  // ROOT_FLAG, GROWING_FLAG and REFERENCE_FLAG, with the index of the node's expander in the bits above EXPANDER_SHIFT
+  private val nodeFlags = IntChunks()
+  private val nodeMarks = IntChunks()
+  private val nodeIncomingEdges = IntChunks(-1)
+  private val nodeDegrees = IntChunks()
+  private val nodeEdges = ObjectChunks<IntArray>()  // ids of the outgoing edges; the first nodeDegrees[id] are valid
+  private val approximateSizes = HashMap<Int, Long>()
+
+  // edge data, indexed by edge id
+  private var edgeCount = 0
+  private val edgeStarts = IntChunks()
+  private val edgeEnds = IntChunks()
+  private val edgeLabels = ObjectChunks<Expander.Label>()
+
+  // while true, addEdgeTo leaves incoming edges to expandWholeGraph, so that they don't depend on the order of parallel expansion
+  private var deferIncomingEdges = false
+
+  private val rootNodes: List<Node> = listOf(createRootNode(jniHelper))
   val leakRoots: MutableList<Node> = mutableListOf()
 
-  inner class Node(val obj: Any, val isRootNode: Boolean = false): DoNotTrace {
-    val expander = expanderChooser.expanderFor(obj)
-    val edges = mutableListOf<Edge>()
-    val type: Class<*> = obj.javaClass
-    var incomingEdge: Edge? = if (isRootNode) Edge(this, this, expander.RootLoopbackLabel()) else null
+  inner class Node internal constructor(val id: Int): DoNotTrace {
+    val obj: Any = nodeObjects[id]!!
+    val isRootNode: Boolean
+      get() = nodeFlags[id] and ROOT_FLAG != 0
+    val expander: Expander
+      get() = expanderChooser.expanderAt(nodeFlags[id] ushr EXPANDER_SHIFT)
+    val edges: List<Edge>
+      get() = List(degree) { Edge(this@HeapGraph, nodeEdges[id]!![it]) }
+    val type: Class<*>
+      get() = obj.javaClass
+    var incomingEdge: Edge?
+      get() = nodeIncomingEdges[id].let { if (it == -1) null else Edge(this@HeapGraph, it) }
+      set(value) { nodeIncomingEdges[id] = value?.id ?: -1 }
     val children: List<Node>
-      get() = edges.map { it.end }
+      get() = List(degree) { Node(edgeEnds[nodeEdges[id]!![it]]) }
     val childObjects: List<Any>
-      get() = edges.map { it.end.obj }
+      get() = List(degree) { nodeObjects[edgeEnds[nodeEdges[id]!![it]]]!! }
     val degree: Int
-      get() = edges.size
-    var mark = 0
-    var growing = false
-      private set
-    private var approximateSize = -1L
-
-    init {
-      objToNode[obj] = this
-    }
+      get() = nodeDegrees[id]
+    var mark: Int
+      get() = nodeMarks[id]
+      set(value) { nodeMarks[id] = value }
+    val growing: Boolean
+      get() = nodeFlags[id] and GROWING_FLAG != 0
+
+    private val graph: HeapGraph
+      get() = this@HeapGraph
 
     fun expand() {
       expander.expand(this)
@@ -73,20 +111,26 @@ class HeapGraph(private val expanderChooser: ExpanderChooser, private val forbid
 
     fun addEdgeTo(obj: Any, label: Expander.Label): Node? {
       if (forbiddenObjects.any { it === obj }) return null
-      val e = Edge(this, getOrCreateNode(obj), label)
-      edges.add(e)
-      return e.end
+      return synchronized(lock) {
+        val end = findNodeId(obj).takeIf { it != -1 } ?: createNode(obj)
+        addEdge(id, end, label)
+        Node(end)
+      }
     }
 
-    // This is done lazily, as it is only of interest on the final iteration, and the computation would be
-    // wasteful on previous iterations.
-    fun getApproximateSize(): Long {
-      if (approximateSize == -1L) {
-        approximateSize = ReflectionUtil.estimateSize(obj)
+    /** Returns the end of the first outgoing edge labeled [label], or null. */
+    fun childForLabel(label: Expander.Label): Node? {
+      val edgeIds = nodeEdges[id] ?: return null
+      for (i in 0 until degree) {
+        if (edgeLabels[edgeIds[i]] == label) return Node(edgeEnds[edgeIds[i]])
       }
-      return approximateSize
+      return null
     }
 
+    // This is done lazily, as it is only of interest on the final iteration, and the computation would be
+    // wasteful on previous iterations.
+    fun getApproximateSize(): Long = approximateSizes.getOrPut(id) { ReflectionUtil.estimateSize(obj) }
+
     operator fun get(e: Edge) = expander.getChildForLabel(this, e.label)
 
     // returns a path from a root to this Node, by following incomingEdge references
@@ -107,38 +151,40 @@ class HeapGraph(private val expanderChooser: ExpanderChooser, private val forbid
     }
 
     fun markAsGrowing() {
-      if (!growing) {
-        growing = true
-        leakRoots.add(this)
+      synchronized(lock) {
+        if (!growing) {
+          nodeFlags[id] = nodeFlags[id] or GROWING_FLAG
+          leakRoots.add(this)
+        }
       }
     }
 
     fun unmarkGrowing() {
-      growing = false
+      nodeFlags[id] = nodeFlags[id] and GROWING_FLAG.inv()
     }
 
-    fun getNode(obj: Any?): Node? = if (obj != null) objToNode[obj] else null
+    fun getNode(obj: Any?): Node? = if (obj != null) synchronized(lock) { findNodeId(obj).takeIf { it != -1 }?.let { Node(it) } } else null
 
     /* The following methods aren't used directly, but might be useful for debugging leaks */
     // trashes marks
     private fun isReachableFrom(n: Node, followWeakSoftRefs: Boolean = false): Boolean {
       var found = false
-      bfs(roots = listOf(n), followWeakSoftRefs = followWeakSoftRefs) { if (this@Node === this@bfs) found = true; return@bfs }
+      bfs(roots = listOf(n), followWeakSoftRefs = followWeakSoftRefs) { if (this@Node == this@bfs) found = true; return@bfs }
       return found
     }
 
     // trashes marks and incomingEdges
     fun shortestPathTo(n: Node, followWeakSoftRefs: Boolean = false): Path? {
       var found = false
-      bfs(roots = listOf(this), setIncomingEdges = true, followWeakSoftRefs = followWeakSoftRefs) { if (n === this@bfs) found = true; return@bfs }
-      return if(found) n.getPath { it.end === this } else null
+      bfs(roots = listOf(this), setIncomingEdges = true, followWeakSoftRefs = followWeakSoftRefs) { if (n == this@bfs) found = true; return@bfs }
+      return if(found) n.getPath { it.end == this } else null
     }
 
     // trashes marks
     fun dominates(target: Node, roots: Collection<Node> = rootNodes, followWeakSoftRefs: Boolean = false): Boolean {
       var found = false
-      bfs (roots = roots, followWeakSoftRefs = followWeakSoftRefs, childFilter = { it !== this }) {
-        if (this@bfs === target) {
+      bfs (roots = roots, followWeakSoftRefs = followWeakSoftRefs, childFilter = { it != this }) {
+        if (this@bfs == target) {
           found = true
           return@bfs
         }
@@ -149,28 +195,162 @@ class HeapGraph(private val expanderChooser: ExpanderChooser, private val forbid
     // trashes marks
     private fun dominatedNodes(roots: Collection<Node> = rootNodes, followWeakSoftRefs: Boolean = false) = dominatedNodes(setOf(this), roots)
 
-    fun retainedSize() = dominatedNodes().fold(0L) { acc, node -> acc + node.approximateSize }
+    fun retainedSize() = dominatedNodes().fold(0L) { acc, node -> acc + node.getApproximateSize() }
+
+    override fun equals(other: Any?) = other is HeapGraph.Node && other.graph === graph && other.id == id
+    override fun hashCode() = id
   }
 
-  private fun forEachNode(action: Node.() -> Unit) = nodes.forEach { it.action() }
+  private val nodes: List<Node>
+    get() = List(nodeCount) { Node(it) }
 
-  fun getOrCreateNode(obj: Any): Node = objToNode[obj] ?: Node(obj)
+  /** Returns the id of the node for [obj], or -1. Must be called while holding [lock]. */
+  private fun findNodeId(obj: Any): Int {
+    val id = objectIndex.get(obj)
+    // the index may return ids of other graphs, which are only valid if they point back to the same object
+    return if (id in 0 until nodeCount && nodeObjects[id] === obj) id else -1
+  }
 
+  /** Must be called while holding [lock]. */
+  private fun createNode(obj: Any, flags: Int = 0): Int {
+    val id = nodeCount
+    val size = id + 1
+    nodeObjects.ensureCapacity(size)
+    nodeFlags.ensureCapacity(size)
+    nodeMarks.ensureCapacity(size)
+    nodeIncomingEdges.ensureCapacity(size)
+    nodeDegrees.ensureCapacity(size)
+    nodeEdges.ensureCapacity(size)
+    nodeObjects[id] = obj
+    val referenceFlag = if (obj is Reference<*>) REFERENCE_FLAG else 0
+    nodeFlags[id] = flags or referenceFlag or (expanderChooser.expanderIndexFor(obj) shl EXPANDER_SHIFT)
+    objectIndex.put(obj, id)
+    nodeCount = size
+    return id
+  }
+
+  private fun createRootNode(obj: Any): Node = synchronized(lock) {
+    val root = Node(createNode(obj, ROOT_FLAG))
+    // it is convenient for Nodes to always have a non-null incomingEdge, so roots get an edge that points back to themselves
+    root.incomingEdge = Edge(this, newEdge(root.id, root.id, root.expander.RootLoopbackLabel()))
+    root
+  }
+
+  /** Must be called while holding [lock]. */
+  private fun newEdge(start: Int, end: Int, label: Expander.Label): Int {
+    val id = edgeCount
+    edgeStarts.ensureCapacity(id + 1)
+    edgeEnds.ensureCapacity(id + 1)
+    edgeLabels.ensureCapacity(id + 1)
+    edgeStarts[id] = start
+    edgeEnds[id] = end
+    edgeLabels[id] = label
+    edgeCount = id + 1
+    return id
+  }
+
+  /** Must be called while holding [lock]. */
+  private fun addEdge(start: Int, end: Int, label: Expander.Label) {
+    val edge = newEdge(start, end, label)
+    val degree = nodeDegrees[start]
+    var edgeIds = nodeEdges[start] ?: IntArray(4)
+    if (degree == edgeIds.size) edgeIds = edgeIds.copyOf(degree * 2)
+    edgeIds[degree] = edge
+    nodeEdges[start] = edgeIds
+    nodeDegrees[start] = degree + 1
+    if (!deferIncomingEdges && nodeIncomingEdges[end] == -1) nodeIncomingEdges[end] = edge
+  }
+
+  internal fun edgeStart(edge: Int) = Node(edgeStarts[edge])
+  internal fun edgeEnd(edge: Int) = Node(edgeEnds[edge])
+  internal fun edgeLabel(edge: Int) = edgeLabels[edge]!!
+
+  internal fun removeEdge(edge: Int) = synchronized(lock) {
+    val start = edgeStarts[edge]
+    val edgeIds = nodeEdges[start] ?: return@synchronized
+    val degree = nodeDegrees[start]
+    val index = (0 until degree).firstOrNull { edgeIds[it] == edge } ?: return@synchronized
+    System.arraycopy(edgeIds, index + 1, edgeIds, index, degree - index - 1)
+    nodeDegrees[start] = degree - 1
+  }
+
+  private fun isReference(id: Int) = nodeFlags[id] and REFERENCE_FLAG != 0
+
+  fun getOrCreateNode(obj: Any): Node = synchronized(lock) { Node(findNodeId(obj).takeIf { it != -1 } ?: createNode(obj)) }
+
+  /**
+   * Expands the nodes reachable from the roots, in breadth-first order. The nodes at the same distance from the roots are expanded in
+   * parallel, on [EXPANSION_THREAD_COUNT] threads.
+   */
   fun expandWholeGraph(initialRun: Boolean = false): HeapGraph {
     withThreadsPaused {
-        time("Expanding graph") {
-          bfs { expand(); if (initialRun && expander.canPotentiallyGrowIndefinitely(this)) markAsGrowing() }
+      time("Expanding graph") {
+        val executor = createExpansionExecutor()
+        try {
+          expandLevels(executor, initialRun)
+        }
+        finally {
+          executor.shutdownNow()
         }
+      }
     }
-    println("Graph has ${nodes.size} nodes")
+    println("Graph has $nodeCount nodes, $edgeCount edges")
     return this
   }
 
+  private fun expandLevels(executor: ExecutorService, initialRun: Boolean) {
+    markAll(0)
+    var level = IntArrayList()
+    rootNodes.forEach { level.add(it.id); it.mark = 1 }
+    deferIncomingEdges = true
+    try {
+      while (!level.isEmpty) {
+        val currentLevel = level
+        val canGrow = BooleanArray(currentLevel.size)
+        forEachInParallel(executor, currentLevel.size) { i ->
+          val n = Node(currentLevel.getInt(i))
+          n.expand()
+          canGrow[i] = initialRun && n.expander.canPotentiallyGrowIndefinitely(n)
+        }
+
+        // Sequentially, so that incoming edges and leak roots are the same as when expanding one node at a time
+        val nextLevel = IntArrayList()
+        for (i in 0 until level.size) {
+          val id = level.getInt(i)
+          if (canGrow[i]) Node(id).markAsGrowing()
+          val edgeIds = nodeEdges[id] ?: continue
+          for (j in 0 until nodeDegrees[id]) {
+            val child = edgeEnds[edgeIds[j]]
+            if (nodeIncomingEdges[child] == -1) nodeIncomingEdges[child] = edgeIds[j]
+            if (nodeMarks[child] != 1 && !isReference(child)) nextLevel.add(child)
+            nodeMarks[child] = 1
+          }
+        }
+        level = nextLevel
+      }
+    }
+    finally {
+      deferIncomingEdges = false
+    }
+  }
+
+  /** Runs [action] on 0 until [count], splitting the range in chunks run on [executor] when it is large enough. */
+  private fun forEachInParallel(executor: ExecutorService, count: Int, action: (Int) -> Unit) {
+    if (count < 2 * MIN_NODES_PER_TASK) {
+      for (i in 0 until count) action(i)
+      return
+    }
+    val chunkSize = maxOf(MIN_NODES_PER_TASK, count / (EXPANSION_THREAD_COUNT * 4))
+    val tasks = (0 until count step chunkSize).map { start ->
+      Callable { for (i in start until minOf(start + chunkSize, count)) action(i) }
+    }
+    executor.invokeAll(tasks).forEach { it.get() }
+  }
+
   // note: path may or may not be a path in this graph
   private fun getNodeForPath(path: Path, expand: Boolean = false): Node? {
     if (path.isEmpty()) return null // if it's a root, meh
-    val correspondingRoot = objToNode[path.root().obj]
-    if (correspondingRoot == null) return null
+    val correspondingRoot = getOrNull(path.root().obj) ?: return null
     var node: Node = correspondingRoot
     for (e in path) {
       val child = if (expand) node.expandCorrespondingEdge(e) else node[e]
@@ -183,7 +363,11 @@ class HeapGraph(private val expanderChooser: ExpanderChooser, private val forbid
     return node
   }
 
-  private fun markAll(value: Int = 0) = forEachNode { mark = value }
+  private fun getOrNull(obj: Any): Node? = synchronized(lock) { findNodeId(obj).takeIf { it != -1 }?.let { Node(it) } }
+
+  private fun markAll(value: Int = 0) {
+    for (id in 0 until nodeCount) nodeMarks[id] = value
+  }
 
   /** Performs breadth-first search on the graph.
    *
@@ -199,21 +383,22 @@ class HeapGraph(private val expanderChooser: ExpanderChooser, private val forbid
   private fun bfs(clearMarks: Boolean = true, markValue: Int = 1, setIncomingEdges: Boolean = false, followWeakSoftRefs: Boolean = true,
                   childFilter: (Node) -> Boolean = { true }, roots: Collection<Node> = rootNodes, action: Node.() -> Unit) {
     if (clearMarks) markAll(markValue - 1)
-    if (setIncomingEdges) nodes.forEach { it.incomingEdge = null }
+    if (setIncomingEdges) for (id in 0 until nodeCount) nodeIncomingEdges[id] = -1
     roots.forEach {it.mark = markValue}
-    with (ArrayDeque<Node>()) {
-      addAll(roots)
-      while (isNotEmpty()) {
-        val n = pop()
-        n.action()
-        for (e in n.edges) {
-          val child = e.end
-          if (child.mark != markValue && childFilter(child) && !(followWeakSoftRefs && Reference::class.java.isAssignableFrom(child.type))) {
-            if (setIncomingEdges && child.incomingEdge == null) child.incomingEdge = e
-            add(child)
-          }
-          child.mark = markValue
+    val queue = IntArrayList()
+    roots.forEach { queue.add(it.id) }
+    var head = 0
+    while (head < queue.size) {
+      val id = queue.getInt(head++)
+      Node(id).action()
+      val edgeIds = nodeEdges[id] ?: continue
+      for (i in 0 until nodeDegrees[id]) {
+        val child = edgeEnds[edgeIds[i]]
+        if (nodeMarks[child] != markValue && !(followWeakSoftRefs && isReference(child)) && childFilter(Node(child))) {
+          if (setIncomingEdges && nodeIncomingEdges[child] == -1) nodeIncomingEdges[child] = edgeIds[i]
+          queue.add(child)
         }
+        nodeMarks[child] = markValue
       }
     }
   }
@@ -231,11 +416,12 @@ class HeapGraph(private val expanderChooser: ExpanderChooser, private val forbid
             if (old.growing && old.degree < new.degree) {
               new.markAsGrowing()
             }
-            for (e in old.edges) {
-              val correspondingNewNode = new[e]
+            val edgeIds = nodeEdges[old.id] ?: continue
+            for (i in 0 until old.degree) {
+              val correspondingNewNode = new.expander.getChildForLabel(new, edgeLabels[edgeIds[i]]!!)
               if (correspondingNewNode != null && correspondingNewNode.mark == 0) {
                 correspondingNewNode.mark = 1
-                add(e.end to correspondingNewNode)
+                add(Node(edgeEnds[edgeIds[i]]) to correspondingNewNode)
               }
             }
           }
@@ -286,7 +472,7 @@ class HeapGraph(private val expanderChooser: ExpanderChooser, private val forbid
   }
 
   fun computeIncomingEdges(followWeakSoftRefs: Boolean = true): Map<Node, List<Edge>> {
-    val incomingEdgeMap = IdentityHashMap<Node, MutableList<Edge>>()
+    val incomingEdgeMap = HashMap<Node, MutableList<Edge>>()
     nodes.forEach { incomingEdgeMap[it] = mutableListOf() }
     for (n in nodes) {
       for (e in n.edges) {
@@ -304,18 +490,39 @@ class HeapGraph(private val expanderChooser: ExpanderChooser, private val forbid
   companion object {
     val jniHelper: BleakHelper = if (System.getProperty("bleak.jvmti.enabled") == "true") JniBleakHelper() else JavaBleakHelper()
 
+    private const val ROOT_FLAG = 1
+    private const val GROWING_FLAG = 2
+    private const val REFERENCE_FLAG = 4
+    private const val EXPANDER_SHIFT = 8
+
+    private const val MIN_NODES_PER_TASK = 256
+    private val EXPANSION_THREAD_COUNT = Integer.getInteger("bleak.expansion.threads", Runtime.getRuntime().availableProcessors())
+
+    // alternates the half of the object tags used by consecutive graphs, see TagObjectIndex
+    private val graphCount = AtomicInteger()
+
     fun withThreadsPaused(action: () -> Unit) {
       jniHelper.pauseThreads()
       action()
       jniHelper.resumeThreads()
     }
+
+    // The threads are named after the current thread, so that JniBleakHelper.pauseThreads doesn't pause them
+    private fun createExpansionExecutor(): ExecutorService {
+      val threadNamePrefix = Thread.currentThread().name
+      val threadCount = AtomicInteger()
+      return Executors.newFixedThreadPool(EXPANSION_THREAD_COUNT) { runnable ->
+        Thread(runnable, "$threadNamePrefix BLeak expansion ${threadCount.incrementAndGet()}").apply { isDaemon = true }
+      }
+    }
   }
 }
 
-class Edge(val start: Node, val end: Node, val label: Expander.Label): DoNotTrace {
-  init {
-    if (end.incomingEdge == null) end.incomingEdge = this
-  }
+class Edge internal constructor(private val graph: HeapGraph, internal val id: Int): DoNotTrace {
+  val start: Node = graph.edgeStart(id)
+  val end: Node = graph.edgeEnd(id)
+  val label: Expander.Label = graph.edgeLabel(id)
+
   // the signature is only used for ignore-listing
   fun signature(): LeaktraceElement =
     if (start.isRootNode) {
@@ -332,8 +539,11 @@ class Edge(val start: Node, val end: Node, val label: Expander.Label): DoNotTrac
   fun isStrong() = !(isWeak() || isSoft())
 
   fun delete() {
-    start.edges.remove(this)
+    graph.removeEdge(id)
   }
+
+  override fun equals(other: Any?) = other is Edge && other.graph === graph && other.id == id
+  override fun hashCode() = id
 }
 
 private fun time (description: String, action: () -> Unit) = println("$description took ${measureTimeMillis(action)}ms")
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.bleak
+
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap
+
+private const val CHUNK_SHIFT = 14
+private const val CHUNK_SIZE = 1 shl CHUNK_SHIFT
+private const val CHUNK_MASK = CHUNK_SIZE - 1
+
+/**
+ * A growable int array made of fixed-size chunks. Growing never copies the chunks, so writes to existing elements are never lost to a
+ * concurrent resize: only [ensureCapacity] needs to be synchronized with other writers.
+ */
+internal class IntChunks(private val defaultValue: Int = 0): DoNotTrace {
+  @Volatile private var chunks = arrayOfNulls<IntArray>(16)
+
+  operator fun get(index: Int): Int = chunks[index ushr CHUNK_SHIFT]!![index and CHUNK_MASK]
+
+  operator fun set(index: Int, value: Int) {
+    chunks[index ushr CHUNK_SHIFT]!![index and CHUNK_MASK] = value
+  }
+
+  fun ensureCapacity(size: Int) {
+    val chunkIndex = (size - 1) ushr CHUNK_SHIFT
+    var current = chunks
+    if (chunkIndex >= current.size) {
+      current = current.copyOf(maxOf(current.size * 2, chunkIndex + 1))
+    }
+    if (current[chunkIndex] == null) {
+      current[chunkIndex] = IntArray(CHUNK_SIZE).also { if (defaultValue != 0) it.fill(defaultValue) }
+    }
+    chunks = current
+  }
+}
+
+/** The object counterpart of [IntChunks]. */
+internal class ObjectChunks<T: Any>: DoNotTrace {
+  @Volatile private var chunks = arrayOfNulls<Array<Any?>>(16)
+
+  @Suppress("UNCHECKED_CAST")
+  operator fun get(index: Int): T? = chunks[index ushr CHUNK_SHIFT]!![index and CHUNK_MASK] as T?
+
+  operator fun set(index: Int, value: T?) {
+    chunks[index ushr CHUNK_SHIFT]!![index and CHUNK_MASK] = value
+  }
+
+  fun ensureCapacity(size: Int) {
+    val chunkIndex = (size - 1) ushr CHUNK_SHIFT
+    var current = chunks
+    if (chunkIndex >= current.size) {
+      current = current.copyOf(maxOf(current.size * 2, chunkIndex + 1))
+    }
+    if (current[chunkIndex] == null) {
+      current[chunkIndex] = arrayOfNulls(CHUNK_SIZE)
+    }
+    chunks = current
+  }
+}
+
+/**
+ * Maps objects to the ids of their [HeapGraph] nodes. [get] may return a stale id (e.g. one assigned by an earlier graph), so callers
+ * must check that the node with the returned id is for the same object.
+ */
+internal interface ObjectIndex {
+  /** Returns the id recorded for [obj], or -1. */
+  fun get(obj: Any): Int
+  fun put(obj: Any, id: Int)
+}
+
+/** An [ObjectIndex] backed by an on-heap identity hash map with primitive values. */
+internal class IdentityObjectIndex: ObjectIndex, DoNotTrace {
+  private val ids = Reference2IntOpenHashMap<Any>().apply { defaultReturnValue(-1) }
+
+  override fun get(obj: Any): Int = ids.getInt(obj)
+
+  override fun put(obj: Any, id: Int) {
+    ids.put(obj, id)
+  }
+}
+
+/**
+ * An [ObjectIndex] that keeps the ids in JVMTI object tags, which live outside the Java heap. Each tag holds two ids, so that the graphs of
+ * two consecutive iterations (which are alive at the same time) don't overwrite each other's ids: [slot] selects the half of the tag used.
+ */
+internal class TagObjectIndex(private val helper: ObjectTagger, slot: Int): ObjectIndex, DoNotTrace {
+  private val shift = if (slot == 0) 0 else 32
+
+  override fun get(obj: Any): Int = ((helper.getObjectTag(obj) ushr shift) and 0xffffffffL).toInt() - 1
+
+  override fun put(obj: Any, id: Int) {
+    val otherSlot = helper.getObjectTag(obj) and (0xffffffffL shl (32 - shift))
+    helper.setObjectTag(obj, otherSlot or ((id + 1).toLong() shl shift))
+  }
+}
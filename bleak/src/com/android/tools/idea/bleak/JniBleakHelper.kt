@@ -15,7 +15,7 @@
  */
 package com.android.tools.idea.bleak
 
-class JniBleakHelper: BleakHelper {
+class JniBleakHelper: BleakHelper, ObjectTagger {
 
   private val Any.isPrimitiveArray: Boolean
     get() = javaClass.isArray && javaClass.componentType.isPrimitive
@@ -32,6 +32,14 @@ class JniBleakHelper: BleakHelper {
     resumeThreads0(Thread.currentThread().name)
   }
 
+  override fun canTagObjects() = tagsSupported
+
+  override fun getObjectTag(obj: Any): Long = getObjectTag0(obj)
+
+  override fun setObjectTag(obj: Any, tag: Long) {
+    setObjectTag0(obj, tag)
+  }
+
   companion object {
 
     init {
@@ -42,9 +50,18 @@ class JniBleakHelper: BleakHelper {
       }
     }
 
+    private val tagsSupported: Boolean = try {
+      canTagObjects0()
+    } catch (e: UnsatisfiedLinkError) {
+      false
+    }
+
     @JvmStatic private external fun allLoadedClasses0(): Array<Any>
     @JvmStatic private external fun gcRoots(): Array<Any>
     @JvmStatic private external fun pauseThreads0(testThreadName: String)
     @JvmStatic private external fun resumeThreads0(testThreadName: String)
+    @JvmStatic private external fun canTagObjects0(): Boolean
+    @JvmStatic private external fun getObjectTag0(obj: Any): Long
+    @JvmStatic private external fun setObjectTag0(obj: Any, tag: Long)
   }
 }
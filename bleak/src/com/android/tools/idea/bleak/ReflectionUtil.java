@@ -15,8 +15,6 @@
  */
 package com.android.tools.idea.bleak;
 
-import it.unimi.dsi.fastutil.Hash;
-import it.unimi.dsi.fastutil.objects.Object2ObjectOpenCustomHashMap;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.nio.Buffer;
@@ -29,79 +27,79 @@ import java.nio.LongBuffer;
 import java.nio.ShortBuffer;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import org.jetbrains.annotations.NotNull;
 
 /* Mostly copied from com.intellij.util.ref.DebugReflectionUtil */
 public class ReflectionUtil implements DoNotTrace {
 
-  private static final Hash.Strategy<Class> hashingStrategy = new Hash.Strategy<>() {
-    // default strategy seems to be too slow
+  // ClassValue rather than a map, as HeapGraph expands nodes on multiple threads
+  private static final ClassValue<ClassInfo> classInfos = new ClassValue<>() {
     @Override
-    public int hashCode(Class aClass) {
-      if (aClass == null) {
-        return 0;
-      }
-      return aClass.getName().hashCode();
-    }
-
-    @Override
-    public boolean equals(Class o1, Class o2) {
-      return o1 == o2;
+    protected ClassInfo computeValue(Class<?> type) {
+      return computeClassInfo(type);
     }
   };
-  private static final Map<Class, Long> objectSizes = new Object2ObjectOpenCustomHashMap<>(hashingStrategy);
-  private static final Map<Class, Field[]> allFields = new Object2ObjectOpenCustomHashMap<>(hashingStrategy);
   private static final Field[] EMPTY_FIELD_ARRAY = new Field[0];
 
   private static final int OBJECT_HEADER_SIZE = 16;
   private static final int ARRAY_HEADER_SIZE = 20;
   private static final int POINTER_SIZE = 4; // assuming we're using compressed oops
 
+  private static final class ClassInfo {
+    final Field[] fields;
+    final long size;
+
+    ClassInfo(Field[] fields, long size) {
+      this.fields = fields;
+      this.size = size;
+    }
+  }
+
   @NotNull
   public static Field[] getAllFields(@NotNull Class aClass) {
-    Field[] cached = allFields.get(aClass);
-    if (cached == null) {
-      long size = 0;
-      try {
-        Field[] declaredFields = aClass.getDeclaredFields();
-        List<Field> fields = new ArrayList<>(declaredFields.length + 5);
-        for (Field declaredField : declaredFields) {
-          declaredField.setAccessible(true);
-          Class<?> type = declaredField.getType();
-          if ((declaredField.getModifiers() & Modifier.STATIC) == 0) size += sizeOf(type);
-          if (isTrivial(type)) continue; // unable to hold references, skip
-          fields.add(declaredField);
-        }
-        Class superclass = aClass.getSuperclass();
-        if (superclass != null) {
-          for (Field sup : getAllFields(superclass)) {
-            if (!fields.contains(sup)) {
-              fields.add(sup);
-            }
+    return classInfos.get(aClass).fields;
+  }
+
+  private static ClassInfo computeClassInfo(@NotNull Class<?> aClass) {
+    Field[] fields;
+    long size = 0;
+    try {
+      Field[] declaredFields = aClass.getDeclaredFields();
+      List<Field> fieldList = new ArrayList<>(declaredFields.length + 5);
+      for (Field declaredField : declaredFields) {
+        declaredField.setAccessible(true);
+        Class<?> type = declaredField.getType();
+        if ((declaredField.getModifiers() & Modifier.STATIC) == 0) size += sizeOf(type);
+        if (isTrivial(type)) continue; // unable to hold references, skip
+        fieldList.add(declaredField);
+      }
+      Class<?> superclass = aClass.getSuperclass();
+      if (superclass != null) {
+        ClassInfo superclassInfo = classInfos.get(superclass);
+        for (Field sup : superclassInfo.fields) {
+          if (!fieldList.contains(sup)) {
+            fieldList.add(sup);
           }
-          size += objectSizes.get(superclass);
         }
-        cached = fields.isEmpty() ? EMPTY_FIELD_ARRAY : fields.toArray(new Field[0]);
+        size += superclassInfo.size;
       }
-      catch (IncompatibleClassChangeError | NoClassDefFoundError | SecurityException e) {
-        //this exception may be thrown because there are two different versions of org.objectweb.asm.tree.ClassNode from different plugins
-        //I don't see any sane way to fix it until we load all the plugins by the same classloader in tests
-        cached = EMPTY_FIELD_ARRAY;
+      fields = fieldList.isEmpty() ? EMPTY_FIELD_ARRAY : fieldList.toArray(new Field[0]);
+    }
+    catch (IncompatibleClassChangeError | NoClassDefFoundError | SecurityException e) {
+      //this exception may be thrown because there are two different versions of org.objectweb.asm.tree.ClassNode from different plugins
+      //I don't see any sane way to fix it until we load all the plugins by the same classloader in tests
+      fields = EMPTY_FIELD_ARRAY;
+    }
+    catch (RuntimeException e) {
+      // field.setAccessible() can now throw this exception when accessing unexported module
+      if (e.getClass().getName().equals("java.lang.reflect.InaccessibleObjectException")) {
+        fields = EMPTY_FIELD_ARRAY;
       }
-      catch (RuntimeException e) {
-        // field.setAccessible() can now throw this exception when accessing unexported module
-        if (e.getClass().getName().equals("java.lang.reflect.InaccessibleObjectException")) {
-          cached = EMPTY_FIELD_ARRAY;
-        }
-        else {
-          throw e;
-        }
+      else {
+        throw e;
       }
-      objectSizes.put(aClass, size);
-      allFields.put(aClass, cached);
     }
-    return cached;
+    return new ClassInfo(fields, size);
   }
 
   private static boolean isTrivial(@NotNull Class<?> type) {
@@ -157,11 +155,7 @@ public class ReflectionUtil implements DoNotTrace {
     if (klass.isArray()) {
       return sizeOf(klass.getComponentType()) * arrayLength(obj) + ARRAY_HEADER_SIZE;
     }
-    if (!objectSizes.containsKey(klass)) {
-      getAllFields(klass);
-    }
-
-    long size = objectSizes.get(klass) + OBJECT_HEADER_SIZE;
+    long size = classInfos.get(klass).size + OBJECT_HEADER_SIZE;
 
     // account for native memory consumed by direct buffers
     if (obj instanceof Buffer) {
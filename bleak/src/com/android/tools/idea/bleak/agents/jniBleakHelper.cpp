@@ -70,6 +70,25 @@ JNIEXPORT jobjectArray JNICALL Java_com_android_tools_idea_bleak_JniBleakHelper_
   return arr;
 }
 
+JNIEXPORT jboolean JNICALL Java_com_android_tools_idea_bleak_JniBleakHelper_canTagObjects0(JNIEnv *env, jclass klass) {
+  if (jvmti == NULL) {
+    return JNI_FALSE;
+  }
+  jvmtiCapabilities capa;
+  jvmti->GetCapabilities(&capa);
+  return capa.can_tag_objects ? JNI_TRUE : JNI_FALSE;
+}
+
+JNIEXPORT jlong JNICALL Java_com_android_tools_idea_bleak_JniBleakHelper_getObjectTag0(JNIEnv *env, jclass klass, jobject obj) {
+  jlong tag = 0;
+  jvmti->GetTag(obj, &tag);
+  return tag;
+}
+
+JNIEXPORT void JNICALL Java_com_android_tools_idea_bleak_JniBleakHelper_setObjectTag0(JNIEnv *env, jclass klass, jobject obj, jlong tag) {
+  jvmti->SetTag(obj, tag);
+}
+
 JNIEXPORT jint JNICALL Agent_OnLoad(JavaVM *vm, char *options, void *reserved) {
 	vm->GetEnv((void **) &jvmti, JVMTI_VERSION_1_0);
 	jvmtiCapabilities capa;
@@ -7,6 +7,9 @@ extern "C" {
   JNIEXPORT void JNICALL Java_com_android_tools_idea_bleak_JniBleakHelper_resumeThreads0(JNIEnv *env, jstring testThreadNameStr);
   JNIEXPORT jobjectArray JNICALL Java_com_android_tools_idea_bleak_JniBleakHelper_gcRoots(JNIEnv *env);
   JNIEXPORT jobjectArray JNICALL Java_com_android_tools_idea_bleak_JniBleakHelper_allLoadedClasses0(JNIEnv *env);
+  JNIEXPORT jboolean JNICALL Java_com_android_tools_idea_bleak_JniBleakHelper_canTagObjects0(JNIEnv *env, jclass klass);
+  JNIEXPORT jlong JNICALL Java_com_android_tools_idea_bleak_JniBleakHelper_getObjectTag0(JNIEnv *env, jclass klass, jobject obj);
+  JNIEXPORT void JNICALL Java_com_android_tools_idea_bleak_JniBleakHelper_setObjectTag0(JNIEnv *env, jclass klass, jobject obj, jlong tag);
 }
 
 #endif
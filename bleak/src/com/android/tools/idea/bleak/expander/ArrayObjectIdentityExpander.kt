@@ -17,6 +17,7 @@ package com.android.tools.idea.bleak.expander
 
 import com.android.tools.idea.bleak.Edge
 import java.lang.ref.WeakReference
+import java.util.concurrent.ConcurrentHashMap
 
 /** [ArrayObjectIdentityExpander] expands arrays, creating a child node for each non-null element,
  * with an [ObjectLabel] as the edge label. This means objects in arrays can be tracked regardless
@@ -31,7 +32,7 @@ import java.lang.ref.WeakReference
  * small (or possibly negative) performance improvement.
  */
 class ArrayObjectIdentityExpander: Expander() {
-  private val labelToNodeMap: MutableMap<Node, MutableMap<Label, Node>> = mutableMapOf()
+  private val labelToNodeMap: MutableMap<Node, MutableMap<Label, Node>> = ConcurrentHashMap()
 
   // primitive arrays should be expanded by DefaultObjectExpander so we don't end up with nodes for primitive types
   override fun canExpand(obj: Any): Boolean = obj.javaClass.isArray && !obj.javaClass.componentType.isPrimitive
@@ -41,8 +42,7 @@ class ArrayObjectIdentityExpander: Expander() {
   override fun expand(n: Node) {
     val arr = n.obj as Array<*>
     val map = if (arr.size > LABEL_MAP_DEGREE_THRESHOLD) {
-      labelToNodeMap[n] = mutableMapOf()
-      labelToNodeMap[n]
+      mutableMapOf<Label, Node>().also { labelToNodeMap[n] = it }
     } else null
     for (obj in arr) {
       if (obj != null && (TRACK_WEAK_REFS_IN_ARRAYS || obj !is WeakReference<*>)) {
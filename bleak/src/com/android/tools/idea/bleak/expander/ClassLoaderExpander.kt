@@ -17,6 +17,7 @@ package com.android.tools.idea.bleak.expander
 
 import com.android.tools.idea.bleak.BleakHelper
 import java.util.Vector
+import java.util.concurrent.ConcurrentHashMap
 
 object BootstrapClassloaderPlaceholder
 
@@ -25,7 +26,7 @@ object BootstrapClassloaderPlaceholder
  * [BootstrapClassloaderPlaceholder] serves as a placeholder for the bootstrap class loader for this purpose.
  */
 class ClassLoaderExpander(private val bleakHelper: BleakHelper): Expander() {
-  private val labelToNodeMap: MutableMap<Node, MutableMap<Label, Node>> = mutableMapOf()
+  private val labelToNodeMap: MutableMap<Node, MutableMap<Label, Node>> = ConcurrentHashMap()
 
   override fun canExpand(obj: Any): Boolean = obj is ClassLoader || obj === BootstrapClassloaderPlaceholder
 
@@ -32,7 +32,7 @@ class ClassStaticsExpander: Expander() {
         if ((field.modifiers and Modifier.STATIC) != 0) {
           val value = field.get(null)
           if (value != null) {
-            n.addEdgeTo(value, FieldLabel(field))
+            n.addEdgeTo(value, fieldLabel(field))
           }
         }
       }
@@ -47,7 +47,7 @@ open class DefaultObjectExpander(val shouldOmitEdge: (Any, Field, Any) -> Boolea
       n.type).filter { it.modifiers and Modifier.STATIC == 0 }) {
       val value = field.get(n.obj)
       if (value != null && !shouldOmitEdge(n.obj, field, value)) {
-        n.addEdgeTo(value, FieldLabel(field))
+        n.addEdgeTo(value, fieldLabel(field))
       }
     }
   }
@@ -20,6 +20,7 @@ import com.android.tools.idea.bleak.Edge
 import com.android.tools.idea.bleak.HeapGraph
 import com.android.tools.idea.bleak.expander.Expander.Label
 import java.lang.reflect.Field
+import java.util.concurrent.ConcurrentHashMap
 
 typealias Node = HeapGraph.Node
 
@@ -41,8 +42,13 @@ typealias Node = HeapGraph.Node
  * matches the one provided. Subclasses should ensure that if n1 = expandCorrespondingEdge(n, e),
  * then getChildForLabel(n, e.label) == n1 to avoid inconsistency.
  *
+ * [HeapGraph.expandWholeGraph] expands several Nodes at the same time, so [expand] must be safe to
+ * call concurrently for different Nodes.
  */
 abstract class Expander: DoNotTrace {
+  // FieldLabels are immutable, so edges for the same field share a single instance
+  private val fieldLabels = ConcurrentHashMap<Field, FieldLabel>()
+
   abstract inner class Label {
     abstract fun signature(): String
   }
@@ -63,6 +69,8 @@ abstract class Expander: DoNotTrace {
     override fun hashCode(): Int = field.hashCode()
   }
 
+  fun fieldLabel(field: Field): FieldLabel = fieldLabels.computeIfAbsent(field) { FieldLabel(it) }
+
   abstract fun canExpand(obj: Any): Boolean
   abstract fun expand(n: Node)  // should use n.addEdgeTo() to add edges to the node
   open fun expandCorrespondingEdge(n: Node, e: Edge): Node? = n[e] ?: n.addEdgeTo(e.end.obj, e.label)
@@ -74,7 +82,7 @@ abstract class Expander: DoNotTrace {
 
   // subclasses are encouraged to override this method to improve lookup performance, e.g, an
   // index-based array expander should just look at the i'th child.
-  open fun getChildForLabel(n: Node, label: Label): Node? = n.edges.find { it.label == label }?.end
+  open fun getChildForLabel(n: Node, label: Label): Node? = n.childForLabel(label)
 }
 
 /** When a Node is about to be expanded, an Expander must be chosen. This decision is based on the
@@ -83,12 +91,17 @@ abstract class Expander: DoNotTrace {
  * head of the list.
  */
 class ExpanderChooser(private val expanders: List<Expander>) {
-  fun expanderFor(obj: Any): Expander {
-    for (e in expanders) {
+  fun expanderFor(obj: Any): Expander = expanders[expanderIndexFor(obj)]
+
+  // HeapGraph stores the index of the Expander of each Node, rather than a reference to it
+  internal fun expanderIndexFor(obj: Any): Int {
+    for ((index, e) in expanders.withIndex()) {
       if (e.canExpand(obj)) {
-        return e
+        return index
       }
     }
     throw IllegalStateException("No matching Expander for object of class ${obj.javaClass.name} ($obj)")
   }
+
+  internal fun expanderAt(index: Int): Expander = expanders[index]
 }
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.bleak
+
+import com.android.tools.idea.bleak.expander.Expander
+import com.android.tools.idea.bleak.expander.ExpanderChooser
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import java.util.IdentityHashMap
+
+class HeapGraphTest {
+
+  private class TestObject(val name: String, val growing: Boolean = false) {
+    val children = mutableListOf<TestObject>()
+    override fun toString() = name
+  }
+
+  /** Expands the root of the graph, which is always [HeapGraph.jniHelper], to the given objects. */
+  private class TestRootExpander(private val roots: List<TestObject>): Expander() {
+    override fun canExpand(obj: Any) = obj is BleakHelper
+    override fun expand(n: Node) {
+      roots.forEach { n.addEdgeTo(it, ObjectLabel(it)) }
+    }
+  }
+
+  private class TestObjectExpander: Expander() {
+    override fun canExpand(obj: Any) = obj is TestObject
+    override fun canPotentiallyGrowIndefinitely(n: Node) = (n.obj as TestObject).growing
+    override fun expand(n: Node) {
+      (n.obj as TestObject).children.forEach { n.addEdgeTo(it, ObjectLabel(it)) }
+    }
+  }
+
+  /** The expected result of expanding the graph, computed by a plain breadth-first search that visits one object at a time. */
+  private class SequentialExpansion(roots: List<TestObject>) {
+    val order = mutableListOf<TestObject>()
+    val parents = IdentityHashMap<TestObject, TestObject?>()
+    var edgeCount = 0
+
+    init {
+      roots.forEach { if (!parents.containsKey(it)) { parents[it] = null; order.add(it) } }
+      var head = 0
+      while (head < order.size) {
+        val obj = order[head++]
+        for (child in obj.children) {
+          edgeCount++
+          if (!parents.containsKey(child)) {
+            parents[child] = obj
+            order.add(child)
+          }
+        }
+      }
+    }
+
+    fun pathTo(obj: TestObject): List<TestObject> = generateSequence(obj) { parents[it] }.toList().reversed()
+  }
+
+  /**
+   * Builds a graph whose levels are wide enough to be expanded in parallel, with objects shared by many parents, so that the incoming
+   * edges depend on the order of expansion, and a cycle back to a root.
+   */
+  private fun createObjects(): List<TestObject> {
+    val a = TestObject("a")
+    val b = TestObject("b", growing = true)
+    val shared = List(700) { TestObject("d$it", growing = it % 100 == 0) }
+    val middle = List(1500) { i -> TestObject("c$i", growing = i % 500 == 0).apply { children.add(shared[(i * 7) % shared.size]) } }
+    a.children.addAll(middle)
+    b.children.addAll(middle.filterIndexed { i, _ -> i % 3 == 0 }.reversed())
+    b.children.add(shared.last())
+    shared[0].children.add(a)
+    shared[1].children.add(shared[2])
+    return listOf(b, a)
+  }
+
+  @Test
+  fun testExpandWholeGraphMatchesSequentialExpansion() {
+    val roots = createObjects()
+    val expected = SequentialExpansion(roots)
+    val graph = HeapGraph(ExpanderChooser(listOf(TestRootExpander(roots), TestObjectExpander()))).expandWholeGraph(initialRun = true)
+
+    // The root node of the graph, its loopback edge and its edges to the roots come on top of the test objects.
+    assertThat(graph.instancesOf(TestObject::class.java)).hasSize(expected.order.size)
+    val rootNode = graph.getNode(HeapGraph.jniHelper)!!
+    assertThat(rootNode.childObjects).containsExactlyElementsIn(roots).inOrder()
+    assertThat(graph.computeIncomingEdges().values.sumOf { it.size }).isEqualTo(expected.edgeCount + roots.size)
+
+    assertThat(graph.leakRoots.map { it.obj }).containsExactlyElementsIn(expected.order.filter { it.growing }).inOrder()
+
+    for (obj in expected.order) {
+      val node = graph.getNode(obj)!!
+      assertThat(node.childObjects).containsExactlyElementsIn(obj.children).inOrder()
+      assertThat(node.getPath().map { it.end.obj }).containsExactlyElementsIn(expected.pathTo(obj)).inOrder()
+    }
+  }
+
+  @Test
+  fun testConsecutiveGraphsDoNotShareNodes() {
+    val roots = createObjects()
+    val chooser = ExpanderChooser(listOf(TestRootExpander(roots), TestObjectExpander()))
+    val first = HeapGraph(chooser).expandWholeGraph(initialRun = true)
+    // A new child of a growing object, as if it leaked between the two iterations.
+    val leaked = TestObject("leaked")
+    roots[0].children.add(leaked)
+    val second = HeapGraph(chooser).expandWholeGraph()
+
+    assertThat(first.getNode(leaked)).isNull()
+    assertThat(second.getNode(leaked)!!.obj).isSameAs(leaked)
+    first.propagateGrowing(second)
+    assertThat(second.leakRoots.map { it.obj }).containsExactly(roots[0])
+  }
+}
@@ -39,7 +39,33 @@ interface BuildAnalyzerStorageManager {
    * @exception NoSuchElementException
    */
   fun getHistoricBuildResultByID(buildID : String) : BuildAnalysisResults
+  /**
+   * Returns the summary of the build specified. Summaries are kept on disk for many more builds than the full analysis results
+   * returned by [getHistoricBuildResultByID].
+   *
+   * @return BuildHistoryRecord
+   * @exception NoSuchElementException
+   */
+  fun getHistoricBuildRecordByID(buildID : String) : BuildHistoryRecord
+  /**
+   * Returns the IDs of the builds whose results can be returned by [getHistoricBuildResultByID], oldest first.
+   */
   fun getListOfHistoricBuildIDs() : Set<String>
+  /**
+   * Returns the IDs of the builds whose summaries can be returned by [getHistoricBuildRecordByID], oldest first.
+   */
+  fun getListOfHistoricBuildRecordIDs() : Set<String>
+  /**
+   * Returns up to [limit] tasks with the highest average execution time over the last [lastBuilds] builds in the history.
+   */
+  fun getSlowestTasks(lastBuilds : Int, limit : Int) : List<TaskDurationTrend>
+  /**
+   * Returns the tasks that took at least [minIncreaseMs] milliseconds longer in the build with [buildID] than in the build with
+   * [baselineBuildID], largest increase first.
+   *
+   * @exception NoSuchElementException
+   */
+  fun findTaskRegressions(baselineBuildID : String, buildID : String, minIncreaseMs : Long) : List<TaskRegression>
 
   interface Listener {
     fun newDataAvailable()
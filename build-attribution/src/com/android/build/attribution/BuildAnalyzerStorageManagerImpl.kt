@@ -18,15 +18,33 @@ package com.android.build.attribution
 import com.android.build.attribution.analyzers.BuildEventsAnalyzersProxy
 import com.android.build.attribution.analyzers.DownloadsAnalyzer
 import com.android.build.attribution.data.BuildRequestHolder
+import com.intellij.openapi.application.ApplicationManager
+import com.intellij.openapi.application.PathManager
 import com.intellij.openapi.project.Project
+import com.intellij.openapi.project.getProjectCacheFileName
 import com.android.tools.idea.flags.StudioFlags
+import java.nio.file.Paths
 
+private const val HISTORY_DIRECTORY = "build-analyzer-history"
+
+/**
+ * The number of latest builds for which the full analysis results are kept in memory. Older builds are only available as
+ * [BuildHistoryRecord]s.
+ */
+private const val MAX_HISTORIC_RESULTS_IN_MEMORY = 5
 
 class BuildAnalyzerStorageManagerImpl(
   val project: Project
 ) : BuildAnalyzerStorageManager {
   private var buildResults : BuildAnalysisResults? = null
-  private var historicBuildResults : MutableMap<String, BuildAnalysisResults> = mutableMapOf()
+  private val historicBuildResults = object : LinkedHashMap<String, BuildAnalysisResults>() {
+    override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, BuildAnalysisResults>?): Boolean =
+      size > MAX_HISTORIC_RESULTS_IN_MEMORY
+  }
+  private val historyStore = BuildHistoryStore(
+    if (ApplicationManager.getApplication().isUnitTestMode) null
+    else Paths.get(PathManager.getSystemPath(), HISTORY_DIRECTORY, project.getProjectCacheFileName())
+  )
 
   private fun notifyDataListeners() {
     var publisher = project.messageBus.syncPublisher(BuildAnalyzerStorageManager.DATA_IS_READY_TOPIC);
@@ -65,16 +83,36 @@ class BuildAnalyzerStorageManagerImpl(
   override fun storeNewBuildResults(analyzersProxy: BuildEventsAnalyzersProxy, buildID : String, requestHolder : BuildRequestHolder) {
     val buildResults = createBuildResultsObject(analyzersProxy, buildID, requestHolder)
     this.buildResults = buildResults
-    if(StudioFlags.BUILD_ANALYZER_HISTORY.get()) historicBuildResults[buildID] = buildResults
+    if(StudioFlags.BUILD_ANALYZER_HISTORY.get()) {
+      synchronized(historicBuildResults) { historicBuildResults[buildID] = buildResults }
+      historyStore.add(BuildHistoryRecord.from(buildResults))
+    }
     notifyDataListeners()
   }
 
   override fun getHistoricBuildResultByID(buildID : String) : BuildAnalysisResults {
-    return historicBuildResults[buildID] ?: throw NoSuchElementException("No such build result was found.")
+    return synchronized(historicBuildResults) { historicBuildResults[buildID] }
+           ?: throw NoSuchElementException("No such build result was found.")
+  }
+
+  override fun getHistoricBuildRecordByID(buildID: String): BuildHistoryRecord {
+    return historyStore.getRecord(buildID) ?: throw NoSuchElementException("No such build record was found.")
   }
 
   override fun getListOfHistoricBuildIDs() : Set<String> {
-    return historicBuildResults.keys
+    return synchronized(historicBuildResults) { LinkedHashSet(historicBuildResults.keys) }
+  }
+
+  override fun getListOfHistoricBuildRecordIDs() : Set<String> {
+    return LinkedHashSet(historyStore.getBuildIDs())
+  }
+
+  override fun getSlowestTasks(lastBuilds: Int, limit: Int): List<TaskDurationTrend> {
+    return historyStore.getSlowestTasks(lastBuilds, limit)
+  }
+
+  override fun findTaskRegressions(baselineBuildID: String, buildID: String, minIncreaseMs: Long): List<TaskRegression> {
+    return historyStore.findRegressions(baselineBuildID, buildID, minIncreaseMs)
   }
 
   override fun hasData(): Boolean {
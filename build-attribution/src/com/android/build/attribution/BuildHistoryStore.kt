@@ -0,0 +1,301 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.build.attribution
+
+import com.intellij.openapi.diagnostic.Logger
+import com.intellij.openapi.util.io.FileUtil
+import java.io.BufferedInputStream
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.IOException
+import java.io.InputStream
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+import kotlin.streams.toList
+
+private val LOG = Logger.getInstance(BuildHistoryStore::class.java)
+
+private const val MAGIC = 0x42414852 // "BAHR"
+private const val FORMAT_VERSION = 2
+private const val RECORD_FILE_EXTENSION = ".bin"
+
+/**
+ * A compact summary of the analysis of a single build, small enough to keep for many builds.
+ */
+data class BuildHistoryRecord(
+  val buildSessionID: String,
+  val buildStartedTimestamp: Long,
+  val buildFinishedTimestamp: Long,
+  /** All the tasks that ran in the build, including up-to-date ones. */
+  val tasks: List<TaskRecord>,
+  /** The plugins determining the build duration. */
+  val plugins: List<PluginRecord>,
+  val garbageCollections: List<GarbageCollectionRecord>
+) {
+  data class TaskRecord(val taskPath: String, val pluginIdName: String, val executionTimeMs: Long, val isOnTheCriticalPath: Boolean)
+  data class PluginRecord(val pluginIdName: String, val buildDurationMs: Long)
+  data class GarbageCollectionRecord(val name: String, val collectionTimeMs: Long)
+
+  val totalBuildTimeMs: Long
+    get() = buildFinishedTimestamp - buildStartedTimestamp
+
+  val totalGarbageCollectionTimeMs: Long
+    get() = garbageCollections.sumOf { it.collectionTimeMs }
+
+  companion object {
+    fun from(results: BuildAnalysisResults) = BuildHistoryRecord(
+      buildSessionID = results.getBuildSessionID(),
+      buildStartedTimestamp = results.getBuildStartedTimestamp(),
+      buildFinishedTimestamp = results.getBuildFinishedTimestamp(),
+      tasks = results.getExecutedTasks().map {
+        TaskRecord(it.getTaskPath(), it.originPlugin.idName, it.executionTime, it.isOnTheCriticalPath)
+      },
+      plugins = results.getPluginsDeterminingBuildDuration().map { PluginRecord(it.plugin.idName, it.buildDuration) },
+      garbageCollections = results.getGarbageCollectionData().map { GarbageCollectionRecord(it.name, it.collectionTimeMs) }
+    )
+  }
+}
+
+/** Execution time statistics of a task over several builds. */
+data class TaskDurationTrend(
+  val taskPath: String,
+  val pluginIdName: String,
+  /** The number of builds the task ran in. */
+  val buildCount: Int,
+  val totalExecutionTimeMs: Long,
+  val maxExecutionTimeMs: Long
+) {
+  val averageExecutionTimeMs: Long
+    get() = totalExecutionTimeMs / buildCount
+}
+
+/** A task which took longer in one build than in a baseline build. */
+data class TaskRegression(val taskPath: String, val baselineExecutionTimeMs: Long, val executionTimeMs: Long) {
+  val increaseMs: Long
+    get() = executionTimeMs - baselineExecutionTimeMs
+}
+
+/**
+ * Keeps [BuildHistoryRecord]s of the latest builds, one file per build in [directory], so that the history survives IDE restarts
+ * without holding the full analysis results of every build in memory. When [directory] is null the records are kept in memory in
+ * their serialized form.
+ *
+ * Only the build IDs and the sizes of the records are kept in memory, queries read the records one at a time. The oldest records are
+ * deleted when there are more than [maxBuilds] records or they take more than [maxTotalBytes] bytes.
+ */
+class BuildHistoryStore(
+  private val directory: Path?,
+  private val maxBuilds: Int = 100,
+  private val maxTotalBytes: Long = 16L * 1024 * 1024
+) {
+  private class Entry(val buildID: String, val size: Long, val file: Path?, val bytes: ByteArray?)
+
+  private val lock = Any()
+
+  /** The stored records, oldest first. Loaded from [directory] on first use. Guarded by [lock], as is [totalBytes]. */
+  private var entries: MutableList<Entry>? = null
+
+  private var totalBytes: Long = 0
+
+  /** Adds the [record] of a new build, evicting the oldest records if the store is over its limits. */
+  fun add(record: BuildHistoryRecord) {
+    val bytes = ByteArrayOutputStream().also { DataOutputStream(it).use { output -> write(record, output) } }.toByteArray()
+    synchronized(lock) {
+      val entries = getEntries()
+      entries.find { it.buildID == record.buildSessionID }?.let { remove(it) }
+      val entry = if (directory == null) {
+        Entry(record.buildSessionID, bytes.size.toLong(), null, bytes)
+      }
+      else {
+        // The file names start with the build finish time so that listing the directory gives the records in the order of the builds.
+        val file = directory.resolve(
+          String.format("%013d-%s%s", record.buildFinishedTimestamp, FileUtil.sanitizeFileName(record.buildSessionID),
+                        RECORD_FILE_EXTENSION))
+        try {
+          Files.createDirectories(directory)
+          val tempFile = Files.createTempFile(directory, file.fileName.toString(), ".tmp")
+          Files.write(tempFile, bytes)
+          Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+        }
+        catch (e: IOException) {
+          LOG.warn("Failed to write the build history record to $file", e)
+          return
+        }
+        Entry(record.buildSessionID, bytes.size.toLong(), file, null)
+      }
+      entries.add(entry)
+      totalBytes += entry.size
+      while (entries.size > 1 && (entries.size > maxBuilds || totalBytes > maxTotalBytes)) {
+        remove(entries.first())
+      }
+    }
+  }
+
+  /** Returns the IDs of the stored builds, oldest first. */
+  fun getBuildIDs(): List<String> = synchronized(lock) { getEntries().map { it.buildID } }
+
+  /** Returns the record of the build with [buildID], or null if the build is not in the store. */
+  fun getRecord(buildID: String): BuildHistoryRecord? {
+    val entry = synchronized(lock) { getEntries().find { it.buildID == buildID } } ?: return null
+    return read(entry)
+  }
+
+  /**
+   * Returns up to [limit] tasks with the highest average execution time over the last [lastBuilds] builds, slowest first.
+   */
+  fun getSlowestTasks(lastBuilds: Int, limit: Int): List<TaskDurationTrend> {
+    class Accumulator(val pluginIdName: String) {
+      var buildCount = 0
+      var totalMs = 0L
+      var maxMs = 0L
+    }
+    val accumulators = HashMap<String, Accumulator>()
+    val lastEntries = synchronized(lock) { getEntries().takeLast(lastBuilds) }
+    for (entry in lastEntries) {
+      val record = read(entry) ?: continue
+      for (task in record.tasks) {
+        val accumulator = accumulators.getOrPut(task.taskPath) { Accumulator(task.pluginIdName) }
+        accumulator.buildCount++
+        accumulator.totalMs += task.executionTimeMs
+        accumulator.maxMs = maxOf(accumulator.maxMs, task.executionTimeMs)
+      }
+    }
+    return accumulators.entries
+      .map { (taskPath, it) -> TaskDurationTrend(taskPath, it.pluginIdName, it.buildCount, it.totalMs, it.maxMs) }
+      .sortedByDescending { it.averageExecutionTimeMs }
+      .take(limit)
+  }
+
+  /**
+   * Returns the tasks whose execution time in the build with [buildID] exceeds the one in the build with [baselineBuildID] by at least
+   * [minIncreaseMs] milliseconds and at least [minIncreaseRatio] times the baseline time, largest increase first. Tasks which did not run
+   * in the baseline build are not reported, as there is nothing to compare them with.
+   *
+   * @exception NoSuchElementException if either build is not in the store
+   */
+  fun findRegressions(baselineBuildID: String,
+                      buildID: String,
+                      minIncreaseMs: Long = 0,
+                      minIncreaseRatio: Double = 0.0): List<TaskRegression> {
+    val baseline = getRecord(baselineBuildID) ?: throw NoSuchElementException("No such build record was found: $baselineBuildID")
+    val current = getRecord(buildID) ?: throw NoSuchElementException("No such build record was found: $buildID")
+    val baselineTimes = baseline.tasks.associate { it.taskPath to it.executionTimeMs }
+    return current.tasks
+      .mapNotNull { task -> baselineTimes[task.taskPath]?.let { TaskRegression(task.taskPath, it, task.executionTimeMs) } }
+      .filter { it.increaseMs > 0 && it.increaseMs >= minIncreaseMs && it.increaseMs >= it.baselineExecutionTimeMs * minIncreaseRatio }
+      .sortedByDescending { it.increaseMs }
+  }
+
+  private fun getEntries(): MutableList<Entry> = entries ?: load().also { loaded ->
+    entries = loaded
+    totalBytes = loaded.sumOf { it.size }
+  }
+
+  private fun remove(entry: Entry) {
+    entries?.remove(entry)
+    totalBytes -= entry.size
+    entry.file?.let { deleteFile(it) }
+  }
+
+  private fun load(): MutableList<Entry> {
+    if (directory == null || !Files.isDirectory(directory)) return mutableListOf()
+    val files = try {
+      Files.list(directory).use { stream ->
+        stream.filter { it.fileName.toString().endsWith(RECORD_FILE_EXTENSION) }.sorted().toList()
+      }
+    }
+    catch (e: IOException) {
+      LOG.warn("Failed to list the build history in $directory", e)
+      return mutableListOf()
+    }
+    return files.mapNotNullTo(mutableListOf()) { file ->
+      try {
+        DataInputStream(BufferedInputStream(Files.newInputStream(file))).use { input ->
+          if (input.readInt() == MAGIC && input.readInt() == FORMAT_VERSION) Entry(input.readUTF(), Files.size(file), file, null) else null
+        }
+      }
+      catch (e: IOException) {
+        null
+      } ?: run {
+        LOG.info("Deleting an unreadable build history record: $file")
+        deleteFile(file)
+        null
+      }
+    }
+  }
+
+  private fun read(entry: Entry): BuildHistoryRecord? {
+    return try {
+      val stream: InputStream = entry.bytes?.let { ByteArrayInputStream(it) } ?: BufferedInputStream(Files.newInputStream(entry.file!!))
+      DataInputStream(stream).use { read(it) }
+    }
+    catch (e: IOException) {
+      LOG.warn("Failed to read the build history record of ${entry.buildID}", e)
+      null
+    }
+  }
+
+  private fun deleteFile(file: Path) {
+    try {
+      Files.deleteIfExists(file)
+    }
+    catch (e: IOException) {
+      LOG.warn("Failed to delete $file", e)
+    }
+  }
+
+  private fun write(record: BuildHistoryRecord, output: DataOutputStream) {
+    output.writeInt(MAGIC)
+    output.writeInt(FORMAT_VERSION)
+    output.writeUTF(record.buildSessionID)
+    output.writeLong(record.buildStartedTimestamp)
+    output.writeLong(record.buildFinishedTimestamp)
+    output.writeInt(record.tasks.size)
+    for (task in record.tasks) {
+      output.writeUTF(task.taskPath)
+      output.writeUTF(task.pluginIdName)
+      output.writeLong(task.executionTimeMs)
+      output.writeBoolean(task.isOnTheCriticalPath)
+    }
+    output.writeInt(record.plugins.size)
+    for (plugin in record.plugins) {
+      output.writeUTF(plugin.pluginIdName)
+      output.writeLong(plugin.buildDurationMs)
+    }
+    output.writeInt(record.garbageCollections.size)
+    for (collection in record.garbageCollections) {
+      output.writeUTF(collection.name)
+      output.writeLong(collection.collectionTimeMs)
+    }
+  }
+
+  private fun read(input: DataInputStream): BuildHistoryRecord {
+    if (input.readInt() != MAGIC || input.readInt() != FORMAT_VERSION) throw IOException("Unsupported build history record format")
+    return BuildHistoryRecord(
+      buildSessionID = input.readUTF(),
+      buildStartedTimestamp = input.readLong(),
+      buildFinishedTimestamp = input.readLong(),
+      tasks = List(input.readInt()) {
+        BuildHistoryRecord.TaskRecord(input.readUTF(), input.readUTF(), input.readLong(), input.readBoolean())
+      },
+      plugins = List(input.readInt()) { BuildHistoryRecord.PluginRecord(input.readUTF(), input.readLong()) },
+      garbageCollections = List(input.readInt()) { BuildHistoryRecord.GarbageCollectionRecord(input.readUTF(), input.readLong()) }
+    )
+  }
+}
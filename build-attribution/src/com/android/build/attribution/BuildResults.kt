@@ -95,6 +95,10 @@ data class BuildAnalysisResults(
     return criticalPathAnalyzerResult.tasksDeterminingBuildDuration
   }
 
+  fun getExecutedTasks(): List<TaskData> {
+    return criticalPathAnalyzerResult.executedTasks
+  }
+
   override fun getPluginsDeterminingBuildDuration(): List<PluginBuildData> {
     return criticalPathAnalyzerResult.pluginsDeterminingBuildDuration
   }
@@ -26,7 +26,6 @@ import org.gradle.tooling.events.ProgressEvent
 import org.gradle.tooling.events.task.TaskFinishEvent
 import org.gradle.tooling.events.task.TaskOperationDescriptor
 import org.gradle.tooling.events.task.TaskSuccessResult
-import kotlin.math.max
 
 /**
  * An analyzer for calculating the critical path, that is the path of tasks determining the total build duration.
@@ -37,12 +36,21 @@ class CriticalPathAnalyzer(
 ) : BaseAnalyzer<CriticalPathAnalyzer.Result>(),
     BuildEventsAnalyzer,
     PostBuildProcessAnalyzer {
-  private val tasksSet = HashSet<TaskData>()
+  /**
+   * Contains for each received task, in the order the tasks finished, the longest path of dependencies ending with this task.
+   */
+  private val taskNodes = LinkedHashMap<TaskData, TaskNode>()
+
+  /**
+   * Contains for each task that has not been received or whose longest path is not known yet, the tasks depending on it that are waiting
+   * for it.
+   */
+  private val waitingDependents = HashMap<TaskData, MutableList<TaskNode>>()
 
   /**
-   * Contains for each task, a list of tasks that this task depends on.
+   * The last task of the longest path of dependencies among all received tasks.
    */
-  private val dependenciesMap = HashMap<TaskData, List<TaskData>>()
+  private var criticalPathEnd: TaskNode? = null
 
   private val tasksDeterminingBuildDuration = ArrayList<TaskData>()
   private val pluginsDeterminingBuildDuration = ArrayList<PluginBuildData>()
@@ -50,6 +58,15 @@ class CriticalPathAnalyzer(
   private var buildStartedTimestamp = Long.MAX_VALUE
   private var buildFinishedTimestamp = Long.MIN_VALUE
 
+  private class TaskNode(val task: TaskData, val dependencies: List<TaskData>) {
+    /** The number of dependencies whose longest path is not known yet. */
+    var pendingDependenciesCount = 0
+    /** The total execution time of the longest path of dependencies ending with this task, or -1 if it is not known yet. */
+    var longestPathDuration = -1L
+    /** The previous task in the longest path ending with this task. */
+    var longestPathPrevious: TaskNode? = null
+  }
+
   override fun receiveEvent(event: ProgressEvent) {
     // Since we stopped listening to generic events, we don't get build finished event. But we can calculate the build time from the start
     // of the first received event and the end of the last received event.
@@ -60,6 +77,7 @@ class CriticalPathAnalyzer(
 
     if (event is TaskFinishEvent && event.result is TaskSuccessResult) {
       val task = taskContainer.getTask(event, pluginContainer)
+      if (taskNodes.containsKey(task)) return
       val dependenciesList = ArrayList<TaskData>()
 
       event.descriptor.dependencies.forEach { dependency ->
@@ -70,74 +88,68 @@ class CriticalPathAnalyzer(
         }
       }
 
-      tasksSet.add(task)
-      dependenciesMap[task] = dependenciesList
+      val node = TaskNode(task, dependenciesList)
+      taskNodes[task] = node
+      dependenciesList.forEach { dependency ->
+        if (taskNodes[dependency]?.takeIf { it.longestPathDuration >= 0 } == null) {
+          node.pendingDependenciesCount++
+          waitingDependents.getOrPut(dependency) { ArrayList() }.add(node)
+        }
+      }
+      // Dependencies finish before the tasks depending on them, so there are only pending dependencies if events arrive out of order.
+      if (node.pendingDependenciesCount == 0) {
+        calculateLongestPaths(node)
+      }
     }
   }
 
   /**
-   * returns the duration of the critical path that starts from task [startTask]
+   * Calculates the longest path ending with [node], whose dependencies are all known, and then with each of the waiting tasks which
+   * become ready as a result. Since dependencies always finish first, the tasks are processed in topological order as they are received,
+   * so the critical path of the dependency graph is known as soon as the last task finishes.
+   *
+   * Runs in linear time of the number of tasks and dependencies over the whole build, without recursion.
    */
-  private fun calculateCriticalPathStartingFromTask(
-    startTask: TaskData,
-    criticalPathFromTaskMap: MutableMap<TaskData, Long>
-  ): Long {
-    // Avoid recomputing the subpath critical path if it's already calculated
-    criticalPathFromTaskMap[startTask]?.let { return it }
-
-    var criticalPathDuration = 0L
-    dependenciesMap[startTask]!!.forEach { dependency ->
-      criticalPathDuration = max(criticalPathDuration, calculateCriticalPathStartingFromTask(dependency, criticalPathFromTaskMap))
+  private fun calculateLongestPaths(node: TaskNode) {
+    val readyNodes = ArrayDeque<TaskNode>()
+    readyNodes.add(node)
+    while (readyNodes.isNotEmpty()) {
+      val current = readyNodes.removeFirst()
+      current.dependencies.forEach { dependency ->
+        val dependencyNode = taskNodes[dependency]?.takeIf { it.longestPathDuration >= 0 } ?: return@forEach
+        if (current.longestPathPrevious.let { it == null || it.longestPathDuration < dependencyNode.longestPathDuration }) {
+          current.longestPathPrevious = dependencyNode
+        }
+      }
+      current.longestPathDuration = (current.longestPathPrevious?.longestPathDuration ?: 0L) + current.task.executionTime
+      if (criticalPathEnd.let { it == null || it.longestPathDuration < current.longestPathDuration }) {
+        criticalPathEnd = current
+      }
+      waitingDependents.remove(current.task)?.forEach { dependent ->
+        if (--dependent.pendingDependenciesCount == 0) {
+          readyNodes.add(dependent)
+        }
+      }
     }
-
-    // Add task execution time
-    criticalPathDuration += startTask.executionTime
-    // Memoize the calculated value in the map
-    criticalPathFromTaskMap[startTask] = criticalPathDuration
-
-    return criticalPathDuration
   }
 
   /**
-   * We are using dynamic programming to calculate the critical path for the task graph that is a direct acyclic graph.
-   *
-   * The algorithm should run in linear time of the number of tasks and the number of dependencies in the graph. The memory used is in order
-   * of the number of tasks in the graph.
+   * Returns the critical path of the dependency graph, that is the longest path of dependencies, from its first task to its last one.
    */
   private fun calculateTasksCriticalPathBasedOnDependencies(): List<TaskData> {
-    val tasksCriticalPath = ArrayList<TaskData>()
-    val criticalPathFromTaskMap = HashMap<TaskData, Long>()
-
-    var startTask: TaskData? = null
-    var currentCriticalPathDuration = -1L
-
-    // Calculate the critical path starting from each task
-    tasksSet.forEach {
-      val criticalPathFromTask = calculateCriticalPathStartingFromTask(it, criticalPathFromTaskMap)
-      if (currentCriticalPathDuration < criticalPathFromTask) {
-        currentCriticalPathDuration = criticalPathFromTask
-        startTask = it
+    // Tasks may still be waiting for dependencies that were not received, stop waiting for them.
+    waitingDependents.keys.filterNot { taskNodes.containsKey(it) }.forEach { dependency ->
+      waitingDependents.remove(dependency)?.forEach { dependent ->
+        if (--dependent.pendingDependenciesCount == 0) calculateLongestPaths(dependent)
       }
     }
 
-    // Construct critical path
-    while (startTask != null) {
-      tasksCriticalPath.add(startTask!!)
-
-      var nextTask: TaskData? = null
-      currentCriticalPathDuration = -1
-
-      dependenciesMap[startTask!!]!!.forEach { dependency ->
-        val criticalPathFromTask = criticalPathFromTaskMap[dependency]!!
-        if (currentCriticalPathDuration < criticalPathFromTask) {
-          currentCriticalPathDuration = criticalPathFromTask
-          nextTask = dependency
-        }
-      }
-
-      startTask = nextTask
+    val tasksCriticalPath = ArrayList<TaskData>()
+    var node = criticalPathEnd
+    while (node != null) {
+      tasksCriticalPath.add(node.task)
+      node = node.longestPathPrevious
     }
-
     tasksCriticalPath.reverse()
     return tasksCriticalPath
   }
@@ -190,15 +202,15 @@ class CriticalPathAnalyzer(
     }
 
     // criticalPathFromTask[i] is the total execution time of the critical path that starts from task i
-    val criticalPathFromTask = tasks.map { it.executionTime }.toMutableList()
+    val criticalPathFromTask = LongArray(tasks.size) { tasks[it].executionTime }
 
     // maxCriticalPathStartIndexInSuffix[i] is the index of maximum length of the critical path if we started from a task in the range
     // [i, tasks.size - 1]
-    val maxCriticalPathStartIndexInSuffix = List(tasks.size) { it }.toMutableList()
+    val maxCriticalPathStartIndexInSuffix = IntArray(tasks.size) { it }
 
     // bestChoiceIndex[i] is the index of the next task in the max critical path that starts from task i
     // -1 means there are no tasks starting after this task finishes
-    val bestChoiceIndex = List(tasks.size) { -1 }.toMutableList()
+    val bestChoiceIndex = IntArray(tasks.size) { -1 }
 
     for (i in tasks.size - 2 downTo 0) {
       // The index of the first task that starts at or after this task finishes
@@ -291,7 +303,7 @@ class CriticalPathAnalyzer(
   private fun calculateTasksDeterminingBuildDuration(tasksCriticalPath: List<TaskData>) {
     val tasksDeterminingBuildDurationList = ArrayList<TaskData>()
 
-    val taskListSortedByStartTime = tasksSet.sortedBy { it.executionStartTime }
+    val taskListSortedByStartTime = taskNodes.keys.sortedBy { it.executionStartTime }
 
     // Since the critical path tasks are not intersecting, and we iterate through them in start time order, we are able to reuse the
     // iterator across all queries without having to iterate through the whole list each time
@@ -349,8 +361,9 @@ class CriticalPathAnalyzer(
   }
 
   override fun cleanupTempState() {
-    tasksSet.clear()
-    dependenciesMap.clear()
+    taskNodes.clear()
+    waitingDependents.clear()
+    criticalPathEnd = null
     tasksDeterminingBuildDuration.clear()
     pluginsDeterminingBuildDuration.clear()
     buildStartedTimestamp = Long.MAX_VALUE
@@ -368,7 +381,8 @@ class CriticalPathAnalyzer(
       tasksDeterminingBuildDuration.toList(),
       pluginsDeterminingBuildDuration.toList(),
       buildStartedTimestamp,
-      buildFinishedTimestamp
+      buildFinishedTimestamp,
+      taskNodes.keys.toList()
     )
   }
 
@@ -376,6 +390,8 @@ class CriticalPathAnalyzer(
     val tasksDeterminingBuildDuration: List<TaskData>,
     val pluginsDeterminingBuildDuration: List<PluginBuildData>,
     val buildStartedTimestamp: Long,
-    val buildFinishedTimestamp: Long
+    val buildFinishedTimestamp: Long,
+    /** All the tasks that ran successfully, including up-to-date ones, in the order they finished. */
+    val executedTasks: List<TaskData> = emptyList()
   ) : AnalyzerResult
 }
@@ -102,4 +102,26 @@ class BuildAnalyzerStorageManagerTest {
       .storeNewBuildResults(analyzersProxy, "some buildID", BuildRequestHolder(request))
     Truth.assertThat(listenerInvocationCounter).isEqualTo(1)
   }
+
+  @Test
+  fun testHistoricBuildIDsCanBeLoaded() {
+    StudioFlags.BUILD_ANALYZER_HISTORY.override(true)
+    val storageManager = BuildAnalyzerStorageManager.getInstance(projectRule.project)
+    val request = GradleBuildInvoker.Request
+      .builder(projectRule.project, Projects.getBaseDirPath(projectRule.project), "assembleDebug").build()
+    val buildIDs = (1..10).map { "buildID $it" }
+    for (buildID in buildIDs) {
+      val analyzersProxy = BuildEventsAnalyzersProxy(TaskContainer(), PluginContainer())
+      storageManager.storeNewBuildResults(analyzersProxy, buildID, BuildRequestHolder(request))
+    }
+
+    // Only the results of the latest builds are kept, but the summaries of all of them are.
+    val historicBuildIDs = storageManager.getListOfHistoricBuildIDs()
+    Truth.assertThat(historicBuildIDs).isNotEmpty()
+    Truth.assertThat(historicBuildIDs.size).isLessThan(buildIDs.size)
+    Truth.assertThat(historicBuildIDs.last()).isEqualTo(buildIDs.last())
+    historicBuildIDs.forEach { Truth.assertThat(storageManager.getHistoricBuildResultByID(it).getBuildSessionID()).isEqualTo(it) }
+    Truth.assertThat(storageManager.getListOfHistoricBuildRecordIDs()).containsExactlyElementsIn(buildIDs).inOrder()
+    buildIDs.forEach { Truth.assertThat(storageManager.getHistoricBuildRecordByID(it).buildSessionID).isEqualTo(it) }
+  }
 }
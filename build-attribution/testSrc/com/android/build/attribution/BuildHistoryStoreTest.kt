@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.build.attribution
+
+import com.android.build.attribution.BuildHistoryRecord.GarbageCollectionRecord
+import com.android.build.attribution.BuildHistoryRecord.PluginRecord
+import com.android.build.attribution.BuildHistoryRecord.TaskRecord
+import com.google.common.truth.Truth.assertThat
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.nio.file.Files
+
+class BuildHistoryStoreTest {
+  @get:Rule
+  val tempFolder = TemporaryFolder()
+
+  private fun record(buildID: String, finishedTimestamp: Long, vararg taskTimes: Pair<String, Long>) = BuildHistoryRecord(
+    buildSessionID = buildID,
+    buildStartedTimestamp = finishedTimestamp - 1000,
+    buildFinishedTimestamp = finishedTimestamp,
+    tasks = taskTimes.map { (taskPath, time) -> TaskRecord(taskPath, "com.android.application", time, time > 100) },
+    plugins = listOf(PluginRecord("com.android.application", taskTimes.sumOf { it.second })),
+    garbageCollections = listOf(GarbageCollectionRecord("G1 Young Generation", 50))
+  )
+
+  @Test
+  fun testRecordsSurviveRestart() {
+    val directory = tempFolder.root.toPath().resolve("history")
+    val store = BuildHistoryStore(directory)
+    val first = record("build 1", 10_000, ":app:compileDebugKotlin" to 300L, ":app:mergeDebugResources" to 50L)
+    store.add(first)
+    store.add(record("build 2", 20_000, ":app:compileDebugKotlin" to 200L))
+
+    val newStore = BuildHistoryStore(directory)
+    assertThat(newStore.getBuildIDs()).containsExactly("build 1", "build 2").inOrder()
+    assertThat(newStore.getRecord("build 1")).isEqualTo(first)
+    assertThat(newStore.getRecord("build 1")!!.totalGarbageCollectionTimeMs).isEqualTo(50)
+    assertThat(newStore.getRecord("build 3")).isNull()
+  }
+
+  @Test
+  fun testOldestRecordsAreEvicted() {
+    val directory = tempFolder.root.toPath().resolve("history")
+    val store = BuildHistoryStore(directory, maxBuilds = 2)
+    store.add(record("build 1", 10_000, ":app:assemble" to 10L))
+    store.add(record("build 2", 20_000, ":app:assemble" to 10L))
+    store.add(record("build 3", 30_000, ":app:assemble" to 10L))
+
+    assertThat(store.getBuildIDs()).containsExactly("build 2", "build 3").inOrder()
+    assertThat(Files.list(directory).use { it.count() }).isEqualTo(2)
+
+    val smallStore = BuildHistoryStore(tempFolder.root.toPath().resolve("small"), maxTotalBytes = 1)
+    smallStore.add(record("build 1", 10_000, ":app:assemble" to 10L))
+    smallStore.add(record("build 2", 20_000, ":app:assemble" to 10L))
+    // The latest record is always kept.
+    assertThat(smallStore.getBuildIDs()).containsExactly("build 2")
+  }
+
+  @Test
+  fun testSlowestTasks() {
+    val store = BuildHistoryStore(null)
+    store.add(record("build 1", 10_000, ":app:compileDebugKotlin" to 300L, ":app:mergeDebugResources" to 50L))
+    store.add(record("build 2", 20_000, ":app:compileDebugKotlin" to 100L, ":app:mergeDebugResources" to 150L))
+    store.add(record("build 3", 30_000, ":app:compileDebugKotlin" to 100L, ":app:dexBuilderDebug" to 400L))
+
+    assertThat(store.getSlowestTasks(lastBuilds = 3, limit = 2)).containsExactly(
+      TaskDurationTrend(":app:dexBuilderDebug", "com.android.application", 1, 400, 400),
+      TaskDurationTrend(":app:compileDebugKotlin", "com.android.application", 3, 500, 300)
+    ).inOrder()
+    assertThat(store.getSlowestTasks(lastBuilds = 2, limit = 10).map { it.taskPath })
+      .containsExactly(":app:dexBuilderDebug", ":app:mergeDebugResources", ":app:compileDebugKotlin").inOrder()
+  }
+
+  @Test
+  fun testRegressions() {
+    val store = BuildHistoryStore(null)
+    store.add(record("build 1", 10_000, ":app:compileDebugKotlin" to 100L, ":app:mergeDebugResources" to 50L))
+    store.add(record("build 2", 20_000, ":app:compileDebugKotlin" to 300L, ":app:mergeDebugResources" to 60L, ":app:lint" to 40L))
+
+    // :app:lint did not run in the baseline build, so it has no time to compare with.
+    assertThat(store.findRegressions("build 1", "build 2")).containsExactly(
+      TaskRegression(":app:compileDebugKotlin", 100, 300),
+      TaskRegression(":app:mergeDebugResources", 50, 60)
+    ).inOrder()
+    assertThat(store.findRegressions("build 1", "build 2", minIncreaseMs = 20, minIncreaseRatio = 0.5)).containsExactly(
+      TaskRegression(":app:compileDebugKotlin", 100, 300)
+    ).inOrder()
+    assertThat(store.findRegressions("build 2", "build 1")).isEmpty()
+  }
+
+  @Test(expected = NoSuchElementException::class)
+  fun testRegressionsOfUnknownBuild() {
+    BuildHistoryStore(null).findRegressions("build 1", "build 2")
+  }
+}
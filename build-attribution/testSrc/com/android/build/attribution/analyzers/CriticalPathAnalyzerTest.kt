@@ -184,6 +184,46 @@ class CriticalPathAnalyzerTest {
     assertThat(analyzer.result.pluginsDeterminingBuildDuration[1].buildDuration).isEqualTo(25)
   }
 
+  @Test
+  fun testCriticalPathAnalyzerWithEventsOutOfOrder() {
+    val pluginContainer = PluginContainer()
+    val taskContainer = TaskContainer()
+    val analyzer = CriticalPathAnalyzer(taskContainer, pluginContainer)
+    val wrapper = BuildAnalyzersWrapper(listOf(analyzer), taskContainer, pluginContainer)
+
+    val pluginA = createBinaryPluginIdentifierStub("pluginA", "my.gradle.plugin.PluginA")
+
+    wrapper.onBuildStart()
+
+    // Given tasks with the following dependencies, where the events of A and B are received after the events of the tasks depending on them
+    // A(0-10) -> B(10-30) -> D(30-40)
+    // |
+    // ---------> C(10-20)
+    val taskA = createTaskFinishEventStub(":app:taskA", pluginA, emptyList(), 0, 10)
+    val taskB = createTaskFinishEventStub(":app:taskB", pluginA, listOf(taskA), 10, 30)
+    val taskC = createTaskFinishEventStub(":app:taskC", pluginA, listOf(taskA), 10, 20)
+    val taskD = createTaskFinishEventStub(":app:taskD", pluginA, listOf(taskB), 30, 40)
+
+    // Dependencies are only known to the analyzer once their own events are received, so register the tasks first.
+    listOf(taskA, taskB, taskC, taskD).forEach { taskContainer.getTask(it, pluginContainer) }
+    wrapper.receiveEvent(taskD)
+    wrapper.receiveEvent(taskC)
+    wrapper.receiveEvent(taskB)
+    wrapper.receiveEvent(taskA)
+
+    wrapper.onBuildSuccess(
+      null,
+      GradlePluginsData.emptyData,
+      Mockito.mock(BuildEventsAnalyzersProxy::class.java),
+      studioProvidedInfo
+    )
+
+    assertThat(analyzer.result.tasksDeterminingBuildDuration).isEqualTo(
+      listOf(TaskData.createTaskData(taskA, pluginContainer),
+             TaskData.createTaskData(taskB, pluginContainer),
+             TaskData.createTaskData(taskD, pluginContainer)))
+  }
+
   @Test
   fun testCriticalPathAnalyzerOnNoOpBuild() {
     myProjectRule.load(TestProjectPaths.SIMPLE_APPLICATION)
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.build.attribution.performance
+
+import com.android.build.attribution.analyzers.CriticalPathAnalyzer
+import com.android.build.attribution.analyzers.createBinaryPluginIdentifierStub
+import com.android.build.attribution.analyzers.createTaskFinishEventStub
+import com.android.build.attribution.data.PluginContainer
+import com.android.build.attribution.data.TaskContainer
+import com.android.tools.perflogger.Benchmark
+import com.google.common.truth.Truth.assertThat
+import org.gradle.tooling.events.task.TaskFinishEvent
+import org.jetbrains.kotlin.utils.addToStdlib.sumByLong
+import org.junit.Test
+import kotlin.random.Random
+import kotlin.system.measureTimeMillis
+
+/**
+ * Measures the time [CriticalPathAnalyzer] takes to process the events of synthetic builds with an increasing number of tasks.
+ *
+ * The "performance" test target is tagged manual, so this only runs when that target is requested explicitly.
+ */
+class CriticalPathAnalyzerBenchmark {
+  private val benchmark = Benchmark.Builder("Build Analyzer Critical Path Time (ms)")
+    .setProject("Android Studio Build Analyzer")
+    .setDescription("Time to receive the task events of a build and calculate the tasks determining the build duration.")
+    .build()
+
+  private class SyntheticBuild(val events: List<TaskFinishEvent>, val longestDependencyPathMs: Long)
+
+  @Test
+  fun benchmarkCriticalPath() {
+    for (taskCount in listOf(1_000, 10_000, 50_000, 100_000)) {
+      val build = createBuild(taskCount, Random(taskCount))
+      // Warm up with a small build so that the first measurement doesn't include class loading.
+      runAnalyzer(createBuild(100, Random(0)).events)
+      System.gc()
+
+      lateinit var analyzer: CriticalPathAnalyzer
+      val elapsedMillis = measureTimeMillis { analyzer = runAnalyzer(build.events) }
+      assertThat(analyzer.result.tasksDeterminingBuildDuration.sumByLong { it.executionTime })
+        .isAtLeast(build.longestDependencyPathMs)
+      benchmark.log("Critical-Path-$taskCount-Tasks", elapsedMillis)
+    }
+  }
+
+  private fun runAnalyzer(events: List<TaskFinishEvent>): CriticalPathAnalyzer {
+    val analyzer = CriticalPathAnalyzer(TaskContainer(), PluginContainer())
+    analyzer.onBuildStart()
+    events.forEach { analyzer.receiveEvent(it) }
+    analyzer.result
+    return analyzer
+  }
+
+  /**
+   * Creates the events of a build of [taskCount] tasks, where each task depends on up to three of the 50 tasks created before it and
+   * starts shortly after its dependencies finish. The events are returned in the order the tasks finish, as Gradle sends them.
+   */
+  private fun createBuild(taskCount: Int, random: Random): SyntheticBuild {
+    val plugins = List(10) { createBinaryPluginIdentifierStub("plugin$it", "my.gradle.plugin.Plugin$it") }
+    val events = ArrayList<TaskFinishEvent>(taskCount)
+    val endTimes = LongArray(taskCount)
+    val longestPaths = LongArray(taskCount)
+    for (i in 0 until taskCount) {
+      val dependencies = if (i == 0) emptyList() else List(random.nextInt(4)) { random.nextInt(maxOf(0, i - 50), i) }.distinct()
+      val startTime = (dependencies.maxOfOrNull { endTimes[it] } ?: 0L) + random.nextLong(5)
+      val duration = 1 + random.nextLong(100)
+      endTimes[i] = startTime + duration
+      longestPaths[i] = duration + (dependencies.maxOfOrNull { longestPaths[it] } ?: 0L)
+      events.add(createTaskFinishEventStub(":module${i % 100}:task$i", plugins[i % plugins.size], dependencies.map { events[it] },
+                                           startTime, endTimes[i]))
+    }
+    events.sortBy { it.result.endTime }
+    return SyntheticBuild(events, longestPaths.maxOrNull() ?: 0)
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.run;
+
+import com.android.tools.deployer.tasks.Canceller;
+import com.intellij.util.ThrowableRunnable;
+import java.io.File;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Schedules the deployments of the same build output to several devices.
+ *
+ * <p>Deploying a build output parses its APKs and splits their dex files, and the results are kept in the dex database of
+ * {@link DeploymentService} where the deployments to other devices find them. When a build output is deployed to several devices at
+ * once, this analysis is run by the first deployment of the build output only, and the deployments to the other devices wait for it.
+ * The rest of the deployments, such as installing the APKs, runs concurrently.
+ */
+public class DeploymentScheduler {
+  private static final int MAX_ANALYZED_OUTPUTS = 64;
+  private static final long WAIT_INTERVAL_MS = 100;
+
+  private final Object myLock = new Object();
+
+  /** The keys of the build outputs being analyzed. Guarded by {@link #myLock}. */
+  private final Set<String> myAnalyzingOutputs = new HashSet<>();
+
+  /** The keys of the most recently analyzed build outputs. Guarded by {@link #myLock}. */
+  private final Set<String> myAnalyzedOutputs = Collections.newSetFromMap(new LinkedHashMap<String, Boolean>() {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+      return size() > MAX_ANALYZED_OUTPUTS;
+    }
+  });
+
+  /**
+   * Runs the analysis of the given build output, unless it was already analyzed. If the build output is being analyzed for a deployment to
+   * another device, waits for that analysis instead, and runs it if that analysis failed. If {@code canceller} is cancelled while waiting,
+   * returns right away so that the deployment reports the cancellation itself.
+   */
+  public <E extends Exception> void analyzeOnce(@NotNull ApkInfo apkInfo,
+                                                @NotNull Canceller canceller,
+                                                @NotNull ThrowableRunnable<E> analysis) throws E {
+    String key = getBuildOutputKey(apkInfo);
+    synchronized (myLock) {
+      while (!myAnalyzedOutputs.contains(key) && myAnalyzingOutputs.contains(key) && !canceller.cancelled()) {
+        try {
+          myLock.wait(WAIT_INTERVAL_MS);
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+      if (myAnalyzedOutputs.contains(key) || !myAnalyzingOutputs.add(key)) {
+        return;
+      }
+    }
+
+    boolean succeeded = false;
+    try {
+      analysis.run();
+      succeeded = true;
+    }
+    finally {
+      synchronized (myLock) {
+        myAnalyzingOutputs.remove(key);
+        if (succeeded) {
+          myAnalyzedOutputs.add(key);
+        }
+        myLock.notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Returns a key identifying the contents of the APKs of a build output, from their paths, sizes and modification times.
+   */
+  @NotNull
+  private static String getBuildOutputKey(@NotNull ApkInfo apkInfo) {
+    StringBuilder key = new StringBuilder(apkInfo.getApplicationId());
+    for (ApkFileUnit unit : apkInfo.getFiles()) {
+      File file = unit.getApkFile();
+      key.append('\n').append(file.getAbsolutePath()).append(':').append(file.length()).append(':').append(file.lastModified());
+    }
+    return key.toString();
+  }
+}
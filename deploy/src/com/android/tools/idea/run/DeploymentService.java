@@ -34,6 +34,8 @@ public class DeploymentService {
 
   private final TaskRunner runner;
 
+  private final DeploymentScheduler scheduler;
+
   private final NotNullLazyValue<SqlApkFileDatabase> dexDatabase;
   private final NotNullLazyValue<DeploymentCacheDatabase> deploymentCacheDatabase;
 
@@ -45,6 +47,7 @@ public class DeploymentService {
   private DeploymentService() {
     service = Executors.newFixedThreadPool(5, new ThreadFactoryBuilder().setNameFormat("deployment-service-%d").build());
     runner = new TaskRunner(service);
+    scheduler = new DeploymentScheduler();
 
     Path dexDbPath = Paths.get(PathManager.getSystemPath(), ".dex_cache.db");
     Path deployDbPath = Paths.get(PathManager.getSystemPath(), ".deploy_cache.db");
@@ -57,6 +60,10 @@ public class DeploymentService {
     return runner;
   }
 
+  public DeploymentScheduler getDeploymentScheduler() {
+    return scheduler;
+  }
+
   public SqlApkFileDatabase getDexDatabase() {
     return dexDatabase.getValue();
   }
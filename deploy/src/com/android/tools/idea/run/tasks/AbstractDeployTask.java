@@ -18,19 +18,26 @@ package com.android.tools.idea.run.tasks;
 
 import static com.android.tools.idea.run.tasks.LaunchResult.Result.ERROR;
 
+import com.android.SdkConstants;
 import com.android.ddmlib.AdbHelper;
 import com.android.ddmlib.IDevice;
 import com.android.tools.analytics.UsageTracker;
 import com.android.tools.deploy.proto.Deploy;
 import com.android.tools.deployer.AdbClient;
 import com.android.tools.deployer.AdbInstaller;
+import com.android.tools.deployer.ApkParser;
+import com.android.tools.deployer.CachedDexSplitter;
 import com.android.tools.deployer.ChangeType;
+import com.android.tools.deployer.D8DexSplitter;
 import com.android.tools.deployer.DeployMetric;
 import com.android.tools.deployer.Deployer;
 import com.android.tools.deployer.DeployerException;
 import com.android.tools.deployer.DeployerOption;
+import com.android.tools.deployer.DexSplitter;
 import com.android.tools.deployer.Installer;
 import com.android.tools.deployer.MetricsRecorder;
+import com.android.tools.deployer.model.Apk;
+import com.android.tools.deployer.model.ApkEntry;
 import com.android.tools.deployer.tasks.Canceller;
 import com.android.tools.idea.flags.StudioFlags;
 import com.android.tools.idea.flags.StudioFlags.OptimisticInstallSupportLevel;
@@ -220,6 +227,17 @@ public abstract class AbstractDeployTask implements LaunchTask {
     List<String> idsSkippedInstall = new ArrayList<>();
     List<Deployer.Result> results = new ArrayList<>();
     for (ApkInfo apkInfo : myPackages) {
+      if (StudioFlags.DEPLOY_TO_DEVICES_CONCURRENTLY.get()) {
+        // Other devices may be deploying the same build output at the same time. Only one of them fills the dex cache that the
+        // deployer reads, and the installs run concurrently once that is done.
+        try {
+          service.getDeploymentScheduler().analyzeOnce(apkInfo, canceller, () -> splitDexFiles(apkInfo, service));
+        }
+        catch (DeployerException e) {
+          // The deployer parses the APKs again, and reports the failure if there is one.
+          logger.warning("Unable to analyze %s: %s", apkInfo.getApplicationId(), e.getMessage());
+        }
+      }
       Deployer.Result result = perform(device, deployer, apkInfo, canceller);
 
       if (result.skippedInstall) {
@@ -249,6 +267,21 @@ public abstract class AbstractDeployTask implements LaunchTask {
     return results;
   }
 
+  /**
+   * Parses the APKs of a build output and splits their dex files into the dex database, which is where the deployer finds the classes of
+   * the dex files that were deployed before.
+   */
+  private static void splitDexFiles(@NotNull ApkInfo apkInfo, @NotNull DeploymentService service) throws DeployerException {
+    DexSplitter splitter = new CachedDexSplitter(service.getDexDatabase(), new D8DexSplitter());
+    for (Apk apk : new ApkParser().parsePaths(getPathsToInstall(apkInfo))) {
+      for (ApkEntry entry : apk.apkEntries.values()) {
+        if (entry.getName().endsWith(SdkConstants.DOT_DEX)) {
+          splitter.split(entry, null);
+        }
+      }
+    }
+  }
+
   abstract protected String getFailureTitle();
 
   abstract protected boolean shouldTaskLaunchApp();
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.run
+
+import com.android.testutils.MockitoKt.whenever
+import com.android.tools.deployer.tasks.Canceller
+import com.google.common.truth.Truth.assertThat
+import org.junit.After
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.mockito.Mockito.mock
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+
+class DeploymentSchedulerTest {
+  @get:Rule
+  val tempFolder = TemporaryFolder()
+
+  private val executor = Executors.newCachedThreadPool()
+  private val scheduler = DeploymentScheduler()
+  private val notCancelled = canceller(false)
+
+  @After
+  fun tearDown() {
+    executor.shutdownNow()
+  }
+
+  private fun canceller(cancelled: Boolean) = mock(Canceller::class.java).also { whenever(it.cancelled()).thenReturn(cancelled) }
+
+  private fun apkInfo(name: String) = ApkInfo(tempFolder.newFile(name), "com.example.app")
+
+  private fun analyzeAsync(apkInfo: ApkInfo, canceller: Canceller = notCancelled, analysis: () -> Unit): Future<*> =
+    executor.submit { scheduler.analyzeOnce<RuntimeException>(apkInfo, canceller) { analysis() } }
+
+  @Test
+  fun buildOutputIsAnalyzedOnce() {
+    val apkInfo = apkInfo("app.apk")
+    val analysisCount = AtomicInteger()
+    val releaseFirst = CountDownLatch(1)
+    val firstStarted = CountDownLatch(1)
+    val first = analyzeAsync(apkInfo) {
+      analysisCount.incrementAndGet()
+      firstStarted.countDown()
+      releaseFirst.await()
+    }
+    firstStarted.await()
+    val second = analyzeAsync(apkInfo) { analysisCount.incrementAndGet() }
+
+    try {
+      second.get(300, TimeUnit.MILLISECONDS)
+      throw AssertionError("The second deployment should wait for the analysis of the first one")
+    }
+    catch (expected: TimeoutException) {
+    }
+    releaseFirst.countDown()
+    first.get(5, TimeUnit.SECONDS)
+    second.get(5, TimeUnit.SECONDS)
+    scheduler.analyzeOnce<RuntimeException>(apkInfo, notCancelled) { analysisCount.incrementAndGet() }
+    assertThat(analysisCount.get()).isEqualTo(1)
+  }
+
+  @Test
+  fun differentBuildOutputsDoNotWaitForEachOther() {
+    val releaseFirst = CountDownLatch(1)
+    val first = analyzeAsync(apkInfo("app.apk")) { releaseFirst.await() }
+    val secondAnalyzed = AtomicBoolean()
+    analyzeAsync(apkInfo("test.apk")) { secondAnalyzed.set(true) }.get(5, TimeUnit.SECONDS)
+    assertThat(secondAnalyzed.get()).isTrue()
+    releaseFirst.countDown()
+    first.get(5, TimeUnit.SECONDS)
+  }
+
+  @Test
+  fun failedAnalysisLetsAnotherDeploymentAnalyzeTheBuildOutput() {
+    val apkInfo = apkInfo("app.apk")
+    try {
+      scheduler.analyzeOnce<IllegalStateException>(apkInfo, notCancelled) { throw IllegalStateException("Parsing failed") }
+      throw AssertionError("The failure should be propagated")
+    }
+    catch (expected: IllegalStateException) {
+    }
+
+    val analysisCount = AtomicInteger()
+    val releaseSecond = CountDownLatch(1)
+    val secondStarted = CountDownLatch(1)
+    val second = analyzeAsync(apkInfo) {
+      analysisCount.incrementAndGet()
+      secondStarted.countDown()
+      releaseSecond.await()
+    }
+    secondStarted.await()
+    val third = analyzeAsync(apkInfo) { analysisCount.incrementAndGet() }
+    try {
+      third.get(300, TimeUnit.MILLISECONDS)
+      throw AssertionError("The third deployment should wait for the analysis of the second one")
+    }
+    catch (expected: TimeoutException) {
+    }
+    releaseSecond.countDown()
+    third.get(5, TimeUnit.SECONDS)
+    second.get(5, TimeUnit.SECONDS)
+    assertThat(analysisCount.get()).isEqualTo(1)
+  }
+
+  @Test
+  fun cancelledDeploymentStopsWaiting() {
+    val apkInfo = apkInfo("app.apk")
+    val releaseFirst = CountDownLatch(1)
+    val firstStarted = CountDownLatch(1)
+    val first = analyzeAsync(apkInfo) {
+      firstStarted.countDown()
+      releaseFirst.await()
+    }
+    firstStarted.await()
+
+    val cancelledAnalyzed = AtomicBoolean()
+    analyzeAsync(apkInfo, canceller = canceller(true)) { cancelledAnalyzed.set(true) }.get(5, TimeUnit.SECONDS)
+    assertThat(cancelledAnalyzed.get()).isFalse()
+    releaseFirst.countDown()
+    first.get(5, TimeUnit.SECONDS)
+  }
+}
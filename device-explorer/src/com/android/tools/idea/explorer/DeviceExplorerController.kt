@@ -26,6 +26,8 @@ import com.android.tools.idea.explorer.fs.DeviceFileSystem
 import com.android.tools.idea.explorer.fs.DeviceFileSystemService
 import com.android.tools.idea.explorer.fs.DeviceFileSystemServiceListener
 import com.android.tools.idea.explorer.fs.DeviceState
+import com.android.tools.idea.explorer.fs.DirectoryDownloader
+import com.android.tools.idea.explorer.fs.DirectoryTransferProgress
 import com.android.tools.idea.explorer.fs.DownloadProgress
 import com.android.tools.idea.explorer.fs.FileTransferProgress
 import com.android.tools.idea.explorer.ui.TreeUtil
@@ -478,7 +480,7 @@ class DeviceExplorerController(
         wrapFileTransfer(
           { tracker: FileTransferOperationTracker -> addDownloadOperationWork(tracker, treeNode) },
           { tracker: FileTransferOperationTracker -> downloadSingleDirectory(treeNode, localDirectory, tracker) },
-          false)
+          true)
       }
       else {
         // If single file, choose the local file path to download to, then download
@@ -584,10 +586,11 @@ class DeviceExplorerController(
     private suspend fun downloadSingleNode(
       node: DeviceFileEntryNode,
       localPath: Path,
-      tracker: FileTransferOperationTracker
+      tracker: FileTransferOperationTracker,
+      allowBulkDownload: Boolean = true
     ) {
       if (node.entry.isDirectory) {
-        downloadSingleDirectory(node, localPath, tracker)
+        downloadSingleDirectory(node, localPath, tracker, allowBulkDownload)
       } else {
         downloadSingleFile(node, localPath, tracker)
       }
@@ -618,7 +621,8 @@ class DeviceExplorerController(
     private suspend fun downloadSingleDirectory(
       treeNode: DeviceFileEntryNode,
       localDirectoryPath: Path,
-      tracker: FileTransferOperationTracker
+      tracker: FileTransferOperationTracker,
+      allowBulkDownload: Boolean = true
     ) {
       assert(treeNode.entry.isDirectory || treeNode.isSymbolicLinkToDirectory)
       if (tracker.isCancelled) {
@@ -631,17 +635,86 @@ class DeviceExplorerController(
         FileUtils.mkdirs(localDirectoryPath.toFile())
       }
       tracker.summary.addDirectoryCount(1)
+      if (allowBulkDownload && downloadDirectoryContentsInBulk(treeNode, localDirectoryPath, tracker)) {
+        return
+      }
       try {
         loadNodeChildren(treeNode)
         for (node in treeNode.childEntryNodes) {
           val nodePath = localDirectoryPath.resolve(node.entry.name)
-          downloadSingleNode(node, nodePath, tracker)
+          // If the bulk download of this directory failed, it would most likely fail for its subdirectories too
+          downloadSingleNode(node, nodePath, tracker, allowBulkDownload = false)
         }
       } catch (t: Throwable) {
         tracker.addProblem(t)
       }
     }
 
+    /**
+     * Downloads all the contents of a directory in a single transfer, if supported by its entry
+     * (see [FileTransferWorkEstimator.isBulkDownload]).
+     *
+     * @return `true` if the contents have been downloaded, `false` if they should be downloaded one entry at a time
+     * @throws CancellationException if the operation is canceled
+     */
+    private suspend fun downloadDirectoryContentsInBulk(
+      treeNode: DeviceFileEntryNode,
+      localDirectoryPath: Path,
+      tracker: FileTransferOperationTracker
+    ): Boolean {
+      val entry = treeNode.entry
+      if (entry !is DirectoryDownloader || !FileTransferWorkEstimator.isBulkDownload(entry)) {
+        return false
+      }
+      val summary = FileTransferSummary()
+      val completed = CompletableDeferred<Unit>()
+      val stopwatch = Stopwatch.createStarted()
+      try {
+        entry.downloadDirectory(localDirectoryPath, object : DirectoryTransferProgress {
+          private var previousBytes: Long = 0
+
+          override fun progress(currentBytes: Long, totalBytes: Long) {
+            tracker.processFileBytes(currentBytes - previousBytes)
+            previousBytes = currentBytes
+            if (totalBytes >= 0) {
+              completed.complete(Unit)
+            }
+          }
+
+          override fun fileTransferred(entryPath: String, byteCount: Long) {
+            summary.addFileCount(1)
+            summary.addByteCount(byteCount)
+            tracker.processBulkFile()
+            tracker.setDownloadFileText(AdbPathUtil.resolve(entry.fullPath, entryPath), byteCount, byteCount)
+          }
+
+          override fun directoryTransferred(entryPath: String) {
+            summary.addDirectoryCount(1)
+            tracker.processBulkDirectory()
+          }
+
+          override fun isCancelled(): Boolean {
+            return tracker.isCancelled
+          }
+        })
+        // downloadDirectory may complete before the last progress callbacks are called
+        completed.await()
+      }
+      catch (e: CancellationException) {
+        throw e
+      }
+      catch (t: Throwable) {
+        LOGGER.warn("Error downloading directory ${entry.fullPath} in a single transfer, downloading entries one at a time", t)
+        return false
+      }
+      LOGGER.trace("Downloaded directory in $stopwatch: ${entry.fullPath}")
+      tracker.summary.addFileCount(summary.fileCount)
+      tracker.summary.addDirectoryCount(summary.directoryCount)
+      tracker.summary.addByteCount(summary.byteCount)
+      VfsUtil.markDirtyAndRefresh(true, true, true, localDirectoryPath.toFile())
+      return true
+    }
+
     override fun copyNodePathsInvoked(treeNodes: List<DeviceFileEntryNode>) {
       val text = treeNodes.map { it.entry.fullPath }.joinToString("\n")
       CopyPasteManager.getInstance().setContents(StringSelection(text))
@@ -70,7 +70,8 @@ public class FileTransferOperationTracker extends LongRunningOperationTracker {
       return;
     }
 
-    setProgress((double)myFinishedWorkUnits / (double)myTotalWorkUnits);
+    // Note: Falling back from a bulk download to downloading entries one at a time may use more work than estimated
+    setProgress(Math.min(1.0, (double)myFinishedWorkUnits / (double)myTotalWorkUnits));
   }
 
   public void processDirectory() {
@@ -85,6 +86,18 @@ public class FileTransferOperationTracker extends LongRunningOperationTracker {
     showProgress();
   }
 
+  public void processBulkDirectory() {
+    myFinishedWorkUnits += FileTransferWorkEstimator.getBulkEntryWorkUnits();
+    myCurrentDirectoryCount++;
+    showProgress();
+  }
+
+  public void processBulkFile() {
+    myFinishedWorkUnits += FileTransferWorkEstimator.getBulkEntryWorkUnits();
+    myCurrentFileCount++;
+    showProgress();
+  }
+
   public void processFileBytes(long byteCount) {
     myFinishedWorkUnits += FileTransferWorkEstimator.getFileContentsWorkUnits(byteCount);
     showProgress();
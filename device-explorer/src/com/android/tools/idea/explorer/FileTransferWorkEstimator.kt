@@ -17,10 +17,13 @@ package com.android.tools.idea.explorer
 
 import com.android.tools.idea.concurrency.AndroidDispatchers.diskIoThread
 import com.android.tools.idea.concurrency.AndroidDispatchers.uiThread
+import com.android.tools.idea.explorer.FileTransferWorkEstimator.Companion.bulkEntryWorkUnits
 import com.android.tools.idea.explorer.FileTransferWorkEstimator.Companion.directoryWorkUnits
 import com.android.tools.idea.explorer.FileTransferWorkEstimator.Companion.fileWorkUnits
 import com.android.tools.idea.explorer.fs.DeviceFileEntry
+import com.android.tools.idea.explorer.fs.DirectoryDownloader
 import com.android.tools.idea.explorer.fs.ThrottledProgress
+import com.android.tools.idea.flags.StudioFlags
 import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.coroutineScope
 import kotlinx.coroutines.launch
@@ -69,6 +72,11 @@ import java.nio.file.Path
  *
  * The [.getFileContentsWorkUnits] returns the estimated cost (in work units)
  * proportional to the amount of bytes to transfer.
+ *
+ *
+ * When a directory is downloaded in a single transfer (see [isBulkDownload]), there is no
+ * round-trip per entry, so the fixed cost of each entry it contains is [bulkEntryWorkUnits]
+ * instead.
  */
 class FileTransferWorkEstimator {
   private val myThrottledProgress = ThrottledProgress(PROGRESS_REPORT_INTERVAL_MILLIS.toLong())
@@ -79,13 +87,14 @@ class FileTransferWorkEstimator {
     progress: FileTransferWorkEstimatorProgress
   ): FileTransferWorkEstimate {
     val workEstimate = FileTransferWorkEstimate()
-    estimateDownloadWorkWorker(entry, isLinkToDirectory, workEstimate, progress)
+    estimateDownloadWorkWorker(entry, isLinkToDirectory, false, workEstimate, progress)
     return workEstimate
   }
 
   private suspend fun estimateDownloadWorkWorker(
     entry: DeviceFileEntry,
     isLinkToDirectory: Boolean,
+    isInBulkDownload: Boolean,
     estimate: FileTransferWorkEstimate,
     progress: FileTransferWorkEstimatorProgress
   ) {
@@ -96,13 +105,14 @@ class FileTransferWorkEstimator {
     if (entry.isDirectory || isLinkToDirectory) {
       val children = entry.entries()
       estimate.addDirectoryCount(1)
-      estimate.addWorkUnits(directoryWorkUnits)
+      estimate.addWorkUnits(if (isInBulkDownload) bulkEntryWorkUnits else directoryWorkUnits)
+      val isChildInBulkDownload = isInBulkDownload || isBulkDownload(entry)
       for (child in children) {
-        estimateDownloadWorkWorker(child, false, estimate, progress)
+        estimateDownloadWorkWorker(child, false, isChildInBulkDownload, estimate, progress)
       }
     } else {
       estimate.addFileCount(1)
-      estimate.addWorkUnits(fileWorkUnits + getFileContentsWorkUnits(entry.size))
+      estimate.addWorkUnits((if (isInBulkDownload) bulkEntryWorkUnits else fileWorkUnits) + getFileContentsWorkUnits(entry.size))
     }
   }
 
@@ -160,9 +170,19 @@ class FileTransferWorkEstimator {
     @JvmStatic
     val fileWorkUnits = 64000L
 
+    @JvmStatic
+    val bulkEntryWorkUnits = 512L
+
     @JvmStatic
     fun getFileContentsWorkUnits(byteCount: Long): Long {
       return byteCount
     }
+
+    /**
+     * Returns `true` if the contents of the directory [entry] are downloaded in a single transfer,
+     * see [DirectoryDownloader.downloadDirectory].
+     */
+    suspend fun isBulkDownload(entry: DeviceFileEntry): Boolean =
+      StudioFlags.DEVICE_EXPLORER_BULK_DIRECTORY_DOWNLOAD.get() && entry is DirectoryDownloader && entry.supportsDirectoryDownload()
   }
 }
\ No newline at end of file
@@ -20,6 +20,7 @@ import com.android.ddmlib.IDevice
 import com.android.ddmlib.SyncException
 import com.android.ddmlib.SyncService
 import com.android.ddmlib.TimeoutException
+import com.android.sdklib.AndroidVersion
 import com.android.tools.idea.adb.AdbShellCommandException
 import com.android.tools.idea.adb.AdbShellCommandResult
 import com.android.tools.idea.adb.AdbShellCommandsUtil
@@ -175,6 +176,33 @@ class AdbDeviceCapabilities(coroutineScope: CoroutineScope, private val device:
     }
   }
 
+  suspend fun supportsTarCommand() = supportsTarCommand.await()
+  private val supportsTarCommand = coroutineScope.async(start = CoroutineStart.LAZY) {
+    assertNotDispatchThread()
+    // Before Android N, the output of shell commands goes through a terminal, which does not preserve binary data.
+    if (device.version.apiLevel < AndroidVersion.VersionCodes.N) {
+      return@async false
+    }
+    ScopedRemoteFile(AdbPathUtil.resolve(PROBE_FILES_TEMP_PATH, ".__temp_tar_test_file__.tmp")).use { tempFile ->
+      // Create the remote file used for testing capability
+      tempFile.create()
+
+      // Try to archive it with "tar" (it should succeed if the command is supported)
+      val command = AdbShellCommandBuilder().withText("tar -cf /dev/null ").withEscapedPath(tempFile.remotePath).build()
+      val commandResult = shellCommandsUtil.executeCommand(command)
+      try {
+        commandResult.throwIfError()
+        true
+      }
+      catch (e: AdbShellCommandException) {
+        logger.info(
+          """Device "${device.toDebugString()}" does not seem to support the "tar" command: ${
+            commandResult.outputSummary()}""", e)
+        false
+      }
+    }
+  }
+
   suspend fun hasEscapingLs(): Boolean = hasEscapingLs.await()
   private val hasEscapingLs = coroutineScope.async(start = CoroutineStart.LAZY) {
     assertNotDispatchThread()
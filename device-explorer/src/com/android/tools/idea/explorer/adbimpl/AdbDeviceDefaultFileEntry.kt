@@ -16,6 +16,7 @@
 package com.android.tools.idea.explorer.adbimpl
 
 import com.android.tools.idea.explorer.fs.DeviceFileEntry
+import com.android.tools.idea.explorer.fs.DirectoryTransferProgress
 import com.android.tools.idea.explorer.fs.FileTransferProgress
 import java.nio.file.Path
 
@@ -46,6 +47,12 @@ class AdbDeviceDefaultFileEntry(
   override suspend fun downloadFile(localPath: Path, progress: FileTransferProgress) =
     fileSystem.resolveMountPoint(this).downloadFile(localPath, progress)
 
+  override suspend fun supportsDirectoryDownload(): Boolean =
+    fileSystem.resolveMountPoint(this).supportsDirectoryDownload()
+
+  override suspend fun downloadDirectory(localPath: Path, progress: DirectoryTransferProgress) =
+    fileSystem.resolveMountPoint(this).downloadDirectory(localPath, progress)
+
   override suspend fun uploadFile(localPath: Path, fileName: String, progress: FileTransferProgress) =
     fileSystem.resolveMountPoint(this).uploadFile(localPath, fileName, progress)
 }
\ No newline at end of file
@@ -18,6 +18,7 @@ package com.android.tools.idea.explorer.adbimpl
 import com.android.ddmlib.SyncException
 import com.android.tools.idea.adb.AdbShellCommandException
 import com.android.tools.idea.explorer.fs.DeviceFileEntry
+import com.android.tools.idea.explorer.fs.DirectoryTransferProgress
 import com.android.tools.idea.explorer.fs.FileTransferProgress
 import kotlinx.coroutines.withContext
 import java.nio.file.Path
@@ -70,6 +71,19 @@ class AdbDeviceDirectFileEntry(
       }
     }
 
+  override suspend fun supportsDirectoryDownload(): Boolean =
+    withContext(fileSystem.dispatcher) {
+      fileSystem.capabilities.supportsTarCommand()
+    }
+
+  override suspend fun downloadDirectory(
+    localPath: Path,
+    progress: DirectoryTransferProgress
+  ) =
+    // Note: "tar" runs as "su 0" if supported, so that directories readable only by root
+    //       can be downloaded directly.
+    fileSystem.adbFileTransfer.downloadDirectory(fullPath, localPath, progress, myRunAs)
+
   override suspend fun uploadFile(
     localPath: Path,
     fileName: String,
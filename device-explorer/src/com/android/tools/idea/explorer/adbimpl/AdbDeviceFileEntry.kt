@@ -16,6 +16,7 @@
 package com.android.tools.idea.explorer.adbimpl
 
 import com.android.tools.idea.explorer.fs.DeviceFileEntry
+import com.android.tools.idea.explorer.fs.DirectoryDownloader
 import com.intellij.openapi.util.text.StringUtil
 
 /**
@@ -26,7 +27,7 @@ abstract class AdbDeviceFileEntry(
   override val fileSystem: AdbDeviceFileSystem,
   internal val myEntry: AdbFileListingEntry,
   override val parent: AdbDeviceFileEntry?
-) : DeviceFileEntry {
+) : DeviceFileEntry, DirectoryDownloader {
 
   override fun toString() = myEntry.toString()
 
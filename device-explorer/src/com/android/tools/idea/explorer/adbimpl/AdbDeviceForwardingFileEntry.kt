@@ -16,6 +16,7 @@
 package com.android.tools.idea.explorer.adbimpl
 
 import com.android.tools.idea.explorer.fs.DeviceFileEntry
+import com.android.tools.idea.explorer.fs.DirectoryTransferProgress
 import com.android.tools.idea.explorer.fs.FileTransferProgress
 import java.nio.file.Path
 
@@ -53,6 +54,13 @@ abstract class AdbDeviceForwardingFileEntry(
     forwardedFileEntry.downloadFile(localPath, progress)
   }
 
+  override suspend fun supportsDirectoryDownload(): Boolean =
+    forwardedFileEntry.supportsDirectoryDownload()
+
+  override suspend fun downloadDirectory(localPath: Path, progress: DirectoryTransferProgress) {
+    forwardedFileEntry.downloadDirectory(localPath, progress)
+  }
+
   override suspend fun uploadFile(localPath: Path, fileName: String, progress: FileTransferProgress) {
     forwardedFileEntry.uploadFile(localPath, fileName, progress)
   }
@@ -137,6 +137,14 @@ class AdbFileOperations(
     }
   }
 
+  /**
+   * Returns the command that writes a tar archive of the contents of the directory [path] to its
+   * standard output, followed by the exit status of "tar" (see [TarStreamExtractor]).
+   */
+  suspend fun getTarDirectoryCommand(path: String, runAs: String?): String {
+    return getCommand(runAs, "tar -cf - -C ").withDirectoryEscapedPath(path).withText(" . 2>/dev/null; echo \$?").build()
+  }
+
   suspend fun createTempFile(tempPath: String): String {
     return createTempFileRunAs(tempPath, null)
   }
@@ -15,7 +15,9 @@
  */
 package com.android.tools.idea.explorer.adbimpl
 
+import com.android.ddmlib.DdmPreferences
 import com.android.ddmlib.IDevice
+import com.android.ddmlib.IShellOutputReceiver
 import com.android.ddmlib.SyncException
 import com.android.ddmlib.SyncService
 import com.android.ddmlib.SyncService.ISyncProgressMonitor
@@ -23,6 +25,7 @@ import com.android.tools.idea.adblib.ddmlibcompatibility.pullFile
 import com.android.tools.idea.adblib.ddmlibcompatibility.pushFile
 import com.android.tools.idea.concurrency.FutureCallbackExecutor
 import com.android.tools.idea.explorer.cancelAndThrow
+import com.android.tools.idea.explorer.fs.DirectoryTransferProgress
 import com.android.tools.idea.explorer.fs.FileTransferProgress
 import com.android.tools.idea.explorer.fs.ThrottledProgress
 import com.android.tools.idea.flags.StudioFlags
@@ -30,9 +33,11 @@ import com.google.common.base.Stopwatch
 import com.intellij.openapi.diagnostic.logger
 import kotlinx.coroutines.CoroutineDispatcher
 import kotlinx.coroutines.withContext
+import java.io.Closeable
 import java.io.IOException
 import java.nio.file.Path
 import java.util.concurrent.Executor
+import java.util.concurrent.TimeUnit
 
 private val LOGGER = logger<AdbFileTransfer>()
 
@@ -81,6 +86,37 @@ class AdbFileTransfer(
     }
   }
 
+  /**
+   * Downloads the directory [remotePath] and all its contents to the local directory [localPath], by extracting
+   * the output of "tar" as it is received (see [AdbDeviceCapabilities.supportsTarCommand]).
+   */
+  suspend fun downloadDirectory(
+    remotePath: String,
+    localPath: Path,
+    progress: DirectoryTransferProgress,
+    runAs: String?
+  ) {
+    val command = fileOperations.getTarDirectoryCommand(remotePath, runAs)
+    val receiver = TarOutputReceiver(localPath, progressExecutor, progress)
+    withContext(dispatcher) {
+      val stopwatch = Stopwatch.createStarted()
+      receiver.use {
+        // Note: The timeout is the maximum time between two outputs of the command, not the
+        //       duration of the whole transfer, which depends on the size of the directory.
+        device.executeShellCommand(command, receiver, DdmPreferences.getTimeOut().toLong(), TimeUnit.MILLISECONDS)
+        receiver.error?.let { error ->
+          LOGGER.info("Error pulling directory from \"$remotePath\" to \"$localPath\"", error)
+          throw error
+        }
+        if (progress.isCancelled) {
+          cancelAndThrow()
+        }
+        receiver.finish()
+      }
+      LOGGER.info("Pull directory took $stopwatch to execute: \"$remotePath\" -> \"$localPath\"")
+    }
+  }
+
   suspend fun uploadFile(
     localPath: Path,
     remotePath: String,
@@ -187,6 +223,77 @@ class AdbFileTransfer(
       device.syncService ?: throw IOException("Unable to open synchronization service to device")
     }
 
+  /**
+   * Extracts the output of a "tar" shell command, running on a pooled thread, and forwards
+   * progress to a [DirectoryTransferProgress], using the provided [Executor], typically the
+   * [com.intellij.util.concurrency.EdtExecutorService].
+   */
+  private class TarOutputReceiver(
+    localPath: Path,
+    private val myCallbackExecutor: Executor,
+    private val myProgress: DirectoryTransferProgress
+  ) : IShellOutputReceiver, TarStreamExtractor.Listener, Closeable {
+    private val myExtractor = TarStreamExtractor(localPath, this)
+    private val myThrottledProgress = ThrottledProgress(PROGRESS_REPORT_INTERVAL_MILLIS.toLong())
+    private var myCurrentBytes: Long = 0
+
+    /**
+     * The error that stopped the extraction, if any. Errors are not thrown from [addOutput], as they
+     * would not be reported by [IDevice.executeShellCommand], which stops when [isCancelled] is `true`.
+     */
+    var error: IOException? = null
+      private set
+
+    override fun addOutput(data: ByteArray, offset: Int, length: Int) {
+      if (error != null) {
+        return
+      }
+      try {
+        myExtractor.write(data, offset, length)
+      }
+      catch (e: IOException) {
+        error = e
+        return
+      }
+      myCurrentBytes += length.toLong()
+      if (myThrottledProgress.check()) {
+        // Capture value for lambda (since lambda may be executed after some delay)
+        val currentBytes = myCurrentBytes
+        myCallbackExecutor.execute { myProgress.progress(currentBytes, -1) }
+      }
+    }
+
+    override fun flush() {
+    }
+
+    override fun isCancelled(): Boolean {
+      return error != null || myProgress.isCancelled
+    }
+
+    override fun directoryExtracted(entryPath: String) {
+      myCallbackExecutor.execute { myProgress.directoryTransferred(entryPath) }
+    }
+
+    override fun fileExtracted(entryPath: String, byteCount: Long) {
+      myCallbackExecutor.execute { myProgress.fileTransferred(entryPath, byteCount) }
+    }
+
+    @Throws(IOException::class)
+    fun finish() {
+      myExtractor.finish()
+      val currentBytes = myCurrentBytes
+      myCallbackExecutor.execute { myProgress.progress(currentBytes, currentBytes) }
+    }
+
+    override fun close() {
+      myExtractor.close()
+    }
+
+    companion object {
+      private const val PROGRESS_REPORT_INTERVAL_MILLIS = 50
+    }
+  }
+
   /**
    * Forward callbacks from a [SyncService.ISyncProgressMonitor], running on a pooled thread,
    * to a [FileTransferProgress], using the provided [Executor], typically the
@@ -0,0 +1,344 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.explorer.adbimpl
+
+import java.io.ByteArrayOutputStream
+import java.io.Closeable
+import java.io.IOException
+import java.io.OutputStream
+import java.nio.file.Files
+import java.nio.file.InvalidPathException
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+
+/**
+ * Extracts a tar stream to a local directory as its bytes arrive, followed by the exit status of the command that produced it.
+ *
+ * The stream is the output of `tar -cf - -C <directory> .; echo $?` on a device: a ustar archive (with GNU long names and pax
+ * path extensions, as written by toybox tar), then the exit status of tar as a decimal number. Regular files and directories are
+ * extracted, hard links are copied from their previously extracted target, and other entries (symbolic links, devices, etc.) are
+ * skipped. Entries with absolute paths, ".." segments, or segments that a Windows host would read as separators or drives ('\\' and
+ * ':'), are rejected, and so is any entry or hard link target that would resolve outside of the destination directory.
+ */
+internal class TarStreamExtractor(private val destination: Path, private val listener: Listener) : Closeable {
+  interface Listener {
+    /** Invoked when the directory [entryPath], relative to the destination directory, has been created. */
+    fun directoryExtracted(entryPath: String)
+
+    /** Invoked when the file [entryPath], relative to the destination directory, has been written. */
+    fun fileExtracted(entryPath: String, byteCount: Long)
+  }
+
+  private enum class State { HEADER, CONTENTS, PADDING, END }
+
+  private enum class ContentsKind { FILE, LONG_NAME, PAX_HEADER, SKIPPED }
+
+  private var state = State.HEADER
+  private val header = ByteArray(BLOCK_SIZE)
+  private var headerLength = 0
+  private var emptyBlockCount = 0
+
+  private var contentsKind = ContentsKind.SKIPPED
+  private var contentsSize = 0L
+  private var remainingBytes = 0L
+  private var paddingBytes = 0
+  private var entryPath = ""
+  private var fileOutput: OutputStream? = null
+  private var metadata: ByteArrayOutputStream? = null
+
+  /** The path and size of the next entry, from a preceding GNU long name or pax extended header. */
+  private var nextEntryName: String? = null
+  private var nextEntrySize: Long? = null
+
+  private val trailer = StringBuilder()
+
+  private val normalizedDestination = destination.normalize()
+
+  /**
+   * Extracts the next [length] bytes of the stream.
+   */
+  @Throws(IOException::class)
+  fun write(data: ByteArray, offset: Int, length: Int) {
+    var position = offset
+    val end = offset + length
+    while (position < end) {
+      val available = end - position
+      position += when (state) {
+        State.HEADER -> readHeader(data, position, available)
+        State.CONTENTS -> readContents(data, position, available)
+        State.PADDING -> skipPadding(available)
+        State.END -> readTrailer(data, position, available)
+      }
+    }
+  }
+
+  /**
+   * Checks that the whole archive has been extracted, and that the command that produced it succeeded.
+   */
+  @Throws(IOException::class)
+  fun finish() {
+    if (state != State.END) {
+      throw IOException("Unexpected end of tar stream")
+    }
+    val exitStatus = trailer.toString().trim().toIntOrNull() ?: throw IOException("Missing tar exit status")
+    if (exitStatus != 0) {
+      throw IOException("tar exited with status $exitStatus")
+    }
+  }
+
+  override fun close() {
+    fileOutput?.close()
+    fileOutput = null
+  }
+
+  private fun readHeader(data: ByteArray, offset: Int, available: Int): Int {
+    val count = minOf(available, BLOCK_SIZE - headerLength)
+    System.arraycopy(data, offset, header, headerLength, count)
+    headerLength += count
+    if (headerLength == BLOCK_SIZE) {
+      headerLength = 0
+      processHeader()
+    }
+    return count
+  }
+
+  private fun processHeader() {
+    if (header.all { it == 0.toByte() }) {
+      // The archive ends with two empty blocks
+      if (++emptyBlockCount == 2) {
+        state = State.END
+      }
+      return
+    }
+    emptyBlockCount = 0
+    verifyChecksum()
+
+    val name = nextEntryName ?: readName()
+    val size = nextEntrySize ?: readNumber(SIZE_OFFSET, SIZE_LENGTH)
+    nextEntryName = null
+    nextEntrySize = null
+
+    contentsKind = ContentsKind.SKIPPED
+    when (header[TYPE_OFFSET].toInt().toChar()) {
+      '0', '\u0000', '7' -> toEntryPath(name)?.let { path ->
+        val localPath = resolve(path)
+        Files.createDirectories(localPath.parent)
+        fileOutput = Files.newOutputStream(localPath)
+        entryPath = path
+        contentsKind = ContentsKind.FILE
+      }
+      '1' -> toEntryPath(name)?.let { path ->
+        val target = toEntryPath(readString(LINK_NAME_OFFSET, NAME_LENGTH)) ?: throw IOException("Invalid hard link in tar stream: $name")
+        val localPath = resolve(path)
+        Files.createDirectories(localPath.parent)
+        Files.copy(resolve(target), localPath, StandardCopyOption.REPLACE_EXISTING)
+        listener.fileExtracted(path, Files.size(localPath))
+      }
+      '5' -> toEntryPath(name)?.let { path ->
+        Files.createDirectories(resolve(path))
+        listener.directoryExtracted(path)
+      }
+      'L' -> contentsKind = ContentsKind.LONG_NAME
+      'x' -> contentsKind = ContentsKind.PAX_HEADER
+    }
+    if (contentsKind == ContentsKind.LONG_NAME || contentsKind == ContentsKind.PAX_HEADER) {
+      if (size > MAX_METADATA_SIZE) {
+        throw IOException("Tar extended header is too large ($size bytes)")
+      }
+      metadata = ByteArrayOutputStream(size.toInt())
+    }
+
+    contentsSize = size
+    remainingBytes = size
+    paddingBytes = ((BLOCK_SIZE - size % BLOCK_SIZE) % BLOCK_SIZE).toInt()
+    state = State.CONTENTS
+    if (remainingBytes == 0L) {
+      finishContents()
+    }
+  }
+
+  private fun readContents(data: ByteArray, offset: Int, available: Int): Int {
+    val count = minOf(available.toLong(), remainingBytes).toInt()
+    when (contentsKind) {
+      ContentsKind.FILE -> fileOutput!!.write(data, offset, count)
+      ContentsKind.LONG_NAME, ContentsKind.PAX_HEADER -> metadata!!.write(data, offset, count)
+      ContentsKind.SKIPPED -> Unit
+    }
+    remainingBytes -= count
+    if (remainingBytes == 0L) {
+      finishContents()
+    }
+    return count
+  }
+
+  private fun finishContents() {
+    when (contentsKind) {
+      ContentsKind.FILE -> {
+        close()
+        listener.fileExtracted(entryPath, contentsSize)
+      }
+      ContentsKind.LONG_NAME -> nextEntryName = metadata!!.toByteArray().toString(Charsets.UTF_8).trimEnd('\u0000')
+      ContentsKind.PAX_HEADER -> parsePaxHeader(metadata!!.toByteArray())
+      ContentsKind.SKIPPED -> Unit
+    }
+    metadata = null
+    state = if (paddingBytes > 0) State.PADDING else State.HEADER
+  }
+
+  private fun skipPadding(available: Int): Int {
+    val count = minOf(available, paddingBytes)
+    paddingBytes -= count
+    if (paddingBytes == 0) {
+      state = State.HEADER
+    }
+    return count
+  }
+
+  private fun readTrailer(data: ByteArray, offset: Int, available: Int): Int {
+    // Archives may be padded with empty blocks up to a full record, so zero bytes are ignored.
+    for (i in offset until offset + available) {
+      val byte = data[i]
+      if (byte != 0.toByte() && trailer.length < MAX_TRAILER_LENGTH) {
+        trailer.append(byte.toInt().toChar())
+      }
+    }
+    return available
+  }
+
+  /**
+   * Parses the "path" and "size" records of a pax extended header, which are formatted as "<length> <key>=<value>\n".
+   */
+  private fun parsePaxHeader(bytes: ByteArray) {
+    var position = 0
+    while (position < bytes.size) {
+      val space = (position until bytes.size).firstOrNull { bytes[it] == ' '.code.toByte() } ?: break
+      val length = String(bytes, position, space - position, Charsets.UTF_8).toIntOrNull()
+      if (length == null || length <= space - position || position + length > bytes.size) {
+        throw IOException("Invalid pax extended header in tar stream")
+      }
+      val record = String(bytes, space + 1, position + length - space - 1, Charsets.UTF_8).removeSuffix("\n")
+      val key = record.substringBefore('=')
+      val value = record.substringAfter('=')
+      when (key) {
+        "path" -> nextEntryName = value
+        "size" -> nextEntrySize = value.toLongOrNull() ?: throw IOException("Invalid size in pax extended header: $value")
+      }
+      position += length
+    }
+  }
+
+  private fun verifyChecksum() {
+    val expected = readNumber(CHECKSUM_OFFSET, CHECKSUM_LENGTH)
+    var unsignedSum = 0L
+    var signedSum = 0L
+    for (i in 0 until BLOCK_SIZE) {
+      // The checksum is computed as if the checksum field was filled with spaces
+      val byte = if (i >= CHECKSUM_OFFSET && i < CHECKSUM_OFFSET + CHECKSUM_LENGTH) ' '.code.toByte() else header[i]
+      unsignedSum += byte.toInt() and 0xff
+      signedSum += byte
+    }
+    if (expected != unsignedSum && expected != signedSum) {
+      throw IOException("Invalid tar header checksum")
+    }
+  }
+
+  private fun readName(): String {
+    val name = readString(0, NAME_LENGTH)
+    // Only POSIX archives have a prefix field, GNU archives ("ustar  ") use it for other purposes
+    if (readString(MAGIC_OFFSET, MAGIC_LENGTH) != USTAR_MAGIC) {
+      return name
+    }
+    val prefix = readString(PREFIX_OFFSET, PREFIX_LENGTH)
+    return if (prefix.isEmpty()) name else "$prefix/$name"
+  }
+
+  private fun readString(offset: Int, length: Int): String {
+    var end = offset
+    while (end < offset + length && header[end] != 0.toByte()) {
+      end++
+    }
+    return String(header, offset, end - offset, Charsets.UTF_8)
+  }
+
+  /**
+   * Reads a numeric field, which is either an octal number padded with spaces or NULs, or a big-endian base-256 number if the high
+   * bit of its first byte is set.
+   */
+  private fun readNumber(offset: Int, length: Int): Long {
+    if (header[offset].toInt() and 0x80 != 0) {
+      var value = (header[offset].toInt() and 0x7f).toLong()
+      for (i in offset + 1 until offset + length) {
+        value = (value shl 8) or (header[i].toLong() and 0xff)
+      }
+      return value
+    }
+    val text = readString(offset, length).trim()
+    if (text.isEmpty()) {
+      return 0
+    }
+    return text.toLongOrNull(8) ?: throw IOException("Invalid numeric field in tar header: $text")
+  }
+
+  /**
+   * Returns the path of an entry relative to the destination directory, without "." segments, or `null` for the destination
+   * directory itself.
+   *
+   * Backslashes and colons are legal in device file names, but they are separators and drive letters on Windows hosts, so they are
+   * rejected as well.
+   */
+  private fun toEntryPath(name: String): String? {
+    val segments = name.split('/').filter { it.isNotEmpty() && it != "." }
+    if (name.startsWith("/") || segments.any { it == ".." || it.contains('\\') || it.contains(':') }) {
+      throw IOException("Invalid entry path in tar stream: $name")
+    }
+    return if (segments.isEmpty()) null else segments.joinToString("/")
+  }
+
+  /**
+   * Returns the local path of an entry, which is checked to be inside the destination directory regardless of how the host file
+   * system interprets the entry path.
+   */
+  private fun resolve(entryPath: String): Path {
+    val localPath = try {
+      destination.resolve(entryPath).normalize()
+    }
+    catch (e: InvalidPathException) {
+      throw IOException("Invalid local path for entry \"$entryPath\"", e)
+    }
+    if (localPath == normalizedDestination || !localPath.startsWith(normalizedDestination)) {
+      throw IOException("Invalid entry path in tar stream: $entryPath")
+    }
+    return localPath
+  }
+
+  companion object {
+    private const val BLOCK_SIZE = 512
+    private const val NAME_LENGTH = 100
+    private const val SIZE_OFFSET = 124
+    private const val SIZE_LENGTH = 12
+    private const val CHECKSUM_OFFSET = 148
+    private const val CHECKSUM_LENGTH = 8
+    private const val TYPE_OFFSET = 156
+    private const val LINK_NAME_OFFSET = 157
+    private const val MAGIC_OFFSET = 257
+    private const val MAGIC_LENGTH = 6
+    private const val USTAR_MAGIC = "ustar"
+    private const val PREFIX_OFFSET = 345
+    private const val PREFIX_LENGTH = 155
+    private const val MAX_METADATA_SIZE = 1024 * 1024
+    private const val MAX_TRAILER_LENGTH = 32
+  }
+}
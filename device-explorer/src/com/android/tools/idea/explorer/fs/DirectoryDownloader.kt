@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.explorer.fs
+
+import java.nio.file.Path
+
+/**
+ * A [DeviceFileEntry] that may be able to download a directory and all its contents in a single transfer.
+ */
+interface DirectoryDownloader {
+  /**
+   * Returns `true` if [downloadDirectory] can download this directory and all its contents in a single transfer, which depends on
+   * the device.
+   */
+  suspend fun supportsDirectoryDownload(): Boolean
+
+  /**
+   * Downloads this directory and all its contents to the local directory [localPath], in a single transfer.
+   * Only supported if [supportsDirectoryDownload] returns `true`.
+   */
+  suspend fun downloadDirectory(
+    localPath: Path,
+    progress: DirectoryTransferProgress
+  )
+}
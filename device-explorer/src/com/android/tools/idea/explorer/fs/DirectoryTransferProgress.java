@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.explorer.fs;
+
+import com.android.annotations.concurrency.UiThread;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Progress of the transfer of a directory and all its contents in a single operation. In addition to
+ * the number of bytes transferred so far, reports each entry as soon as its transfer is complete.
+ */
+public interface DirectoryTransferProgress extends FileTransferProgress {
+  /**
+   * Reports that the contents of the file <code>entryPath</code>, relative to the directory
+   * being transferred, have been transferred.
+   */
+  @UiThread
+  void fileTransferred(@NotNull String entryPath, long byteCount);
+
+  /**
+   * Reports that the directory <code>entryPath</code>, relative to the directory being
+   * transferred, has been created.
+   */
+  @UiThread
+  void directoryTransferred(@NotNull String entryPath);
+}
@@ -18,10 +18,14 @@ package com.android.tools.idea.explorer.adbimpl
 import com.android.ddmlib.IDevice
 import com.android.ddmlib.testing.FakeAdbRule
 import com.android.fakeadbserver.DeviceFileState
+import com.android.fakeadbserver.FakeAdbServer
 import com.android.fakeadbserver.devicecommandhandlers.SyncCommandHandler
+import com.android.fakeadbserver.shellcommandhandlers.ShellHandler
 import com.android.flags.junit.SetFlagRule
 import com.android.tools.idea.adb.AdbShellCommandException
 import com.android.tools.idea.concurrency.FutureCallbackExecutor
+import com.android.tools.idea.explorer.fs.DirectoryDownloader
+import com.android.tools.idea.explorer.fs.DirectoryTransferProgress
 import com.android.tools.idea.explorer.fs.FileTransferProgress
 import com.android.tools.idea.flags.StudioFlags
 import com.android.tools.idea.testing.DebugLoggerRule
@@ -46,6 +50,7 @@ import org.junit.rules.ExpectedException
 import org.junit.rules.TestRule
 import org.junit.runner.RunWith
 import org.junit.runners.Parameterized
+import java.net.Socket
 import java.nio.file.Files
 import java.util.concurrent.ExecutorService
 import java.util.concurrent.TimeUnit
@@ -60,6 +65,7 @@ class AdbDeviceFileSystemTest(deviceInterfaceLibrary: DeviceInterfaceLibrary) {
   private lateinit var deviceState: com.android.fakeadbserver.DeviceState
 
   val shellCommands = TestShellCommands()
+  val binaryShellCommands = mutableMapOf<String, ByteArray>()
 
   @get:Rule
   var thrown = ExpectedException.none()
@@ -67,6 +73,7 @@ class AdbDeviceFileSystemTest(deviceInterfaceLibrary: DeviceInterfaceLibrary) {
   @get:Rule
   val adb = FakeAdbRule()
     .withDeviceCommandHandler(TestShellCommandHandler(shellCommands))
+    .withDeviceCommandHandler(BinaryShellCommandHandler(binaryShellCommands))
     .withDeviceCommandHandler(SyncCommandHandler())
 
   @get:Rule
@@ -472,6 +479,68 @@ class AdbDeviceFileSystemTest(deviceInterfaceLibrary: DeviceInterfaceLibrary) {
     assertThat(tempFile.toFile().length()).isEqualTo(deviceEntry.size)
   }
 
+  @Test
+  fun test_FileSystem_DownloadDirectory_Works(): Unit = runBlocking {
+    // Prepare
+    TestDevices.EMULATOR_API25.addCommands(shellCommands)
+    val probeFile = "/data/local/tmp/device-explorer/.__temp_tar_test_file__.tmp"
+    shellCommands.add("tar -cf /dev/null $probeFile${TestDevices.COMMAND_ERROR_CHECK_SUFFIX}", "")
+    shellCommands.add("rm $probeFile${TestDevices.COMMAND_ERROR_CHECK_SUFFIX}", "")
+    binaryShellCommands["su 0 sh -c 'tar -cf - -C /system/ . 2>/dev/null; echo \$?'"] = TestTarArchive()
+      .addDirectory("./")
+      .addDirectory("./etc/")
+      .addFile("./etc/hosts", "127.0.0.1 localhost\n".toByteArray())
+      .addFile("./build.prop", ByteArray(1000) { 'a'.code.toByte() })
+      .build()
+    val deviceEntry = myFileSystem.getEntry("/system") as DirectoryDownloader
+    val localDirectory = FileUtil.createTempDirectory("localDirectory", "tmp").toPath()
+
+    // Act
+    val supportsDirectoryDownload = deviceEntry.supportsDirectoryDownload()
+    val transferredEntries = mutableListOf<String>()
+    val totalBytesRef = AtomicReference<Long>()
+    deviceEntry.downloadDirectory(localDirectory, object : DirectoryTransferProgress {
+      override fun progress(currentBytes: Long, totalBytes: Long) {
+        totalBytesRef.set(totalBytes)
+      }
+
+      override fun fileTransferred(entryPath: String, byteCount: Long) {
+        transferredEntries.add("$entryPath ($byteCount)")
+      }
+
+      override fun directoryTransferred(entryPath: String) {
+        transferredEntries.add(entryPath)
+      }
+
+      override fun isCancelled(): Boolean {
+        return false
+      }
+    })
+    // Ensure all progress callbacks have been executed
+    myCallbackExecutor.submit(EmptyRunnable.getInstance()).get(TIMEOUT_MILLISECONDS, TimeUnit.MILLISECONDS)
+
+    // Assert
+    assertThat(supportsDirectoryDownload).isTrue()
+    assertThat(transferredEntries).containsExactly("etc", "etc/hosts (20)", "build.prop (1000)").inOrder()
+    assertThat(totalBytesRef.get()).isGreaterThan(1020L)
+    assertThat(Files.readAllBytes(localDirectory.resolve("etc/hosts"))).isEqualTo("127.0.0.1 localhost\n".toByteArray())
+    assertThat(localDirectory.resolve("build.prop").toFile().length()).isEqualTo(1000)
+  }
+
+  @Test
+  fun test_FileSystem_DownloadDirectory_NotSupportedBeforeApi24(): Unit = runBlocking {
+    // Prepare
+    TestDevices.NEXUS_7_API23.addCommands(shellCommands)
+    val lowApiDevice = adb.attachDevice(
+      deviceId = "test_device_02", manufacturer = "Google", model = "Nexus 7", release = "6.0", sdk = "23",
+      hostConnectionType = com.android.fakeadbserver.DeviceState.HostConnectionType.USB)
+    val device = adb.bridge.devices.single { it.serialNumber == lowApiDevice.deviceId }
+    val fileSystem = AdbDeviceFileSystem(coroutineScope, device, FutureCallbackExecutor(myCallbackExecutor), dispatcher)
+
+    // Act/Assert
+    assertThat((fileSystem.rootDirectory() as DirectoryDownloader).supportsDirectoryDownload()).isFalse()
+  }
+
   private fun setUserIsRoot(isRoot: Boolean) {
     shellCommands.add("echo \$USER_ID", if (isRoot) "0\n" else "4\n")
   }
@@ -491,4 +560,30 @@ class AdbDeviceFileSystemTest(deviceInterfaceLibrary: DeviceInterfaceLibrary) {
     @ClassRule
     val ourLoggerRule: TestRule = DebugLoggerRule()
   }
-}
\ No newline at end of file
+}
+
+/**
+ * Handler for FakeAdbServer that writes the given binary output for shell commands, such as the tar
+ * archives written by directory downloads.
+ */
+private class BinaryShellCommandHandler(private val commands: Map<String, ByteArray>) : ShellHandler() {
+  override fun accept(
+    server: FakeAdbServer,
+    socket: Socket,
+    device: com.android.fakeadbserver.DeviceState,
+    command: String,
+    args: String
+  ): Boolean {
+    if (command == "shell" && commands.containsKey(args)) {
+      invoke(server, socket, device, args)
+      return true
+    }
+    return false
+  }
+
+  override fun invoke(server: FakeAdbServer, socket: Socket, device: com.android.fakeadbserver.DeviceState, args: String) {
+    val outputStream = socket.getOutputStream()
+    writeOkay(outputStream)
+    outputStream.write(commands.getValue(args))
+  }
+}
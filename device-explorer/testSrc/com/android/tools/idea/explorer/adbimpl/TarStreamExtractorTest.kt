@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.explorer.adbimpl
+
+import com.google.common.truth.Truth.assertThat
+import com.intellij.testFramework.UsefulTestCase.assertThrows
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.Path
+
+class TarStreamExtractorTest {
+  @get:Rule
+  val tempFolder = TemporaryFolder()
+
+  private val extractedDirectories = mutableListOf<String>()
+  private val extractedFiles = mutableListOf<Pair<String, Long>>()
+
+  private val listener = object : TarStreamExtractor.Listener {
+    override fun directoryExtracted(entryPath: String) {
+      extractedDirectories.add(entryPath)
+    }
+
+    override fun fileExtracted(entryPath: String, byteCount: Long) {
+      extractedFiles.add(entryPath to byteCount)
+    }
+  }
+
+  @Test
+  fun testExtractFilesAndDirectories() {
+    // Prepare
+    val largeContents = ByteArray(3 * 512) { it.toByte() }
+    val archive = TestTarArchive()
+      .addDirectory("./")
+      .addDirectory("./databases/")
+      .addFile("./databases/app.db", "database".toByteArray())
+      .addFile("./large.bin", largeContents)
+      .addFile("./empty.txt", ByteArray(0))
+      .build()
+
+    // Act
+    val destination = extract(archive, chunkSize = 7)
+
+    // Assert
+    assertThat(extractedDirectories).containsExactly("databases")
+    assertThat(extractedFiles).containsExactly("databases/app.db" to 8L, "large.bin" to 1536L, "empty.txt" to 0L).inOrder()
+    assertThat(Files.readAllBytes(destination.resolve("databases/app.db"))).isEqualTo("database".toByteArray())
+    assertThat(Files.readAllBytes(destination.resolve("large.bin"))).isEqualTo(largeContents)
+    assertThat(Files.size(destination.resolve("empty.txt"))).isEqualTo(0)
+  }
+
+  @Test
+  fun testExtractLongNames() {
+    // Prepare
+    val longName = "./" + "d".repeat(120) + "/" + "f".repeat(120) + ".txt"
+    val archive = TestTarArchive()
+      .addEntry("././@LongLink", 'L', (longName + "\u0000").toByteArray())
+      .addFile(longName.substring(0, 100), "gnu".toByteArray())
+      .addEntry("./PaxHeaders/pax", 'x', TestTarArchive.paxRecords("mtime" to "1500000000", "path" to "$longName.pax"))
+      .addFile("./pax", "pax".toByteArray())
+      .build()
+
+    // Act
+    val destination = extract(archive)
+
+    // Assert
+    assertThat(extractedFiles.map { it.first }).containsExactly(longName.substring(2), longName.substring(2) + ".pax").inOrder()
+    assertThat(Files.readAllBytes(destination.resolve(longName.substring(2) + ".pax"))).isEqualTo("pax".toByteArray())
+  }
+
+  @Test
+  fun testHardLinksAreCopiedAndSymbolicLinksAreSkipped() {
+    // Prepare
+    val archive = TestTarArchive()
+      .addFile("./file.txt", "contents".toByteArray())
+      .addEntry("./hardlink.txt", '1', linkName = "./file.txt")
+      .addEntry("./symlink.txt", '2', linkName = "/sdcard/file.txt")
+      .build()
+
+    // Act
+    val destination = extract(archive)
+
+    // Assert
+    assertThat(Files.readAllBytes(destination.resolve("hardlink.txt"))).isEqualTo("contents".toByteArray())
+    assertThat(Files.exists(destination.resolve("symlink.txt"))).isFalse()
+    assertThat(extractedFiles).containsExactly("file.txt" to 8L, "hardlink.txt" to 8L).inOrder()
+  }
+
+  @Test
+  fun testNonZeroExitStatusIsAnError() {
+    val archive = TestTarArchive().addFile("./file.txt", "contents".toByteArray()).build(exitStatus = 1)
+
+    assertThrows(IOException::class.java, "tar exited with status 1") { extract(archive) }
+  }
+
+  @Test
+  fun testTruncatedStreamIsAnError() {
+    val archive = TestTarArchive().addFile("./file.txt", ByteArray(2000)).build()
+
+    assertThrows(IOException::class.java, "Unexpected end of tar stream") { extract(archive.copyOf(1000)) }
+  }
+
+  @Test
+  fun testMissingTarCommandIsAnError() {
+    assertThrows(IOException::class.java, "Unexpected end of tar stream") { extract("127\n".toByteArray()) }
+  }
+
+  @Test
+  fun testInvalidChecksumIsAnError() {
+    val archive = TestTarArchive().addFile("./file.txt", "contents".toByteArray()).build()
+    archive[10]++
+
+    assertThrows(IOException::class.java, "Invalid tar header checksum") { extract(archive) }
+  }
+
+  @Test
+  fun testPathsOutsideDestinationAreRejected() {
+    val archive = TestTarArchive().addFile("./../outside.txt", "contents".toByteArray()).build()
+
+    assertThrows(IOException::class.java, "Invalid entry path in tar stream: ./../outside.txt") { extract(archive) }
+    assertThat(Files.exists(tempFolder.root.toPath().resolve("outside.txt"))).isFalse()
+  }
+
+  @Test
+  fun testWindowsSeparatorsAndDrivesAreRejected() {
+    for (name in listOf("./..\\..\\evil.txt", "./C:\\evil.txt", "./dir/C:evil.txt", "./dir\\..\\..\\evil.txt")) {
+      val archive = TestTarArchive().addFile(name, "contents".toByteArray()).build()
+
+      assertThrows(IOException::class.java, "Invalid entry path in tar stream: $name") { extract(archive) }
+    }
+    assertThat(extractedFiles).isEmpty()
+  }
+
+  @Test
+  fun testHardLinksToPathsOutsideDestinationAreRejected() {
+    val secret = tempFolder.newFile("secret.txt").toPath()
+    Files.write(secret, "secret".toByteArray())
+    for (linkName in listOf("./../secret.txt", "/secret.txt", "./..\\secret.txt", "./C:\\secret.txt")) {
+      val archive = TestTarArchive().addEntry("./hardlink.txt", '1', linkName = linkName).build()
+
+      assertThrows(IOException::class.java, "Invalid") { extract(archive) }
+    }
+    assertThat(extractedFiles).isEmpty()
+  }
+
+  @Test
+  fun testLongNamesOutsideDestinationAreRejected() {
+    val archive = TestTarArchive()
+      .addEntry("./PaxHeaders/evil", 'x', TestTarArchive.paxRecords("path" to "./dir/../../evil.txt"))
+      .addFile("./evil", "contents".toByteArray())
+      .build()
+
+    assertThrows(IOException::class.java, "Invalid entry path in tar stream: ./dir/../../evil.txt") { extract(archive) }
+    assertThat(Files.exists(tempFolder.root.toPath().resolve("evil.txt"))).isFalse()
+  }
+
+  private fun extract(archive: ByteArray, chunkSize: Int = 4096): Path {
+    val destination = tempFolder.newFolder().toPath()
+    TarStreamExtractor(destination, listener).use { extractor ->
+      for (offset in archive.indices step chunkSize) {
+        extractor.write(archive, offset, minOf(chunkSize, archive.size - offset))
+      }
+      extractor.finish()
+    }
+    return destination
+  }
+}
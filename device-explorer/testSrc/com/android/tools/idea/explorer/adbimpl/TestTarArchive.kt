@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.explorer.adbimpl
+
+import java.io.ByteArrayOutputStream
+
+/**
+ * Builds the output of `tar -cf - -C <directory> .; echo $?` on a device, as parsed by [TarStreamExtractor].
+ */
+class TestTarArchive {
+  private val output = ByteArrayOutputStream()
+
+  fun addDirectory(name: String) = addEntry(name, '5')
+
+  fun addFile(name: String, contents: ByteArray) = addEntry(name, '0', contents)
+
+  fun addEntry(name: String, type: Char, contents: ByteArray = ByteArray(0), linkName: String = ""): TestTarArchive {
+    val header = ByteArray(BLOCK_SIZE)
+    putString(header, 0, name)
+    putString(header, 100, if (type == '5') "0000755" else "0000644")
+    putString(header, 108, "0000000")
+    putString(header, 116, "0000000")
+    putString(header, 124, "%011o".format(contents.size))
+    putString(header, 136, "14115330000")
+    header[156] = type.code.toByte()
+    putString(header, 157, linkName)
+    putString(header, 257, "ustar")
+    putString(header, 263, "00")
+
+    // The checksum is computed with the checksum field filled with spaces
+    header.fill(' '.code.toByte(), 148, 156)
+    val checksum = header.sumOf { it.toInt() and 0xff }
+    putString(header, 148, "%06o".format(checksum))
+
+    output.write(header)
+    output.write(contents)
+    output.write(ByteArray((BLOCK_SIZE - contents.size % BLOCK_SIZE) % BLOCK_SIZE))
+    return this
+  }
+
+  fun build(exitStatus: Int = 0): ByteArray {
+    return output.toByteArray() + ByteArray(2 * BLOCK_SIZE) + "$exitStatus\n".toByteArray()
+  }
+
+  private fun putString(header: ByteArray, offset: Int, value: String) {
+    val bytes = value.toByteArray()
+    System.arraycopy(bytes, 0, header, offset, bytes.size)
+  }
+
+  companion object {
+    private const val BLOCK_SIZE = 512
+
+    /** Returns the contents of an extended header with the given records, in the "<length> <key>=<value>\n" pax format. */
+    fun paxRecords(vararg records: Pair<String, String>): ByteArray {
+      val text = StringBuilder()
+      for ((key, value) in records) {
+        val record = " $key=$value\n"
+        // The length includes its own digits
+        var length = record.length + 1
+        while ("$length$record".length != length) {
+          length++
+        }
+        text.append(length).append(record)
+      }
+      return text.toString().toByteArray()
+    }
+  }
+}
@@ -24,11 +24,13 @@ import com.intellij.openapi.application.PathManager;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.SystemInfo;
 import com.intellij.util.system.CpuArch;
+import java.awt.Rectangle;
 import java.lang.reflect.Field;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.jetbrains.annotations.VisibleForTesting;
 
 public final class ImageConverter {
@@ -95,6 +97,81 @@ public final class ImageConverter {
     }
   }
 
+  /**
+   * Converts pixel values in RGB888 format to the 32-bit integers in the 0xAARRGGBB format for
+   * a rectangular region of the image. Pixels outside the region are left unchanged.
+   *
+   * @param imageBytes the pixel values of the whole image
+   * @param imageWidth the width of the image in pixels
+   * @param region the region of the image to convert
+   * @param pixels the converted pixel values of the whole image
+   */
+  public static void unpackRgb888(@NotNull ByteString imageBytes, int imageWidth, @NotNull Rectangle region, int @NotNull [] pixels) {
+    if (region.width <= 0 || region.height <= 0) {
+      return;
+    }
+    if (region.x < 0 || region.y < 0 || region.x + region.width > imageWidth || (region.y + region.height) * imageWidth * 3 > imageBytes.size()) {
+      throw new IllegalArgumentException("Region " + region + " is outside of the image");
+    }
+    byte[] bytes = getBackingArray(imageBytes);
+    int offset = bytes == null ? 0 : getBackingArrayOffset(imageBytes);
+    for (int y = region.y; y < region.y + region.height; y++) {
+      int j = y * imageWidth + region.x;
+      int i = j * 3;
+      int end = j + region.width;
+      if (bytes == null) {
+        while (j < end) {
+          int red = imageBytes.byteAt(i++) & 0xFF;
+          int green = imageBytes.byteAt(i++) & 0xFF;
+          int blue = imageBytes.byteAt(i++) & 0xFF;
+          pixels[j++] = 0xFF000000 | (red << 16) | (green << 8) | blue;
+        }
+      }
+      else {
+        i += offset;
+        while (j < end) {
+          int red = bytes[i++] & 0xFF;
+          int green = bytes[i++] & 0xFF;
+          int blue = bytes[i++] & 0xFF;
+          pixels[j++] = 0xFF000000 | (red << 16) | (green << 8) | blue;
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the array backing the given {@link ByteString}, or null if it cannot be accessed without copying.
+   * The returned array may contain data outside of the byte string, see {@link #getBackingArrayOffset}.
+   */
+  static byte @Nullable [] getBackingArray(@NotNull ByteString byteString) {
+    Field field = bytesField;
+    if (field != null && field.getDeclaringClass().isInstance(byteString)) {
+      try {
+        return (byte[])field.get(byteString);
+      }
+      catch (IllegalAccessException ignored) {
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the offset of the first byte of the given {@link ByteString} in its backing array.
+   * Should only be called if {@link #getBackingArray} returned a non-null value.
+   */
+  static int getBackingArrayOffset(@NotNull ByteString byteString) {
+    Field field = offsetField;
+    if (field == null || !field.getDeclaringClass().isInstance(byteString)) {
+      return 0;
+    }
+    try {
+      return field.getInt(byteString);
+    }
+    catch (IllegalAccessException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
   @VisibleForTesting
   synchronized static void loadNativeLibrary() {
     Path libFile = getLibLocation();
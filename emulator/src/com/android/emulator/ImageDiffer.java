@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.emulator;
+
+import com.android.tools.idea.protobuf.ByteString;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Determines which parts of an RGB888 image changed compared to another image of the same size.
+ * The image is divided into square tiles, and the result is a list of rectangles covering all
+ * changed tiles. Horizontally adjacent changed tiles are merged into a single rectangle.
+ */
+public final class ImageDiffer {
+  public static final int DEFAULT_TILE_SIZE = 32;
+
+  /**
+   * Returns the regions of the {@code current} image that differ from the {@code previous} one,
+   * or null if the images cannot be compared because they have different sizes. An empty list
+   * means that the two images are identical.
+   *
+   * @param previous the pixel values of the previous image in RGB888 format
+   * @param current the pixel values of the current image in RGB888 format
+   * @param width the width of both images in pixels
+   * @param height the height of both images in pixels
+   * @param tileSize the size of the tiles the images are divided into
+   */
+  public static @Nullable List<Rectangle> findChangedRegions(
+      @NotNull ByteString previous, @NotNull ByteString current, int width, int height, int tileSize) {
+    int length = width * height * 3;
+    if (previous.size() != length || current.size() != length) {
+      return null;
+    }
+    List<Rectangle> regions = new ArrayList<>();
+    if (previous == current) {
+      return regions;
+    }
+
+    byte[] previousBytes = ImageConverter.getBackingArray(previous);
+    byte[] currentBytes = ImageConverter.getBackingArray(current);
+    int previousOffset = previousBytes == null ? 0 : ImageConverter.getBackingArrayOffset(previous);
+    int currentOffset = currentBytes == null ? 0 : ImageConverter.getBackingArrayOffset(current);
+
+    int tileColumns = (width + tileSize - 1) / tileSize;
+    boolean[] changed = new boolean[tileColumns];
+    for (int tileY = 0; tileY < height; tileY += tileSize) {
+      int tileHeight = Math.min(tileSize, height - tileY);
+      Arrays.fill(changed, false);
+      int changedCount = 0;
+      for (int y = tileY; y < tileY + tileHeight && changedCount < tileColumns; y++) {
+        for (int column = 0; column < tileColumns; column++) {
+          if (changed[column]) {
+            continue;
+          }
+          int x = column * tileSize;
+          int from = (y * width + x) * 3;
+          int to = from + Math.min(tileSize, width - x) * 3;
+          boolean equal = previousBytes != null && currentBytes != null ?
+                          Arrays.equals(previousBytes, previousOffset + from, previousOffset + to,
+                                        currentBytes, currentOffset + from, currentOffset + to) :
+                          rangeEquals(previous, current, from, to);
+          if (!equal) {
+            changed[column] = true;
+            changedCount++;
+          }
+        }
+      }
+
+      // Merge horizontally adjacent changed tiles.
+      int column = 0;
+      while (column < tileColumns) {
+        if (changed[column]) {
+          int start = column;
+          while (column < tileColumns && changed[column]) {
+            column++;
+          }
+          int x = start * tileSize;
+          int right = Math.min(column * tileSize, width);
+          regions.add(new Rectangle(x, tileY, right - x, tileHeight));
+        }
+        else {
+          column++;
+        }
+      }
+    }
+    return regions;
+  }
+
+  /**
+   * Returns the smallest rectangle containing all the given regions, or null if the list is empty.
+   */
+  public static @Nullable Rectangle union(@NotNull List<Rectangle> regions) {
+    Rectangle result = null;
+    for (Rectangle region : regions) {
+      if (result == null) {
+        result = new Rectangle(region);
+      }
+      else {
+        result.add(region);
+      }
+    }
+    return result;
+  }
+
+  private static boolean rangeEquals(@NotNull ByteString a, @NotNull ByteString b, int from, int to) {
+    for (int i = from; i < to; i++) {
+      if (a.byteAt(i) != b.byteAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // Do not instantiate. All methods are static.
+  private ImageDiffer() {}
+}
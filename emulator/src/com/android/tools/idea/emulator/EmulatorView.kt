@@ -19,6 +19,7 @@ import com.android.annotations.concurrency.GuardedBy
 import com.android.annotations.concurrency.Slow
 import com.android.annotations.concurrency.UiThread
 import com.android.emulator.ImageConverter
+import com.android.emulator.ImageDiffer
 import com.android.emulator.control.DisplayModeValue
 import com.android.emulator.control.ImageFormat
 import com.android.emulator.control.KeyboardEvent
@@ -42,6 +43,7 @@ import com.android.tools.idea.emulator.EmulatorController.ConnectionStateListene
 import com.android.tools.idea.flags.StudioFlags
 import com.android.tools.idea.flags.StudioFlags.EMBEDDED_EMULATOR_TRACE_NOTIFICATIONS
 import com.android.tools.idea.flags.StudioFlags.EMBEDDED_EMULATOR_TRACE_SCREENSHOTS
+import com.android.tools.idea.protobuf.ByteString
 import com.google.protobuf.TextFormat.shortDebugString
 import com.intellij.ide.DataManager
 import com.intellij.ide.ui.LafManagerListener
@@ -115,9 +117,12 @@ import java.awt.image.DataBufferInt
 import java.awt.image.DirectColorModel
 import java.awt.image.Raster
 import java.awt.image.SinglePixelPackedSampleModel
+import java.util.concurrent.atomic.AtomicInteger
 import java.util.concurrent.atomic.AtomicReference
 import kotlin.math.PI
 import kotlin.math.abs
+import kotlin.math.ceil
+import kotlin.math.floor
 import kotlin.math.min
 import kotlin.math.nextDown
 import kotlin.math.roundToInt
@@ -849,11 +854,58 @@ class EmulatorView(
     private val screenshotForProcessing = AtomicReference<Screenshot?>()
     private val screenshotForDisplay = AtomicReference<Screenshot?>()
     private val skinLayoutCache = SkinLayoutCache(emulator)
-    private val recycledImage = AtomicReference<SofterReference<BufferedImage>?>()
+    private val recycledScreenshot = AtomicReference<SofterReference<Screenshot>?>()
     private val alarm = Alarm(this)
+    private val incrementalUpdates = StudioFlags.EMBEDDED_EMULATOR_INCREMENTAL_SCREENSHOT_UPDATES.get()
+    /** The most recent frame that arrived while the UI thread was still busy with the previous one. */
+    private val deferredFrame = AtomicReference<ImageMessage?>()
+    /** Number of frames replaced in [deferredFrame] before they were processed. */
+    private val skippedFrameCount = AtomicInteger()
+    @GuardedBy("this")
     private var expectedFrameNumber = -1
+    /** Pixels and the sequence number of the last processed frame. Used to determine the changed part of the next frame. */
+    @GuardedBy("this")
+    private var lastProcessedImage: ByteString? = null
+    @GuardedBy("this")
+    private var lastProcessedFrameNumber = -1
 
     override fun onNext(response: ImageMessage) {
+      if (incrementalUpdates && screenshotForDisplay.get() != null) {
+        // The UI thread hasn't displayed the previous frame yet. Postpone processing of this frame until
+        // it does. If another frame arrives in the meantime, this one is skipped without being converted.
+        if (deferredFrame.getAndSet(response) != null) {
+          skippedFrameCount.incrementAndGet()
+          stats?.recordDroppedFrame()
+        }
+        if (screenshotForDisplay.get() != null) {
+          return
+        }
+        // The UI thread caught up before noticing the deferred frame. Process it here.
+        processFrame(deferredFrame.getAndSet(null) ?: return)
+        return
+      }
+      processFrame(response)
+    }
+
+    /**
+     * Processes the frame deferred by [onNext], if any, on a pooled thread.
+     */
+    @UiThread
+    private fun processDeferredFrame() {
+      if (deferredFrame.get() != null) {
+        executeOnPooledThread {
+          if (screenshotReceiver == this) {
+            deferredFrame.getAndSet(null)?.let { processFrame(it) }
+          }
+        }
+      }
+    }
+
+    @Synchronized
+    private fun processFrame(response: ImageMessage) {
+      if (response.seq <= lastProcessedFrameNumber) {
+        return // A newer frame has already been processed.
+      }
       val arrivalTime = System.currentTimeMillis()
       val imageFormat = response.format
       val imageRotation = imageFormat.rotation.rotation.number
@@ -907,10 +959,22 @@ class EmulatorView(
       }
 
       alarm.cancelAllRequests()
-      val recycledImage = recycledImage.getAndSet(null)?.get()
+      val recycledScreenshot = recycledScreenshot.getAndSet(null)?.get()
+      val recycledImage = recycledScreenshot?.image
       val image = if (recycledImage?.width == imageFormat.width && recycledImage.height == imageFormat.height) {
         val pixels = (recycledImage.raster.dataBuffer as DataBufferInt).data
-        ImageConverter.unpackRgb888(response.image, pixels)
+        // The recycled image still contains the pixels of an earlier frame. Convert only the parts that differ from it.
+        val changedRegions = recycledScreenshot.imageBytes?.let {
+          ImageDiffer.findChangedRegions(it, response.image, imageFormat.width, imageFormat.height, ImageDiffer.DEFAULT_TILE_SIZE)
+        }
+        if (changedRegions == null) {
+          ImageConverter.unpackRgb888(response.image, pixels)
+        }
+        else {
+          for (region in changedRegions) {
+            ImageConverter.unpackRgb888(response.image, imageFormat.width, region, pixels)
+          }
+        }
         recycledImage
       }
       else {
@@ -923,10 +987,26 @@ class EmulatorView(
         BufferedImage(COLOR_MODEL, raster, false, null)
       }
 
-      val lostFrames = if (expectedFrameNumber > 0) response.seq - expectedFrameNumber else 0
+      val skippedFrames = skippedFrameCount.getAndSet(0)
+      val lostFrames = if (expectedFrameNumber > 0) response.seq - expectedFrameNumber - skippedFrames else 0
       stats?.recordFrameArrival(arrivalTime - frameOriginationTime, lostFrames, imageFormat.width * imageFormat.height)
       expectedFrameNumber = response.seq + 1
 
+      // Determine the part of the image that changed since the previous processed frame.
+      val previousImage = lastProcessedImage
+      val previousFrameNumber = lastProcessedFrameNumber
+      val changedRegion = if (incrementalUpdates && previousImage != null) {
+        ImageDiffer.findChangedRegions(previousImage, response.image, imageFormat.width, imageFormat.height,
+                                       ImageDiffer.DEFAULT_TILE_SIZE)?.let { ImageDiffer.union(it) ?: Rectangle() }
+      }
+      else {
+        null
+      }
+      if (incrementalUpdates) {
+        lastProcessedImage = response.image
+      }
+      lastProcessedFrameNumber = response.seq
+
       if (displayMode != null && !checkAspectRatioConsistency(imageFormat, displayMode)) {
         return
       }
@@ -939,6 +1019,13 @@ class EmulatorView(
       }
       val displayShape = DisplayShape(imageFormat.width, imageFormat.height, imageRotation, activeDisplayRegion, displayMode, response.seq)
       val screenshot = Screenshot(displayShape, image, frameOriginationTime)
+      if (incrementalUpdates) {
+        screenshot.imageBytes = response.image
+        if (changedRegion != null) {
+          screenshot.changedRegion = changedRegion
+          screenshot.previousFrameNumber = previousFrameNumber
+        }
+      }
       val skinLayout = skinLayoutCache.getCached(displayShape)
       if (skinLayout == null) {
         computeSkinLayoutOnPooledThread(screenshot)
@@ -1000,33 +1087,71 @@ class EmulatorView(
       val screenshot = screenshotForDisplay.getAndSet(null)
       if (screenshot == null) {
         stats?.recordDroppedFrame()
+        processDeferredFrame()
         return
       }
 
+      val previousScreenshot = lastScreenshot
       // Creation of a large BufferedImage is expensive. Recycle the old image if it has the proper size.
-      lastScreenshot?.image?.let {
-        if (it.width == screenshot.displayShape.width && it.height == screenshot.displayShape.height) {
-          recycledImage.set(SofterReference(it))
+      previousScreenshot?.let {
+        val image = it.image
+        if (image.width == screenshot.displayShape.width && image.height == screenshot.displayShape.height) {
+          recycledScreenshot.set(SofterReference(it))
           alarm.cancelAllRequests()
-          alarm.addRequest({ recycledImage.set(null) }, CACHED_IMAGE_LIVE_TIME_MILLIS, ModalityState.any())
+          alarm.addRequest({ recycledScreenshot.set(null) }, CACHED_IMAGE_LIVE_TIME_MILLIS, ModalityState.any())
         }
-        else if (!isSameAspectRatio(it.width, it.height, screenshot.displayShape.width, screenshot.displayShape.height, 0.01)) {
+        else if (!isSameAspectRatio(image.width, image.height, screenshot.displayShape.width, screenshot.displayShape.height, 0.01)) {
           zoom(ZoomType.FIT) // Display dimensions changed - reset zoom level.
         }
       }
 
-      val lastDisplayMode = lastScreenshot?.displayShape?.displayMode
+      val lastDisplayMode = previousScreenshot?.displayShape?.displayMode
       lastScreenshot = screenshot
 
       receivedFrameCount++
       frameTimestampMillis = System.currentTimeMillis()
-      repaint()
+      val changedRegion = screenshot.changedRegion
+      if (changedRegion != null && previousScreenshot != null &&
+          previousScreenshot.displayShape.frameNumber == screenshot.previousFrameNumber &&
+          previousScreenshot.displayShape.hasSameGeometry(screenshot.displayShape) &&
+          previousScreenshot.skinLayout === screenshot.skinLayout) {
+        repaintDisplayRegion(changedRegion)
+      }
+      else {
+        repaint()
+      }
+      processDeferredFrame()
 
       if (screenshot.displayShape.displayMode != lastDisplayMode) {
         firePropertyChange(DISPLAY_MODE_PROPERTY, lastDisplayMode, screenshot.displayShape.displayMode)
       }
     }
 
+    /**
+     * Repaints the part of the view corresponding to the given region of the display image.
+     */
+    @UiThread
+    private fun repaintDisplayRegion(region: Rectangle) {
+      if (region.isEmpty) {
+        return // Nothing changed.
+      }
+      val displayRect = displayRectangle
+      val shape = screenshotShape
+      if (displayRect == null || shape.width == 0 || shape.height == 0) {
+        repaint()
+        return
+      }
+      // Convert from image pixels to physical pixels and then to virtual pixels. Add a one pixel margin
+      // on each side to account for interpolation when the image is scaled.
+      val scaleX = displayRect.width.toDouble() / shape.width / screenScale
+      val scaleY = displayRect.height.toDouble() / shape.height / screenScale
+      val x = floor(displayRect.x / screenScale + region.x * scaleX).toInt() - 1
+      val y = floor(displayRect.y / screenScale + region.y * scaleY).toInt() - 1
+      val right = ceil(displayRect.x / screenScale + (region.x + region.width) * scaleX).toInt() + 1
+      val bottom = ceil(displayRect.y / screenScale + (region.y + region.height) * scaleY).toInt() + 1
+      repaint(x, y, right - x, bottom - y)
+    }
+
     override fun dispose() {
     }
   }
@@ -1034,6 +1159,11 @@ class EmulatorView(
   private class Screenshot(val displayShape: DisplayShape, val image: BufferedImage, val frameOriginationTime: Long) {
     lateinit var skinLayout: SkinLayout
     var painted = false
+    /** Pixels the [image] was converted from. Only set when incremental screenshot updates are enabled. */
+    var imageBytes: ByteString? = null
+    /** Part of the [image] that changed since the frame with [previousFrameNumber], or null if unknown. */
+    var changedRegion: Rectangle? = null
+    var previousFrameNumber = -1
   }
 
   /**
@@ -1046,7 +1176,7 @@ class EmulatorView(
 
     fun getCached(displayShape: DisplayShape): SkinLayout? {
       synchronized(this) {
-        return if (displayShape == this.displayShape) skinLayout else null
+        return if (this.displayShape?.hasSameGeometry(displayShape) == true) skinLayout else null
       }
     }
 
@@ -1054,7 +1184,7 @@ class EmulatorView(
     fun get(displayShape: DisplayShape): SkinLayout {
       synchronized(this) {
         var layout = this.skinLayout
-        if (displayShape != this.displayShape || layout == null) {
+        if (this.displayShape?.hasSameGeometry(displayShape) != true || layout == null) {
           layout = emulator.skinDefinition?.createScaledLayout(displayShape.width, displayShape.height, displayShape.orientation) ?:
                    SkinLayout(displayShape.width, displayShape.height)
           this.displayShape = displayShape
@@ -1070,7 +1200,12 @@ class EmulatorView(
                                   val orientation: Int,
                                   val activeDisplayRegion: Rectangle? = null,
                                   val displayMode: DisplayMode? = null,
-                                  val frameNumber: Int = 0)
+                                  val frameNumber: Int = 0) {
+    /** Checks if this shape is the same as the [other] one disregarding the frame numbers. */
+    fun hasSameGeometry(other: DisplayShape): Boolean =
+        width == other.width && height == other.height && orientation == other.orientation &&
+        activeDisplayRegion == other.activeDisplayRegion && displayMode == other.displayMode
+  }
 
   private class Stats: Disposable {
     @GuardedBy("this")
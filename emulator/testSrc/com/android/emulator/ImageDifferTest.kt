@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.emulator
+
+import com.android.tools.idea.protobuf.ByteString
+import com.android.tools.idea.protobuf.UnsafeByteOperations
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import java.awt.Rectangle
+
+/**
+ * Tests for [ImageDiffer].
+ */
+class ImageDifferTest {
+
+  @Test
+  fun testIdenticalImages() {
+    val image = createImage()
+    val copy = ByteString.copyFrom(image.toByteArray())
+    assertThat(ImageDiffer.findChangedRegions(image, copy, WIDTH, HEIGHT, TILE_SIZE)).isEmpty()
+  }
+
+  @Test
+  fun testDifferentSizes() {
+    val image = createImage()
+    assertThat(ImageDiffer.findChangedRegions(image, image.substring(3), WIDTH, HEIGHT, TILE_SIZE)).isNull()
+  }
+
+  @Test
+  fun testChangedPixels() {
+    val previous = createImage()
+    val bytes = previous.toByteArray()
+    setPixel(bytes, 5, 5) // First tile.
+    setPixel(bytes, 17, 3) // Second tile in the first tile row, adjacent to the first one.
+    setPixel(bytes, WIDTH - 1, HEIGHT - 1) // Last, partial tile.
+    // Use an offset to exercise handling of the bounded byte strings.
+    val offsetBytes = ByteArray(bytes.size + 7)
+    System.arraycopy(bytes, 0, offsetBytes, 7, bytes.size)
+    val current = UnsafeByteOperations.unsafeWrap(offsetBytes, 7, bytes.size)
+
+    val regions = ImageDiffer.findChangedRegions(previous, current, WIDTH, HEIGHT, TILE_SIZE)
+    assertThat(regions).containsExactly(Rectangle(0, 0, 32, 16), Rectangle(96, 64, 4, 6)).inOrder()
+    assertThat(ImageDiffer.union(regions!!)).isEqualTo(Rectangle(0, 0, WIDTH, HEIGHT))
+  }
+
+  @Test
+  fun testUnpackChangedRegions() {
+    val previous = createImage()
+    val bytes = previous.toByteArray()
+    setPixel(bytes, 20, 30)
+    setPixel(bytes, 60, 33)
+    val current = ByteString.copyFrom(bytes)
+
+    val pixels = IntArray(WIDTH * HEIGHT)
+    ImageConverter.unpackRgb888Slow(previous, pixels)
+    for (region in ImageDiffer.findChangedRegions(previous, current, WIDTH, HEIGHT, TILE_SIZE)!!) {
+      ImageConverter.unpackRgb888(current, WIDTH, region, pixels)
+    }
+    val expected = IntArray(WIDTH * HEIGHT)
+    ImageConverter.unpackRgb888Slow(current, expected)
+    assertThat(pixels).isEqualTo(expected)
+  }
+
+  private fun createImage(): ByteString {
+    return ByteString.copyFrom(ByteArray(WIDTH * HEIGHT * 3) { (it % 251).toByte() })
+  }
+
+  private fun setPixel(bytes: ByteArray, x: Int, y: Int) {
+    val offset = (y * WIDTH + x) * 3
+    bytes[offset] = (bytes[offset] + 1).toByte()
+  }
+}
+
+private const val WIDTH = 100
+private const val HEIGHT = 70
+private const val TILE_SIZE = 16
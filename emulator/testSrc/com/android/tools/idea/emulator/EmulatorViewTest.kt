@@ -26,6 +26,7 @@ import com.android.tools.adtui.actions.ZoomType
 import com.android.tools.adtui.swing.*
 import com.android.tools.idea.concurrency.waitForCondition
 import com.android.tools.idea.emulator.FakeEmulator.GrpcCallRecord
+import com.android.tools.idea.flags.StudioFlags
 import com.android.tools.idea.protobuf.TextFormat.shortDebugString
 import com.android.tools.idea.testing.mockStatic
 import com.google.common.truth.Truth.assertThat
@@ -51,6 +52,8 @@ import java.awt.*
 import java.awt.Point
 import java.awt.event.KeyEvent
 import java.awt.event.KeyEvent.*
+import java.awt.geom.Rectangle2D
+import java.awt.image.BufferedImage
 import java.nio.file.Path
 import java.util.concurrent.TimeUnit
 import java.util.concurrent.TimeoutException
@@ -349,6 +352,48 @@ class EmulatorViewTest {
     assertThat(shortDebugString(call.request)).isEqualTo("index: VIRT_SENSORS")
   }
 
+  @Test
+  fun testIncrementalScreenshotUpdates() {
+    StudioFlags.EMBEDDED_EMULATOR_INCREMENTAL_SCREENSHOT_UPDATES.override(true)
+    try {
+      val view = emulatorViewRule.newEmulatorView()
+      val emulator = emulatorViewRule.getFakeEmulator(view)
+
+      val container = createScrollPane(view)
+      val ui = FakeUi(container, 2.0)
+
+      var frameNumber = view.frameNumber
+      assertThat(frameNumber).isEqualTo(0)
+      container.size = Dimension(200, 300)
+      ui.layoutAndDispatchEvents()
+      getStreamScreenshotCallAndWaitForFrame(ui, view, ++frameNumber)
+      val topLeft = Rectangle2D.Double(0.1, 0.1, 0.3, 0.3)
+      val bottomRight = Rectangle2D.Double(0.6, 0.6, 0.3, 0.3)
+      assertThat(ui.isBlackAt(view, topLeft)).isFalse()
+      assertThat(ui.isBlackAt(view, bottomRight)).isFalse()
+
+      emulator.setDisplayMarker(topLeft)
+      view.waitForFrame(ui, ++frameNumber, 2, TimeUnit.SECONDS)
+      assertThat(ui.isBlackAt(view, topLeft)).isTrue()
+      assertThat(ui.isBlackAt(view, bottomRight)).isFalse()
+
+      // This frame is converted into the recycled image of the first frame.
+      emulator.setDisplayMarker(bottomRight)
+      view.waitForFrame(ui, ++frameNumber, 2, TimeUnit.SECONDS)
+      assertThat(ui.isBlackAt(view, topLeft)).isFalse()
+      assertThat(ui.isBlackAt(view, bottomRight)).isTrue()
+
+      // This frame is converted into the recycled image of the second frame.
+      emulator.setDisplayMarker(null)
+      view.waitForFrame(ui, ++frameNumber, 2, TimeUnit.SECONDS)
+      assertThat(ui.isBlackAt(view, topLeft)).isFalse()
+      assertThat(ui.isBlackAt(view, bottomRight)).isFalse()
+    }
+    finally {
+      StudioFlags.EMBEDDED_EMULATOR_INCREMENTAL_SCREENSHOT_UPDATES.clearOverride()
+    }
+  }
+
   /** Checks that the mouse button release event is sent when the mouse leaves the device display. */
   @Test
   fun testSwipe() {
@@ -635,6 +680,15 @@ class EmulatorViewTest {
     return frameNumber
   }
 
+  /** Checks if the center of the given region of the device display, in relative coordinates, is black. */
+  private fun FakeUi.isBlackAt(view: EmulatorView, region: Rectangle2D): Boolean {
+    val image: BufferedImage = render()
+    val displayRect = view.displayRectangle!!
+    val x = displayRect.x + (displayRect.width * region.centerX).toInt()
+    val y = displayRect.y + (displayRect.height * region.centerY).toInt()
+    return image.getRGB(x, y) and 0xFFFFFF == 0
+  }
+
   private fun assertAppearance(ui: FakeUi, goldenImageName: String) {
     val image = ui.render()
     ImageDiffUtil.assertImageSimilar(getGoldenFile(goldenImageName), image, 0.0)
@@ -81,6 +81,7 @@ import java.awt.RenderingHints.KEY_RENDERING
 import java.awt.RenderingHints.VALUE_ANTIALIAS_ON
 import java.awt.RenderingHints.VALUE_RENDER_QUALITY
 import java.awt.geom.Path2D
+import java.awt.geom.Rectangle2D
 import java.awt.image.BufferedImage
 import java.awt.image.BufferedImage.TYPE_INT_ARGB
 import java.io.ByteArrayOutputStream
@@ -126,6 +127,8 @@ class FakeEmulator(val avdFolder: Path, val grpcPort: Int, registrationDirectory
 
   @Volatile var displayRotation: SkinRotation = SkinRotation.PORTRAIT
   private var foldedDisplay: FoldedDisplay? = null
+  /** Black rectangle drawn on top of the primary display image in coordinates relative to the display size. */
+  private var displayMarker: Rectangle2D? = null
   private var screenshotStreamRequest: ImageFormat? = null
   @Volatile private var screenshotStreamObserver: StreamObserver<Image>? = null
   @Volatile private var clipboardStreamObserver: StreamObserver<ClipData>? = null
@@ -280,6 +283,22 @@ class FakeEmulator(val avdFolder: Path, val grpcPort: Int, registrationDirectory
     }
   }
 
+  /**
+   * Draws a black rectangle on top of the primary display image and sends an updated screenshot.
+   * The [marker] coordinates are relative to the display size, e.g. (0.5, 0, 0.5, 0.5) is the top right
+   * quarter of the display. A null [marker] removes the previously drawn one.
+   */
+  fun setDisplayMarker(marker: Rectangle2D?) {
+    executor.execute {
+      if (marker != displayMarker) {
+        displayMarker = marker
+        val screenshotObserver = screenshotStreamObserver ?: return@execute
+        val request = screenshotStreamRequest ?: return@execute
+        sendScreenshot(request, screenshotObserver)
+      }
+    }
+  }
+
   /**
    * Waits for the next gRPC call while dispatching UI events. Returns the next gRPC call and removes
    * it from the queue of recorded calls. Throws TimeoutException if the call is not recorded within
@@ -365,6 +384,11 @@ class FakeEmulator(val avdFolder: Path, val grpcPort: Int, registrationDirectory
         g.fill(triangle2)
       }
     }
+    val marker = displayMarker
+    if (marker != null && displayId == PRIMARY_DISPLAY_ID) {
+      g.paint = Color.BLACK
+      g.fill(Rectangle2D.Double(marker.x * size.width, marker.y * size.height, marker.width * size.width, marker.height * size.height))
+    }
     g.dispose()
     return image
   }
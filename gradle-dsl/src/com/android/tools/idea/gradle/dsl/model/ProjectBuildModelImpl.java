@@ -23,23 +23,31 @@ import com.android.tools.idea.gradle.dsl.parser.files.GradleBuildFile;
 import com.android.tools.idea.gradle.dsl.parser.files.GradleDslFile;
 import com.android.tools.idea.gradle.dsl.parser.files.GradleSettingsFile;
 import com.android.tools.idea.gradle.dsl.parser.files.GradleVersionCatalogFile;
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.module.Module;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.util.concurrency.AppExecutorUtil;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
-import java.util.stream.Collectors;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 public class ProjectBuildModelImpl implements ProjectBuildModel {
+  private static final ExecutorService PSI_PRELOAD_EXECUTOR = AppExecutorUtil.createBoundedApplicationPoolExecutor(
+    "ProjectBuildModel PSI Preloader", Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+
   @NotNull private final BuildModelContext myBuildModelContext;
   @Nullable private final GradleBuildFile myProjectBuildFile;
 
@@ -174,24 +182,65 @@ public class ProjectBuildModelImpl implements ProjectBuildModel {
     Set<String> modulePaths = settingsModel.modulePaths();
     Integer nModelsToConsider = nModelsSeen[0] + modulePaths.size();
 
-    allModels.addAll(modulePaths.stream().map((modulePath) -> {
-      GradleBuildModel model = null;
+    List<VirtualFile> moduleBuildFiles = new ArrayList<>(modulePaths.size());
+    for (String modulePath : modulePaths) {
+      VirtualFile file = null;
       // This should have already been added above
       if (!modulePath.equals(":")) {
         File moduleDir = settingsModel.moduleDirectory(modulePath);
         if (moduleDir != null) {
-          VirtualFile file = myBuildModelContext.getGradleBuildFile(moduleDir);
-          if (file != null) {
-            model = getModuleBuildModel(file);
-          }
+          file = myBuildModelContext.getGradleBuildFile(moduleDir);
+        }
+      }
+      moduleBuildFiles.add(file);
+    }
+
+    // Building the Dsl tree of a file updates the shared BuildModelContext (applied files, subprojects properties, version catalogs),
+    // so the files are processed one by one. Their PSI however doesn't depend on any other file and is built in parallel ahead of them.
+    List<Future<?>> psiPreloads = preloadPsi(moduleBuildFiles);
+    try {
+      for (VirtualFile file : moduleBuildFiles) {
+        if (file != null) {
+          allModels.add(getModuleBuildModel(file));
         }
+        func.accept(++nModelsSeen[0], nModelsToConsider);
       }
-      func.accept(++nModelsSeen[0], nModelsToConsider);
-      return model;
-    }).filter(Objects::nonNull).collect(Collectors.toList()));
+    }
+    finally {
+      psiPreloads.forEach(future -> future.cancel(false));
+    }
     return allModels;
   }
 
+  /**
+   * Starts building the PSI of the given build files on background threads, so that it is ready by the time the files are parsed. The
+   * returned futures are never waited for: the caller may hold a write lock, and the PSI of a file that hasn't been preloaded yet is
+   * simply built by the parsing thread.
+   */
+  @NotNull
+  private List<Future<?>> preloadPsi(@NotNull List<VirtualFile> files) {
+    if (files.size() < 2) {
+      return Collections.emptyList();
+    }
+    Project project = myBuildModelContext.getProject();
+    List<Future<?>> futures = new ArrayList<>(files.size());
+    for (VirtualFile file : files) {
+      if (file == null) {
+        continue;
+      }
+      futures.add(PSI_PRELOAD_EXECUTOR.submit(() -> ApplicationManager.getApplication().tryRunReadAction(() -> {
+        if (project.isDisposed() || !file.isValid()) {
+          return;
+        }
+        PsiFile psiFile = PsiManager.getInstance(project).findFile(file);
+        if (psiFile != null) {
+          psiFile.getNode(); // Forces the AST to be built.
+        }
+      })));
+    }
+    return futures;
+  }
+
   @Override
   public @Nullable GradleVersionCatalogModel getVersionCatalogModel() {
     if (!GradleDslModelExperimentalSettings.getInstance().isVersionCatalogEnabled()) return null;
@@ -353,6 +353,24 @@ class ProjectBuildModelTest : GradleFileModelTestCase() {
     assertEquals(listOf(1 to null, 2 to null, 3 to 4, 4 to 4), args)
   }
 
+  @Test
+  fun testGetAllIncludedBuildModelsWithManyModules() {
+    writeToBuildFile("")
+    writeToSubModuleBuildFile("")
+    val moduleNames = (1..10).map { "module$it" }
+    moduleNames.forEach { writeToNewSubModule(it, "", "") }
+    writeToSettingsFile(subModuleSettingsText + moduleNames.joinToString("") { getSubModuleSettingsText(it) })
+
+    val pbm = projectBuildModel
+    val args = mutableListOf<Pair<Int, Int?>>()
+    val models = pbm.getAllIncludedBuildModels { n, total -> args.add(n to total) }
+    // The root project, buildSrc, the default submodule and the new modules, in settings file order.
+    assertSize(13, models)
+    assertEquals(moduleNames, models.drop(3).map { it.virtualFile.parent.name })
+    // Progress is also reported for the root project path in the settings file.
+    assertEquals((1..14).toList(), args.map { it.first })
+  }
+
   @Test
   fun testGetContext() {
     val pbm = projectBuildModel
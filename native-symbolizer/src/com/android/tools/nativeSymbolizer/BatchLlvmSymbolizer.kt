@@ -0,0 +1,332 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.nativeSymbolizer
+
+import com.intellij.util.concurrency.AppExecutorUtil
+import java.io.BufferedReader
+import java.io.File
+import java.io.IOException
+import java.io.InputStreamReader
+import java.io.OutputStreamWriter
+import java.util.concurrent.Callable
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Future
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+
+/**
+ * An address to symbolize: an offset in a native module.
+ */
+data class NativeAddress(val module: File, val offset: Long)
+
+/**
+ * Implementation of NativeSymbolizer that symbolizes many addresses at once with a pool of llvm-symbolizer processes.
+ *
+ * [symbolizeAll] symbolizes each distinct address once, looks it up in a [SymbolCache], and splits the remaining addresses into batches
+ * of [batchSize]. Symbols are cached by the build id of their symbol file, so that they are shared by all the copies of a library, while
+ * the offsets without a symbol are cached by the path, size and modification time of the symbol file, as a stripped copy of a library
+ * has the same build id but fewer symbols. Each batch is written to an llvm-symbolizer process while its responses are
+ * read, so the process never waits for the next request, and up to [processCount] batches are symbolized concurrently.
+ *
+ * See [LlvmSymbolizer] for the protocol. A batch fails if its process doesn't respond to any request for [timeoutMsc], in which case its
+ * addresses are not symbolized.
+ */
+class BatchLlvmSymbolizer(private val symbolizerExe: String,
+                          private val symLocator: SymbolFilesLocator,
+                          private val cache: SymbolCache = SymbolCache.getInstance(),
+                          private val processCount: Int = DEFAULT_PROCESS_COUNT,
+                          private val batchSize: Int = DEFAULT_BATCH_SIZE,
+                          private val timeoutMsc: Long = 5000) : NativeSymbolizer {
+
+  private class SymbolFileKey(val length: Long, val lastModified: Long, val key: String, val stampKey: String)
+
+  /**
+   * A request to llvm-symbolizer, for an offset in a symbol file. Its symbol is cached under [key], or under [stampKey] if it has none,
+   * see [getSymbolFileKey].
+   */
+  private data class Query(val symFile: File, val key: String, val stampKey: String, val offset: Long)
+
+  private class Batch(val queries: List<Query>) {
+    @Volatile var responseCount = 0
+    @Volatile var process: SymbolizerProcess? = null
+  }
+
+  private val readExecutor: ExecutorService = AppExecutorUtil.createBoundedApplicationPoolExecutor("BatchLlvmSymbolizer", processCount)
+  private val writeExecutor: ExecutorService =
+    AppExecutorUtil.createBoundedApplicationPoolExecutor("BatchLlvmSymbolizer Writer", processCount)
+  private val idleProcesses = ConcurrentLinkedQueue<SymbolizerProcess>()
+  private val symbolFileKeys = ConcurrentHashMap<File, SymbolFileKey>()
+
+  /**
+   * Symbolizes a single address from the cache, or with a request to an idle llvm-symbolizer process on the calling thread. Prefer
+   * [symbolizeAll] to symbolize many addresses.
+   *
+   * @param abiArch - The cpu architecture of the symbol.
+   * @param module - The file path to the module.
+   * @param offset - The starting byte address in the module of the symbol.
+   */
+  override fun symbolize(abiArch: String, module: File, offset: Long): Symbol? {
+    for (symFile in symLocator.getFiles(abiArch).filter { it.nameWithoutExtension == module.nameWithoutExtension }) {
+      val query = createQuery(symFile, offset)
+      val result = getCached(query) ?: symbolizeSingle(query)?.also { putCached(listOf(query), listOf(it)) }
+      if (result != null && result.isKnown) {
+        return result.toSymbol(module.absolutePath)
+      }
+    }
+    return null
+  }
+
+  /**
+   * Symbolizes the given addresses of modules of the given cpu architecture.
+   *
+   * @return the symbol of each address, in the same order, or null for the addresses that can't be symbolized
+   */
+  @Throws(IOException::class)
+  fun symbolizeAll(abiArch: String, addresses: List<NativeAddress>): List<Symbol?> {
+    val symFilesByName = symLocator.getFiles(abiArch).groupBy { it.nameWithoutExtension }
+    val symbols = HashMap<NativeAddress, Symbol>()
+
+    // Like LlvmSymbolizer, try the symbol files with the name of the module in turn until one of them has a symbol for the address.
+    var unresolved: Collection<NativeAddress> = LinkedHashSet(addresses)
+    var candidateIndex = 0
+    while (unresolved.isNotEmpty()) {
+      val queries = LinkedHashMap<NativeAddress, Query>()
+      for (address in unresolved) {
+        val symFile = symFilesByName[address.module.nameWithoutExtension]?.getOrNull(candidateIndex) ?: continue
+        queries[address] = createQuery(symFile, address.offset)
+      }
+      val results = lookUp(queries.values.toSet())
+      unresolved = queries.keys.filter { address ->
+        val result = results[queries.getValue(address)]
+        if (result != null && result.isKnown) {
+          symbols[address] = result.toSymbol(address.module.absolutePath)
+          false
+        }
+        else {
+          true
+        }
+      }
+      candidateIndex++
+    }
+    return addresses.map { symbols[it] }
+  }
+
+  /**
+   * Returns the results of the given queries, from the cache or from llvm-symbolizer. The queries whose batch failed are missing.
+   */
+  private fun lookUp(queries: Set<Query>): Map<Query, CachedSymbol> {
+    val results = HashMap<Query, CachedSymbol>()
+    val misses = mutableListOf<Query>()
+    for (query in queries) {
+      val cached = getCached(query)
+      if (cached != null) {
+        results[query] = cached
+      }
+      else {
+        misses.add(query)
+      }
+    }
+
+    val batches = misses.chunked(batchSize).map { Batch(it) }
+    val futures = batches.map { batch -> readExecutor.submit<List<CachedSymbol>> { symbolizeBatch(batch) } }
+    for ((batch, future) in batches.zip(futures)) {
+      val batchResults = awaitBatch(batch, future) ?: continue
+      for ((query, result) in batch.queries.zip(batchResults)) {
+        results[query] = result
+      }
+      putCached(batch.queries, batchResults)
+    }
+    return results
+  }
+
+  private fun getCached(query: Query): CachedSymbol? =
+    cache.get(query.key, query.offset)?.takeIf { it.isKnown } ?: cache.get(query.stampKey, query.offset)?.takeIf { !it.isKnown }
+
+  private fun putCached(queries: List<Query>, results: List<CachedSymbol>) {
+    val resultsByKey = queries.indices.groupBy({ if (results[it].isKnown) queries[it].key else queries[it].stampKey },
+                                               { queries[it].offset to results[it] })
+    for ((key, keyResults) in resultsByKey) {
+      cache.putAll(key, keyResults.toMap())
+    }
+  }
+
+  /**
+   * Waits for a batch to be symbolized, as long as its process keeps responding. Returns null if the batch failed.
+   */
+  private fun awaitBatch(batch: Batch, future: Future<List<CachedSymbol>>): List<CachedSymbol>? {
+    var lastResponseCount = -1
+    while (true) {
+      try {
+        return future.get(timeoutMsc, TimeUnit.MILLISECONDS)
+      }
+      catch (e: TimeoutException) {
+        // A batch that hasn't started yet is waiting for a process to become available.
+        val process = batch.process ?: continue
+        if (batch.responseCount == lastResponseCount) {
+          getLogger().warn("llvm-symbolizer timed out")
+          // Killing the process makes symbolizeBatch fail, so the next iteration gets an ExecutionException.
+          process.dispose()
+        }
+        lastResponseCount = batch.responseCount
+      }
+      catch (e: ExecutionException) {
+        val cause = e.cause
+        if (cause is SymbolizerStartException) {
+          throw cause.cause
+        }
+        getLogger().warn("llvm-symbolizer communication failed", cause)
+        return null
+      }
+    }
+  }
+
+  /**
+   * Writes the requests of a batch to a process on another thread, and reads the responses on this one.
+   */
+  private fun symbolizeBatch(batch: Batch): List<CachedSymbol> {
+    val process = idleProcesses.poll()?.takeIf { it.process.isAlive } ?: startProcess()
+    batch.process = process
+    val writeFuture = writeExecutor.submit(Callable<Unit> {
+      for (query in batch.queries) {
+        process.stdin.write(formatSymbolizerRequest(query.symFile, query.offset))
+      }
+      process.stdin.flush()
+    })
+
+    val results = ArrayList<CachedSymbol>(batch.queries.size)
+    try {
+      for (query in batch.queries) {
+        results.add(readResponse(process, query))
+        batch.responseCount++
+      }
+      writeFuture.get()
+    }
+    catch (e: Exception) {
+      process.dispose()
+      writeFuture.cancel(true)
+      throw e
+    }
+    idleProcesses.offer(process)
+    return results
+  }
+
+  /**
+   * Symbolizes a single query on the calling thread. Returns null if the process failed or didn't respond in time.
+   */
+  private fun symbolizeSingle(query: Query): CachedSymbol? {
+    val process = try {
+      idleProcesses.poll()?.takeIf { it.process.isAlive } ?: startProcess()
+    }
+    catch (e: SymbolizerStartException) {
+      throw e.cause
+    }
+    // Killing the process makes the read below fail.
+    val watchdog = AppExecutorUtil.getAppScheduledExecutorService().schedule(Runnable { process.dispose() }, timeoutMsc, TimeUnit.MILLISECONDS)
+    try {
+      process.stdin.write(formatSymbolizerRequest(query.symFile, query.offset))
+      process.stdin.flush()
+      val result = readResponse(process, query)
+      if (!watchdog.cancel(false)) {
+        throw IOException("llvm-symbolizer timed out")
+      }
+      idleProcesses.offer(process)
+      return result
+    }
+    catch (e: IOException) {
+      watchdog.cancel(false)
+      process.dispose()
+      getLogger().warn("llvm-symbolizer communication failed", e)
+      return null
+    }
+  }
+
+  private fun readResponse(process: SymbolizerProcess, query: Query): CachedSymbol {
+    val response = mutableListOf<String>()
+    while (true) {
+      val line = process.stdout.readLine() ?: throw IOException("llvm-symbolizer exited")
+      if (line.isEmpty()) {
+        break
+      }
+      if (response.size == MAX_RESPONSE_LINES) {
+        throw IOException("Unexpected llvm-symbolizer response")
+      }
+      response.add(line)
+    }
+    val symbol = parseSymbolizerResponse(response, query.symFile)
+    return symbol?.let { CachedSymbol(it.name, it.sourceFile, it.lineNumber) } ?: CachedSymbol.UNKNOWN
+  }
+
+  private fun startProcess(): SymbolizerProcess {
+    val process = try {
+      ProcessBuilder(symbolizerExe).start()
+    }
+    catch (e: IOException) {
+      throw SymbolizerStartException(e)
+    }
+    if (!process.isAlive) {
+      throw SymbolizerStartException(IOException("Symbolizer process is not alive. Executable: $symbolizerExe"))
+    }
+    return SymbolizerProcess(process)
+  }
+
+  private fun createQuery(symFile: File, offset: Long): Query {
+    val keys = getKeys(symFile)
+    return Query(symFile, keys.key, keys.stampKey, offset)
+  }
+
+  private fun getKeys(symFile: File): SymbolFileKey {
+    val length = symFile.length()
+    val lastModified = symFile.lastModified()
+    val known = symbolFileKeys[symFile]
+    if (known != null && known.length == length && known.lastModified == lastModified) {
+      return known
+    }
+    val keys = SymbolFileKey(length, lastModified, getSymbolFileKey(symFile), getSymbolFileStampKey(symFile))
+    symbolFileKeys[symFile] = keys
+    return keys
+  }
+
+  override fun stop() {
+    while (true) {
+      val process = idleProcesses.poll() ?: break
+      process.dispose()
+    }
+    cache.flush()
+  }
+
+  private class SymbolizerProcess(val process: Process) {
+    val stdin = OutputStreamWriter(process.outputStream, Charsets.UTF_8).buffered()
+    val stdout = BufferedReader(InputStreamReader(process.inputStream, Charsets.UTF_8))
+
+    fun dispose() {
+      process.destroy()
+    }
+  }
+
+  private class SymbolizerStartException(override val cause: IOException) : Exception(cause)
+
+  companion object {
+    @JvmField
+    val DEFAULT_PROCESS_COUNT = Runtime.getRuntime().availableProcessors().coerceIn(1, 4)
+    const val DEFAULT_BATCH_SIZE = 512
+
+    /** Responses have two lines per inlined function, so a longer response means the process doesn't speak the protocol. */
+    private const val MAX_RESPONSE_LINES = 1000
+  }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.nativeSymbolizer
+
+import com.google.common.hash.Hashing
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+
+private const val ELF_CLASS_32: Byte = 1
+private const val ELF_CLASS_64: Byte = 2
+private const val ELF_DATA_BIG_ENDIAN: Byte = 2
+private const val SECTION_TYPE_NOTE = 7
+private const val NOTE_TYPE_GNU_BUILD_ID = 3
+private const val MAX_NOTE_SECTION_SIZE = 64 * 1024
+
+/**
+ * Returns a key identifying the contents of a symbol file, to be used in file names.
+ *
+ * This is the hex string of the GNU build id of the file if it has one. Otherwise, for example for .dwo files, it is the
+ * [getSymbolFileStampKey] of the file.
+ *
+ * Note that stripped and unstripped copies of a library share their build id, so only the symbols found in a file can be recorded
+ * under this key: the offsets that have no symbol in one copy may have one in the other.
+ */
+fun getSymbolFileKey(symFile: File): String {
+  try {
+    readGnuBuildId(symFile)?.let { return it }
+  }
+  catch (e: IOException) {
+    getLogger().debug("Unable to read the build id of $symFile", e)
+  }
+  return getSymbolFileStampKey(symFile)
+}
+
+/**
+ * Returns a key identifying a symbol file by its path, size and modification time, to be used in file names.
+ */
+fun getSymbolFileStampKey(symFile: File): String {
+  val stamp = "${symFile.absolutePath}:${symFile.length()}:${symFile.lastModified()}"
+  return "f" + Hashing.sha256().hashString(stamp, Charsets.UTF_8).toString().substring(0, 40)
+}
+
+/**
+ * Reads the GNU build id note of an ELF file and returns it as a lower case hex string, or null if the file is not an ELF file or has no
+ * build id.
+ */
+@Throws(IOException::class)
+fun readGnuBuildId(elfFile: File): String? {
+  RandomAccessFile(elfFile, "r").use { file ->
+    val ident = ByteArray(16)
+    if (file.length() < 64 || file.read(ident) != ident.size) {
+      return null
+    }
+    if (ident[0] != 0x7f.toByte() || ident[1] != 'E'.code.toByte() || ident[2] != 'L'.code.toByte() || ident[3] != 'F'.code.toByte()) {
+      return null
+    }
+    val is64Bit = when (ident[4]) {
+      ELF_CLASS_32 -> false
+      ELF_CLASS_64 -> true
+      else -> return null
+    }
+    val order = if (ident[5] == ELF_DATA_BIG_ENDIAN) ByteOrder.BIG_ENDIAN else ByteOrder.LITTLE_ENDIAN
+
+    val header = read(file, 0, if (is64Bit) 64 else 52, order)
+    val sectionHeadersOffset = if (is64Bit) header.getLong(0x28) else header.getInt(0x20).toUInt().toLong()
+    val sectionHeaderSize = header.getShort(if (is64Bit) 0x3A else 0x2E).toUShort().toInt()
+    val sectionCount = header.getShort(if (is64Bit) 0x3C else 0x30).toUShort().toInt()
+    if (sectionHeadersOffset <= 0 || sectionHeaderSize == 0 ||
+        sectionHeadersOffset + sectionHeaderSize.toLong() * sectionCount > file.length()) {
+      return null
+    }
+
+    val sectionHeaders = read(file, sectionHeadersOffset, sectionHeaderSize * sectionCount, order)
+    for (i in 0 until sectionCount) {
+      val base = i * sectionHeaderSize
+      if (sectionHeaders.getInt(base + 4) != SECTION_TYPE_NOTE) {
+        continue
+      }
+      val offset = if (is64Bit) sectionHeaders.getLong(base + 0x18) else sectionHeaders.getInt(base + 0x10).toUInt().toLong()
+      val size = if (is64Bit) sectionHeaders.getLong(base + 0x20) else sectionHeaders.getInt(base + 0x14).toUInt().toLong()
+      if (offset < 0 || size <= 0 || size > MAX_NOTE_SECTION_SIZE || offset + size > file.length()) {
+        continue
+      }
+      findBuildIdNote(read(file, offset, size.toInt(), order))?.let { return it }
+    }
+    return null
+  }
+}
+
+private fun read(file: RandomAccessFile, offset: Long, size: Int, order: ByteOrder): ByteBuffer {
+  val bytes = ByteArray(size)
+  file.seek(offset)
+  file.readFully(bytes)
+  return ByteBuffer.wrap(bytes).order(order)
+}
+
+/**
+ * Looks for the build id in the notes of a note section. Each note is a header of three 4 byte words (name size, descriptor size and
+ * type) followed by the name and the descriptor, each padded to 4 bytes.
+ */
+private fun findBuildIdNote(notes: ByteBuffer): String? {
+  var position = 0
+  while (position + 12 <= notes.limit()) {
+    val nameSize = notes.getInt(position)
+    val descriptorSize = notes.getInt(position + 4)
+    val type = notes.getInt(position + 8)
+    if (nameSize < 0 || descriptorSize < 0) {
+      return null
+    }
+    val nameStart = position + 12
+    val descriptorStart = nameStart + align4(nameSize)
+    if (descriptorStart + descriptorSize > notes.limit()) {
+      return null
+    }
+    if (type == NOTE_TYPE_GNU_BUILD_ID && nameSize == 4 &&
+        notes.get(nameStart) == 'G'.code.toByte() && notes.get(nameStart + 1) == 'N'.code.toByte() &&
+        notes.get(nameStart + 2) == 'U'.code.toByte() && descriptorSize > 0) {
+      return buildString(descriptorSize * 2) {
+        for (i in 0 until descriptorSize) {
+          append(String.format("%02x", notes.get(descriptorStart + i)))
+        }
+      }
+    }
+    position = descriptorStart + align4(descriptorSize)
+  }
+  return null
+}
+
+private fun align4(size: Int) = (size + 3) and 3.inv()
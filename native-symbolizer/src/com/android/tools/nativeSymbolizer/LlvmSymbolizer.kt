@@ -60,7 +60,7 @@ class LlvmSymbolizer(private val symbolizerExe: String,
     val symFiles = symLocator.getFiles(abiArch)
 
     for (symFile in symFiles.filter { it.nameWithoutExtension == module.nameWithoutExtension }) {
-      val request = formatRequest(symFile, offset)
+      val request = formatSymbolizerRequest(symFile, offset)
 
       val holder = getProcHolder()
       val future = executor.submit( Callable<List<String>> {
@@ -91,7 +91,7 @@ class LlvmSymbolizer(private val symbolizerExe: String,
         continue
       }
 
-      val result = parseResponse(response, module)
+      val result = parseSymbolizerResponse(response, module)
       if (result != null)
         return result
     }
@@ -108,38 +108,6 @@ class LlvmSymbolizer(private val symbolizerExe: String,
     return holder
   }
 
-  private fun formatRequest(symFile: File, offset: Long): String {
-    val escapedPath = symFile.path.replace("\\", "\\\\").replace("\"", "\\\"")
-    return java.lang.String.format("\"%s\" 0x%x\n", escapedPath, offset)
-  }
-
-  private fun parseResponse(response: List<String>, module: File): Symbol? {
-    if (response.isEmpty())
-      return null
-
-    val name = response.first().trim()
-    if (name.isEmpty() || name == "??") {
-      return null
-    }
-    if (response.size < 2)
-      return Symbol(name, module.absolutePath)
-
-    // Location line looks like this: <path to source file>:<line number>:<column number>
-    val locationLine = response[1].trim()
-    val indexBeforeColumn = locationLine.lastIndexOf(':')
-    if (indexBeforeColumn < 2)
-      return Symbol(name, module.absolutePath)
-
-    val indexBeforeLine = locationLine.lastIndexOf(':', indexBeforeColumn - 1)
-    if (indexBeforeColumn < 1)
-      return Symbol(name, module.absolutePath)
-
-    val sourceFile = locationLine.substring(0, indexBeforeLine)
-    val lineNumber = locationLine.substring(indexBeforeLine + 1, indexBeforeColumn).toIntOrNull() ?: 0
-
-    return Symbol(name, module.absolutePath, sourceFile, lineNumber)
-  }
-
   private fun start() {
     if (procHolder != null)
       stop()
@@ -167,4 +135,38 @@ class LlvmSymbolizer(private val symbolizerExe: String,
       process.destroy()
     }
   }
-}
\ No newline at end of file
+}
+
+/** Formats a request for the llvm-symbolizer text protocol. */
+internal fun formatSymbolizerRequest(symFile: File, offset: Long): String {
+  val escapedPath = symFile.path.replace("\\", "\\\\").replace("\"", "\\\"")
+  return java.lang.String.format("\"%s\" 0x%x\n", escapedPath, offset)
+}
+
+/** Parses the lines of an llvm-symbolizer response, without the terminating empty line. */
+internal fun parseSymbolizerResponse(response: List<String>, module: File): Symbol? {
+  if (response.isEmpty())
+    return null
+
+  val name = response.first().trim()
+  if (name.isEmpty() || name == "??") {
+    return null
+  }
+  if (response.size < 2)
+    return Symbol(name, module.absolutePath)
+
+  // Location line looks like this: <path to source file>:<line number>:<column number>
+  val locationLine = response[1].trim()
+  val indexBeforeColumn = locationLine.lastIndexOf(':')
+  if (indexBeforeColumn < 2)
+    return Symbol(name, module.absolutePath)
+
+  val indexBeforeLine = locationLine.lastIndexOf(':', indexBeforeColumn - 1)
+  if (indexBeforeColumn < 1)
+    return Symbol(name, module.absolutePath)
+
+  val sourceFile = locationLine.substring(0, indexBeforeLine)
+  val lineNumber = locationLine.substring(indexBeforeLine + 1, indexBeforeColumn).toIntOrNull() ?: 0
+
+  return Symbol(name, module.absolutePath, sourceFile, lineNumber)
+}
@@ -15,6 +15,7 @@
  */
 package com.android.tools.nativeSymbolizer
 
+import com.android.tools.idea.flags.StudioFlags
 import com.android.tools.idea.util.StudioPathManager
 import com.intellij.openapi.application.PathManager
 import com.intellij.openapi.diagnostic.Logger
@@ -51,6 +52,9 @@ interface NativeSymbolizer {
 fun createNativeSymbolizer(locator:SymbolFilesLocator): NativeSymbolizer {
   val symbolizerPath = getLlvmSymbolizerPath()
   getLogger().info("Creating a native symbolizer. Executable path: $symbolizerPath")
+  if (StudioFlags.NATIVE_SYMBOLIZER_BATCHING.get()) {
+    return BatchLlvmSymbolizer(symbolizerPath, locator)
+  }
   return LlvmSymbolizer(symbolizerPath, locator)
 }
 
@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.nativeSymbolizer
+
+import com.google.common.annotations.VisibleForTesting
+import com.intellij.openapi.application.ApplicationManager
+import com.intellij.openapi.application.PathManager
+import com.intellij.util.concurrency.AppExecutorUtil
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.NoSuchFileException
+import java.nio.file.Path
+import java.nio.file.Paths
+import java.nio.file.StandardCopyOption
+import java.nio.file.attribute.FileTime
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.stream.Collectors
+
+/**
+ * The symbolization result of an offset in a symbol file. An empty [name] records that the offset has no symbol.
+ */
+data class CachedSymbol(val name: String, val sourceFile: String, val lineNumber: Int) {
+  val isKnown get() = name.isNotEmpty()
+
+  fun toSymbol(module: String) = Symbol(name, module, sourceFile, lineNumber)
+
+  companion object {
+    @JvmField
+    val UNKNOWN = CachedSymbol("", "", 0)
+  }
+}
+
+/**
+ * A persistent LRU cache of symbolization results, keyed by strings identifying the symbol files (see [getSymbolFileKey] and
+ * [getSymbolFileStampKey]) and offsets.
+ *
+ * The symbols of each build id are kept in a file in [directory], which is loaded the first time one of its offsets is looked up. The
+ * most recently used [maxLoadedModules] build ids are kept in memory, and the files of the least recently used build ids are deleted once
+ * there are more than [maxModulesOnDisk]. New symbols are written [FLUSH_DELAY_MS] after they are recorded, so that the files are
+ * rewritten once for all the symbols recorded in the meantime rather than on every lookup.
+ *
+ * @param directory the directory to keep the cache in, or null to only keep it in memory
+ */
+class SymbolCache @VisibleForTesting constructor(private val directory: Path?,
+                                                 private val maxLoadedModules: Int = 32,
+                                                 private val maxModulesOnDisk: Int = 256) {
+  private class ModuleSymbols(val symbols: MutableMap<Long, CachedSymbol>) {
+    var dirty = false
+  }
+
+  private val lock = Any()
+  private val flushScheduled = AtomicBoolean()
+
+  /** The symbols of the most recently used build ids. Guarded by [lock]. */
+  private val loadedModules = object : LinkedHashMap<String, ModuleSymbols>(16, 0.75f, true) {
+    override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, ModuleSymbols>): Boolean {
+      if (size <= maxLoadedModules) {
+        return false
+      }
+      if (eldest.value.dirty) {
+        write(eldest.key, eldest.value)
+      }
+      return true
+    }
+  }
+
+  /**
+   * Returns the cached result for [offset] in the symbol file with the given key, or null if the offset was never symbolized.
+   */
+  fun get(key: String, offset: Long): CachedSymbol? = synchronized(lock) { getModule(key).symbols[offset] }
+
+  /**
+   * Records the results of symbolizing offsets in the symbol file with the given key. They are written to disk shortly after, or by
+   * [flush].
+   */
+  fun putAll(key: String, symbols: Map<Long, CachedSymbol>) {
+    if (symbols.isEmpty()) {
+      return
+    }
+    synchronized(lock) {
+      val module = getModule(key)
+      if (module.symbols.size + symbols.size > MAX_SYMBOLS_PER_MODULE) {
+        return
+      }
+      module.symbols.putAll(symbols)
+      module.dirty = true
+    }
+    scheduleFlush()
+  }
+
+  private fun scheduleFlush() {
+    if (directory == null || !flushScheduled.compareAndSet(false, true)) {
+      return
+    }
+    val flushTask = Runnable {
+      flushScheduled.set(false)
+      flush()
+    }
+    AppExecutorUtil.getAppScheduledExecutorService().schedule(flushTask, FLUSH_DELAY_MS, TimeUnit.MILLISECONDS)
+  }
+
+  /**
+   * Writes the symbols recorded since the last flush to disk.
+   */
+  fun flush() {
+    if (directory == null) {
+      return
+    }
+    synchronized(lock) {
+      for ((key, module) in loadedModules) {
+        if (module.dirty) {
+          write(key, module)
+        }
+      }
+      evictOldModules()
+    }
+  }
+
+  private fun getModule(key: String): ModuleSymbols {
+    loadedModules[key]?.let { return it }
+    val module = ModuleSymbols(directory?.let { read(it.resolve(key + MODULE_EXTENSION)) } ?: HashMap())
+    loadedModules[key] = module
+    return module
+  }
+
+  private fun read(file: Path): MutableMap<Long, CachedSymbol>? {
+    try {
+      val symbols = DataInputStream(Files.newInputStream(file).buffered()).use { input ->
+        if (input.readInt() != MAGIC || input.readInt() != FORMAT_VERSION) {
+          return null
+        }
+        val count = input.readInt()
+        val symbols = HashMap<Long, CachedSymbol>(count * 2)
+        repeat(count) {
+          val offset = input.readLong()
+          symbols[offset] = CachedSymbol(readString(input), readString(input), input.readInt())
+        }
+        symbols
+      }
+      // Touch the file so that the eviction of old files keeps the most recently used ones.
+      Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()))
+      return symbols
+    }
+    catch (e: NoSuchFileException) {
+      return null
+    }
+    catch (e: IOException) {
+      getLogger().warn("Unable to read cached native symbols from $file", e)
+      return null
+    }
+  }
+
+  private fun write(key: String, module: ModuleSymbols) {
+    module.dirty = false
+    val directory = directory ?: return
+    try {
+      Files.createDirectories(directory)
+      val file = directory.resolve(key + MODULE_EXTENSION)
+      val tempFile = Files.createTempFile(directory, key, ".tmp")
+      try {
+        DataOutputStream(Files.newOutputStream(tempFile).buffered()).use { output ->
+          output.writeInt(MAGIC)
+          output.writeInt(FORMAT_VERSION)
+          output.writeInt(module.symbols.size)
+          for ((offset, symbol) in module.symbols) {
+            output.writeLong(offset)
+            writeString(output, symbol.name)
+            writeString(output, symbol.sourceFile)
+            output.writeInt(symbol.lineNumber)
+          }
+        }
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+      }
+      finally {
+        Files.deleteIfExists(tempFile)
+      }
+    }
+    catch (e: IOException) {
+      getLogger().warn("Unable to write cached native symbols to $directory", e)
+    }
+  }
+
+  private fun evictOldModules() {
+    val directory = directory ?: return
+    try {
+      val files = Files.list(directory).use { stream ->
+        stream.filter { it.fileName.toString().endsWith(MODULE_EXTENSION) }.collect(Collectors.toList())
+      }
+      if (files.size <= maxModulesOnDisk) {
+        return
+      }
+      val sortedFiles = files.sortedBy { file -> try { Files.getLastModifiedTime(file).toMillis() } catch (e: IOException) { 0L } }
+      for (file in sortedFiles.subList(0, files.size - maxModulesOnDisk)) {
+        Files.deleteIfExists(file)
+      }
+    }
+    catch (e: IOException) {
+      getLogger().warn("Unable to evict cached native symbols from $directory", e)
+    }
+  }
+
+  companion object {
+    private const val MAGIC = 0x4e53594d // "NSYM"
+    // Version 1 recorded the offsets without a symbol under build ids, which are shared by stripped copies of the libraries
+    private const val FORMAT_VERSION = 2
+    private const val MODULE_EXTENSION = ".syms"
+    private const val FLUSH_DELAY_MS = 5_000L
+
+    /** Stops caching the symbols of a build id past this many offsets, to bound the memory used by huge captures. */
+    private const val MAX_SYMBOLS_PER_MODULE = 1_000_000
+
+    private val instance by lazy { SymbolCache(getDefaultDirectory()) }
+
+    /** Returns the cache shared by the symbolizers of the IDE, which is kept in the system directory. */
+    @JvmStatic
+    fun getInstance(): SymbolCache = instance
+
+    private fun getDefaultDirectory(): Path? {
+      val application = ApplicationManager.getApplication()
+      if (application == null || application.isUnitTestMode) {
+        return null
+      }
+      return Paths.get(PathManager.getSystemPath(), "native-symbolizer", "symbols")
+    }
+
+    private fun readString(input: DataInputStream): String {
+      val bytes = ByteArray(input.readInt())
+      input.readFully(bytes)
+      return String(bytes, Charsets.UTF_8)
+    }
+
+    private fun writeString(output: DataOutputStream, value: String) {
+      val bytes = value.toByteArray(Charsets.UTF_8)
+      output.writeInt(bytes.size)
+      output.write(bytes)
+    }
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.nativeSymbolizer
+
+import com.android.tools.perflogger.Benchmark
+import com.intellij.openapi.util.SystemInfo
+import org.junit.Assert
+import org.junit.Assume
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import kotlin.random.Random
+import kotlin.system.measureTimeMillis
+
+/**
+ * Measures the time to symbolize the frames of synthetic native captures with a fake llvm-symbolizer, so that the results measure the
+ * symbolizers rather than the parsing of debug info.
+ */
+class BatchLlvmSymbolizerBenchmark {
+  @get:Rule
+  val tempFolder = TemporaryFolder()
+
+  private val benchmark = Benchmark.Builder("Native Symbolization Time (ms)")
+    .setProject("Android Studio Profilers")
+    .setDescription("Time to symbolize the native frames of a capture, with a fake llvm-symbolizer answering instantly.")
+    .build()
+
+  private val arch = "arm64"
+  private lateinit var fakeSymbolizerExe: String
+  private lateinit var symLocator: SymbolFilesLocator
+
+  @Before
+  fun setUp() {
+    Assume.assumeFalse(SystemInfo.isWindows) // The fake symbolizer is a shell script
+    fakeSymbolizerExe = createFakeLlvmSymbolizer(tempFolder.root)
+    val symbolDir = tempFolder.newFolder("symbols")
+    for (i in 0 until MODULE_COUNT) {
+      File(symbolDir, "libmodule$i.so").writeText("not an ELF file $i")
+    }
+    symLocator = SymbolFilesLocator(DynamicSymbolSource().add(arch, symbolDir))
+  }
+
+  @Test
+  fun benchmarkSequentialSymbolizer() {
+    val frames = createFrames(20_000, 2_000)
+    val symbolizer = LlvmSymbolizer(fakeSymbolizerExe, symLocator)
+    symbolizer.symbolize(arch, frames[0].module, frames[0].offset)
+    val elapsedMillis = measureTimeMillis {
+      for (frame in frames) {
+        Assert.assertNotNull(symbolizer.symbolize(arch, frame.module, frame.offset))
+      }
+    }
+    symbolizer.stop()
+    benchmark.log("Sequential-20000-Frames", elapsedMillis)
+  }
+
+  @Test
+  fun benchmarkBatchSymbolizer() {
+    for ((frameCount, distinctCount) in listOf(20_000 to 2_000, 1_000_000 to 50_000)) {
+      val frames = createFrames(frameCount, distinctCount)
+      val symbolizer = BatchLlvmSymbolizer(fakeSymbolizerExe, symLocator, SymbolCache(tempFolder.newFolder().toPath()))
+      symbolizer.symbolize(arch, File("/data/app/lib/libmodule0.so"), 0)
+      System.gc()
+
+      val coldMillis = measureTimeMillis { Assert.assertNull(symbolizer.symbolizeAll(arch, frames).firstOrNull { it == null }) }
+      benchmark.log("Batch-$frameCount-Frames", coldMillis)
+      val cachedMillis = measureTimeMillis { symbolizer.symbolizeAll(arch, frames) }
+      benchmark.log("Batch-Cached-$frameCount-Frames", cachedMillis)
+      symbolizer.stop()
+    }
+  }
+
+  /**
+   * Creates [frameCount] frames with [distinctCount] distinct addresses in [MODULE_COUNT] modules. Like in real captures, a few
+   * addresses account for most of the frames.
+   */
+  private fun createFrames(frameCount: Int, distinctCount: Int): List<NativeAddress> {
+    val random = Random(frameCount)
+    val modules = List(MODULE_COUNT) { File("/data/app/com.example-1/lib/arm64/libmodule$it.so") }
+    return List(frameCount) {
+      val index = (distinctCount * random.nextDouble() * random.nextDouble()).toInt()
+      NativeAddress(modules[index % MODULE_COUNT], 0x1000L + index * 4L)
+    }
+  }
+
+  private companion object {
+    const val MODULE_COUNT = 10
+  }
+}
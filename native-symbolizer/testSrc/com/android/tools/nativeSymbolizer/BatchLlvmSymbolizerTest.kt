@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.nativeSymbolizer
+
+import com.android.testutils.TestUtils.resolveWorkspacePath
+import com.intellij.openapi.util.SystemInfo
+import org.junit.Assert
+import org.junit.Assume
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.io.IOException
+
+class BatchLlvmSymbolizerTest {
+  @get:Rule
+  val tempFolder = TemporaryFolder()
+
+  private val arch = "x86"
+  private val modulePath = File("/data/app/com.someapp.name-abcd09876abds==/lib/x86/libnative-lib.so")
+  private lateinit var fakeSymbolizerExe: String
+  private lateinit var symLocator: SymbolFilesLocator
+
+  @Before
+  fun setUp() {
+    Assume.assumeFalse(SystemInfo.isWindows) // The fake symbolizer is a shell script
+    fakeSymbolizerExe = createFakeLlvmSymbolizer(tempFolder.root)
+    val symbolDir = tempFolder.newFolder("symbols")
+    File(symbolDir, "libnative-lib.so").writeText("not an ELF file")
+    symLocator = SymbolFilesLocator(DynamicSymbolSource().add(arch, symbolDir))
+  }
+
+  @Test
+  fun testDuplicateAddressesAreSymbolizedOnce() {
+    val symbolizer = BatchLlvmSymbolizer(fakeSymbolizerExe, symLocator, SymbolCache(null), processCount = 1)
+    val addresses = List(100) { NativeAddress(modulePath, 0x1000L + it % 10) }
+
+    val symbols = symbolizer.symbolizeAll(arch, addresses)
+    Assert.assertEquals(addresses.map { "fn_0x%x".format(it.offset) }, symbols.map { it!!.name })
+    Assert.assertEquals(modulePath.absolutePath, symbols[0]!!.module)
+    // The line number is the number of requests received by the process.
+    Assert.assertEquals(10, symbols.maxOf { it!!.lineNumber })
+
+    // The second time, the symbols come from the cache.
+    Assert.assertEquals(symbols, symbolizer.symbolizeAll(arch, addresses))
+    symbolizer.stop()
+  }
+
+  @Test
+  fun testSingleAddressesAreLookedUpInTheCache() {
+    val cache = SymbolCache(null)
+    val symbolizer = BatchLlvmSymbolizer(fakeSymbolizerExe, symLocator, cache)
+    val first = symbolizer.symbolize(arch, modulePath, 0x10)!!
+    Assert.assertEquals("fn_0x10", first.name)
+    Assert.assertEquals("fn_0x11", symbolizer.symbolize(arch, modulePath, 0x11)!!.name)
+    symbolizer.stop()
+
+    // A symbolizer that can't start llvm-symbolizer would throw if the symbol was not in the cache.
+    val missingExe = File(tempFolder.root, "not-llvm-symbolizer").absolutePath
+    Assert.assertEquals(first, BatchLlvmSymbolizer(missingExe, symLocator, cache).symbolize(arch, modulePath, 0x10))
+  }
+
+  @Test
+  fun testResultsKeepTheirOrderAcrossBatches() {
+    val symbolizer = BatchLlvmSymbolizer(fakeSymbolizerExe, symLocator, SymbolCache(null), processCount = 3, batchSize = 7)
+    val addresses = List(500) { NativeAddress(modulePath, 0x2000L + (it * 37) % 200) }
+
+    val symbols = symbolizer.symbolizeAll(arch, addresses)
+    Assert.assertEquals(addresses.map { "fn_0x%x".format(it.offset) }, symbols.map { it!!.name })
+    Assert.assertEquals("/src/native-lib.cpp", symbols[0]!!.sourceFile)
+    symbolizer.stop()
+  }
+
+  @Test
+  fun testUnknownSymbols() {
+    val symbolizer = BatchLlvmSymbolizer(fakeSymbolizerExe, symLocator, SymbolCache(null))
+    val symbols = symbolizer.symbolizeAll(arch, listOf(NativeAddress(modulePath, UNKNOWN_OFFSET),
+                                                       NativeAddress(File("/p/libnotexists.so"), 0x10),
+                                                       NativeAddress(modulePath, 0x10)))
+    Assert.assertNull(symbols[0])
+    Assert.assertNull(symbols[1])
+    Assert.assertEquals("fn_0x10", symbols[2]!!.name)
+    symbolizer.stop()
+  }
+
+  @Test
+  fun testCachedSymbolsArePersisted() {
+    val cacheDir = tempFolder.newFolder("cache").toPath()
+    val symbolizer = BatchLlvmSymbolizer(fakeSymbolizerExe, symLocator, SymbolCache(cacheDir))
+    val expected = symbolizer.symbolizeAll(arch, listOf(NativeAddress(modulePath, 0x10), NativeAddress(modulePath, UNKNOWN_OFFSET)))
+    symbolizer.stop()
+
+    // A symbolizer that can't start llvm-symbolizer would throw if the symbols were not in the cache.
+    val missingExe = File(tempFolder.root, "not-llvm-symbolizer").absolutePath
+    val restarted = BatchLlvmSymbolizer(missingExe, symLocator, SymbolCache(cacheDir))
+    Assert.assertEquals(expected, restarted.symbolizeAll(arch, listOf(NativeAddress(modulePath, 0x10),
+                                                                      NativeAddress(modulePath, UNKNOWN_OFFSET))))
+  }
+
+  @Test
+  fun testUnknownSymbolsOfStrippedCopiesAreNotSharedByBuildId() {
+    val library = resolveWorkspacePath("tools/adt/idea/native-symbolizer/testData/bin/$arch/libnative-lib.so").toFile()
+    val strippedDir = tempFolder.newFolder("stripped")
+    val unstrippedDir = tempFolder.newFolder("unstripped")
+    library.copyTo(File(strippedDir, "libnative-lib.so"))
+    library.copyTo(File(unstrippedDir, "libnative-lib.so"))
+    val cacheDir = tempFolder.newFolder("cache").toPath()
+
+    // The stripped copy has the same build id as the unstripped one, but no symbols.
+    val strippedOnly = BatchLlvmSymbolizer(fakeSymbolizerExe, SymbolFilesLocator(DynamicSymbolSource().add(arch, strippedDir)),
+                                           SymbolCache(cacheDir))
+    Assert.assertNull(strippedOnly.symbolize(arch, modulePath, 0x10))
+    Assert.assertEquals(listOf(null), strippedOnly.symbolizeAll(arch, listOf(NativeAddress(modulePath, 0x20))))
+    strippedOnly.stop()
+
+    // Once the unstripped copy is added, it is queried even though the build id of the stripped copy has cached offsets.
+    val bothLocator = SymbolFilesLocator(DynamicSymbolSource().add(arch, strippedDir).add(arch, unstrippedDir))
+    val both = BatchLlvmSymbolizer(fakeSymbolizerExe, bothLocator, SymbolCache(cacheDir))
+    Assert.assertEquals("fn_0x10", both.symbolize(arch, modulePath, 0x10)!!.name)
+    Assert.assertEquals(listOf("fn_0x20"), both.symbolizeAll(arch, listOf(NativeAddress(modulePath, 0x20))).map { it!!.name })
+    both.stop()
+  }
+
+  @Test(expected = IOException::class)
+  fun testSymbolizerExeMissing() {
+    val missingExe = File(tempFolder.root, "not-llvm-symbolizer").absolutePath
+    BatchLlvmSymbolizer(missingExe, symLocator, SymbolCache(null)).symbolize(arch, modulePath, 0x10)
+  }
+
+  @Test
+  fun testSymbolizerProcFreeze() {
+    // call 'yes' instead llvm-symbolizer to simulate freezing symbolizer
+    val symbolizer = BatchLlvmSymbolizer("yes", symLocator, SymbolCache(null), timeoutMsc = 50)
+    Assert.assertEquals(listOf(null, null), symbolizer.symbolizeAll(arch, listOf(NativeAddress(modulePath, 1),
+                                                                                 NativeAddress(modulePath, 2))))
+    // Failed batches are not cached.
+    val fakeSymbolizer = BatchLlvmSymbolizer(fakeSymbolizerExe, symLocator, SymbolCache(null))
+    Assert.assertEquals("fn_0x1", fakeSymbolizer.symbolize(arch, modulePath, 1)!!.name)
+    fakeSymbolizer.stop()
+  }
+
+  @Test
+  fun testSymbolizeTestBinaries() {
+    val source = DynamicSymbolSource()
+    val architectures = listOf("arm", "arm64", "x86", "x86_64")
+    for (arch in architectures) {
+      source.add(arch, resolveWorkspacePath("tools/adt/idea/native-symbolizer/testData/bin/$arch").toFile())
+    }
+    val locator = SymbolFilesLocator(source)
+    val expected = LlvmSymbolizer(getLlvmSymbolizerPath(), locator)
+    val symbolizer = BatchLlvmSymbolizer(getLlvmSymbolizerPath(), locator, SymbolCache(null), batchSize = 2)
+    for (arch in architectures) {
+      val symbolsFile = resolveWorkspacePath("tools/adt/idea/native-symbolizer/testData/bin/$arch/symbols.txt").toFile()
+      // +1 to get an address within the function, rather than function start address
+      val addresses = symbolsFile.readLines().map { NativeAddress(modulePath, it.split('|')[0].toLong(16) + 1) }
+      Assert.assertEquals(addresses.map { expected.symbolize(arch, it.module, it.offset) }, symbolizer.symbolizeAll(arch, addresses))
+    }
+    expected.stop()
+    symbolizer.stop()
+  }
+}
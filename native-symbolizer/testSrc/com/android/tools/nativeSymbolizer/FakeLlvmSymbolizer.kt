@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.nativeSymbolizer
+
+import java.io.File
+
+/**
+ * Writes an executable script to [dir] that speaks the llvm-symbolizer protocol, and returns its path.
+ *
+ * The symbol of offset 0x<hex> is named fn_0x<hex>, and its line number is the number of requests the process received so far. Offset
+ * [UNKNOWN_OFFSET] has no symbol, and neither do the symbol files in directories named "stripped". Symbol file paths must not contain
+ * spaces.
+ */
+fun createFakeLlvmSymbolizer(dir: File): String {
+  val script = File(dir, "fake-llvm-symbolizer")
+  script.writeText("""
+    #!/bin/sh
+    exec awk '{
+      if (${'$'}2 == "0x${UNKNOWN_OFFSET.toString(16)}" || index(${'$'}1, "/stripped/") > 0) { print "??"; print "??:0:0" }
+      else { print "fn_" ${'$'}2; print "/src/native-lib.cpp:" NR ":1" }
+      print ""
+      fflush()
+    }'
+    """.trimIndent() + "\n")
+  script.setExecutable(true)
+  return script.absolutePath
+}
+
+const val UNKNOWN_OFFSET = 0xdeadL
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.nativeSymbolizer
+
+import com.android.testutils.TestUtils.resolveWorkspacePath
+import org.junit.Assert
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.nio.file.Files
+import java.nio.file.attribute.FileTime
+
+class SymbolCacheTest {
+  @get:Rule
+  val tempFolder = TemporaryFolder()
+
+  @Test
+  fun testReadGnuBuildId() {
+    val expectedBuildIds = mapOf("arm" to "463de9a467d1bc1453c0e1f494308df8a8616b48",
+                                 "arm64" to "9b3ea9b018209bd554c02186a62cf2c7cca3e915",
+                                 "x86" to "77d9de6b9746662e7da8225fedd7533b57ded517",
+                                 "x86_64" to "415446799bd7b2495e1056857fc6dfc724ffc002")
+    for ((arch, buildId) in expectedBuildIds) {
+      val library = resolveWorkspacePath("tools/adt/idea/native-symbolizer/testData/bin/$arch/libnative-lib.so").toFile()
+      Assert.assertEquals(buildId, readGnuBuildId(library))
+      Assert.assertEquals(buildId, getSymbolFileKey(library))
+    }
+  }
+
+  @Test
+  fun testSymbolFileKeyWithoutBuildId() {
+    val file = tempFolder.newFile("libfoo.dwo")
+    file.writeText("not an ELF file")
+    Assert.assertNull(readGnuBuildId(file))
+    val key = getSymbolFileKey(file)
+    Assert.assertEquals(key, getSymbolFileKey(file))
+
+    file.writeText("a different file")
+    Assert.assertNotEquals(key, getSymbolFileKey(file))
+  }
+
+  @Test
+  fun testSymbolsArePersisted() {
+    val dir = tempFolder.newFolder("cache").toPath()
+    val cache = SymbolCache(dir)
+    cache.putAll("1234", mapOf(0x10L to CachedSymbol("foo()", "/src/foo.cpp", 12), 0x20L to CachedSymbol.UNKNOWN))
+    Assert.assertEquals(CachedSymbol("foo()", "/src/foo.cpp", 12), cache.get("1234", 0x10))
+    cache.flush()
+
+    val reloaded = SymbolCache(dir)
+    Assert.assertEquals(CachedSymbol("foo()", "/src/foo.cpp", 12), reloaded.get("1234", 0x10))
+    Assert.assertEquals(CachedSymbol.UNKNOWN, reloaded.get("1234", 0x20))
+    Assert.assertNull(reloaded.get("1234", 0x30))
+    Assert.assertNull(reloaded.get("5678", 0x10))
+  }
+
+  @Test
+  fun testLeastRecentlyUsedModulesAreEvicted() {
+    val dir = tempFolder.newFolder("cache").toPath()
+    val cache = SymbolCache(dir, maxLoadedModules = 2, maxModulesOnDisk = 2)
+    for ((index, key) in listOf("a", "b", "c").withIndex()) {
+      cache.putAll(key, mapOf(0x10L to CachedSymbol("$key()", "", 0)))
+      cache.flush()
+      Files.setLastModifiedTime(dir.resolve("$key.syms"), FileTime.fromMillis(1_000_000L * (index + 1)))
+    }
+
+    Assert.assertEquals(listOf("b.syms", "c.syms"), dir.toFile().list()!!.sorted())
+    val reloaded = SymbolCache(dir)
+    Assert.assertNull(reloaded.get("a", 0x10))
+    Assert.assertEquals(CachedSymbol("b()", "", 0), reloaded.get("b", 0x10))
+  }
+
+  @Test
+  fun testEvictedLoadedModulesAreWritten() {
+    val dir = tempFolder.newFolder("cache").toPath()
+    val cache = SymbolCache(dir, maxLoadedModules = 1)
+    cache.putAll("a", mapOf(0x10L to CachedSymbol("a()", "", 0)))
+    cache.putAll("b", mapOf(0x10L to CachedSymbol("b()", "", 0)))
+
+    Assert.assertTrue(File(dir.toFile(), "a.syms").exists())
+    Assert.assertEquals(CachedSymbol("a()", "", 0), SymbolCache(dir).get("a", 0x10))
+  }
+}
@@ -21,6 +21,7 @@ import static com.android.tools.profilers.ProfilerFonts.STANDARD_FONT;
 import com.android.ddmlib.IDevice;
 import com.android.tools.adtui.model.AspectObserver;
 import com.android.tools.idea.codenavigation.CodeNavigator;
+import com.android.tools.idea.flags.StudioFlags;
 import com.android.tools.idea.model.AndroidModuleInfo;
 import com.android.tools.idea.transport.TransportService;
 import com.android.tools.idea.transport.TransportServiceProxy;
@@ -293,6 +294,10 @@ public class AndroidProfilerToolWindow implements Disposable {
       myWindow = window;
       ProfilerClient client = new ProfilerClient(TransportService.getChannelName());
       myProfilers = new StudioProfilers(client, ideProfilerServices);
+      if (StudioFlags.TRANSPORT_EVENT_SUBSCRIPTION.get()) {
+        // The events pushed by the datastore are still delivered on the profilers' updater thread, when it polls.
+        myProfilers.getTransportPoller().subscribe(service);
+      }
       CodeNavigator navigator = ideProfilerServices.getCodeNavigator();
       // CPU ABI architecture, when needed by the code navigator, should be retrieved from StudioProfiler selected session.
       navigator.setCpuArchSource(() ->
@@ -15,6 +15,8 @@
  */
 package com.android.tools.idea.profilers.stacktrace;
 
+import com.android.tools.nativeSymbolizer.BatchLlvmSymbolizer;
+import com.android.tools.nativeSymbolizer.NativeAddress;
 import com.android.tools.nativeSymbolizer.NativeSymbolizer;
 import com.android.tools.nativeSymbolizer.Symbol;
 import com.android.tools.profiler.proto.Memory.NativeCallStack;
@@ -22,7 +24,11 @@ import com.android.tools.profilers.stacktrace.NativeFrameSymbolizer;
 import com.intellij.openapi.diagnostic.Logger;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 /**
  * Wrapper for {@link NativeSymbolizer} to return a NativeCallStack.NativeFrame instead of the Symbol class which profilers don't have a
@@ -55,7 +61,41 @@ public class IntelliJNativeFrameSymbolizer implements NativeFrameSymbolizer {
     catch (IOException | RuntimeException e) {
       getLogger().warn(e);
     }
+    return toSymbolizedFrame(unsymbolizedFrame, instructionOffset, symbol);
+  }
+
+  @NotNull
+  @Override
+  public List<NativeCallStack.NativeFrame> symbolizeAll(String abi, @NotNull List<NativeCallStack.NativeFrame> unsymbolizedFrames) {
+    if (!(mySymbolizer instanceof BatchLlvmSymbolizer)) {
+      return NativeFrameSymbolizer.super.symbolizeAll(abi, unsymbolizedFrames);
+    }
+
+    List<NativeAddress> addresses = new ArrayList<>(unsymbolizedFrames.size());
+    for (NativeCallStack.NativeFrame unsymbolizedFrame : unsymbolizedFrames) {
+      addresses.add(new NativeAddress(new File(unsymbolizedFrame.getModuleName()),
+                                      getOffsetOfPreviousInstruction(unsymbolizedFrame.getModuleOffset())));
+    }
+    List<Symbol> symbols;
+    try {
+      symbols = ((BatchLlvmSymbolizer)mySymbolizer).symbolizeAll(abi, addresses);
+    }
+    catch (IOException | RuntimeException e) {
+      getLogger().warn(e);
+      symbols = Collections.nCopies(addresses.size(), null);
+    }
 
+    List<NativeCallStack.NativeFrame> frames = new ArrayList<>(unsymbolizedFrames.size());
+    for (int i = 0; i < unsymbolizedFrames.size(); i++) {
+      frames.add(toSymbolizedFrame(unsymbolizedFrames.get(i), addresses.get(i).getOffset(), symbols.get(i)));
+    }
+    return frames;
+  }
+
+  @NotNull
+  private static NativeCallStack.NativeFrame toSymbolizedFrame(@NotNull NativeCallStack.NativeFrame unsymbolizedFrame,
+                                                               long instructionOffset,
+                                                               @Nullable Symbol symbol) {
     NativeCallStack.NativeFrame.Builder builder = unsymbolizedFrame.toBuilder();
     if (symbol == null) {
       String unfoundSymbolName = String.format("0x%x", instructionOffset);
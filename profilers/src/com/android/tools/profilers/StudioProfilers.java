@@ -297,6 +297,8 @@ public class StudioProfilers extends AspectModel<ProfilerAspect> implements Upda
     }
     // The following line can't throw an exception, will stop the updater's timer and guarantees future calls to isStopped() return true.
     myUpdater.stop();
+    // Stop receiving the events pushed by the datastore, which would otherwise keep a reference to the poller.
+    myTransportPoller.unsubscribe();
     // The following lines trigger aspect changes and, therefore, can make many models to update. That might cause an exception to be thrown
     // and make some models inconsistent. In this case, we want future calls to this method to return early, as we can only make the
     // inconsistency worse if we call these lines again.
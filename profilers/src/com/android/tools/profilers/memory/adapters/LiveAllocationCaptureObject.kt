@@ -485,16 +485,21 @@ class LiveAllocationCaptureObject(private val client: ProfilerClient,
   fun resolveNativeBacktrace(backtrace: NativeBacktrace?): NativeCallStack = when {
     backtrace == null || backtrace.addressesCount == 0 -> NativeCallStack.getDefaultInstance()
     else -> NativeCallStack.newBuilder().let { builder ->
-      for (address in backtrace.addressesList) {
-        if (!nativeFrameMap.containsKey(address)) {
-          val (module, offset) = getRegionByAddress(address)?.let {
-            Pair(it.name, it.fileOffset + (address - it.startAddress)) // Adjust address to represent module offset.
-          } ?: Pair("", 0L)
-          val unsymbolizedFrame = NativeFrame.newBuilder().setAddress(address).setModuleName(module).setModuleOffset(offset).build()
-          val symbolizedFrame = stage.studioProfilers.ideServices.nativeFrameSymbolizer
-            .symbolize(stage.studioProfilers.sessionsManager.selectedSessionMetaData.processAbi, unsymbolizedFrame)
-          nativeFrameMap.put(address, symbolizedFrame)
+      // Symbolize all the new addresses of the backtrace at once, which is much faster than one at a time.
+      val unsymbolizedFrames = backtrace.addressesList.distinct().filter { !nativeFrameMap.containsKey(it) }.map { address ->
+        val (module, offset) = getRegionByAddress(address)?.let {
+          Pair(it.name, it.fileOffset + (address - it.startAddress)) // Adjust address to represent module offset.
+        } ?: Pair("", 0L)
+        NativeFrame.newBuilder().setAddress(address).setModuleName(module).setModuleOffset(offset).build()
+      }
+      if (unsymbolizedFrames.isNotEmpty()) {
+        val symbolizedFrames = stage.studioProfilers.ideServices.nativeFrameSymbolizer
+          .symbolizeAll(stage.studioProfilers.sessionsManager.selectedSessionMetaData.processAbi, unsymbolizedFrames)
+        for ((unsymbolizedFrame, symbolizedFrame) in unsymbolizedFrames.zip(symbolizedFrames)) {
+          nativeFrameMap.put(unsymbolizedFrame.address, symbolizedFrame)
         }
+      }
+      for (address in backtrace.addressesList) {
         builder.addFrames(nativeFrameMap[address])
       }
       builder.build()
@@ -16,6 +16,8 @@
 package com.android.tools.profilers.stacktrace;
 
 import com.android.tools.profiler.proto.Memory.NativeCallStack;
+import java.util.ArrayList;
+import java.util.List;
 import org.jetbrains.annotations.NotNull;
 
 /**
@@ -25,6 +27,20 @@ public interface NativeFrameSymbolizer {
   @NotNull
   NativeCallStack.NativeFrame symbolize(String abi, NativeCallStack.NativeFrame unsymbolizedFrame);
 
+  /**
+   * Resolves many frames at once, which symbolizers that can batch their requests do much faster than one frame at a time.
+   *
+   * @return the resolved frames, in the same order as the unsymbolized ones
+   */
+  @NotNull
+  default List<NativeCallStack.NativeFrame> symbolizeAll(String abi, @NotNull List<NativeCallStack.NativeFrame> unsymbolizedFrames) {
+    List<NativeCallStack.NativeFrame> frames = new ArrayList<>(unsymbolizedFrames.size());
+    for (NativeCallStack.NativeFrame unsymbolizedFrame : unsymbolizedFrames) {
+      frames.add(symbolize(abi, unsymbolizedFrame));
+    }
+    return frames;
+  }
+
   /**
    * Stop / Cleanup any processes or state created by the symbolizer. This is a call made outside the symbolize function as an optimization.
    * It is the callers responsibility to call stop when done processing symbols allowing the symbolizer to reset state.
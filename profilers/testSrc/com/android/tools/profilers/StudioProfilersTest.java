@@ -26,9 +26,11 @@ import com.android.sdklib.AndroidVersion;
 import com.android.tools.adtui.model.AspectObserver;
 import com.android.tools.adtui.model.FakeTimer;
 import com.android.tools.adtui.model.StreamingTimeline;
+import com.android.tools.datastore.database.UnifiedEventsTable;
 import com.android.tools.idea.transport.faketransport.FakeGrpcServer;
 import com.android.tools.idea.transport.faketransport.FakeTransportService;
 import com.android.tools.idea.transport.faketransport.commands.BeginSession;
+import com.android.tools.idea.transport.poller.TransportEventSource;
 import com.android.tools.profiler.proto.Commands;
 import com.android.tools.profiler.proto.Common;
 import com.android.tools.profiler.proto.Common.AgentData;
@@ -40,6 +42,7 @@ import com.android.tools.profilers.energy.EnergyProfilerStage;
 import com.android.tools.profilers.memory.MainMemoryProfilerStage;
 import com.google.common.collect.ImmutableList;
 import com.google.wireless.android.sdk.stats.AndroidProfilerEvent;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
@@ -1133,6 +1136,29 @@ public final class StudioProfilersTest {
     assertThat(stageAspectTriggered[0]).isFalse();
   }
 
+  @Test
+  public void testStoppingUnsubscribesTheTransportPoller() {
+    List<UnifiedEventsTable.EventInsertionListener> insertionListeners = new ArrayList<>();
+    TransportEventSource eventSource = new TransportEventSource() {
+      @Override
+      public void addEventInsertionListener(@NotNull UnifiedEventsTable.EventInsertionListener listener) {
+        insertionListeners.add(listener);
+      }
+
+      @Override
+      public void removeEventInsertionListener(@NotNull UnifiedEventsTable.EventInsertionListener listener) {
+        insertionListeners.remove(listener);
+      }
+    };
+    myProfilers.getTransportPoller().subscribe(eventSource);
+    assertThat(myProfilers.getTransportPoller().isSubscribed()).isTrue();
+    assertThat(insertionListeners).hasSize(1);
+
+    myProfilers.stop();
+    assertThat(myProfilers.getTransportPoller().isSubscribed()).isFalse();
+    assertThat(insertionListeners).isEmpty();
+  }
+
   @Test
   public void testBeginAndEndSessionOnProcessChange() {
     assertThat(myProfilers.getSession()).isEqualTo(Common.Session.getDefaultInstance());
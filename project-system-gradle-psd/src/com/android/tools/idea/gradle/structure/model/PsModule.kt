@@ -28,6 +28,7 @@ import com.android.tools.idea.gradle.structure.model.meta.DslText
 import com.android.tools.idea.gradle.structure.model.meta.ParsedValue
 import com.intellij.openapi.Disposable
 import com.intellij.openapi.command.WriteCommandAction
+import com.intellij.openapi.project.Project
 import com.intellij.util.EventDispatcher
 import icons.StudioIcons.Shell.Filetree.ANDROID_MODULE
 import java.io.File
@@ -314,12 +315,12 @@ abstract class PsModule protected constructor(
   protected open fun populateRepositories(repositories: MutableList<ArtifactRepository>) {
     repositories.addAll(
       parsedModel?.repositories()?.repositories().orEmpty().mapNotNull { repositoryModel ->
-        repositoryModel.toArtifactRepository()
+        repositoryModel.toArtifactRepository(parent.ideProject)
       })
     if (repositories.isEmpty()) {
       val settingsModel = parent.parsedModel.projectSettingsModel ?: return
       repositories.addAll(settingsModel.dependencyResolutionManagement().repositories().repositories().mapNotNull { repositoryModel ->
-        repositoryModel.toArtifactRepository()
+        repositoryModel.toArtifactRepository(parent.ideProject)
       })
     }
   }
@@ -346,12 +347,13 @@ abstract class PsModule protected constructor(
 fun PsModule.relativeFile(file: File) = rootDir?.let { file.relativeToOrSelf(it) } ?: file
 fun PsModule.resolveFile(file: File) = rootDir?.resolve(file) ?: file
 
-fun RepositoryModel.toArtifactRepository(): ArtifactRepository? {
+@JvmOverloads
+fun RepositoryModel.toArtifactRepository(project: Project? = null): ArtifactRepository? {
   return when (type) {
     RepositoryModel.RepositoryType.JCENTER_DEFAULT -> JCenterRepository
     RepositoryModel.RepositoryType.MAVEN_CENTRAL -> MavenCentralRepository
     RepositoryModel.RepositoryType.MAVEN ->
-      maybeCreateLocalMavenRepository((this as MavenRepositoryModel).url().forceString(), this.name().forceString())
+      maybeCreateLocalMavenRepository((this as MavenRepositoryModel).url().forceString(), this.name().forceString(), project)
     RepositoryModel.RepositoryType.GOOGLE_DEFAULT -> GoogleRepository
     RepositoryModel.RepositoryType.FLAT_DIR -> null
   }
@@ -75,15 +75,15 @@ class PsProjectImpl(
        ?.repositories()
        ?.repositories()
        .orEmpty()
-       .mapNotNull { it.toArtifactRepository() } +
+       .mapNotNull { it.toArtifactRepository(ideProject) } +
      parsedModel
        .projectSettingsModel
        ?.pluginManagement()
        ?.repositories()
        ?.repositories()
        .orEmpty()
-       .mapNotNull { it.toArtifactRepository() } +
-     listOfNotNull(AndroidSdkRepositories.getAndroidRepository(), AndroidSdkRepositories.getGoogleRepository())
+       .mapNotNull { it.toArtifactRepository(ideProject) } +
+     listOfNotNull(AndroidSdkRepositories.getAndroidRepository(ideProject), AndroidSdkRepositories.getGoogleRepository(ideProject))
     ).toSet()
 
   override fun findModuleByName(moduleName: String): PsModule? =
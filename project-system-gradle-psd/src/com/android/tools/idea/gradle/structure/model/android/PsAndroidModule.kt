@@ -129,7 +129,8 @@ class PsAndroidModule(
 
   override fun populateRepositories(repositories: MutableList<ArtifactRepository>) {
     super.populateRepositories(repositories)
-    repositories.addAll(listOfNotNull(AndroidSdkRepositories.getAndroidRepository(), AndroidSdkRepositories.getGoogleRepository()))
+    repositories.addAll(listOfNotNull(AndroidSdkRepositories.getAndroidRepository(parent.ideProject),
+                                 AndroidSdkRepositories.getGoogleRepository(parent.ideProject)))
   }
 
   private fun flavorNamesByDimension(dimension: String) =
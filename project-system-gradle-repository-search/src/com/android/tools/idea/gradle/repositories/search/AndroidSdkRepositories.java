@@ -20,6 +20,7 @@ import static com.android.ide.common.repository.SdkMavenRepository.GOOGLE;
 
 import com.android.ide.common.repository.SdkMavenRepository;
 import com.android.tools.idea.sdk.IdeSdks;
+import com.intellij.openapi.project.Project;
 import java.io.File;
 import java.nio.file.Path;
 import org.jetbrains.annotations.NotNull;
@@ -33,19 +34,21 @@ public final class AndroidSdkRepositories {
   }
 
   @Nullable
-  public static ArtifactRepository getAndroidRepository() {
-    return getMavenRepository(ANDROID, ANDROID_REPOSITORY_NAME);
+  public static ArtifactRepository getAndroidRepository(@Nullable Project project) {
+    return getMavenRepository(ANDROID, ANDROID_REPOSITORY_NAME, project);
   }
 
   @Nullable
-  public static ArtifactRepository getGoogleRepository() {
-    return getMavenRepository(GOOGLE, GOOGLE_REPOSITORY_NAME);
+  public static ArtifactRepository getGoogleRepository(@Nullable Project project) {
+    return getMavenRepository(GOOGLE, GOOGLE_REPOSITORY_NAME, project);
   }
 
   @Nullable
-  private static ArtifactRepository getMavenRepository(@NotNull SdkMavenRepository repository, @NotNull String name) {
+  private static ArtifactRepository getMavenRepository(@NotNull SdkMavenRepository repository,
+                                                       @NotNull String name,
+                                                       @Nullable Project project) {
     Path location = getRepositoryLocation(repository);
-    return location != null ? new LocalMavenRepository(location.toFile(), name) : null;
+    return location != null ? new LocalMavenRepository(location.toFile(), name, project) : null;
   }
 
   @Nullable
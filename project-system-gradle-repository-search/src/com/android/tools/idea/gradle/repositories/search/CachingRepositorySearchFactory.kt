@@ -28,7 +28,13 @@ class CachingRepositorySearchFactory : RepositorySearchFactory {
     ArtifactRepositorySearch(
       synchronized(lock) {
         repositories
-          .map { artifactRepositorySearchServices.getOrPut(it) { CachingArtifactRepositorySearch(it) } }
+          .map {
+            artifactRepositorySearchServices.getOrPut(it) {
+              // Local repositories are searched through an index, which is best built before the first search.
+              (it as? LocalMavenRepository)?.prepareIndex()
+              CachingArtifactRepositorySearch(it)
+            }
+          }
       }
     )
 
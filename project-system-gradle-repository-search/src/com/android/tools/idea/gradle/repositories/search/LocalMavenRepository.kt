@@ -18,6 +18,7 @@ package com.android.tools.idea.gradle.repositories.search
 import com.android.ide.common.repository.GradleVersion
 import com.google.wireless.android.sdk.stats.PSDEvent.PSDRepositoryUsage.PSDRepository.PROJECT_STRUCTURE_DIALOG_REPOSITORY_LOCAL
 import com.intellij.openapi.diagnostic.Logger
+import com.intellij.openapi.project.Project
 import com.intellij.util.Url
 import com.intellij.util.Urls
 import java.io.File
@@ -27,75 +28,97 @@ import java.nio.file.Path
 import java.nio.file.SimpleFileVisitor
 import java.nio.file.attribute.BasicFileAttributes
 
-data class LocalMavenRepository(val rootLocation: File, override val name: String) :
-  ArtifactRepository(PROJECT_STRUCTURE_DIALOG_REPOSITORY_LOCAL) {
+/**
+ * A Maven repository on the local file system.
+ *
+ * If the repository is used in a [project], it is searched through the [LocalMavenRepositoryIndex] kept by the project. Otherwise, or
+ * while the index is being built, searches walk the repository directories.
+ */
+data class LocalMavenRepository @JvmOverloads constructor(
+  val rootLocation: File,
+  override val name: String,
+  private val project: Project? = null
+) : ArtifactRepository(PROJECT_STRUCTURE_DIALOG_REPOSITORY_LOCAL) {
   private val rootLocationPath: Path = rootLocation.toPath()
   override val isRemote: Boolean = false
 
   override fun doSearch(request: SearchRequest): SearchResult {
-    val foundArtifacts = mutableListOf<FoundArtifact>()
-    val groupIdPredicate = request.query.groupId?.toWildcardMatchingPredicate() ?: { true }
-    val artifactNamePredicate = request.query.artifactName?.toWildcardMatchingPredicate() ?: { true }
-
-    try {
-      walkFileTree(rootLocationPath, object : SimpleFileVisitor<Path>() {
-        override fun preVisitDirectory(dir: Path, attrs: BasicFileAttributes): FileVisitResult {
-          val visitedDirFile: File = dir.toFile()
-          val repositoryRelativeDirectory = visitedDirFile.relativeTo(rootLocation)
-          if (repositoryRelativeDirectory.parentFile == null) return FileVisitResult.CONTINUE
-          val groupIdProbe = repositoryRelativeDirectory.parentFile.path.replace(File.separatorChar, '.')
-          val artifactNameProbe = visitedDirFile.name
-
-          if (groupIdPredicate(groupIdProbe) && artifactNamePredicate(artifactNameProbe)) {
-            val versions =
-              visitedDirFile
-                .listFiles()
-                ?.mapNotNull {
-                  val versionProbe = it.name
-                  val expectedPomFileName = "$artifactNameProbe-$versionProbe.pom"
-                  if (it.isDirectory && it.resolve(expectedPomFileName).isFile) GradleVersion.tryParse(versionProbe) else null
-                }
-                .orEmpty()
-            if (versions.isNotEmpty()) {
-              foundArtifacts.add(FoundArtifact(name, groupIdProbe, artifactNameProbe, versions))
-              return FileVisitResult.SKIP_SUBTREE
-            }
-          }
-          return FileVisitResult.CONTINUE
-        }
-      })
+    val foundArtifacts = try {
+      getIndex()?.search(request, name) ?: searchDirectories(request)
     }
     catch (e: Throwable) {
       val msg = "Failed to search local repository $rootLocationPath"
       Logger.getInstance(LocalMavenRepository::class.java).warn(msg, e)
+      emptyList()
     }
 
     return SearchResult(foundArtifacts.sortedWith(compareBy<FoundArtifact> { it.groupId }.thenBy { it.name }))
   }
 
+  /**
+   * Starts building or updating the index of this repository in the background, so that it is ready by the time it is searched.
+   */
+  fun prepareIndex() {
+    getIndex()?.refreshAsync()
+  }
+
+  private fun getIndex(): LocalMavenRepositoryIndex? =
+    project?.takeUnless { it.isDisposed }?.let { LocalMavenRepositoryIndexService.getInstance(it).getIndex(rootLocation) }
+
+  private fun searchDirectories(request: SearchRequest): List<FoundArtifact> {
+    val foundArtifacts = mutableListOf<FoundArtifact>()
+    val groupIdPredicate = request.query.groupId?.toWildcardMatchingPredicate() ?: { true }
+    val artifactNamePredicate = request.query.artifactName?.toWildcardMatchingPredicate() ?: { true }
+
+    walkFileTree(rootLocationPath, object : SimpleFileVisitor<Path>() {
+      override fun preVisitDirectory(dir: Path, attrs: BasicFileAttributes): FileVisitResult {
+        val visitedDirFile: File = dir.toFile()
+        val repositoryRelativeDirectory = visitedDirFile.relativeTo(rootLocation)
+        if (repositoryRelativeDirectory.parentFile == null) return FileVisitResult.CONTINUE
+        val groupIdProbe = repositoryRelativeDirectory.parentFile.path.replace(File.separatorChar, '.')
+        val artifactNameProbe = visitedDirFile.name
+
+        if (groupIdPredicate(groupIdProbe) && artifactNamePredicate(artifactNameProbe)) {
+          val versions =
+            visitedDirFile
+              .listFiles()
+              ?.mapNotNull {
+                val versionProbe = it.name
+                val expectedPomFileName = "$artifactNameProbe-$versionProbe.pom"
+                if (it.isDirectory && it.resolve(expectedPomFileName).isFile) GradleVersion.tryParse(versionProbe) else null
+              }
+              .orEmpty()
+          if (versions.isNotEmpty()) {
+            foundArtifacts.add(FoundArtifact(name, groupIdProbe, artifactNameProbe, versions))
+            return FileVisitResult.SKIP_SUBTREE
+          }
+        }
+        return FileVisitResult.CONTINUE
+      }
+    })
+    return foundArtifacts
+  }
+
   private data class Match internal constructor(internal val artifactName: String, internal val groupId: String)
 
   companion object {
-    fun maybeCreateLocalMavenRepository(mavenRepositoryUrl: String, mavenRepositoryName: String): LocalMavenRepository? {
+    @JvmOverloads
+    fun maybeCreateLocalMavenRepository(
+      mavenRepositoryUrl: String,
+      mavenRepositoryName: String,
+      project: Project? = null
+    ): LocalMavenRepository? {
       val parsedRepositoryUrl = parseToLocalFile(mavenRepositoryUrl, false) ?: parseToLocalFile(mavenRepositoryUrl, true) ?: return null
       val repositoryPath = parsedRepositoryUrl.path
       val repositoryRootFile = File(repositoryPath)
       if (repositoryRootFile.isAbsolute) {
-        return LocalMavenRepository(repositoryRootFile, mavenRepositoryName)
+        return LocalMavenRepository(repositoryRootFile, mavenRepositoryName, project)
       }
       return null
     }
   }
 }
 
-private fun String.toWildcardMatchingPredicate(): (String) -> Boolean =
-  if (isBlank()) {
-    { true }
-  }
-  else {
-    Regex(replace("*", ".*")).let { { probe: String -> it.matches(probe) } }
-  }
-
 private fun parseToLocalFile(url: String, asLocalIfNoScheme: Boolean): Url? {
   val parsedRepositoryUrl = Urls.parse(url, asLocalIfNoScheme) ?: return null
   return if (parsedRepositoryUrl.isInLocalFileSystem) parsedRepositoryUrl else null
@@ -0,0 +1,319 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.gradle.repositories.search
+
+import com.android.annotations.concurrency.GuardedBy
+import com.android.ide.common.repository.GradleVersion
+import com.google.common.annotations.VisibleForTesting
+import com.google.common.util.concurrent.Futures
+import com.google.common.util.concurrent.ListenableFuture
+import com.google.common.util.concurrent.MoreExecutors
+import com.intellij.openapi.Disposable
+import com.intellij.openapi.application.ApplicationManager
+import com.intellij.openapi.application.PathManager
+import com.intellij.openapi.components.Service
+import com.intellij.openapi.diagnostic.Logger
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.util.Disposer
+import com.intellij.openapi.util.io.FileUtil
+import com.intellij.util.concurrency.AppExecutorUtil
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.NoSuchFileException
+import java.nio.file.Path
+import java.nio.file.Paths
+import java.nio.file.StandardCopyOption
+import java.util.concurrent.Callable
+import java.util.concurrent.ConcurrentHashMap
+
+private val LOG = Logger.getInstance(LocalMavenRepositoryIndex::class.java)
+
+private const val INDEX_DIRECTORY = "local-maven-repository-index"
+private const val INDEX_FORMAT_VERSION = 2
+private const val REFRESH_INTERVAL_MILLIS = 30_000L
+
+/**
+ * A group:artifact:version index of a local Maven repository.
+ *
+ * Searching a large local repository by walking its directories takes seconds, so the index is built once in the background and then
+ * kept up to date by comparing the modification times of the directories with the ones recorded in the index. Only the directories
+ * that changed since the last refresh are listed again, as well as the directories which may have a version whose pom file had not been
+ * written yet when they were listed: writing the pom file only changes the modification time of the version directory. The index is saved
+ * to [indexFile] (if any) so that it survives IDE restarts.
+ *
+ * Searches are answered from the last complete index, which is at most [refreshIntervalMillis] out of date. Until the index is first
+ * built, [search] returns null so that callers can fall back to walking the repository.
+ *
+ * Indexes are owned by the [LocalMavenRepositoryIndexService] of a project, and are disposed with it, which stops their background
+ * refreshes.
+ */
+class LocalMavenRepositoryIndex @VisibleForTesting constructor(
+  private val rootLocation: Path,
+  private val indexFile: Path?,
+  private val refreshIntervalMillis: Long = REFRESH_INTERVAL_MILLIS
+) : Disposable {
+  /**
+   * A directory of the repository, identified by its path relative to the repository root. An artifact directory has the versions of
+   * the artifact, any other directory has the names of its subdirectories. A directory with [mayHaveVersionsWithoutPom] is listed again
+   * on every refresh, as it has subdirectories which may be versions whose pom files had not been written yet.
+   */
+  private data class Directory(
+    val modificationTime: Long,
+    val versions: List<String>?,
+    val children: List<String>,
+    val mayHaveVersionsWithoutPom: Boolean
+  )
+
+  /** An artifact found in the repository. */
+  private class Artifact(val groupId: String, val name: String, val versions: List<String>)
+
+  private val executor = MoreExecutors.listeningDecorator(
+    AppExecutorUtil.createBoundedApplicationPoolExecutor("LocalMavenRepositoryIndex", 1))
+  private val lock = Any()
+
+  @GuardedBy("lock")
+  private var refreshFuture: ListenableFuture<*>? = null
+  @GuardedBy("lock")
+  private var lastRefreshStarted: Long = 0
+  @GuardedBy("lock")
+  private var disposed = false
+
+  /** Directories by their relative paths, as of the last refresh. Only accessed on the [executor]. */
+  private var directories: Map<String, Directory>? = null
+
+  /** Artifacts sorted by group id and name. Null until the index is first loaded or built. */
+  @Volatile
+  private var artifacts: List<Artifact>? = null
+
+  /**
+   * Starts an update of the index unless one is already running or the index has recently been updated, and returns a future which
+   * completes when the index is up to date.
+   */
+  fun refreshAsync(): ListenableFuture<*> = synchronized(lock) {
+    if (disposed) {
+      return Futures.immediateCancelledFuture<Any>()
+    }
+    val currentRefresh = refreshFuture
+    if (currentRefresh != null && (!currentRefresh.isDone || System.currentTimeMillis() - lastRefreshStarted < refreshIntervalMillis)) {
+      return currentRefresh
+    }
+    lastRefreshStarted = System.currentTimeMillis()
+    executor.submit(Callable { refresh() }).also { refreshFuture = it }
+  }
+
+  override fun dispose() {
+    synchronized(lock) {
+      disposed = true
+      refreshFuture?.cancel(true)
+    }
+    executor.shutdownNow()
+  }
+
+  /**
+   * Returns the artifacts matching [request] as found in the repository named [repositoryName], or null if the index is still being built.
+   * [SearchQuery.groupId] and [SearchQuery.artifactName] may contain `*` wildcards.
+   */
+  fun search(request: SearchRequest, repositoryName: String): List<FoundArtifact>? {
+    refreshAsync()
+    val artifacts = artifacts ?: return null
+
+    val groupIdQuery = request.query.groupId.orEmpty()
+    val groupIdPredicate = groupIdQuery.toWildcardMatchingPredicate()
+    val artifactNamePredicate = request.query.artifactName.orEmpty().toWildcardMatchingPredicate()
+    return artifacts
+      .subListWithGroupIdPrefix(groupIdQuery.substringBefore('*'))
+      .filter { groupIdPredicate(it.groupId) && artifactNamePredicate(it.name) }
+      .map { artifact ->
+        FoundArtifact(repositoryName, artifact.groupId, artifact.name, artifact.versions.mapNotNull { GradleVersion.tryParse(it) })
+      }
+  }
+
+  /**
+   * Returns the artifacts whose group id starts with [prefix], using a binary search since the artifacts are sorted by group id.
+   */
+  private fun List<Artifact>.subListWithGroupIdPrefix(prefix: String): List<Artifact> {
+    if (prefix.isEmpty()) return this
+    val from = binarySearchFirst { it.groupId >= prefix }
+    val to = binarySearchFirst { it.groupId >= prefix && !it.groupId.startsWith(prefix) }
+    return subList(from, maxOf(from, to))
+  }
+
+  private fun refresh() {
+    val oldDirectories = directories ?: load() ?: emptyMap()
+    val newDirectories = HashMap<String, Directory>()
+    val newArtifacts = mutableListOf<Artifact>()
+    scan("", oldDirectories, newDirectories, newArtifacts)
+    newArtifacts.sortWith(compareBy<Artifact> { it.groupId }.thenBy { it.name })
+    directories = newDirectories
+    artifacts = newArtifacts
+    if (newDirectories != oldDirectories) {
+      save(newDirectories)
+    }
+  }
+
+  private fun scan(relativePath: String,
+                   oldDirectories: Map<String, Directory>,
+                   newDirectories: MutableMap<String, Directory>,
+                   artifacts: MutableList<Artifact>) {
+    val path = if (relativePath.isEmpty()) rootLocation else rootLocation.resolve(relativePath)
+    val modificationTime = try {
+      Files.getLastModifiedTime(path).toMillis()
+    }
+    catch (e: IOException) {
+      return
+    }
+    // Entries of a directory are only added or removed when its modification time changes.
+    val directory = oldDirectories[relativePath]?.takeIf { it.modificationTime == modificationTime && !it.mayHaveVersionsWithoutPom }
+                    ?: list(path, modificationTime)
+    if (directory.versions != null) {
+      newDirectories[relativePath] = directory
+      val groupPath = relativePath.substringBeforeLast('/', "")
+      if (groupPath.isNotEmpty()) {
+        artifacts.add(Artifact(groupPath.replace('/', '.'), relativePath.substringAfterLast('/'), directory.versions))
+      }
+      return
+    }
+    val childPaths = directory.children.map { child -> if (relativePath.isEmpty()) child else "$relativePath/$child" }
+    for (childPath in childPaths) {
+      scan(childPath, oldDirectories, newDirectories, artifacts)
+    }
+    // A subdirectory without subdirectories of its own may be a version whose pom file has not been written yet.
+    val mayHaveVersionsWithoutPom = relativePath.isNotEmpty() && childPaths.any { childPath ->
+      newDirectories[childPath]?.let { it.versions == null && it.children.isEmpty() } == true
+    }
+    newDirectories[relativePath] = directory.copy(mayHaveVersionsWithoutPom = mayHaveVersionsWithoutPom)
+  }
+
+  private fun list(path: Path, modificationTime: Long): Directory {
+    val children = path.toFile().listFiles()?.filter { it.isDirectory }.orEmpty()
+    val artifactName = path.fileName?.toString()
+    val versions = children.filter { it.resolve("$artifactName-${it.name}.pom").isFile }.map { it.name }
+    return if (versions.isNotEmpty()) Directory(modificationTime, versions, emptyList(), versions.size < children.size)
+    else Directory(modificationTime, null, children.map { it.name }, false)
+  }
+
+  private fun load(): Map<String, Directory>? {
+    val file = indexFile ?: return null
+    return try {
+      DataInputStream(BufferedInputStream(Files.newInputStream(file))).use { input ->
+        if (input.readInt() != INDEX_FORMAT_VERSION) return null
+        val count = input.readInt()
+        val result = HashMap<String, Directory>(count)
+        repeat(count) {
+          val relativePath = input.readUTF()
+          val modificationTime = input.readLong()
+          val isArtifact = input.readBoolean()
+          val mayHaveVersionsWithoutPom = input.readBoolean()
+          val names = List(input.readInt()) { input.readUTF() }
+          result[relativePath] = if (isArtifact) Directory(modificationTime, names, emptyList(), mayHaveVersionsWithoutPom)
+          else Directory(modificationTime, null, names, mayHaveVersionsWithoutPom)
+        }
+        result
+      }
+    }
+    catch (e: NoSuchFileException) {
+      null
+    }
+    catch (e: IOException) {
+      LOG.warn("Failed to load the index of $rootLocation from $file", e)
+      null
+    }
+  }
+
+  private fun save(directories: Map<String, Directory>) {
+    val file = indexFile ?: return
+    try {
+      Files.createDirectories(file.parent)
+      val tempFile = Files.createTempFile(file.parent, file.fileName.toString(), ".tmp")
+      DataOutputStream(BufferedOutputStream(Files.newOutputStream(tempFile))).use { output ->
+        output.writeInt(INDEX_FORMAT_VERSION)
+        output.writeInt(directories.size)
+        for ((relativePath, directory) in directories) {
+          output.writeUTF(relativePath)
+          output.writeLong(directory.modificationTime)
+          output.writeBoolean(directory.versions != null)
+          output.writeBoolean(directory.mayHaveVersionsWithoutPom)
+          val names = directory.versions ?: directory.children
+          output.writeInt(names.size)
+          names.forEach { output.writeUTF(it) }
+        }
+      }
+      Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+    }
+    catch (e: IOException) {
+      LOG.warn("Failed to save the index of $rootLocation to $file", e)
+    }
+  }
+}
+
+/**
+ * The indexes of the local Maven repositories searched in a project. They are shared by all the [LocalMavenRepository] instances of a
+ * repository in the project, and are released when the project is closed.
+ */
+@Service
+class LocalMavenRepositoryIndexService : Disposable {
+  private val indexes = ConcurrentHashMap<File, LocalMavenRepositoryIndex>()
+
+  /**
+   * Returns the index of the repository at [rootLocation].
+   */
+  fun getIndex(rootLocation: File): LocalMavenRepositoryIndex = indexes.computeIfAbsent(rootLocation) {
+    val indexFile = if (!ApplicationManager.getApplication().isUnitTestMode) {
+      Paths.get(PathManager.getSystemPath(), INDEX_DIRECTORY, Integer.toHexString(FileUtil.pathHashCode(rootLocation.path)) + ".bin")
+    }
+    else {
+      null
+    }
+    LocalMavenRepositoryIndex(rootLocation.toPath(), indexFile).also { Disposer.register(this, it) }
+  }
+
+  override fun dispose() {
+    // The indexes themselves are disposed as children of this service.
+    indexes.clear()
+  }
+
+  companion object {
+    @JvmStatic
+    fun getInstance(project: Project): LocalMavenRepositoryIndexService = project.getService(LocalMavenRepositoryIndexService::class.java)
+  }
+}
+
+/**
+ * Returns the index of the first element for which [predicate] is true, given that it is false for all elements before it and true for
+ * all elements after it.
+ */
+private fun <T> List<T>.binarySearchFirst(predicate: (T) -> Boolean): Int {
+  var low = 0
+  var high = size
+  while (low < high) {
+    val middle = (low + high) ushr 1
+    if (predicate(this[middle])) high = middle else low = middle + 1
+  }
+  return low
+}
+
+internal fun String.toWildcardMatchingPredicate(): (String) -> Boolean =
+  if (isBlank()) {
+    { true }
+  }
+  else {
+    Regex(replace("*", ".*")).let { { probe: String -> it.matches(probe) } }
+  }
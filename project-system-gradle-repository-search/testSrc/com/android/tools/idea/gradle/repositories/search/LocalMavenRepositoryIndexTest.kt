@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.gradle.repositories.search
+
+import com.android.ide.common.repository.GradleVersion
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.attribute.FileTime
+import java.util.concurrent.TimeUnit
+
+class LocalMavenRepositoryIndexTest {
+  @get:Rule
+  val tempFolder = TemporaryFolder()
+
+  private lateinit var repositoryRoot: Path
+  private lateinit var indexFile: Path
+
+  @Before
+  fun setUp() {
+    repositoryRoot = tempFolder.newFolder("repository").toPath()
+    indexFile = tempFolder.root.toPath().resolve("index").resolve("repository.bin")
+    addVersion("com/example/libs", "lib1", "1.0")
+    addVersion("com/example/libs", "lib1", "1.1")
+    addVersion("com/example/libs", "lib2", "1.0")
+    addVersion("com/example/jlib", "lib3", "2.0")
+    addVersion("org/sample", "sample", "0.1")
+    // Not an artifact, since there is no pom file.
+    Files.createDirectories(repositoryRoot.resolve("org/sample/other/1.0"))
+  }
+
+  @Test
+  fun testSearch() {
+    val index = LocalMavenRepositoryIndex(repositoryRoot, indexFile)
+
+    assertEquals(listOf("com.example.libs:lib1:[1.0, 1.1]"), index.search("com.example.libs", "lib1"))
+    assertEquals(listOf("com.example.jlib:lib3:[2.0]", "com.example.libs:lib1:[1.0, 1.1]", "com.example.libs:lib2:[1.0]"),
+                 index.search(null, "lib*"))
+    assertEquals(listOf("com.example.jlib:lib3:[2.0]"), index.search("com.example.j*", null))
+    assertEquals(listOf("org.sample:sample:[0.1]"), index.search("org*", ""))
+    assertEquals(listOf<String>(), index.search("net*", null))
+  }
+
+  @Test
+  fun testRefreshFindsChangedDirectoriesOnly() {
+    val index = LocalMavenRepositoryIndex(repositoryRoot, indexFile, refreshIntervalMillis = 0)
+    assertEquals(listOf("com.example.libs:lib2:[1.0]"), index.search(null, "lib2"))
+
+    addVersion("com/example/libs", "lib2", "2.0")
+    addVersion("com/example/libs", "lib4", "1.0")
+    index.refreshAsync().get(10, TimeUnit.SECONDS)
+    assertEquals(listOf("com.example.libs:lib2:[1.0, 2.0]", "com.example.libs:lib4:[1.0]"), index.search("com.example.libs", "lib[24]"))
+  }
+
+  @Test
+  fun testIndexIsReusedAfterRestart() {
+    val index = LocalMavenRepositoryIndex(repositoryRoot, indexFile)
+    assertEquals(listOf("com.example.libs:lib1:[1.0, 1.1]"), index.search(null, "lib1"))
+
+    // Deleting a pom file doesn't change the modification time of the artifact directory, so the directory is not listed again.
+    val artifactDirectory = repositoryRoot.resolve("com/example/libs/lib1")
+    val modificationTime = Files.getLastModifiedTime(artifactDirectory)
+    Files.delete(artifactDirectory.resolve("1.1/lib1-1.1.pom"))
+    Files.setLastModifiedTime(artifactDirectory, modificationTime)
+
+    val newIndex = LocalMavenRepositoryIndex(repositoryRoot, indexFile)
+    assertEquals(listOf("com.example.libs:lib1:[1.0, 1.1]"), newIndex.search(null, "lib1"))
+  }
+
+  @Test
+  fun testVersionIsFoundOnceItsPomIsWritten() {
+    val index = LocalMavenRepositoryIndex(repositoryRoot, indexFile, refreshIntervalMillis = 0)
+    // Version directories created before their pom files, as when an artifact is being downloaded.
+    addVersion("com/example/libs", "lib1", "2.0", writePom = false)
+    addVersion("com/example/libs", "lib5", "1.0", writePom = false)
+    assertEquals(listOf("com.example.libs:lib1:[1.0, 1.1]"), index.search("com.example.libs", "lib[15]"))
+
+    // Writing a pom file only changes the modification time of the version directory.
+    writePomKeepingModificationTime("com/example/libs", "lib1", "2.0")
+    writePomKeepingModificationTime("com/example/libs", "lib5", "1.0")
+    assertEquals(listOf("com.example.libs:lib1:[1.0, 1.1, 2.0]", "com.example.libs:lib5:[1.0]"),
+                 index.search("com.example.libs", "lib[15]"))
+  }
+
+  @Test
+  fun testDisposeStopsRefreshes() {
+    val index = LocalMavenRepositoryIndex(repositoryRoot, indexFile, refreshIntervalMillis = 0)
+    assertEquals(listOf("com.example.libs:lib2:[1.0]"), index.search(null, "lib2"))
+
+    index.dispose()
+    assertTrue(index.refreshAsync().isCancelled)
+  }
+
+  private fun LocalMavenRepositoryIndex.search(groupId: String?, artifactName: String?): List<String> {
+    refreshAsync().get(10, TimeUnit.SECONDS)
+    return search(SearchRequest(SearchQuery(groupId, artifactName), 50, 0), "Test")!!
+      .map { artifact -> "${artifact.groupId}:${artifact.name}:${artifact.versions.sorted()}" }
+  }
+
+  private fun writePomKeepingModificationTime(groupPath: String, artifactName: String, version: String) {
+    val artifactDirectory = repositoryRoot.resolve(groupPath).resolve(artifactName)
+    val modificationTime = Files.getLastModifiedTime(artifactDirectory)
+    Files.write(artifactDirectory.resolve(version).resolve("$artifactName-$version.pom"), ByteArray(0))
+    Files.setLastModifiedTime(artifactDirectory, modificationTime)
+  }
+
+  private fun addVersion(groupPath: String, artifactName: String, version: String, writePom: Boolean = true) {
+    val artifactDirectory = repositoryRoot.resolve(groupPath).resolve(artifactName)
+    val versionDirectory = Files.createDirectories(artifactDirectory.resolve(version))
+    if (writePom) {
+      Files.write(versionDirectory.resolve("$artifactName-$version.pom"), ByteArray(0))
+    }
+    // Make sure the change is noticed even on file systems with a coarse modification time.
+    var directory: Path = artifactDirectory
+    while (directory != repositoryRoot) {
+      Files.setLastModifiedTime(directory, FileTime.fromMillis(Files.getLastModifiedTime(directory).toMillis() + 2000))
+      directory = directory.parent
+    }
+  }
+}
@@ -29,11 +29,19 @@ import com.android.tools.idea.gradle.model.impl.IdeUnresolvedLibraryTableImpl
 import com.android.tools.idea.gradle.model.impl.IdeUnresolvedModuleLibraryImpl
 import org.jetbrains.annotations.TestOnly
 import java.io.File
+import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.locks.ReentrantLock
 import kotlin.concurrent.withLock
 
+/**
+ * Deduplicates strings and libraries while converting Gradle models into IDE models.
+ *
+ * This class is thread-safe, so that models of different modules can be converted concurrently when they are fetched in parallel.
+ * Note that library indexes and the suffixes used to make library names unique depend on the order in which libraries are first seen.
+ */
 class InternedModels(private val buildRootDirectory: File?) {
-  private val strings: MutableMap<String, String> = HashMap()
+  private val strings: ConcurrentHashMap<String, String> = ConcurrentHashMap()
+  // Guarded by itself, together with [allocatedLibraryNames].
   private val libraries: MutableList<IdeLibrary> = mutableListOf()
 
   // Library names are expected to be unique, and thus we track already allocated library names to be able to uniqualize names when
@@ -44,15 +52,16 @@ class InternedModels(private val buildRootDirectory: File?) {
   // One is when the library is used as a regular dependency and one when it is used as a "provided" dependency. This is going to change
   // when we add support for dependency graphs and different entities are used to represent libraries and dependencies.
   // We use mutable [Instances] objects to keep record of already instantiated and named library objects for each of the cases.
-  private val androidLibraries: MutableMap<IdeAndroidLibraryImpl, Pair<LibraryReference, IdeAndroidLibraryImpl>> = HashMap()
-  private val javaLibraries: MutableMap<IdeJavaLibraryImpl, Pair<LibraryReference, IdeJavaLibraryImpl>> = HashMap()
-  private val moduleLibraries: MutableMap<IdeLibrary, Pair<LibraryReference, IdeLibrary>> = HashMap()
+  private val androidLibraries: MutableMap<IdeAndroidLibraryImpl, Pair<LibraryReference, IdeAndroidLibraryImpl>> = ConcurrentHashMap()
+  private val javaLibraries: MutableMap<IdeJavaLibraryImpl, Pair<LibraryReference, IdeJavaLibraryImpl>> = ConcurrentHashMap()
+  private val moduleLibraries: MutableMap<IdeLibrary, Pair<LibraryReference, IdeLibrary>> = ConcurrentHashMap()
+  @Volatile
   var artifactToLibraryReferenceMap: Map<File, LibraryReference>? = null ; private set
 
-  fun resolve(reference: LibraryReference): IdeLibrary = libraries[reference.libraryIndex]
+  fun resolve(reference: LibraryReference): IdeLibrary = synchronized(libraries) { libraries[reference.libraryIndex] }
 
   fun intern(string: String): String {
-    return strings.getOrPut(string) { string }
+    return strings.putIfAbsent(string, string) ?: string
   }
 
   /**
@@ -116,21 +125,25 @@ class InternedModels(private val buildRootDirectory: File?) {
     unnamed: T,
     factory: (unnamed: T) -> T
   ): LibraryReference {
+    // Fast path not requiring any locking for libraries that have already been seen.
+    get(unnamed)?.let { return it.first }
     return computeIfAbsent(unnamed) {
-      val library = factory(unnamed)
-      val index = libraries.size
-      libraries.add(library)
-      LibraryReference(index) to library
+      synchronized(libraries) {
+        val library = factory(unnamed)
+        val index = libraries.size
+        libraries.add(library)
+        LibraryReference(index) to library
+      }
     }.first
   }
 
   fun createLibraryTable(): IdeUnresolvedLibraryTableImpl {
-    return IdeUnresolvedLibraryTableImpl(libraries.toList())
+    return IdeUnresolvedLibraryTableImpl(synchronized(libraries) { libraries.toList() })
   }
 
   @TestOnly
   fun createResolvedLibraryTable(): IdeResolvedLibraryTableImpl {
-    return IdeResolvedLibraryTableImpl(libraries.map(::listOf))
+    return IdeResolvedLibraryTableImpl(synchronized(libraries) { libraries.map(::listOf) })
   }
 
   /**
@@ -127,15 +127,13 @@ interface ModelCache {
     @JvmStatic
     fun createForTests(useV2BuilderModels: Boolean): ModelCache {
       val internedModels = InternedModels(null)
-      val modelCacheLock = ReentrantLock()
       return if (useV2BuilderModels) {
         modelCacheV2Impl(
           internedModels,
-          modelCacheLock,
           GradleVersion.parseAndroidGradlePluginVersion(Version.ANDROID_GRADLE_PLUGIN_VERSION)
         )
       } else {
-        modelCacheV1Impl(internedModels, BuildFolderPaths(), modelCacheLock)
+        modelCacheV1Impl(internedModels, BuildFolderPaths(), ReentrantLock())
       }
     }
 
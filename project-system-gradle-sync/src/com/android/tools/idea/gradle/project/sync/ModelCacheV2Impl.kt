@@ -120,13 +120,14 @@ import com.google.common.collect.ImmutableMap
 import com.google.common.collect.ImmutableSet
 import com.google.common.collect.Lists
 import java.io.File
-import java.util.concurrent.locks.ReentrantLock
-import kotlin.concurrent.withLock
 
 // NOTE: The implementation is structured as a collection of nested functions to ensure no recursive dependencies are possible between
 //       models unless explicitly handled by nesting. The same structure expressed as classes allows recursive data structures and thus we
 //       cannot validate the structure at compile time.
-internal fun modelCacheV2Impl(internedModels: InternedModels, lock: ReentrantLock, agpVersion: GradleVersion): ModelCache.V2 {
+//
+// The conversion does not keep any state other than [internedModels], which is thread-safe, so models of different modules can be
+// converted concurrently without any additional locking.
+internal fun modelCacheV2Impl(internedModels: InternedModels, agpVersion: GradleVersion): ModelCache.V2 {
   fun String.deduplicate() = internedModels.intern(this)
   fun List<String>.deduplicateStrings(): List<String> = this.map { it.deduplicate() }
   fun Map<String, String>.deduplicateStrings(): Map<String, String> = map { (k, v) -> k.deduplicate() to v.deduplicate() }.toMap()
@@ -1246,7 +1247,7 @@ internal fun modelCacheV2Impl(internedModels: InternedModels, lock: ReentrantLoc
       basicVariant: BasicVariant,
       variant: Variant,
       legacyApplicationIdModel: LegacyApplicationIdModel?
-    ): IdeVariantCoreImpl = lock.withLock { variantFrom(androidProject, basicVariant, variant, legacyApplicationIdModel) }
+    ): IdeVariantCoreImpl = variantFrom(androidProject, basicVariant, variant, legacyApplicationIdModel)
 
     override fun variantFrom(
       ownerBuildId: BuildId,
@@ -1256,7 +1257,7 @@ internal fun modelCacheV2Impl(internedModels: InternedModels, lock: ReentrantLoc
       androidProjectPathResolver: AndroidProjectPathResolver,
       buildNameMap: Map<String, BuildId>
     ): IdeVariantWithPostProcessor =
-      lock.withLock { variantFrom(ownerBuildId, ownerProjectPath, variant, variantDependencies, androidProjectPathResolver, buildNameMap) }
+      variantFrom(ownerBuildId, ownerProjectPath, variant, variantDependencies, androidProjectPathResolver, buildNameMap)
 
     override fun androidProjectFrom(
       rootBuildId: BuildId,
@@ -1266,11 +1267,10 @@ internal fun modelCacheV2Impl(internedModels: InternedModels, lock: ReentrantLoc
       androidVersion: Versions,
       androidDsl: AndroidDsl,
       legacyApplicationIdModel: LegacyApplicationIdModel?
-    ): IdeAndroidProjectImpl = lock.withLock {
+    ): IdeAndroidProjectImpl =
       androidProjectFrom(rootBuildId, buildId, basicProject, project, androidVersion, androidDsl, legacyApplicationIdModel)
-    }
 
-    override fun nativeModuleFrom(nativeModule: NativeModule): IdeNativeModuleImpl = lock.withLock { nativeModuleFrom(nativeModule) }
+    override fun nativeModuleFrom(nativeModule: NativeModule): IdeNativeModuleImpl = nativeModuleFrom(nativeModule)
   }
 }
 
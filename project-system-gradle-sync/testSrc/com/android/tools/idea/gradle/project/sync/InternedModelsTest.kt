@@ -26,6 +26,10 @@ import org.junit.Assert.assertEquals
 import org.junit.Assert.assertTrue
 import org.junit.Test
 import java.io.File
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import kotlin.random.Random
 
 private const val BUILD_ROOT = "/tmp/abc"
 
@@ -181,6 +185,34 @@ class InternedModelsTest {
     assertEquals("./app/libs/artifactFile", named.name)
   }
 
+  @Test
+  fun `intern concurrently`() {
+    val threads = 8
+    val libraryCount = 500
+    val executor = Executors.newFixedThreadPool(threads)
+    try {
+      val results = executor.invokeAll((1..threads).map { thread ->
+        Callable {
+          // Each thread sees the same libraries in a different order.
+          (0 until libraryCount).shuffled(Random(thread)).associateWith { i ->
+            val libRoot = "/tmp/libs/lib$i"
+            // Libraries with even and odd indexes share artifact addresses, so their names need to be made unique.
+            internedModels.getOrCreate(ideAndroidLibrary(libRoot, "com.example:lib${i / 2}:1.0", "$libRoot/artifactFile"))
+          }
+        }
+      }).map { it.get(1, TimeUnit.MINUTES) }
+
+      // All threads get the same references.
+      results.forEach { assertEquals(results.first(), it) }
+      val libraries = results.first().values.map { it.resolve() }
+      assertEquals(libraryCount, libraries.distinctBy { it.name }.size)
+      assertEquals(libraryCount, internedModels.createLibraryTable().libraries.size)
+    }
+    finally {
+      executor.shutdownNow()
+    }
+  }
+
   private fun ideAndroidLibrary(
     libRoot: String,
     address: String,
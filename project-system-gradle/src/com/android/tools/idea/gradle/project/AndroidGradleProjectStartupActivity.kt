@@ -18,16 +18,19 @@ package com.android.tools.idea.gradle.project
 import com.android.ide.common.repository.GradleVersion
 import com.android.tools.idea.IdeInfo
 import com.android.tools.idea.gradle.model.impl.IdeLibraryModelResolverImpl
+import com.android.tools.idea.flags.StudioFlags
 import com.android.tools.idea.gradle.plugin.AndroidPluginInfo
 import com.android.tools.idea.gradle.plugin.LatestKnownPluginVersionProvider
 import com.android.tools.idea.gradle.project.facet.gradle.GradleFacet
 import com.android.tools.idea.gradle.project.facet.ndk.NdkFacet
 import com.android.tools.idea.gradle.project.model.GradleAndroidModel
 import com.android.tools.idea.gradle.project.model.GradleAndroidModelData
+import com.android.tools.idea.gradle.project.model.VariantAbi
 import com.android.tools.idea.gradle.project.sync.GradleSyncInvoker
 import com.android.tools.idea.gradle.project.sync.GradleSyncStateHolder
 import com.android.tools.idea.gradle.project.sync.idea.AndroidGradleProjectResolver.Companion.shouldDisableForceUpgrades
 import com.android.tools.idea.gradle.project.sync.idea.ModuleUtil.linkAndroidModuleGroup
+import com.android.tools.idea.gradle.project.sync.idea.data.IdeModelSnapshot
 import com.android.tools.idea.gradle.project.sync.idea.data.service.AndroidProjectKeys.ANDROID_MODEL
 import com.android.tools.idea.gradle.project.sync.idea.data.service.AndroidProjectKeys.GRADLE_MODULE_MODEL
 import com.android.tools.idea.gradle.project.sync.idea.data.service.AndroidProjectKeys.IDE_LIBRARY_TABLE
@@ -178,12 +181,13 @@ private fun attachCachedModelsOrTriggerSync(project: Project, gradleProjectInfo:
       }
       .toMap()
 
+  val externalProjectPathsWithoutData = mutableListOf<String>()
   val projectDataNodes: List<DataNode<ProjectData>> =
     GradleSettings.getInstance(project)
       .linkedProjectsSettings
       .mapNotNull { it.externalProjectPath }
       .toSet()
-      .map { externalProjectPath ->
+      .mapNotNull { externalProjectPath ->
         val externalProjectInfo = projectDataManager.getExternalProjectData(project, GradleConstants.SYSTEM_ID, externalProjectPath)
         if (externalProjectInfo != null && externalProjectInfo.lastImportTimestamp != externalProjectInfo.lastSuccessfulImportTimestamp) {
           requestSync("Sync failed in last import attempt. Path: ${externalProjectInfo.externalProjectPath}")
@@ -196,9 +200,17 @@ private fun attachCachedModelsOrTriggerSync(project: Project, gradleProjectInfo:
         }
         val moduleVariants = project.getSelectedVariantAndAbis()
         externalProjectInfo?.findAndSetupSelectedCachedVariantData(moduleVariants)
-          ?: run { requestSync("DataNode<ProjectData> not found for $externalProjectPath. Variants: $moduleVariants"); return }
+          ?: run { externalProjectPathsWithoutData.add(externalProjectPath); null }
       }
 
+  if (externalProjectPathsWithoutData.isNotEmpty()) {
+    attachModelsFromSnapshots(project, externalProjectPathsWithoutData, modulesById)
+    requestSync(
+      "DataNode<ProjectData> not found for ${externalProjectPathsWithoutData.joinToString()}. " +
+      "Variants: ${project.getSelectedVariantAndAbis()}"
+    )
+    return
+  }
 
   if (projectDataNodes.isEmpty()) {
     requestSync("No linked projects found")
@@ -274,12 +286,6 @@ private fun attachCachedModelsOrTriggerSync(project: Project, gradleProjectInfo:
 
   val attachModelActions = moduleSetupData.flatMap { data ->
 
-    fun GradleAndroidModelData.validate() =
-      shouldDisableForceUpgrades() ||
-        GradleVersion.parse(LatestKnownPluginVersionProvider.INSTANCE.get()).let { latestKnown ->
-          !ApplicationManager.getApplication().getService(AgpVersionChecker::class.java).versionsAreIncompatible(agpVersion, latestKnown)
-        }
-
     /** Returns `null` if validation fails. */
     fun <T, V : Facet<*>> prepare(
       dataKey: Key<T>,
@@ -313,7 +319,7 @@ private fun attachCachedModelsOrTriggerSync(project: Project, gradleProjectInfo:
         getModelForMaybeSourceSetDataNode(),
         AndroidFacet::getInstance,
         { AndroidModel.set(this, data.gradleAndroidModelFactory(it)) },
-        validate = GradleAndroidModelData::validate
+        validate = GradleAndroidModelData::isAgpVersionSupported
       ) ?: return,
       prepare(GRADLE_MODULE_MODEL, ::getModelFromDataNode, GradleFacet::getInstance, GradleFacet::setGradleModuleModel) ?: return,
       prepare(NDK_MODEL, ::getModelFromDataNode, NdkFacet::getInstance, NdkFacet::setNdkModuleModel) ?: return
@@ -333,6 +339,66 @@ private fun attachCachedModelsOrTriggerSync(project: Project, gradleProjectInfo:
   GradleSyncStateHolder.getInstance(project).syncSkipped(null)
 }
 
+private fun GradleAndroidModelData.isAgpVersionSupported() =
+  shouldDisableForceUpgrades() ||
+    GradleVersion.parse(LatestKnownPluginVersionProvider.INSTANCE.get()).let { latestKnown ->
+      !ApplicationManager.getApplication().getService(AgpVersionChecker::class.java).versionsAreIncompatible(agpVersion, latestKnown)
+    }
+
+/**
+ * Sets up the modules of the Gradle projects at [externalProjectPaths] with the models from the [IdeModelSnapshot] written by their last
+ * successful sync, so that editing features work while the projects are synced again.
+ *
+ * The models of a Gradle project are only attached if its snapshot is up-to-date with the build files and settings, and if every module
+ * in the snapshot has the facets its models belong to and the same selected variant as when the snapshot was taken.
+ */
+private fun attachModelsFromSnapshots(project: Project, externalProjectPaths: Collection<String>, modulesById: Map<String, Module>) {
+  if (!StudioFlags.GRADLE_SYNC_MODEL_SNAPSHOT.get()) return
+  for (externalProjectPath in externalProjectPaths) {
+    val attachModelActions = prepareModelsFromSnapshot(project, externalProjectPath, modulesById) ?: continue
+    LOG.info("Attaching models from the snapshot of $externalProjectPath to ${attachModelActions.size} modules until sync completes.")
+    attachModelActions.forEach { it() }
+  }
+}
+
+/**
+ * Returns the actions attaching the models of the snapshot of the Gradle project at [externalProjectPath] to the facets of its modules,
+ * or null if the snapshot is missing or cannot be used.
+ */
+private fun prepareModelsFromSnapshot(
+  project: Project,
+  externalProjectPath: String,
+  modulesById: Map<String, Module>
+): List<() -> Unit>? {
+  val snapshot = IdeModelSnapshot.read(project, externalProjectPath) ?: return null
+  if (!snapshot.isUpToDate(IdeModelSnapshot.getGradleSettings(project, externalProjectPath))) {
+    LOG.info("The model snapshot of $externalProjectPath is out of date.")
+    return null
+  }
+  val modelFactory = GradleAndroidModel.createFactory(project, IdeLibraryModelResolverImpl.fromLibraryTable(snapshot.libraryTable))
+  return snapshot.modules.map { (externalId, models) ->
+    val module = modulesById[externalId] ?: run { LOG.info("Module $externalId of the model snapshot not found."); return null }
+    val actions = mutableListOf<() -> Unit>()
+    models.androidModel?.let { model ->
+      val facet = AndroidFacet.getInstance(module) ?: return null
+      val selectedVariant = facet.properties.SELECTED_BUILD_VARIANT
+      if (!model.isAgpVersionSupported() || (selectedVariant.isNotEmpty() && selectedVariant != model.selectedVariantName)) return null
+      actions.add { AndroidModel.set(facet, modelFactory(model)) }
+    }
+    models.gradleModuleModel?.let { model ->
+      val facet = GradleFacet.getInstance(module) ?: return null
+      actions.add { facet.setGradleModuleModel(model) }
+    }
+    models.ndkModuleModel?.let { model ->
+      val facet = NdkFacet.getInstance(module) ?: return null
+      val selectedVariantAbi = facet.configuration.selectedVariantAbi
+      if (selectedVariantAbi != null && selectedVariantAbi != VariantAbi(model.selectedVariant, model.selectedAbi)) return null
+      actions.add { facet.setNdkModuleModel(model) }
+    }
+    return@map { actions.forEach { it() } }
+  }
+}
+
 private fun <T> getModelFromDataNode(moduleDataNode: DataNode<*>, dataKey: Key<T>) =
   ExternalSystemApiUtil
     .getChildren(moduleDataNode, dataKey)
@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.gradle.project.sync.idea.data
+
+import com.android.SdkConstants.FN_BUILD_GRADLE
+import com.android.SdkConstants.FN_BUILD_GRADLE_KTS
+import com.android.SdkConstants.FN_GRADLE_PROPERTIES
+import com.android.SdkConstants.FN_LOCAL_PROPERTIES
+import com.android.SdkConstants.FN_SETTINGS_GRADLE
+import com.android.SdkConstants.FN_SETTINGS_GRADLE_KTS
+import com.android.tools.idea.flags.StudioFlags
+import com.android.tools.idea.gradle.model.IdeResolvedLibraryTable
+import com.android.tools.idea.gradle.project.model.GradleAndroidModelData
+import com.android.tools.idea.gradle.project.model.GradleModuleModel
+import com.android.tools.idea.gradle.project.model.NdkModuleModel
+import com.android.tools.idea.gradle.project.sync.GradleSyncListenerWithRoot
+import com.android.tools.idea.gradle.project.sync.idea.data.service.AndroidProjectKeys.ANDROID_MODEL
+import com.android.tools.idea.gradle.project.sync.idea.data.service.AndroidProjectKeys.GRADLE_MODULE_MODEL
+import com.android.tools.idea.gradle.project.sync.idea.data.service.AndroidProjectKeys.IDE_LIBRARY_TABLE
+import com.android.tools.idea.gradle.project.sync.idea.data.service.AndroidProjectKeys.NDK_MODEL
+import com.android.tools.idea.gradle.util.GradleUtil.GRADLE_SYSTEM_ID
+import com.google.common.annotations.VisibleForTesting
+import com.intellij.openapi.application.ApplicationInfo
+import com.intellij.openapi.application.PathManager
+import com.intellij.openapi.diagnostic.Logger
+import com.intellij.openapi.externalSystem.model.DataNode
+import com.intellij.openapi.externalSystem.model.ProjectKeys
+import com.intellij.openapi.externalSystem.model.project.ProjectData
+import com.intellij.openapi.externalSystem.service.project.ProjectDataManager
+import com.intellij.openapi.externalSystem.util.ExternalSystemApiUtil
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.project.getProjectCacheFileName
+import com.intellij.openapi.util.io.FileUtil
+import com.intellij.serialization.ObjectSerializer
+import com.intellij.serialization.PropertyMapping
+import com.intellij.serialization.ReadConfiguration
+import com.intellij.serialization.WriteConfiguration
+import com.intellij.util.concurrency.AppExecutorUtil
+import org.jetbrains.annotations.SystemIndependent
+import org.jetbrains.plugins.gradle.settings.GradleSettings
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.Paths
+import java.nio.file.StandardCopyOption
+
+private val LOG = Logger.getInstance(IdeModelSnapshot::class.java)
+
+private const val SNAPSHOT_DIRECTORY = "android-model-snapshots"
+private const val MAGIC = 0x414d534e // "AMSN"
+
+/**
+ * The files of the root project, other than the build files of the modules, that affect the models.
+ */
+private val ROOT_PROJECT_FILES = listOf(
+  FN_SETTINGS_GRADLE, FN_SETTINGS_GRADLE_KTS, FN_BUILD_GRADLE, FN_BUILD_GRADLE_KTS, FN_GRADLE_PROPERTIES, FN_LOCAL_PROPERTIES,
+  "gradle/libs.versions.toml", "gradle/wrapper/gradle-wrapper.properties"
+)
+
+/**
+ * The library table and the models of the modules of a Gradle project, as set up by the last successful sync.
+ *
+ * After each successful sync the snapshot is written to a single binary file in the IDE system directory, so that the modules can
+ * be set up from it when the project is reopened without waiting for Gradle, even if the data cached by the external system is not
+ * available. The file starts with a header identifying the format and the IDE build that wrote it, and a snapshot written by any other
+ * build is ignored. The models are written with the same [ObjectSerializer] as the data cached by the external system.
+ *
+ * A snapshot is only used if it is [isUpToDate], that is if none of the Gradle build files and settings it was synced with changed.
+ */
+class IdeModelSnapshot @PropertyMapping("buildFileStamps", "gradleSettings", "libraryTable", "modules") constructor(
+  /** The stamps of the build files when the project was synced, keyed by path. See [getFileStamp]. */
+  val buildFileStamps: Map<String, String>,
+  /** The Gradle settings of the project when it was synced. See [getGradleSettings]. */
+  val gradleSettings: String,
+  val libraryTable: IdeResolvedLibraryTable,
+  /** The models keyed by the external project id of their modules. */
+  val modules: Map<String, ModuleModels>
+) {
+
+  /**
+   * The models of a module. Any of them may be missing, e.g. a module only has an [ndkModuleModel] if it has native code.
+   */
+  class ModuleModels @PropertyMapping("androidModel", "gradleModuleModel", "ndkModuleModel") constructor(
+    val androidModel: GradleAndroidModelData?,
+    val gradleModuleModel: GradleModuleModel?,
+    val ndkModuleModel: NdkModuleModel?
+  )
+
+  /**
+   * Returns whether the build files and the Gradle settings are the same as when the snapshot was taken.
+   */
+  fun isUpToDate(currentGradleSettings: String): Boolean =
+    gradleSettings == currentGradleSettings && buildFileStamps.all { (path, stamp) -> getFileStamp(File(path)) == stamp }
+
+  /**
+   * Writes a new snapshot after each successful sync.
+   */
+  class SyncListener : GradleSyncListenerWithRoot {
+    override fun syncSucceeded(project: Project, rootProjectPath: @SystemIndependent String) {
+      if (!StudioFlags.GRADLE_SYNC_MODEL_SNAPSHOT.get()) return
+      val projectData = ProjectDataManager.getInstance()
+        .getExternalProjectData(project, GRADLE_SYSTEM_ID, rootProjectPath)
+        ?.externalProjectStructure ?: return
+      val file = getSnapshotFile(project, rootProjectPath)
+      AppExecutorUtil.getAppExecutorService().execute {
+        try {
+          val snapshot = collect(projectData, rootProjectPath, getGradleSettings(project, rootProjectPath)) ?: return@execute
+          write(snapshot, file, getBuildVersion())
+        }
+        catch (e: IOException) {
+          LOG.warn("Failed to write the model snapshot to $file", e)
+        }
+      }
+    }
+  }
+
+  companion object {
+    @VisibleForTesting
+    const val FORMAT_VERSION = 2
+
+    /**
+     * Collects the models to be written from the [projectData] of a successful sync of the Gradle project at [rootProjectPath], or
+     * returns null if there are no Android models.
+     */
+    @JvmStatic
+    fun collect(projectData: DataNode<ProjectData>, rootProjectPath: String, gradleSettings: String): IdeModelSnapshot? {
+      val libraryTable = ExternalSystemApiUtil.find(projectData, IDE_LIBRARY_TABLE)?.data ?: return null
+      val modules = ExternalSystemApiUtil.findAllRecursively(projectData, ProjectKeys.MODULE)
+        .mapNotNull { moduleNode ->
+          val models = ModuleModels(
+            androidModel = ExternalSystemApiUtil.find(moduleNode, ANDROID_MODEL)?.data,
+            gradleModuleModel = ExternalSystemApiUtil.find(moduleNode, GRADLE_MODULE_MODEL)?.data,
+            ndkModuleModel = ExternalSystemApiUtil.find(moduleNode, NDK_MODEL)?.data
+          )
+          if (models.androidModel == null && models.gradleModuleModel == null && models.ndkModuleModel == null) return@mapNotNull null
+          moduleNode.data.id to models
+        }
+        .toMap()
+      if (modules.values.none { it.androidModel != null }) return null
+      return IdeModelSnapshot(getBuildFileStamps(rootProjectPath, modules.values), gradleSettings, libraryTable, modules)
+    }
+
+    /**
+     * Returns the file holding the snapshot of the Gradle project at [rootProjectPath].
+     */
+    @JvmStatic
+    fun getSnapshotFile(project: Project, rootProjectPath: @SystemIndependent String): Path =
+      Paths.get(PathManager.getSystemPath(), SNAPSHOT_DIRECTORY, project.getProjectCacheFileName(),
+                Integer.toHexString(FileUtil.pathHashCode(rootProjectPath)) + ".bin")
+
+    /**
+     * Reads the snapshot of the Gradle project at [rootProjectPath], or returns null if there is no usable snapshot.
+     */
+    @JvmStatic
+    fun read(project: Project, rootProjectPath: @SystemIndependent String): IdeModelSnapshot? =
+      read(getSnapshotFile(project, rootProjectPath), getBuildVersion())
+
+    /**
+     * Returns the Gradle settings of the project at [rootProjectPath] that affect the models, in a form that can be compared with
+     * [IdeModelSnapshot.gradleSettings].
+     */
+    @JvmStatic
+    fun getGradleSettings(project: Project, rootProjectPath: @SystemIndependent String): String {
+      val settings = GradleSettings.getInstance(project).getLinkedProjectSettings(rootProjectPath) ?: return ""
+      return "${settings.gradleJvm}|${settings.distributionType}|${settings.gradleHome}"
+    }
+
+    /**
+     * Deletes all the snapshots of the [project].
+     */
+    @JvmStatic
+    fun delete(project: Project) {
+      val directory = Paths.get(PathManager.getSystemPath(), SNAPSHOT_DIRECTORY, project.getProjectCacheFileName())
+      try {
+        FileUtil.delete(directory)
+      }
+      catch (e: IOException) {
+        LOG.warn("Failed to delete $directory", e)
+      }
+    }
+
+    @VisibleForTesting
+    fun write(snapshot: IdeModelSnapshot, file: Path, buildVersion: String) {
+      val bytes = ObjectSerializer.instance.writeAsBytes(snapshot, WriteConfiguration(binary = true, allowAnySubTypes = true))
+      Files.createDirectories(file.parent)
+      // Write to a temporary file first so that a snapshot is never partially written.
+      val tempFile = Files.createTempFile(file.parent, file.fileName.toString(), ".tmp")
+      try {
+        DataOutputStream(BufferedOutputStream(Files.newOutputStream(tempFile))).use { output ->
+          output.writeInt(MAGIC)
+          output.writeInt(FORMAT_VERSION)
+          output.writeUTF(buildVersion)
+          output.write(bytes)
+        }
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+      }
+      finally {
+        Files.deleteIfExists(tempFile)
+      }
+    }
+
+    @VisibleForTesting
+    fun read(file: Path, buildVersion: String): IdeModelSnapshot? {
+      if (!Files.isRegularFile(file)) return null
+      return try {
+        DataInputStream(BufferedInputStream(Files.newInputStream(file))).use { input ->
+          if (input.readInt() != MAGIC || input.readInt() != FORMAT_VERSION || input.readUTF() != buildVersion) {
+            LOG.info("Ignoring a model snapshot written by a different version: $file")
+            return null
+          }
+          ObjectSerializer.instance.read(IdeModelSnapshot::class.java, input.readBytes(), ReadConfiguration(allowAnySubTypes = true))
+        }
+      }
+      catch (e: Exception) {
+        // Classes of the models may have changed without a change of the build version in development builds.
+        LOG.warn("Failed to read the model snapshot from $file", e)
+        null
+      }
+    }
+
+    /**
+     * Returns the stamps of the root project files and of the build files of the [modules], keyed by path.
+     */
+    @VisibleForTesting
+    fun getBuildFileStamps(rootProjectPath: String, modules: Collection<ModuleModels>): Map<String, String> {
+      val rootProjectFiles = ROOT_PROJECT_FILES.map { File(rootProjectPath, it) }
+      val moduleBuildFiles = modules.flatMap { models ->
+        listOfNotNull(models.gradleModuleModel?.buildFilePath) +
+          (models.androidModel?.rootDirPath?.let { listOf(File(it, FN_BUILD_GRADLE), File(it, FN_BUILD_GRADLE_KTS)) } ?: emptyList())
+      }
+      return (rootProjectFiles + moduleBuildFiles).associate { it.path to getFileStamp(it) }
+    }
+
+    /**
+     * Returns a stamp that changes when the [file] is modified, created or deleted.
+     */
+    private fun getFileStamp(file: File): String = if (file.isFile) "${file.lastModified()}:${file.length()}" else ""
+
+    private fun getBuildVersion(): String = ApplicationInfo.getInstance().build.asString()
+  }
+}
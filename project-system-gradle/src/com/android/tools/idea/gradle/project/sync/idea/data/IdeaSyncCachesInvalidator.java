@@ -31,6 +31,7 @@ public class IdeaSyncCachesInvalidator extends CachesInvalidator {
     for (Project project : openProjects) {
       if (GradleProjectInfo.getInstance(project).isBuildWithGradle()) {
         DataNodeCaches.getInstance(project).clearCaches();
+        IdeModelSnapshot.delete(project);
 
         if (IdeInfo.getInstance().isAndroidStudio()) {
           // Remove contents in .idea/libraries to recover from any invalid library entries.
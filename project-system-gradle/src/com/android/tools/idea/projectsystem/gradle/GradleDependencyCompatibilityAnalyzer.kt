@@ -46,6 +46,7 @@ import com.google.common.util.concurrent.ListenableFuture
 import com.google.common.util.concurrent.MoreExecutors
 import com.intellij.openapi.module.Module
 import com.intellij.openapi.module.ModuleManager
+import com.intellij.openapi.project.Project
 import org.jetbrains.annotations.TestOnly
 import java.util.ArrayDeque
 
@@ -103,14 +104,14 @@ class GradleDependencyCompatibilityAnalyzer(
         ?.repositories()
         ?.repositories()
         .orEmpty()
-        .mapNotNullTo(repositories) { repositoryModel -> repositoryModel.toArtifactRepository() }
+        .mapNotNullTo(repositories) { repositoryModel -> repositoryModel.toArtifactRepository(moduleSystem.module.project) }
 
       if (repositories.isEmpty()) {
         projectSettingsModel
           ?.dependencyResolutionManagement()
           ?.repositories()
           ?.repositories()
-          ?.mapNotNullTo(repositories) { repositoryModel -> repositoryModel.toArtifactRepository() }
+          ?.mapNotNullTo(repositories) { repositoryModel -> repositoryModel.toArtifactRepository(moduleSystem.module.project) }
       }
     }
     if (repositories.isEmpty()) {
@@ -480,12 +481,12 @@ class GradleDependencyCompatibilityAnalyzer(
   }
 }
 
-private fun RepositoryModel.toArtifactRepository(): ArtifactRepository? {
+private fun RepositoryModel.toArtifactRepository(project: Project): ArtifactRepository? {
   return when (type) {
     RepositoryModel.RepositoryType.JCENTER_DEFAULT -> JCenterRepository
     RepositoryModel.RepositoryType.MAVEN_CENTRAL -> MavenCentralRepository
     RepositoryModel.RepositoryType.MAVEN ->
-      LocalMavenRepository.maybeCreateLocalMavenRepository((this as MavenRepositoryModel).url().forceString(), name().forceString())
+      LocalMavenRepository.maybeCreateLocalMavenRepository((this as MavenRepositoryModel).url().forceString(), name().forceString(), project)
     RepositoryModel.RepositoryType.GOOGLE_DEFAULT -> GoogleRepository
     RepositoryModel.RepositoryType.FLAT_DIR -> null
   }
@@ -15,13 +15,23 @@
  */
 package com.android.tools.idea.projectsystem.gradle
 
+import com.android.SdkConstants.EXT_GRADLE
+import com.android.SdkConstants.EXT_GRADLE_KTS
+import com.android.SdkConstants.FN_GRADLE_PROPERTIES
 import com.android.tools.idea.gradle.dsl.api.ProjectBuildModel
-import com.android.tools.idea.gradle.project.sync.GradleFiles
 import com.android.tools.idea.gradle.project.sync.GradleSyncState
 import com.google.common.annotations.VisibleForTesting
 import com.intellij.openapi.application.ApplicationManager
 import com.intellij.openapi.components.Service
+import com.intellij.openapi.fileEditor.FileDocumentManager
 import com.intellij.openapi.project.Project
+import com.intellij.openapi.vfs.VirtualFile
+import com.intellij.openapi.vfs.VirtualFileManager
+import com.intellij.openapi.vfs.newvfs.BulkFileListener
+import com.intellij.openapi.vfs.newvfs.events.VFileContentChangeEvent
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent
+import com.intellij.openapi.vfs.newvfs.events.VFilePropertyChangeEvent
+import java.util.concurrent.atomic.AtomicLong
 import java.util.concurrent.locks.Lock
 import java.util.concurrent.locks.ReentrantLock
 import java.util.concurrent.locks.ReentrantReadWriteLock
@@ -34,8 +44,16 @@ import kotlin.concurrent.withLock
  * Also provides synchronization by using a [ReentrantReadWriteLock] to guard both [read] and [modify].
  * These methods should not be called from the UI thread.
  *
- * This handler shares an instance of the [ProjectBuildModel] and commits all changes on every call to
- * [modify] if you require more fine grained control please use [ProjectBuildModel.get].
+ * The model used by [read] is parsed once and shared by all readers (e.g. [GradleModuleSystem] and
+ * [GradleDependencyCompatibilityAnalyzer]). It is kept for as long as each of the files it parsed has the modification stamp it had when
+ * it was parsed, no Gradle file is created, deleted, moved or renamed, and the project is not synced again. Changes to Gradle files that
+ * the model did not parse, such as the build files of another included build, do not discard it. Readers must never change the model
+ * they are given. [modify] always works on a freshly parsed copy of the model and commits all of its changes, after which the shared
+ * model is discarded.
+ *
+ * The whole [ProjectBuildModel] is cached rather than individual Gradle files, as the parsed files belong to the context of the model
+ * that parsed them. Consumers that keep and edit their own model, such as the upgrade assistant and the project structure dialog, cannot
+ * share it and should keep using [ProjectBuildModel.get].
  */
 @Service
 class ProjectBuildModelHandler(val project: Project) {
@@ -43,18 +61,68 @@ class ProjectBuildModelHandler(val project: Project) {
    * The time stamp of the last sync before the [ProjectBuildModel] was created.
    */
   private var modelSyncTime : Long = -1L
+  /**
+   * The value of [gradleFilesStructureCount] when the [ProjectBuildModel] was created.
+   */
+  private var modelStructureCount: Long = 0L
+  /**
+   * The modification stamps of the files parsed by the [ProjectBuildModel], recorded when the model first requested them.
+   */
+  private val modelFileStamps = HashMap<VirtualFile, Long>()
   private var projectBuildModel: ProjectBuildModel? = null
+  private var createModel: () -> ProjectBuildModel = { ProjectBuildModel.get(project) }
   private val lock: Lock = ReentrantLock()
+  /**
+   * Incremented whenever a Gradle file is created, deleted, moved or renamed, as the model might then need to parse files it has not
+   * parsed before. Changes to the content of files are detected through [modelFileStamps].
+   */
+  private val gradleFilesStructureCount = AtomicLong()
+
+  init {
+    project.messageBus.connect(project).subscribe(VirtualFileManager.VFS_CHANGES, object : BulkFileListener {
+      override fun after(events: List<VFileEvent>) {
+        if (events.any { isGradleFileStructureChange(it) }) {
+          gradleFilesStructureCount.incrementAndGet()
+        }
+      }
+    })
+  }
 
   companion object {
     fun getInstance(project: Project) : ProjectBuildModelHandler = project.getService(ProjectBuildModelHandler::class.java)
+
+    private fun isGradleFileStructureChange(event: VFileEvent): Boolean {
+      if (event is VFilePropertyChangeEvent) {
+        return event.isRename && (isGradleFileName(event.oldValue as String) || isGradleFileName(event.newValue as String))
+      }
+      return event !is VFileContentChangeEvent && isGradleFileName(event.path.substringAfterLast('/'))
+    }
+
+    /**
+     * Returns the modification stamp of the [file], including any unsaved change to its document.
+     */
+    private fun getModificationStamp(file: VirtualFile): Long =
+      FileDocumentManager.getInstance().getCachedDocument(file)?.modificationStamp ?: file.modificationStamp
+
+    private fun isGradleFileName(name: String): Boolean =
+      name.endsWith(EXT_GRADLE) || name.endsWith(EXT_GRADLE_KTS) || name.endsWith(".versions.toml") || name == FN_GRADLE_PROPERTIES
   }
 
 
+  /**
+   * Executes a code [block] which reads the shared project model. The [block] must not change the model.
+   */
   fun <T> read(block: ProjectBuildModel.() -> T): T {
     // TODO: assert is not dispatch thread once all callers are not using it
     lock.withLock {
-      return block.invoke(projectModel())
+      val model = projectModel()
+      try {
+        return block.invoke(model)
+      }
+      finally {
+        // The block may have requested files that the model had not parsed yet.
+        recordParsedFiles(model)
+      }
     }
   }
 
@@ -62,19 +130,28 @@ class ProjectBuildModelHandler(val project: Project) {
    * Executes a code [block] which modifies the project model. Obtaining the model can take a long time, so this method must not be called
    * from the EDT. Once the block has been executed, this method will handle applying the model changes on the EDT, blocking the calling
    * thread until the changes have been applied.
+   *
+   * The [block] is given a freshly parsed model, so that changes are never visible to readers of the shared model before they have
+   * been applied.
    */
   fun <T> modify(block: ProjectBuildModel.() -> T): T {
     assert(ApplicationManager.getApplication().isUnitTestMode || !ApplicationManager.getApplication().isDispatchThread)
     lock.withLock {
-      val model = projectModel()
+      val model = createModel()
       try {
         return block.invoke(model)
       } finally {
-        ApplicationManager.getApplication().invokeAndWait {
-          ApplicationManager.getApplication().runWriteAction {
-            model.applyChanges()
+        try {
+          ApplicationManager.getApplication().invokeAndWait {
+            ApplicationManager.getApplication().runWriteAction {
+              model.applyChanges()
+            }
           }
         }
+        finally {
+          // The shared model no longer reflects the build files.
+          projectBuildModel = null
+        }
       }
     }
   }
@@ -84,12 +161,29 @@ class ProjectBuildModelHandler(val project: Project) {
    */
   private fun projectModel(): ProjectBuildModel {
     val lastKnownSyncTime = GradleSyncState.getInstance(project).lastSyncFinishedTimeStamp
+    // Read the count before parsing, so that a file created while parsing causes the model to be parsed again next time.
+    val structureCount = gradleFilesStructureCount.get()
 
     return projectBuildModel?.takeUnless {
-      GradleFiles.getInstance(project).areGradleFilesModified() || modelSyncTime != lastKnownSyncTime
-    } ?: ProjectBuildModel.get(project).also { modelSyncTime = lastKnownSyncTime }
+      modelStructureCount != structureCount || modelSyncTime != lastKnownSyncTime || areParsedFilesModified()
+    } ?: createModel().also {
+      projectBuildModel = it
+      modelSyncTime = lastKnownSyncTime
+      modelStructureCount = structureCount
+      modelFileStamps.clear()
+      recordParsedFiles(it)
+    }
+  }
+
+  private fun recordParsedFiles(model: ProjectBuildModel) {
+    for (dslFile in model.context.allRequestedFiles) {
+      modelFileStamps.computeIfAbsent(dslFile.file, ::getModificationStamp)
+    }
   }
 
+  private fun areParsedFilesModified(): Boolean =
+    modelFileStamps.any { (file, stamp) -> !file.isValid || getModificationStamp(file) != stamp }
+
   /**
    * DO NOT use outside of tests.
    */
@@ -97,5 +191,14 @@ class ProjectBuildModelHandler(val project: Project) {
   constructor(project: Project, projectModel: ProjectBuildModel, lastSync: Long = -1L) : this(project) {
     projectBuildModel = projectModel
     modelSyncTime = lastSync
+    recordParsedFiles(projectModel)
+  }
+
+  /**
+   * DO NOT use outside of tests.
+   */
+  @VisibleForTesting
+  constructor(project: Project, modelFactory: () -> ProjectBuildModel) : this(project) {
+    createModel = modelFactory
   }
 }
\ No newline at end of file
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.gradle.project.sync.idea.data
+
+import com.android.SdkConstants.FN_SETTINGS_GRADLE
+import com.android.tools.idea.gradle.project.facet.gradle.GradleFacet
+import com.android.tools.idea.gradle.project.model.GradleAndroidModel
+import com.android.tools.idea.gradle.util.GradleUtil.GRADLE_SYSTEM_ID
+import com.android.tools.idea.testing.AndroidProjectRule
+import com.google.common.truth.Truth.assertThat
+import com.intellij.openapi.externalSystem.service.project.ProjectDataManager
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.nio.file.Files
+
+class IdeModelSnapshotTest {
+  @get:Rule
+  val projectRule = AndroidProjectRule.withAndroidModel()
+
+  @get:Rule
+  val tempFolder = TemporaryFolder()
+
+  private val snapshot by lazy {
+    val rootProjectPath = projectRule.project.basePath!!
+    val projectData = ProjectDataManager.getInstance()
+      .getExternalProjectData(projectRule.project, GRADLE_SYSTEM_ID, rootProjectPath)!!
+      .externalProjectStructure!!
+    IdeModelSnapshot.collect(projectData, rootProjectPath, "settings")!!
+  }
+
+  @Test
+  fun testWriteAndRead() {
+    val file = tempFolder.root.toPath().resolve("snapshots").resolve("project.bin")
+    IdeModelSnapshot.write(snapshot, file, "AI-1.0")
+
+    val loaded = IdeModelSnapshot.read(file, "AI-1.0")
+    assertThat(loaded).isNotNull()
+    assertThat(loaded!!.libraryTable).isEqualTo(snapshot.libraryTable)
+    assertThat(loaded.buildFileStamps).isEqualTo(snapshot.buildFileStamps)
+    assertThat(loaded.gradleSettings).isEqualTo("settings")
+    assertThat(loaded.modules.keys).isEqualTo(snapshot.modules.keys)
+
+    val module = projectRule.module
+    val loadedModels = loaded.modules.values.single { it.androidModel != null }
+    assertThat(loadedModels.androidModel).isEqualTo(GradleAndroidModel.get(module)!!.data)
+    assertThat(loadedModels.gradleModuleModel?.gradlePath).isEqualTo(GradleFacet.getInstance(module)!!.gradleModuleModel!!.gradlePath)
+  }
+
+  @Test
+  fun testSnapshotOfDifferentBuildIsIgnored() {
+    val file = tempFolder.root.toPath().resolve("project.bin")
+    IdeModelSnapshot.write(snapshot, file, "AI-1.0")
+
+    assertThat(IdeModelSnapshot.read(file, "AI-2.0")).isNull()
+  }
+
+  @Test
+  fun testCorruptedSnapshotIsIgnored() {
+    val file = tempFolder.root.toPath().resolve("project.bin")
+    IdeModelSnapshot.write(snapshot, file, "AI-1.0")
+    val bytes = Files.readAllBytes(file)
+    Files.write(file, bytes.copyOf(bytes.size / 2))
+
+    assertThat(IdeModelSnapshot.read(file, "AI-1.0")).isNull()
+    assertThat(IdeModelSnapshot.read(tempFolder.root.toPath().resolve("missing.bin"), "AI-1.0")).isNull()
+  }
+
+  @Test
+  fun testSnapshotIsOutOfDateWhenBuildFilesOrSettingsChange() {
+    val rootProject = tempFolder.newFolder("root")
+    val settingsFile = File(rootProject, FN_SETTINGS_GRADLE).apply { writeText("include ':app'") }
+    val upToDate = IdeModelSnapshot(
+      IdeModelSnapshot.getBuildFileStamps(rootProject.path, snapshot.modules.values), "settings", snapshot.libraryTable, snapshot.modules)
+    assertThat(upToDate.isUpToDate("settings")).isTrue()
+    assertThat(upToDate.isUpToDate("other settings")).isFalse()
+
+    settingsFile.writeText("include ':app', ':lib'")
+    assertThat(upToDate.isUpToDate("settings")).isFalse()
+
+    settingsFile.delete()
+    val withoutSettingsFile = IdeModelSnapshot(
+      IdeModelSnapshot.getBuildFileStamps(rootProject.path, snapshot.modules.values), "settings", snapshot.libraryTable, snapshot.modules)
+    assertThat(withoutSettingsFile.isUpToDate("settings")).isTrue()
+    // A build file created since the sync makes the snapshot out of date too.
+    File(rootProject, "gradle.properties").writeText("android.useAndroidX=true")
+    assertThat(withoutSettingsFile.isUpToDate("settings")).isFalse()
+  }
+}
@@ -17,9 +17,12 @@ package com.android.tools.idea.projectsystem.gradle
 
 import com.android.testutils.MockitoKt.whenever
 import com.android.tools.idea.gradle.dsl.api.ProjectBuildModel
-import com.android.tools.idea.gradle.project.sync.GradleFiles
+import com.android.tools.idea.gradle.dsl.model.BuildModelContext
+import com.android.tools.idea.gradle.dsl.model.BuildModelContext.ResolvedConfigurationFileLocationProvider
 import com.android.tools.idea.gradle.project.sync.GradleSyncState
 import com.intellij.openapi.application.ApplicationManager
+import com.intellij.openapi.command.WriteCommandAction
+import com.intellij.openapi.vfs.VfsUtil
 import org.jetbrains.android.AndroidTestCase
 import org.junit.Test
 import org.mockito.Mock
@@ -28,10 +31,13 @@ import org.mockito.Mockito.verify
 
 class ProjectBuildModelHandlerTest : AndroidTestCase() {
   @Mock lateinit var projectBuildModel: ProjectBuildModel
+  private lateinit var buildModelContext: BuildModelContext
 
   override fun setUp() {
     super.setUp()
     projectBuildModel = mock(ProjectBuildModel::class.java)
+    buildModelContext = BuildModelContext.create(project, mock(ResolvedConfigurationFileLocationProvider::class.java))
+    whenever(projectBuildModel.context).thenReturn(buildModelContext)
   }
 
   private fun setupGradleSyncState(timeStamp: Long) {
@@ -40,22 +46,16 @@ class ProjectBuildModelHandlerTest : AndroidTestCase() {
     replaceProjectService(GradleSyncState::class.java, gradleSyncState)
   }
 
-  private fun setupGradleFiles(modified: Boolean) {
-    val gradleFiles = mock(GradleFiles::class.java)
-    whenever(gradleFiles.areGradleFilesModified()).thenReturn(modified)
-    replaceProjectService(GradleFiles::class.java, gradleFiles)
-  }
-
   @Test
   fun testReuseExistingModel() {
     setupGradleSyncState(3L)
-    setupGradleFiles(false)
     val handler = ProjectBuildModelHandler(project, projectBuildModel, 3L)
     val buildModel = projectBuildModel
     handler.read {
       assertTrue(buildModel === this)
     }
-    handler.modify {
+    myFixture.addFileToProject("src/Foo.java", "class Foo {}")
+    handler.read {
       assertTrue(buildModel === this)
     }
   }
@@ -63,14 +63,50 @@ class ProjectBuildModelHandlerTest : AndroidTestCase() {
   @Test
   fun testRecreateModelOnFilesModified() {
     setupGradleSyncState(4L)
-    setupGradleFiles(true)
     val handler = ProjectBuildModelHandler(project, projectBuildModel, 4L)
     var buildModel = projectBuildModel
+    myFixture.addFileToProject("build.gradle", "")
+    handler.read {
+      assertFalse(buildModel === this)
+      buildModel = this
+    }
+    handler.read {
+      assertTrue(buildModel === this)
+    }
+  }
+
+  @Test
+  fun testRecreateModelOnlyWhenParsedFilesChange() {
+    val parsedFile = myFixture.addFileToProject("build.gradle", "").virtualFile
+    val otherFile = myFixture.addFileToProject("other/build.gradle", "").virtualFile
+    buildModelContext.getOrCreateBuildFile(parsedFile, false)
+    setupGradleSyncState(7L)
+    val handler = ProjectBuildModelHandler(project, projectBuildModel, 7L)
+
+    // The model did not parse this file.
+    WriteCommandAction.runWriteCommandAction(project) { VfsUtil.saveText(otherFile, "apply plugin: 'java'") }
+    handler.read {
+      assertTrue(projectBuildModel === this)
+    }
+
+    WriteCommandAction.runWriteCommandAction(project) { VfsUtil.saveText(parsedFile, "apply plugin: 'java'") }
+    handler.read {
+      assertFalse(projectBuildModel === this)
+    }
+  }
+
+  @Test
+  fun testModifyUsesCopyOfModel() {
+    setupGradleSyncState(5L)
+    val handler = ProjectBuildModelHandler(project, projectBuildModel, 5L)
+    var buildModel = projectBuildModel
     handler.modify {
       assertFalse(buildModel === this)
       buildModel = this
     }
     handler.read {
+      // The shared model is discarded after the changes are applied.
+      assertFalse(projectBuildModel === this)
       assertFalse(buildModel === this)
     }
   }
@@ -78,7 +114,6 @@ class ProjectBuildModelHandlerTest : AndroidTestCase() {
   @Test
   fun testRecreateModelOnNewSync() {
     setupGradleSyncState(5L)
-    setupGradleFiles(false)
     val handler = ProjectBuildModelHandler(project, projectBuildModel, 4L)
     var buildModel = projectBuildModel
     handler.read {
@@ -86,7 +121,7 @@ class ProjectBuildModelHandlerTest : AndroidTestCase() {
       buildModel = this
     }
     setupGradleSyncState(6L)
-    handler.modify {
+    handler.read {
       assertFalse(buildModel === this)
     }
   }
@@ -94,8 +129,7 @@ class ProjectBuildModelHandlerTest : AndroidTestCase() {
   @Test
   fun testForWriteAppliesModel() {
     setupGradleSyncState(6L)
-    setupGradleFiles(false)
-    val handler = ProjectBuildModelHandler(project, projectBuildModel, 6L)
+    val handler = ProjectBuildModelHandler(project) { projectBuildModel }
     whenever(projectBuildModel.applyChanges()).then {
       ApplicationManager.getApplication().assertWriteAccessAllowed()
     }
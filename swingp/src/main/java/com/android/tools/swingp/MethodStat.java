@@ -43,6 +43,12 @@ public abstract class MethodStat {
   @SerializedName("endTime")
   private long myEndTime;
 
+  /**
+   * Whether this call is recorded by {@link RenderRecorder} rather than in a {@link ThreadStat} call tree. Decided once, so that
+   * switching modes in the middle of a call does not unbalance either of them.
+   */
+  private final boolean myIsRingBufferRecorded = RenderStatsManager.isRingBufferRecordingEnabled();
+
   @SerializedName("classType")
   private String getClassType() {
     return getClass().getSimpleName();
@@ -62,6 +68,10 @@ public abstract class MethodStat {
     RenderStatsManager.pop(this);
   }
 
+  boolean isRingBufferRecorded() {
+    return myIsRingBufferRecorded;
+  }
+
   /**
    * Adds a {@MethodStat} as a descendant in the call tree.
    */
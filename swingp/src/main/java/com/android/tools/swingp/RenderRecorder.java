@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.swingp;
+
+import com.google.common.annotations.VisibleForTesting;
+import java.lang.invoke.VarHandle;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A low-overhead alternative to the {@link ThreadStat} call trees, used when
+ * {@link RenderStatsManager#setIsRingBufferRecordingEnabled(boolean)} is on.
+ * <p>
+ * Every completed {@link MethodStat} is written as a fixed-size record of {@link #RECORD_SIZE} longs into a ring buffer owned by the
+ * thread that made the call. Only that thread writes to its buffer and the write position is published with an ordered store, so
+ * recording takes no locks and retains no objects. When a thread records faster than {@link #drain()} is called, its oldest records
+ * are overwritten.
+ */
+public final class RenderRecorder {
+  /**
+   * The number of longs in a record: start time, end time, the ids of the {@link MethodStat} class and of the owner class packed
+   * into a single long, and the depth of the call in the thread's call stack.
+   */
+  static final int RECORD_SIZE = 4;
+  static final int START_TIME_OFFSET = 0;
+  static final int END_TIME_OFFSET = 1;
+  static final int CLASS_IDS_OFFSET = 2;
+  static final int DEPTH_OFFSET = 3;
+
+  private static final int DEFAULT_CAPACITY = 1 << 16;
+
+  private static final Queue<RecordBuffer> ourBuffers = new ConcurrentLinkedQueue<>();
+  private static final ThreadLocal<RecordBuffer> ourBuffer = ThreadLocal.withInitial(() -> {
+    RecordBuffer buffer = new RecordBuffer(Thread.currentThread(), ourCapacity);
+    ourBuffers.add(buffer);
+    return buffer;
+  });
+
+  /**
+   * The names of the classes referenced by the records, indexed by id. Guarded by itself.
+   */
+  private static final List<String> ourClassNames = new ArrayList<>();
+  private static final ClassValue<Integer> ourClassIds = new ClassValue<Integer>() {
+    @Override
+    protected Integer computeValue(Class<?> type) {
+      synchronized (ourClassNames) {
+        ourClassNames.add(type.getName());
+        return ourClassNames.size() - 1;
+      }
+    }
+  };
+
+  private static volatile int ourCapacity = DEFAULT_CAPACITY;
+
+  private RenderRecorder() {
+  }
+
+  /**
+   * Sets the number of records kept per thread. Only applies to the threads that have not recorded anything yet.
+   */
+  @VisibleForTesting
+  static void setCapacity(int capacity) {
+    ourCapacity = Integer.highestOneBit(Math.max(capacity, 1) * 2 - 1);
+  }
+
+  static void push() {
+    ourBuffer.get().myDepth++;
+  }
+
+  static void pop(@NotNull MethodStat methodStat) {
+    RecordBuffer buffer = ourBuffer.get();
+    if (buffer.myDepth > 0) {
+      buffer.myDepth--;
+    }
+
+    Object owner = methodStat.myOwner.get();
+    long methodClassId = ourClassIds.get(methodStat.getClass());
+    long ownerClassId = owner == null ? methodClassId : ourClassIds.get(owner.getClass());
+    buffer.write(methodStat.getStartTime(), methodStat.getEndTime(), methodClassId << 32 | ownerClassId, buffer.myDepth);
+  }
+
+  /**
+   * Removes and returns the records written by all threads since the last call.
+   */
+  @NotNull
+  public static RenderRecording drain() {
+    List<RenderRecording.ThreadRecords> threads = new ArrayList<>();
+    // Only one thread can read the buffers at a time, as reading advances their read position.
+    synchronized (ourBuffers) {
+      for (Iterator<RecordBuffer> it = ourBuffers.iterator(); it.hasNext(); ) {
+        RecordBuffer buffer = it.next();
+        Thread thread = buffer.myThread.get();
+        if (thread == null || !thread.isAlive()) {
+          it.remove(); // Clean up once the thread is dead or has been GC'ed, after reading its last records.
+        }
+
+        RenderRecording.ThreadRecords records = buffer.read();
+        if (records.getRecordCount() > 0) {
+          threads.add(records);
+        }
+      }
+    }
+
+    List<String> classNames;
+    synchronized (ourClassNames) {
+      classNames = new ArrayList<>(ourClassNames);
+    }
+    return new RenderRecording(threads, classNames);
+  }
+
+  /**
+   * A single-writer ring buffer of the records of a thread.
+   */
+  private static final class RecordBuffer {
+    @NotNull private final SoftReference<Thread> myThread;
+    private final long myThreadId;
+    @NotNull private final String myThreadName;
+    @NotNull private final long[] myRecords;
+    private final int myMask;
+
+    /**
+     * The number of records ever written. Only incremented by the owning thread, with {@link AtomicLong#lazySet(long)}.
+     */
+    @NotNull private final AtomicLong myWriteCount = new AtomicLong();
+    /**
+     * The number of records ever written, as seen by the owning thread. Avoids reading {@link #myWriteCount} on every write.
+     */
+    private long myLocalWriteCount;
+    /**
+     * The number of records ever read. Only accessed by {@link #drain()}.
+     */
+    private long myReadCount;
+    /**
+     * The depth of the current call. Only accessed by the owning thread.
+     */
+    private int myDepth;
+
+    private RecordBuffer(@NotNull Thread thread, int capacity) {
+      myThread = new SoftReference<>(thread);
+      myThreadId = thread.getId();
+      myThreadName = thread.getName();
+      myRecords = new long[capacity * RECORD_SIZE];
+      myMask = capacity - 1;
+    }
+
+    private void write(long startTime, long endTime, long classIds, long depth) {
+      int offset = (int)(myLocalWriteCount & myMask) * RECORD_SIZE;
+      myRecords[offset + START_TIME_OFFSET] = startTime;
+      myRecords[offset + END_TIME_OFFSET] = endTime;
+      myRecords[offset + CLASS_IDS_OFFSET] = classIds;
+      myRecords[offset + DEPTH_OFFSET] = depth;
+      myWriteCount.lazySet(++myLocalWriteCount);
+    }
+
+    @NotNull
+    private RenderRecording.ThreadRecords read() {
+      int capacity = myMask + 1;
+      long writeCount = myWriteCount.get();
+      long first = Math.max(myReadCount, writeCount - capacity);
+      int count = (int)(writeCount - first);
+      long[] records = new long[count * RECORD_SIZE];
+      for (int i = 0; i < count; i++) {
+        System.arraycopy(myRecords, (int)((first + i) & myMask) * RECORD_SIZE, records, i * RECORD_SIZE, RECORD_SIZE);
+      }
+      myReadCount = writeCount;
+
+      // The writer may have lapped us while copying. Drop the records it overwrote, as well as the one it may be writing right now.
+      VarHandle.loadLoadFence();
+      long overwritten = myWriteCount.get() + 1 - capacity - first;
+      if (overwritten <= 0) {
+        return new RenderRecording.ThreadRecords(myThreadId, myThreadName, records, 0, count);
+      }
+      int skipped = (int)Math.min(overwritten, count);
+      return new RenderRecording.ThreadRecords(myThreadId, myThreadName, records, skipped, count - skipped);
+    }
+  }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.swingp;
+
+import static com.android.tools.swingp.RenderRecorder.CLASS_IDS_OFFSET;
+import static com.android.tools.swingp.RenderRecorder.DEPTH_OFFSET;
+import static com.android.tools.swingp.RenderRecorder.END_TIME_OFFSET;
+import static com.android.tools.swingp.RenderRecorder.RECORD_SIZE;
+import static com.android.tools.swingp.RenderRecorder.START_TIME_OFFSET;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * The records drained from {@link RenderRecorder}, and their export to formats meant for humans and tools.
+ * Exporting is done after the fact, so that its cost is not paid while painting.
+ */
+public final class RenderRecording {
+  /**
+   * The number of buckets of the paint time histograms. Bucket 0 counts the calls that took less than 1us, and bucket i counts the calls
+   * that took at least 2^(i-1)us and less than 2^i us. The last bucket also counts all longer calls.
+   */
+  static final int HISTOGRAM_BUCKET_COUNT = 24;
+
+  @NotNull private final List<ThreadRecords> myThreads;
+  @NotNull private final List<String> myClassNames;
+
+  RenderRecording(@NotNull List<ThreadRecords> threads, @NotNull List<String> classNames) {
+    myThreads = threads;
+    myClassNames = classNames;
+  }
+
+  public int getRecordCount() {
+    int count = 0;
+    for (ThreadRecords thread : myThreads) {
+      count += thread.getRecordCount();
+    }
+    return count;
+  }
+
+  /**
+   * Aggregates the records into a paint time histogram per component class and {@link MethodStat} type, sorted by decreasing total time.
+   * <pre>
+   * [{"component": "javax.swing.JButton", "classType": "PaintComponentMethodStat",
+   *   "count": 12, "totalTimeNs": 345678, "maxTimeNs": 45678, "buckets": [0, 0, 3, 9]}, ...]
+   * </pre>
+   * Trailing empty buckets are omitted, see {@link #HISTOGRAM_BUCKET_COUNT} for their bounds.
+   */
+  @NotNull
+  public JsonArray getPaintHistograms() {
+    Map<Long, Histogram> histograms = new HashMap<>();
+    for (ThreadRecords thread : myThreads) {
+      long[] records = thread.myRecords;
+      for (int i = thread.myFirst; i < thread.myFirst + thread.myCount; i++) {
+        int offset = i * RECORD_SIZE;
+        Histogram histogram = histograms.computeIfAbsent(records[offset + CLASS_IDS_OFFSET], ids -> new Histogram());
+        histogram.add(records[offset + END_TIME_OFFSET] - records[offset + START_TIME_OFFSET]);
+      }
+    }
+
+    List<Map.Entry<Long, Histogram>> entries = new ArrayList<>(histograms.entrySet());
+    entries.sort(Comparator.comparingLong((Map.Entry<Long, Histogram> entry) -> entry.getValue().myTotalTime).reversed());
+    JsonArray result = new JsonArray();
+    for (Map.Entry<Long, Histogram> entry : entries) {
+      Histogram histogram = entry.getValue();
+      JsonObject object = new JsonObject();
+      object.addProperty("component", getOwnerClassName(entry.getKey()));
+      object.addProperty("classType", getMethodClassSimpleName(entry.getKey()));
+      object.addProperty("count", histogram.myCount);
+      object.addProperty("totalTimeNs", histogram.myTotalTime);
+      object.addProperty("maxTimeNs", histogram.myMaxTime);
+      JsonArray buckets = new JsonArray();
+      int lastBucket = HISTOGRAM_BUCKET_COUNT - 1;
+      while (lastBucket > 0 && histogram.myBuckets[lastBucket] == 0) {
+        lastBucket--;
+      }
+      for (int i = 0; i <= lastBucket; i++) {
+        buckets.add(histogram.myBuckets[i]);
+      }
+      object.add("buckets", buckets);
+      result.add(object);
+    }
+    return result;
+  }
+
+  /**
+   * Writes the records as a timeline in the Trace Event Format, which can be opened with chrome://tracing or Perfetto. Every call is a
+   * complete event named after its component class, in the category of its {@link MethodStat} type.
+   * <p>
+   * The trace is streamed to the writer, as it can be much larger than the records.
+   */
+  public void writeChromeTrace(@NotNull Writer writer) throws IOException {
+    long origin = Long.MAX_VALUE;
+    for (ThreadRecords thread : myThreads) {
+      for (int i = thread.myFirst; i < thread.myFirst + thread.myCount; i++) {
+        origin = Math.min(origin, thread.myRecords[i * RECORD_SIZE + START_TIME_OFFSET]);
+      }
+    }
+
+    JsonWriter jsonWriter = new JsonWriter(writer);
+    jsonWriter.beginObject();
+    jsonWriter.name("displayTimeUnit").value("ns");
+    jsonWriter.name("traceEvents").beginArray();
+    for (ThreadRecords thread : myThreads) {
+      jsonWriter.beginObject();
+      jsonWriter.name("name").value("thread_name");
+      jsonWriter.name("ph").value("M");
+      jsonWriter.name("pid").value(0);
+      jsonWriter.name("tid").value(thread.myThreadId);
+      jsonWriter.name("args").beginObject().name("name").value(thread.myThreadName).endObject();
+      jsonWriter.endObject();
+
+      long[] records = thread.myRecords;
+      for (int i = thread.myFirst; i < thread.myFirst + thread.myCount; i++) {
+        int offset = i * RECORD_SIZE;
+        long startTime = records[offset + START_TIME_OFFSET];
+        long classIds = records[offset + CLASS_IDS_OFFSET];
+        jsonWriter.beginObject();
+        jsonWriter.name("name").value(getOwnerClassName(classIds));
+        jsonWriter.name("cat").value(getMethodClassSimpleName(classIds));
+        jsonWriter.name("ph").value("X");
+        // Timestamps are in microseconds.
+        jsonWriter.name("ts").value((startTime - origin) / 1000.0);
+        jsonWriter.name("dur").value((records[offset + END_TIME_OFFSET] - startTime) / 1000.0);
+        jsonWriter.name("pid").value(0);
+        jsonWriter.name("tid").value(thread.myThreadId);
+        jsonWriter.name("args").beginObject().name("depth").value(records[offset + DEPTH_OFFSET]).endObject();
+        jsonWriter.endObject();
+      }
+    }
+    jsonWriter.endArray();
+    jsonWriter.endObject();
+    jsonWriter.flush();
+  }
+
+  @NotNull
+  private String getOwnerClassName(long classIds) {
+    return myClassNames.get((int)classIds);
+  }
+
+  @NotNull
+  private String getMethodClassSimpleName(long classIds) {
+    String name = myClassNames.get((int)(classIds >>> 32));
+    return name.substring(Math.max(name.lastIndexOf('.'), name.lastIndexOf('$')) + 1);
+  }
+
+  private static final class Histogram {
+    private final long[] myBuckets = new long[HISTOGRAM_BUCKET_COUNT];
+    private long myCount;
+    private long myTotalTime;
+    private long myMaxTime;
+
+    private void add(long timeNs) {
+      long timeUs = Math.max(timeNs, 0) / 1000;
+      int bucket = 64 - Long.numberOfLeadingZeros(timeUs);
+      myBuckets[Math.min(bucket, HISTOGRAM_BUCKET_COUNT - 1)]++;
+      myCount++;
+      myTotalTime += timeNs;
+      myMaxTime = Math.max(myMaxTime, timeNs);
+    }
+  }
+
+  /**
+   * The records of a thread, in the order the calls ended.
+   */
+  static final class ThreadRecords {
+    private final long myThreadId;
+    @NotNull private final String myThreadName;
+    @NotNull private final long[] myRecords;
+    private final int myFirst;
+    private final int myCount;
+
+    ThreadRecords(long threadId, @NotNull String threadName, @NotNull long[] records, int first, int count) {
+      myThreadId = threadId;
+      myThreadName = threadName;
+      myRecords = records;
+      myFirst = first;
+      myCount = count;
+    }
+
+    int getRecordCount() {
+      return myCount;
+    }
+  }
+}
@@ -52,6 +52,7 @@ public final class RenderStatsManager {
   };
 
   private static volatile boolean ourIsEnabled = false;
+  private static volatile boolean ourIsRingBufferRecordingEnabled = false;
 
   /**
    * Enables/disables swingp's collection of stats.
@@ -64,6 +65,20 @@ public final class RenderStatsManager {
     JComponentTreeManager.setEnabled(isEnabled);
   }
 
+  /**
+   * Enables/disables the recording of stats into the ring buffers of {@link RenderRecorder}, which are read with
+   * {@link RenderRecorder#drain()}. This mode only keeps the timing, type and owner class of each call, in exchange for a much lower
+   * overhead than the call trees returned by {@link #getJson()}. While it is enabled, it takes precedence over
+   * {@link #setIsEnabled(boolean)}.
+   */
+  public static void setIsRingBufferRecordingEnabled(boolean isEnabled) {
+    ourIsRingBufferRecordingEnabled = isEnabled;
+  }
+
+  static boolean isRingBufferRecordingEnabled() {
+    return ourIsRingBufferRecordingEnabled;
+  }
+
   @VisibleForTesting
   @NotNull
   public static Gson createSwingpGson() {
@@ -131,10 +146,18 @@ public final class RenderStatsManager {
   }
 
   static void push(@NotNull MethodStat methodStat) {
+    if (methodStat.isRingBufferRecorded()) {
+      RenderRecorder.push();
+      return;
+    }
     ourThreadStat.get().pushMethod(methodStat);
   }
 
   static void pop(@NotNull MethodStat verification) {
+    if (verification.isRingBufferRecorded()) {
+      RenderRecorder.pop(verification);
+      return;
+    }
     ourThreadStat.get().popMethod(verification);
   }
 }
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.swingp;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.HashSet;
+import java.util.Set;
+import org.jetbrains.annotations.NotNull;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RenderRecorderTest {
+  @Before
+  public void setUp() {
+    RenderRecorder.drain();
+    RenderStatsManager.setIsRingBufferRecordingEnabled(true);
+  }
+
+  @After
+  public void tearDown() {
+    RenderStatsManager.setIsRingBufferRecordingEnabled(false);
+    RenderRecorder.setCapacity(1 << 16);
+    RenderRecorder.drain();
+  }
+
+  @Test
+  public void recordsInsteadOfCallTrees() {
+    RenderStatsManager.setIsEnabled(true);
+    paintNested(this);
+    RenderStatsManager.setIsEnabled(false);
+
+    assertThat(RenderStatsManager.getJson()).isSameAs(JsonNull.INSTANCE);
+    RenderRecording recording = RenderRecorder.drain();
+    assertThat(recording.getRecordCount()).isEqualTo(2);
+
+    // Ensure there are no leftovers.
+    assertThat(RenderRecorder.drain().getRecordCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void aggregatesHistogramsPerComponent() {
+    paintNested(this);
+    paintNested(this);
+
+    JsonArray histograms = RenderRecorder.drain().getPaintHistograms();
+    assertThat(histograms.size()).isEqualTo(2);
+    Set<String> classTypes = new HashSet<>();
+    for (JsonElement element : histograms) {
+      JsonObject histogram = element.getAsJsonObject();
+      assertThat(histogram.get("component").getAsString()).isEqualTo(RenderRecorderTest.class.getName());
+      assertThat(histogram.get("count").getAsLong()).isEqualTo(2);
+      long bucketTotal = 0;
+      for (JsonElement bucket : histogram.getAsJsonArray("buckets")) {
+        bucketTotal += bucket.getAsLong();
+      }
+      assertThat(bucketTotal).isEqualTo(2);
+      classTypes.add(histogram.get("classType").getAsString());
+    }
+    assertThat(classTypes).containsExactly("OuterMethodStat", "InnerMethodStat");
+  }
+
+  @Test
+  public void writesChromeTrace() throws IOException, InterruptedException {
+    String separateThreadName = "Separate Thread";
+    Thread separateThread = new Thread(() -> paintNested(this), separateThreadName);
+    separateThread.start();
+    separateThread.join();
+
+    StringWriter writer = new StringWriter();
+    RenderRecorder.drain().writeChromeTrace(writer);
+    JsonArray events = new Gson().fromJson(writer.toString(), JsonObject.class).getAsJsonArray("traceEvents");
+    assertThat(events.size()).isEqualTo(3);
+
+    JsonObject threadName = events.get(0).getAsJsonObject();
+    assertThat(threadName.get("ph").getAsString()).isEqualTo("M");
+    assertThat(threadName.getAsJsonObject("args").get("name").getAsString()).isEqualTo(separateThreadName);
+
+    // Calls are recorded when they end, so the inner call comes first.
+    JsonObject inner = events.get(1).getAsJsonObject();
+    JsonObject outer = events.get(2).getAsJsonObject();
+    assertThat(inner.get("ph").getAsString()).isEqualTo("X");
+    assertThat(inner.get("cat").getAsString()).isEqualTo("InnerMethodStat");
+    assertThat(inner.getAsJsonObject("args").get("depth").getAsInt()).isEqualTo(1);
+    assertThat(outer.get("cat").getAsString()).isEqualTo("OuterMethodStat");
+    assertThat(outer.getAsJsonObject("args").get("depth").getAsInt()).isEqualTo(0);
+    assertThat(outer.get("ts").getAsDouble()).isEqualTo(0.0);
+    assertThat(inner.get("ts").getAsDouble()).isAtLeast(0.0);
+    assertThat(outer.get("dur").getAsDouble()).isAtLeast(inner.get("dur").getAsDouble());
+  }
+
+  @Test
+  public void keepsMostRecentRecordsWhenFull() throws InterruptedException {
+    RenderRecorder.setCapacity(4);
+    // Use a new thread, as the capacity only applies to threads that have not recorded anything yet.
+    Thread thread = new Thread(() -> {
+      for (int i = 0; i < 10; i++) {
+        new OuterMethodStat(this).endMethod();
+      }
+    });
+    thread.start();
+    thread.join();
+
+    RenderRecording recording = RenderRecorder.drain();
+    // One record less than the capacity, as the oldest one may be getting overwritten while reading.
+    assertThat(recording.getRecordCount()).isEqualTo(3);
+  }
+
+  private static void paintNested(@NotNull Object owner) {
+    MethodStat outer = new OuterMethodStat(owner);
+    MethodStat inner = new InnerMethodStat(owner);
+    inner.endMethod();
+    outer.endMethod();
+  }
+
+  private static final class OuterMethodStat extends MethodStat {
+    public OuterMethodStat(@NotNull Object owner) {
+      super(owner);
+    }
+  }
+
+  private static final class InnerMethodStat extends MethodStat {
+    public InnerMethodStat(@NotNull Object owner) {
+      super(owner);
+    }
+  }
+}
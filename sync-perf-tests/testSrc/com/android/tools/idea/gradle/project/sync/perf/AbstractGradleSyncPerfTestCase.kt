@@ -21,6 +21,7 @@ import com.android.tools.analytics.TestUsageTracker
 import com.android.tools.analytics.UsageTracker.cleanAfterTesting
 import com.android.tools.analytics.UsageTracker.setWriterForTest
 import com.android.tools.idea.flags.StudioFlags
+import com.android.tools.idea.gradle.util.GradleProperties
 import com.android.tools.idea.testing.AndroidGradleProjectRule
 import com.android.tools.perflogger.Benchmark
 import com.android.tools.perflogger.Metric
@@ -78,6 +79,11 @@ abstract class AbstractGradleSyncPerfTestCase {
   open val initialDrops: Int = 5
   open val numSamples: Int = 10
   open val useModelV2: Boolean = false
+  /**
+   * When not null, models are fetched and converted in parallel using at most [maxWorkers] Gradle worker threads. The limit applies
+   * from the first sync after the initial one.
+   */
+  open val maxWorkers: Int? = null
 
   @Before
   @Throws(Exception::class)
@@ -92,11 +98,15 @@ abstract class AbstractGradleSyncPerfTestCase {
     projectRule.fixture.testDataPath = getModulePath ("sync-perf-tests") + File.separator + "testData"
     disableExpensivePlatformAssertions(projectRule.fixture)
     StudioFlags.GRADLE_SYNC_USE_V2_MODEL.override(useModelV2)
+    if (maxWorkers != null) {
+      StudioFlags.GRADLE_SYNC_PARALLEL_SYNC_ENABLED.override(true)
+    }
   }
 
   @After
   open fun tearDown() {
     StudioFlags.GRADLE_SYNC_USE_V2_MODEL.clearOverride()
+    StudioFlags.GRADLE_SYNC_PARALLEL_SYNC_ENABLED.clearOverride()
     try {
       myScheduler!!.advanceBy(0)
       myUsageTracker!!.close()
@@ -220,6 +230,14 @@ abstract class AbstractGradleSyncPerfTestCase {
     } else {
       projectRule.loadProject(projectPath, gradleVersion = "7.2", agpVersion = "7.1.0")
     }
+    maxWorkers?.let { setMaxWorkers(it) }
+  }
+
+  private fun setMaxWorkers(maxWorkers: Int) {
+    val gradleProperties = GradleProperties(projectRule.project)
+    gradleProperties.properties.setProperty("org.gradle.parallel", "true")
+    gradleProperties.properties.setProperty("org.gradle.workers.max", maxWorkers.toString())
+    gradleProperties.save()
   }
 
   private fun logSummary(name: String, values: ArrayList<Long>, log: Logger) {
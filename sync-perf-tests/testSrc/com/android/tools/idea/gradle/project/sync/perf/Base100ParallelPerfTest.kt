@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.gradle.project.sync.perf
+
+import com.android.tools.idea.gradle.project.sync.perf.TestProjectPaths.BASE100
+
+/**
+ * Measures how the time of syncing Base100 with V2 models scales with the number of threads used to fetch and convert the models.
+ */
+abstract class Base100ParallelPerfTest(final override val maxWorkers: Int) : AbstractGradleSyncPerfTestCase() {
+  override val relativePath: String = BASE100
+  override val projectName: String = "Base100_V2_Parallel_$maxWorkers"
+  override val initialDrops: Int = 1
+  override val numSamples: Int = 5
+  override val useModelV2: Boolean = true
+}
+
+class Base100ParallelPerfTest1 : Base100ParallelPerfTest(1)
+
+class Base100ParallelPerfTest2 : Base100ParallelPerfTest(2)
+
+class Base100ParallelPerfTest4 : Base100ParallelPerfTest(4)
+
+class Base100ParallelPerfTest8 : Base100ParallelPerfTest(8)
@@ -18,17 +18,29 @@ package com.android.tools.idea.instrumentation.threading
 import com.android.tools.instrumentation.threading.agent.callback.ThreadingCheckerHook
 import com.google.common.annotations.VisibleForTesting
 import com.intellij.openapi.diagnostic.thisLogger
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.Paths
 import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.ConcurrentMap
+import java.util.concurrent.ThreadLocalRandom
 import java.util.concurrent.atomic.AtomicLong
 import java.util.stream.Collectors
-import java.util.stream.Stream
 import javax.swing.SwingUtilities
 
-/** Connects to the threading java agent from Android Studio. */
+/**
+ * Connects to the threading java agent from Android Studio.
+ *
+ * Violations are deduplicated by the annotated method that was called on the wrong thread: the stack trace is only captured, logged and
+ * notified the first time, and later violations only increment a counter. When errors are logged instead of warnings, every violation
+ * is still logged as an error so that none goes unnoticed. All the violations are summarized by [logSummaryReport].
+ *
+ * @param samplingRate the fraction of the violations that are recorded, to reduce the overhead on hot code paths
+ */
 class ThreadingCheckerHookImpl(
   private val threadingViolationNotifier: ThreadingViolationNotifier =
-    ThreadingViolationNotifierImpl()
+    ThreadingViolationNotifierImpl(),
+  private val samplingRate: Double = getSamplingRateProperty()
 ) : ThreadingCheckerHook {
 
   private val logger = thisLogger()
@@ -36,31 +48,69 @@ class ThreadingCheckerHookImpl(
   @VisibleForTesting
   val threadingViolations: ConcurrentMap<String, AtomicLong> = ConcurrentHashMap()
 
+  /** The message logged for the first violation of each method in [threadingViolations], including its stack trace. */
+  private val firstViolationMessages: ConcurrentMap<String, String> = ConcurrentHashMap()
+
+  /** The last thread found to be the event dispatch thread, so that checks on it only cost a comparison. */
+  @Volatile
+  private var eventDispatchThread: Thread? = null
+
+  /** Whether the current thread is not an event dispatch thread. A thread is never turned into an event dispatch thread once it runs. */
+  private val isWorkerThread = ThreadLocal.withInitial { !SwingUtilities.isEventDispatchThread() }
+
   override fun verifyOnUiThread() {
-    if (SwingUtilities.isEventDispatchThread()) {
+    if (isEventDispatchThread()) {
       return
     }
     recordViolation("Threading violation: methods annotated with @UiThread should be called on the UI thread")
   }
 
   override fun verifyOnWorkerThread() {
-    if (!SwingUtilities.isEventDispatchThread()) {
+    if (!isEventDispatchThread()) {
       return
     }
     recordViolation("Threading violation: methods annotated with @WorkerThread should not be called on the UI thread")
   }
 
+  private fun isEventDispatchThread(): Boolean {
+    val thread = Thread.currentThread()
+    if (thread === eventDispatchThread) {
+      return true
+    }
+    if (isWorkerThread.get()) {
+      return false
+    }
+    // Either the first check on the event dispatch thread, or the event dispatch thread was replaced.
+    if (SwingUtilities.isEventDispatchThread()) {
+      eventDispatchThread = thread
+      return true
+    }
+    return false
+  }
+
   private fun recordViolation(warningMessage: String) {
-    val stackTrace = Thread.currentThread().stackTrace
-    // Index of an annotated method. We need to skip Thread#getStackTrace, ThreadingCheckerHookImpl#recordViolation,
+    if (samplingRate < 1.0 && ThreadLocalRandom.current().nextDouble() >= samplingRate) {
+      return
+    }
+    // Index of an annotated method. We need to skip ThreadingCheckerHookImpl#recordViolation,
     // ThreadingCheckerHookImpl#verifyOnUiThread, ThreadingCheckerTrampoline#verifyOnUiThread stack frames.
-    val annotatedMethodIndex = 4
-    val methodSignature =
-      stackTrace[annotatedMethodIndex].className + "#" + stackTrace[annotatedMethodIndex].methodName
+    val annotatedMethodIndex = 3L
+    // Only walk the frames up to the annotated method, which is much cheaper than capturing the whole stack trace.
+    val annotatedMethod = stackWalker.walk { it.skip(annotatedMethodIndex).findFirst() }.orElse(null) ?: return
+    val methodSignature = annotatedMethod.className + "#" + annotatedMethod.methodName
     val violationCount = threadingViolations.computeIfAbsent(methodSignature) { AtomicLong() }.incrementAndGet()
-    val loggedStackTrace = Stream.of(*stackTrace).skip(annotatedMethodIndex.toLong()).map { it.toString() }
-      .collect(Collectors.joining("\n  "))
+    if (violationCount != 1L) {
+      if (shouldLogErrors()) {
+        logger.error("$warningMessage\nViolating method: $methodSignature (violation #$violationCount, see the first one for the stack trace)")
+      }
+      return
+    }
+
+    val loggedStackTrace = stackWalker.walk { frames ->
+      frames.skip(annotatedMethodIndex).map { it.toStackTraceElement().toString() }.collect(Collectors.joining("\n  "))
+    }
     val message = "$warningMessage\nViolating method: $methodSignature\nStack trace:\n$loggedStackTrace"
+    firstViolationMessages[methodSignature] = message
     if (shouldLogErrors()) {
       logger.error(message)
     }
@@ -69,11 +119,54 @@ class ThreadingCheckerHookImpl(
     }
 
     // Only show one notification per method signature
-    if (violationCount == 1L && !shouldSuppressNotifications()) {
+    if (!shouldSuppressNotifications()) {
       threadingViolationNotifier.notify(warningMessage, methodSignature)
     }
   }
 
+  /**
+   * Returns a summary of all the recorded violations, starting with the methods that were called on the wrong thread most often, or null
+   * if there were none.
+   */
+  @VisibleForTesting
+  fun createSummaryReport(): String? {
+    val violations = threadingViolations.entries.map { it.key to it.value.get() }.sortedByDescending { it.second }
+    if (violations.isEmpty()) {
+      return null
+    }
+    return buildString {
+      append("Threading violations summary: ${violations.size} methods called on the wrong thread ")
+      append("${violations.sumOf { it.second }} times")
+      if (samplingRate < 1.0) {
+        append(" (sampling rate: $samplingRate)")
+      }
+      append("\n")
+      for ((methodSignature, count) in violations) {
+        append("\n$count\t$methodSignature")
+      }
+      for ((methodSignature, _) in violations) {
+        append("\n\n")
+        append(firstViolationMessages[methodSignature] ?: methodSignature)
+      }
+    }
+  }
+
+  /**
+   * Logs the summary of all the recorded violations, and writes it to the file set by the
+   * "android.studio.instrumentation.threading.report-file" system property. Meant to be called when the IDE shuts down.
+   */
+  fun logSummaryReport() {
+    val report = createSummaryReport() ?: return
+    logger.warn(report)
+    val reportFile = System.getProperty("android.studio.instrumentation.threading.report-file") ?: return
+    try {
+      Files.writeString(Paths.get(reportFile), report)
+    }
+    catch (e: IOException) {
+      logger.warn("Unable to write the threading violations summary to $reportFile", e)
+    }
+  }
+
   private fun shouldLogErrors(): Boolean {
     return System.getProperty("android.studio.instrumentation.threading.log-errors", "false")
       .equals("true", ignoreCase = true)
@@ -83,4 +176,12 @@ class ThreadingCheckerHookImpl(
     return System.getProperty("android.studio.instrumentation.threading.suppress-notifications", "false")
       .equals("true", ignoreCase = true)
   }
+
+  private companion object {
+    val stackWalker: StackWalker = StackWalker.getInstance()
+
+    fun getSamplingRateProperty(): Double {
+      return System.getProperty("android.studio.instrumentation.threading.sampling-rate")?.toDoubleOrNull()?.coerceIn(0.0, 1.0) ?: 1.0
+    }
+  }
 }
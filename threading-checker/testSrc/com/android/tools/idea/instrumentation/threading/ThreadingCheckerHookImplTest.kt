@@ -100,6 +100,39 @@ class ThreadingCheckerHookImplTest {
     Truth.assertThat(threadingCheckerHook.threadingViolations.keys).isEmpty()
   }
 
+  @Test
+  fun testVerifyOnUiThread_doesNotAddViolation_whenNotSampled() {
+    val sampledNotifier = mock<ThreadingViolationNotifier>()
+    val sampledHook = ThreadingCheckerHookImpl(sampledNotifier, samplingRate = 0.0)
+    ThreadingCheckerTrampoline.installHook(sampledHook)
+    try {
+      checkForUiThreadOnWorkerThread()
+    }
+    finally {
+      ThreadingCheckerTrampoline.removeHook(sampledHook)
+    }
+    Truth.assertThat(sampledHook.threadingViolations.keys).isEmpty()
+    verifyNoMoreInteractions(sampledNotifier)
+  }
+
+  @Test
+  fun testSummaryReport() {
+    Truth.assertThat(threadingCheckerHook.createSummaryReport()).isNull()
+
+    val expectedViolatingMethod =
+      "com.android.tools.idea.instrumentation.threading.ThreadingCheckerHookImplTest#testSummaryReport"
+    ThreadingCheckerTrampoline.verifyOnWorkerThread()
+    ThreadingCheckerTrampoline.verifyOnWorkerThread()
+    checkForUiThreadOnWorkerThread()
+
+    val report = threadingCheckerHook.createSummaryReport()!!
+    Truth.assertThat(report).startsWith("Threading violations summary: 2 methods called on the wrong thread 3 times\n")
+    Truth.assertThat(report).contains("\n2\t$expectedViolatingMethod\n1\t")
+    // The stack trace of the first violation of each method is included.
+    Truth.assertThat(report).contains("Violating method: $expectedViolatingMethod\nStack trace:\n" +
+                                      "com.android.tools.idea.instrumentation.threading.ThreadingCheckerHookImplTest.testSummaryReport(")
+  }
+
   @Test
   fun testUsingSystemPropertyToSuppressNotifications() {
     val propertyName = "android.studio.instrumentation.threading.suppress-notifications"
@@ -140,4 +173,32 @@ class ThreadingCheckerHookImplTest {
       }
     }
   }
+
+  @Test
+  fun testUsingSystemPropertyToLogErrors_logsAnErrorForEveryViolation() {
+    val propertyName = "android.studio.instrumentation.threading.log-errors"
+    val origPropValue = System.getProperty(propertyName)
+    try {
+      System.setProperty(propertyName, "true")
+      val expectedViolatingMethod =
+        "com.android.tools.idea.instrumentation.threading.ThreadingCheckerHookImplTest#testUsingSystemPropertyToLogErrors_logsAnErrorForEveryViolation"
+      // Note that logger.error() call inside a unit test results in an exception being thrown
+      val firstError = runCatching { ThreadingCheckerTrampoline.verifyOnWorkerThread() }.exceptionOrNull()
+      Truth.assertThat(firstError).isInstanceOf(AssertionError::class.java)
+      Truth.assertThat(firstError!!.message).contains("Stack trace:")
+
+      val secondError = runCatching { ThreadingCheckerTrampoline.verifyOnWorkerThread() }.exceptionOrNull()
+      Truth.assertThat(secondError).isInstanceOf(AssertionError::class.java)
+      Truth.assertThat(secondError!!.message).contains("Violating method: $expectedViolatingMethod (violation #2")
+      Truth.assertThat(threadingCheckerHook.threadingViolations[expectedViolatingMethod]!!.get()).isEqualTo(2L)
+    }
+    finally {
+      if (origPropValue != null) {
+        System.setProperty(propertyName, origPropValue)
+      }
+      else {
+        System.clearProperty(propertyName)
+      }
+    }
+  }
 }
\ No newline at end of file
@@ -124,6 +124,7 @@ public class DataStoreService implements DataStoreTable.DataStoreTableErrorCallb
   @NotNull
   private Consumer<Throwable> myNoPiiExceptionHandler;
   private TransportService myTransportService;
+  private UnifiedEventsTable myUnifiedEventsTable;
   private final ServerInterceptor myInterceptor;
   /**
    * Mapping a stream id to its DataStoreClient.
@@ -197,6 +198,7 @@ public class DataStoreService implements DataStoreTable.DataStoreTableErrorCallb
     // TODO b/73538507 shared between all services to support inserting file content into generic byte cache (e.g. importing hprof)
     // We should be able to keep this inside TransportService after legacy pipeline removal.
     UnifiedEventsTable unifiedTable = new UnifiedEventsTable();
+    myUnifiedEventsTable = unifiedTable;
     myTransportService = new TransportService(this, unifiedTable, myFetchExecutor, !PROFILER_UNIFIED_PIPELINE.get());
     registerService(myTransportService);
     registerService(new ProfilerService(this, myLogService));
@@ -266,6 +268,17 @@ public class DataStoreService implements DataStoreTable.DataStoreTableErrorCallb
     }
   }
 
+  /**
+   * Adds a listener notified of every event inserted into the datastore, on the inserting thread.
+   */
+  public void addEventInsertionListener(@NotNull UnifiedEventsTable.EventInsertionListener listener) {
+    myUnifiedEventsTable.addEventInsertionListener(listener);
+  }
+
+  public void removeEventInsertionListener(@NotNull UnifiedEventsTable.EventInsertionListener listener) {
+    myUnifiedEventsTable.removeEventInsertionListener(listener);
+  }
+
   public void shutdown() {
     myReportTimer.cancel();
     myServer.shutdownNow();
@@ -188,6 +188,26 @@ public abstract class DataStoreTable<T extends Enum> {
     }
   }
 
+  /**
+   * Executes an insert, update or delete statement, and returns the number of rows it changed.
+   */
+  protected int executeUpdate(@NotNull T statement, Object... params) {
+    if (isClosed()) {
+      return 0;
+    }
+    try {
+      PreparedStatement stmt = getStatementMap().get(statement);
+      applyParams(stmt, params);
+      int updateCount = stmt.executeUpdate();
+      stmt.clearParameters();
+      return updateCount;
+    }
+    catch (SQLException ex) {
+      onError(ex);
+      return 0;
+    }
+  }
+
   protected ResultSet executeQuery(@NotNull T statement, Object... params) throws SQLException {
     if (isClosed()) {
       return new EmptyResultSet();
@@ -29,12 +29,21 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 public class UnifiedEventsTable extends DataStoreTable<UnifiedEventsTable.Statements> {
+  /**
+   * Listener notified of every event inserted into the table, but not of the duplicated events that are ignored. It is called on the
+   * inserting thread, so should return quickly.
+   */
+  public interface EventInsertionListener {
+    void onEventInserted(long streamId, @NotNull Event event);
+  }
+
   public enum Statements {
     // Since no data should be updated after it has been inserted we drop any duplicated request from the poller.
     INSERT_EVENT(
@@ -60,6 +69,16 @@ public class UnifiedEventsTable extends DataStoreTable<UnifiedEventsTable.Statem
     }
   }
 
+  @NotNull private final List<EventInsertionListener> myInsertionListeners = new CopyOnWriteArrayList<>();
+
+  public void addEventInsertionListener(@NotNull EventInsertionListener listener) {
+    myInsertionListeners.add(listener);
+  }
+
+  public void removeEventInsertionListener(@NotNull EventInsertionListener listener) {
+    myInsertionListeners.remove(listener);
+  }
+
   @Override
   public void prepareStatements() {
     try {
@@ -95,7 +114,7 @@ public class UnifiedEventsTable extends DataStoreTable<UnifiedEventsTable.Statem
   }
 
   public void insertUnifiedEvent(long streamId, @NotNull Event event) {
-    execute(Statements.INSERT_EVENT,
+    int insertedCount = executeUpdate(Statements.INSERT_EVENT,
             streamId,
             event.getPid(),
             event.getGroupId(),
@@ -104,6 +123,13 @@ public class UnifiedEventsTable extends DataStoreTable<UnifiedEventsTable.Statem
             event.getTimestamp(),
             event.getIsEnded() ? 1 : 0,
             event.toByteArray());
+    // Duplicated events are ignored by the insertion, and were already notified.
+    if (insertedCount == 0) {
+      return;
+    }
+    for (EventInsertionListener listener : myInsertionListeners) {
+      listener.onEventInserted(streamId, event);
+    }
   }
 
   public void deleteEvents(long streamId, int pid, long groupId, Event.Kind kind, long fromTimestamp, long toTimestamp) {
@@ -131,6 +131,28 @@ class UnifiedEventsTableTest : DatabaseTest<UnifiedEventsTable>() {
     assertThat(eventResult).containsExactlyElementsIn(events)
   }
 
+  @Test
+  fun insertionListenersAreNotified() {
+    val inserted = mutableListOf<Pair<Long, Common.Event>>()
+    val listener = UnifiedEventsTable.EventInsertionListener { streamId, event -> inserted.add(streamId to event) }
+    table.addEventInsertionListener(listener)
+    val events = insertData(2, true)
+    assertThat(inserted).containsExactly(1L to events[0], 1L to events[1]).inOrder()
+
+    table.removeEventInsertionListener(listener)
+    insertData(1, true)
+    assertThat(inserted).hasSize(2)
+  }
+
+  @Test
+  fun insertionListenersAreNotNotifiedOfDuplicatedEvents() {
+    val inserted = mutableListOf<Common.Event>()
+    table.addEventInsertionListener { _, event -> inserted.add(event) }
+    val events = insertData(1, true)
+    table.insertUnifiedEvent(1, events[0])
+    assertThat(inserted).containsExactly(events[0])
+  }
+
   @Test
   fun filterNoKind() {
     insertData(5, true)